@@ -0,0 +1,84 @@
+package ru.skypro.homework.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.concurrent.ThreadPoolExecutor;
+
+@Configuration
+public class ImageProcessingConfig {
+
+    /**
+     * Пул для генерации уменьшенных копий изображений. Очередь ограничена:
+     * при переполнении задача отклоняется, а клиенту отдаётся ближайший готовый вариант.
+     */
+    @Bean(name = "thumbnailExecutor")
+    public ThreadPoolTaskExecutor thumbnailExecutor(@Value("${app.image.thumbnail.threads:2}") int threads,
+                                                    @Value("${app.image.thumbnail.queue-capacity:100}") int queueCapacity) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix("thumbnail-");
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.setAwaitTerminationSeconds(30);
+        return executor;
+    }
+
+    /**
+     * Пул для нормализации загружаемых изображений (декодирование, уменьшение, перекодирование).
+     * Работа чисто вычислительная, поэтому потоков не больше числа ядер (threads=0 - по числу ядер);
+     * при переполнении очереди загрузка отклоняется с 503.
+     */
+    @Bean(name = "imageIngestExecutor")
+    public ThreadPoolTaskExecutor imageIngestExecutor(@Value("${app.image.ingest.threads:0}") int threads,
+                                                      @Value("${app.image.ingest.queue-capacity:50}") int queueCapacity) {
+        int poolSize = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(poolSize);
+        executor.setMaxPoolSize(poolSize);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix("image-ingest-");
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.setAwaitTerminationSeconds(30);
+        return executor;
+    }
+
+    /**
+     * Пул фоновой обработки изображений асинхронно создаваемых объявлений: поток запроса
+     * только сохраняет тело во временный файл. При переполнении очереди создание отклоняется с 503.
+     */
+    @Bean(name = "adImageExecutor")
+    public ThreadPoolTaskExecutor adImageExecutor(@Value("${app.ad.async.threads:4}") int threads,
+                                                  @Value("${app.ad.async.queue-capacity:100}") int queueCapacity) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix("ad-image-");
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.setAwaitTerminationSeconds(30);
+        return executor;
+    }
+
+    /**
+     * Пул параллельного сохранения нескольких фото одного запроса (галерея объявления).
+     * Задачи - чтение, хэширование и запись файлов, декодирование уходит в imageIngestExecutor.
+     * При переполнении очереди фото сохраняется в потоке запроса: запрос медленнее, но не отклоняется.
+     */
+    @Bean(name = "imageBatchExecutor")
+    public ThreadPoolTaskExecutor imageBatchExecutor(@Value("${app.image.batch.threads:4}") int threads,
+                                                     @Value("${app.image.batch.queue-capacity:20}") int queueCapacity) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix("image-batch-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.setAwaitTerminationSeconds(30);
+        return executor;
+    }
+}
@@ -0,0 +1,26 @@
+package ru.skypro.homework.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.boot.autoconfigure.security.SecurityProperties;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import ru.skypro.homework.filter.StorageQuotaFilter;
+import ru.skypro.homework.service.image.StorageQuotaService;
+
+@Configuration
+public class StorageQuotaConfig {
+
+    /**
+     * Фильтр стоит за изоляцией загрузок: отказ по квоте мгновенный, место в очереди
+     * освобождается сразу
+     */
+    @Bean
+    public FilterRegistrationBean<StorageQuotaFilter> storageQuotaFilter(StorageQuotaService storageQuota,
+                                                                         MeterRegistry meterRegistry) {
+        FilterRegistrationBean<StorageQuotaFilter> registration =
+                new FilterRegistrationBean<>(new StorageQuotaFilter(storageQuota, meterRegistry));
+        registration.setOrder(SecurityProperties.DEFAULT_FILTER_ORDER + 2);
+        return registration;
+    }
+}
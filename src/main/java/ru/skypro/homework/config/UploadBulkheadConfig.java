@@ -0,0 +1,33 @@
+package ru.skypro.homework.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.security.SecurityProperties;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import ru.skypro.homework.filter.UploadBulkheadFilter;
+
+import java.time.Duration;
+
+@Configuration
+public class UploadBulkheadConfig {
+
+    /**
+     * Фильтр стоит сразу после Spring Security: место в очереди занимают только
+     * аутентифицированные запросы, и лимит на пользователя считается по логину
+     */
+    @Bean
+    public FilterRegistrationBean<UploadBulkheadFilter> uploadBulkheadFilter(
+            @Value("${app.upload.bulkhead.max-concurrent:8}") int maxConcurrent,
+            @Value("${app.upload.bulkhead.max-queue:16}") int maxQueue,
+            @Value("${app.upload.bulkhead.max-wait:PT2S}") Duration maxWait,
+            @Value("${app.upload.bulkhead.max-per-user:2}") int maxPerUser,
+            @Value("${app.upload.bulkhead.retry-after:PT5S}") Duration retryAfter,
+            MeterRegistry meterRegistry) {
+        FilterRegistrationBean<UploadBulkheadFilter> registration = new FilterRegistrationBean<>(
+                new UploadBulkheadFilter(maxConcurrent, maxQueue, maxWait, maxPerUser, retryAfter, meterRegistry));
+        registration.setOrder(SecurityProperties.DEFAULT_FILTER_ORDER + 1);
+        return registration;
+    }
+}
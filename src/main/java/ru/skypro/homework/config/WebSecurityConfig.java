@@ -40,6 +40,7 @@ public class WebSecurityConfig {
                         .username(user.getEmail())
                         .password(user.getPassword())
                         .roles(user.getRole().name())
+                        .disabled(!Boolean.TRUE.equals(user.getEnabled()))
                         .build())
                 .orElseThrow(() -> new UsernameNotFoundException("Пользователь не найден"));
     }
@@ -90,7 +91,9 @@ public class WebSecurityConfig {
                                 new AntPathRequestMatcher("/swagger-ui/**"),
                                 new AntPathRequestMatcher("/swagger-resources/**"),
                                 new AntPathRequestMatcher("/webjars/**"),
-                                new AntPathRequestMatcher("/debug/**")
+                                new AntPathRequestMatcher("/debug/**"),
+                                // обмен между узлами хранения; проверяется ключом кластера
+                                new AntPathRequestMatcher("/internal/images/**")
                         ).permitAll()
                         .mvcMatchers("/ads/**", "/users/**")
                         .authenticated()
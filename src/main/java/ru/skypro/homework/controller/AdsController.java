@@ -9,6 +9,7 @@ import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
@@ -16,13 +17,19 @@ import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.security.core.Authentication;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.server.ResponseStatusException;
 import ru.skypro.homework.dto.*;
 
 import ru.skypro.homework.service.add.AdService;
+import ru.skypro.homework.service.image.GalleryUploadReader;
 import ru.skypro.homework.service.image.ImageService;
+import ru.skypro.homework.service.image.ResumableUploadService;
+import ru.skypro.homework.service.image.StreamedImageFile;
 
 import javax.servlet.http.HttpServletRequest;
 import java.io.IOException;
+import java.net.URI;
+import java.util.List;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -34,8 +41,12 @@ import java.util.Map;
 @Tag(name = "Объявления", description = "CRUD-операции и работа с изображениями объявлений")
 public class AdsController {
 
+    private static final String RESPOND_ASYNC = "respond-async";
+
     private final AdService adService;
     private final ImageService imageService;
+    private final ResumableUploadService uploadService;
+    private final GalleryUploadReader galleryUploadReader;
 
     @Operation(
             summary = "Получение всех объявлений",
@@ -56,7 +67,9 @@ public class AdsController {
 
     @Operation(
             summary = "Создание нового объявления",
-            description = "Добавляет новое объявление. Принимает multipart-данные: JSON-часть с параметрами и изображение.",
+            description = "Добавляет новое объявление. Принимает multipart-данные: JSON-часть с параметрами и изображение. "
+                    + "Вместо файла можно передать imageHash изображения, уже сохранённого на сервере (POST /images/negotiate), "
+                    + "или uploadId завершённой докачиваемой загрузки (POST /images/uploads).",
             requestBody = @RequestBody(
                     description = "JSON-данные объявления и файл изображения",
                     required = true,
@@ -65,6 +78,9 @@ public class AdsController {
             responses = {
                     @ApiResponse(responseCode = "201", description = "Объявление успешно создано",
                             content = @Content(schema = @Schema(implementation = AdDto.class))),
+                    @ApiResponse(responseCode = "202", description = "С заголовком Prefer: respond-async - объявление "
+                            + "принято, изображение обрабатывается; состояние - по ссылке из Location",
+                            content = @Content(schema = @Schema(implementation = AdDto.class))),
                     @ApiResponse(responseCode = "400", description = "Некорректные данные")
             }
     )
@@ -74,18 +90,53 @@ public class AdsController {
             @Parameter(description = "Параметры объявления")
             @RequestPart("properties") CreateOrUpdateAdDto properties, // ← Принимаем сразу DTO!
             @Parameter(description = "Изображение объявления")
-            @RequestPart("image") MultipartFile image,
+            @RequestPart(value = "image", required = false) MultipartFile image,
+            @Parameter(description = "SHA-256 изображения, уже сохранённого на сервере, вместо файла")
+            @RequestParam(value = "imageHash", required = false) String imageHash,
+            @Parameter(description = "ID завершённой докачиваемой загрузки вместо файла")
+            @RequestParam(value = "uploadId", required = false) String uploadId,
+            @Parameter(description = "respond-async - не ждать сохранения изображения, ответить 202")
+            @RequestHeader(value = "Prefer", required = false) String prefer,
             Authentication authentication) {
 
         log.info("=== СОЗДАНИЕ ОБЪЯВЛЕНИЯ ===");
         log.info("Properties: {}", properties);
-        log.info("Image: {} (size: {})", image.getOriginalFilename(), image.getSize());
+
+        if (image == null && imageHash == null && uploadId == null) {
+            log.error("Ошибка при создании объявления: нет ни файла, ни хэша изображения");
+            return ResponseEntity.badRequest().build();
+        }
 
         try {
-            AdDto createdAd = adService.createAd(properties, image, authentication.getName());
+            if (prefer != null && prefer.contains(RESPOND_ASYNC) && (image != null || uploadId != null)) {
+                String username = authentication.getName();
+                AdDto acceptedAd = image != null
+                        ? adService.createAdAsync(properties, image, username)
+                        : uploadService.attach(uploadId, username, file -> adService.createAdAsync(properties, file, username));
+                log.info("Объявление принято, изображение обрабатывается: {}", acceptedAd);
+                return ResponseEntity.accepted()
+                        .location(URI.create("/ads/" + acceptedAd.getPk() + "/status"))
+                        .header("Preference-Applied", RESPOND_ASYNC)
+                        .body(acceptedAd);
+            }
+
+            AdDto createdAd;
+            if (image != null) {
+                log.info("Image: {} (size: {})", image.getOriginalFilename(), image.getSize());
+                createdAd = adService.createAd(properties, image, authentication.getName());
+            } else if (uploadId != null) {
+                log.info("Upload id: {}", uploadId);
+                createdAd = uploadService.attach(uploadId, authentication.getName(),
+                        file -> adService.createAd(properties, file, authentication.getName()));
+            } else {
+                log.info("Image hash: {}", imageHash);
+                createdAd = adService.createAd(properties, imageHash, authentication.getName());
+            }
             log.info("Объявление создано успешно: {}", createdAd);
             return ResponseEntity.status(HttpStatus.CREATED).body(createdAd);
 
+        } catch (ResponseStatusException e) {
+            throw e;
         } catch (Exception e) {
             log.error("Ошибка при создании объявления: {}", e.getMessage());
             return ResponseEntity.badRequest().build();
@@ -115,6 +166,32 @@ public class AdsController {
         }
     }
 
+    @Operation(
+            summary = "Состояние асинхронно создаваемого объявления",
+            description = "Ссылка из Location ответа 202. Пока изображение обрабатывается - PROCESSING и Retry-After, "
+                    + "после публикации - ACTIVE и карточка объявления.",
+            responses = {
+                    @ApiResponse(responseCode = "200", description = "Состояние объявления",
+                            content = @Content(schema = @Schema(implementation = AdStatusDto.class))),
+                    @ApiResponse(responseCode = "404", description = "Объявление не найдено")
+            }
+    )
+    @GetMapping("/{id}/status")
+    @PreAuthorize("hasRole('ADMIN') or @adService.isOwner(#id, authentication.name)")
+    public ResponseEntity<AdStatusDto> getAdStatus(
+            @Parameter(description = "ID объявления") @PathVariable Integer id) {
+        try {
+            AdStatusDto status = adService.getAdStatus(id);
+            ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+            if (status.getStatus() == AdStatus.PROCESSING) {
+                response.header(HttpHeaders.RETRY_AFTER, "1");
+            }
+            return response.body(status);
+        } catch (RuntimeException e) {
+            return ResponseEntity.notFound().build();
+        }
+    }
+
     @Operation(
             summary = "Удаление объявления",
             description = "Удаляет объявление по ID. Доступно только автору или администратору.",
@@ -199,6 +276,22 @@ public class AdsController {
         return ResponseEntity.ok(userAds);
     }
 
+    @Operation(
+            summary = "Обновление изображения объявления телом запроса",
+            description = "Файл передаётся телом запроса с Content-Type image/* и сразу пишется в хранилище, "
+                    + "без промежуточной копии multipart во временном каталоге."
+    )
+    @PatchMapping(value = "/{id}/image", consumes = "image/*")
+    @PreAuthorize("hasRole('ADMIN') or @adService.isOwner(#id, authentication.name)")
+    public ResponseEntity<String[]> updateImageRaw(
+            @Parameter(description = "ID объявления") @PathVariable Integer id,
+            HttpServletRequest request,
+            Authentication authentication) throws IOException {
+        MultipartFile image = new StreamedImageFile(request.getInputStream(), request.getContentType(),
+                request.getContentLengthLong());
+        return updateImage(id, image, null, null, authentication);
+    }
+
     @Operation(
             summary = "Обновление изображения объявления",
             description = "Заменяет изображение объявления по ID.",
@@ -222,19 +315,34 @@ public class AdsController {
     @PreAuthorize("hasRole('ADMIN') or @adService.isOwner(#id, authentication.name)")
     public ResponseEntity<String[]> updateImage(
             @Parameter(description = "ID объявления") @PathVariable Integer id,
-            @Parameter(description = "Новое изображение") @RequestPart("image") MultipartFile image,
+            @Parameter(description = "Новое изображение") @RequestPart(value = "image", required = false) MultipartFile image,
+            @Parameter(description = "SHA-256 изображения, уже сохранённого на сервере, вместо файла")
+            @RequestParam(value = "imageHash", required = false) String imageHash,
+            @Parameter(description = "ID завершённой докачиваемой загрузки вместо файла")
+            @RequestParam(value = "uploadId", required = false) String uploadId,
             Authentication authentication) {
         log.debug("PATCH /ads/{}/image - обновление изображения", id);
 
         try {
             // Обновляем изображение
-            adService.updateAdImage(id, image, authentication.getName());
+            if (image == null && uploadId != null) {
+                uploadService.attach(uploadId, authentication.getName(), file -> {
+                    adService.updateAdImage(id, file, authentication.getName());
+                    return null;
+                });
+            } else if (image == null && imageHash != null) {
+                adService.updateAdImage(id, imageHash, authentication.getName());
+            } else {
+                adService.updateAdImage(id, image, authentication.getName());
+            }
 
             // Получаем путь к обновленному изображению
             String imagePath = adService.getAdImagePath(id);
             log.info("Изображение успешно обновлено для объявления ID: {}", id);
 
             return ResponseEntity.ok(new String[]{imagePath});
+        } catch (ResponseStatusException e) {
+            throw e;
         } catch (IOException e) {
             log.error("Ошибка при обновлении изображения: {}", e.getMessage());
             return ResponseEntity.badRequest().build();
@@ -248,4 +356,76 @@ public class AdsController {
             return ResponseEntity.badRequest().build();
         }
     }
+
+    @Operation(
+            summary = "Добавление фото в галерею объявления",
+            description = "Принимает несколько файлов частями images; файлы сохраняются параллельно. "
+                    + "Фото добавляются после уже загруженных, обложка не меняется. Возвращает галерею целиком. "
+                    + "Запрос ограничен app.ad.gallery.max-images × app.image.max-upload-size, "
+                    + "а не общим лимитом multipart.",
+            requestBody = @RequestBody(
+                    description = "Фото галереи, части images",
+                    required = true,
+                    content = @Content(mediaType = MediaType.MULTIPART_FORM_DATA_VALUE)
+            ),
+            responses = {
+                    @ApiResponse(responseCode = "200", description = "Фото добавлены",
+                            content = @Content(mediaType = MediaType.APPLICATION_JSON_VALUE,
+                                    schema = @Schema(implementation = String[].class))),
+                    @ApiResponse(responseCode = "400", description = "Нет файлов, файл не изображение или превышен лимит фото"),
+                    @ApiResponse(responseCode = "403", description = "Forbidden"),
+                    @ApiResponse(responseCode = "404", description = "Объявление не найдено"),
+                    @ApiResponse(responseCode = "409", description = "Галерею одновременно изменил другой запрос"),
+                    @ApiResponse(responseCode = "413", description = "Превышен размер запроса или одного файла")
+            }
+    )
+    @PostMapping(value = "/{id}/images", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    @PreAuthorize("hasRole('ADMIN') or @adService.isOwner(#id, authentication.name)")
+    public ResponseEntity<List<String>> addImages(
+            @Parameter(description = "ID объявления") @PathVariable Integer id,
+            HttpServletRequest request,
+            Authentication authentication) {
+        // Тело разбирается здесь, со своим лимитом: общий max-request-size рассчитан на один файл
+        List<MultipartFile> images = galleryUploadReader.read(request, "images");
+        log.debug("POST /ads/{}/images - добавление {} фото", id, images.size());
+
+        try {
+            return ResponseEntity.ok(adService.addAdImages(id, images, authentication.getName()));
+        } catch (ResponseStatusException e) {
+            throw e;
+        } catch (IOException e) {
+            log.error("Ошибка при добавлении фото: {}", e.getMessage());
+            return ResponseEntity.badRequest().build();
+        } catch (RuntimeException e) {
+            if (e.getMessage() != null && e.getMessage().contains("не найдено")) {
+                return ResponseEntity.notFound().build();
+            } else if (e.getMessage() != null && e.getMessage().contains("Нет прав")) {
+                return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+            }
+            log.error("Ошибка при добавлении фото: {}", e.getMessage());
+            return ResponseEntity.badRequest().build();
+        } finally {
+            galleryUploadReader.cleanup(images);
+        }
+    }
+
+    @Operation(
+            summary = "Галерея объявления",
+            description = "Ссылки на фото объявления по порядку, первая - обложка.",
+            responses = {
+                    @ApiResponse(responseCode = "200", description = "Галерея",
+                            content = @Content(mediaType = MediaType.APPLICATION_JSON_VALUE,
+                                    schema = @Schema(implementation = String[].class))),
+                    @ApiResponse(responseCode = "404", description = "Объявление не найдено")
+            }
+    )
+    @GetMapping("/{id}/images")
+    public ResponseEntity<List<String>> getImages(
+            @Parameter(description = "ID объявления") @PathVariable Integer id) {
+        try {
+            return ResponseEntity.ok(adService.getAdImages(id));
+        } catch (RuntimeException e) {
+            return ResponseEntity.notFound().build();
+        }
+    }
 }
@@ -0,0 +1,120 @@
+package ru.skypro.homework.controller;
+
+import io.swagger.v3.oas.annotations.Hidden;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.io.Resource;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+import ru.skypro.homework.service.image.storage.ClusterImageStorage;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
+import java.nio.file.NoSuchFileException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Обмен изображениями между узлами кластера хранения (app.image.storage=cluster).
+ * Работает только с копией этого узла; доступ - по общему секрету в заголовке X-Cluster-Token.
+ */
+@Slf4j
+@Hidden
+@RestController
+@RequiredArgsConstructor
+@RequestMapping("/internal/images")
+@ConditionalOnProperty(name = "app.image.storage", havingValue = "cluster")
+public class ClusterImageController {
+    private static final String TOKEN_HEADER = "X-Cluster-Token";
+    private static final String IMAGE_PATH = "/{subfolder:ads|avatars}/{filename:.+}";
+
+    private final ClusterImageStorage storage;
+
+    @GetMapping("/ping")
+    public ResponseEntity<List<String>> ping(@RequestHeader(value = TOKEN_HEADER, required = false) String token) {
+        checkToken(token);
+        return ResponseEntity.ok(storage.getLiveNodes());
+    }
+
+    /**
+     * Принимает список путей (по одному в строке), возвращает те, которых на узле нет
+     */
+    @PostMapping(value = "/missing", consumes = MediaType.TEXT_PLAIN_VALUE, produces = MediaType.TEXT_PLAIN_VALUE)
+    public String missing(@RequestHeader(value = TOKEN_HEADER, required = false) String token,
+                          @RequestBody(required = false) String body) {
+        checkToken(token);
+        if (body == null) {
+            return "";
+        }
+        List<String> imagePaths = Arrays.stream(body.split("\n"))
+                .map(String::trim)
+                .filter(line -> !line.isEmpty())
+                .collect(Collectors.toList());
+        return String.join("\n", storage.missingLocally(imagePaths));
+    }
+
+    // HEAD обрабатывается этим же методом: Spring отдаёт заголовки без тела
+    @GetMapping(IMAGE_PATH)
+    public ResponseEntity<Resource> get(@RequestHeader(value = TOKEN_HEADER, required = false) String token,
+                                        @PathVariable String subfolder,
+                                        @PathVariable String filename) throws IOException {
+        checkToken(token);
+        Resource resource;
+        try {
+            resource = storage.loadLocal(imagePath(subfolder, filename));
+        } catch (NoSuchFileException e) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                .lastModified(resource.lastModified())
+                .body(resource);
+    }
+
+    @PutMapping(IMAGE_PATH)
+    public ResponseEntity<Void> put(@RequestHeader(value = TOKEN_HEADER, required = false) String token,
+                                    @PathVariable String subfolder,
+                                    @PathVariable String filename,
+                                    HttpServletRequest request) throws IOException {
+        checkToken(token);
+        String imagePath = imagePath(subfolder, filename);
+        storage.storeLocal(imagePath, request.getInputStream());
+        log.debug("Принята копия изображения {} от {}", imagePath, request.getRemoteAddr());
+        return ResponseEntity.noContent().build();
+    }
+
+    @DeleteMapping(IMAGE_PATH)
+    public ResponseEntity<Void> delete(@RequestHeader(value = TOKEN_HEADER, required = false) String token,
+                                       @PathVariable String subfolder,
+                                       @PathVariable String filename) throws IOException {
+        checkToken(token);
+        storage.deleteLocal(imagePath(subfolder, filename));
+        return ResponseEntity.noContent().build();
+    }
+
+    private void checkToken(String token) {
+        if (!storage.isAuthorized(token)) {
+            throw new ResponseStatusException(HttpStatus.FORBIDDEN, "Неверный ключ кластера");
+        }
+    }
+
+    private static String imagePath(String subfolder, String filename) {
+        if (filename.startsWith(".")) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Недопустимое имя файла");
+        }
+        return "/images/" + subfolder + "/" + filename;
+    }
+}
@@ -30,7 +30,8 @@ public class CommentsController {
 
     @Operation(
             summary = "Получение комментариев объявления",
-            description = "Возвращает список всех комментариев для конкретного объявления.",
+            description = "Возвращает список комментариев объявления, включая архивные. Без параметра page - все "
+                    + "комментарии от старых к новым; с page/size - страницы от новых к старым.",
             responses = {
                     @ApiResponse(responseCode = "200", description = "Комментарии успешно получены",
                             content = @Content(schema = @Schema(implementation = CommentsDto.class))),
@@ -39,10 +40,14 @@ public class CommentsController {
     )
     @GetMapping("/ads/{id}/comments")
     public ResponseEntity<CommentsDto> getComments(
-            @Parameter(description = "ID объявления") @PathVariable("id") Integer adId) {
+            @Parameter(description = "ID объявления") @PathVariable("id") Integer adId,
+            @Parameter(description = "Номер страницы (с 0)") @RequestParam(required = false) Integer page,
+            @Parameter(description = "Размер страницы") @RequestParam(defaultValue = "20") Integer size) {
         log.info("GET /ads/{}/comments - получение комментариев", adId);
 
-        List<CommentDto> comments = commentService.getCommentsByAdId(adId);
+        List<CommentDto> comments = page == null
+                ? commentService.getCommentsByAdId(adId)
+                : commentService.getCommentsByAdId(adId, page, size);
 
         CommentsDto response = new CommentsDto();
         response.setCount(comments.size());
@@ -2,16 +2,42 @@ package ru.skypro.homework.controller;
 
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.security.core.Authentication;
 import org.springframework.web.bind.annotation.CrossOrigin;
+import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PatchMapping;
 import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.ServletWebRequest;
+import ru.skypro.homework.dto.ImageNegotiationDto;
+import ru.skypro.homework.dto.ImageStorageReportDto;
+import ru.skypro.homework.dto.UploadSessionDto;
+import ru.skypro.homework.entity.ImageMetadata;
 import ru.skypro.homework.service.image.ImageService;
+import ru.skypro.homework.service.image.ImageVariant;
+import ru.skypro.homework.service.image.NonBlockingResourceWriter;
+import ru.skypro.homework.service.image.ResumableUploadService;
 
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.net.URI;
+import java.time.Duration;
 
 @Slf4j
 @CrossOrigin(value = "http://localhost:3000")
@@ -19,35 +45,188 @@ import java.io.IOException;
 @RequiredArgsConstructor
 @RequestMapping("/images")
 public class ImageController {
+    private static final String UPLOAD_OFFSET = "Upload-Offset";
+
     private final ImageService imageService;
+    private final ResumableUploadService uploadService;
+
+    // Имя файла уникально для каждой загрузки, поэтому содержимое по URL никогда не меняется
+    @Value("${app.image.cache-max-age:P365D}")
+    private Duration cacheMaxAge;
+
+    // Пока уменьшенная копия генерируется, вместо неё отдаётся другой файл - его кэшируем ненадолго
+    @Value("${app.image.pending-variant-max-age:PT1M}")
+    private Duration pendingVariantMaxAge;
+
+    // Полный ответ пишется через WriteListener: поток Tomcat не ждёт, пока медленный клиент дочитает файл
+    @Value("${app.image.delivery.non-blocking:true}")
+    private boolean nonBlockingDelivery;
+
+    @Value("${app.image.delivery.timeout:PT5M}")
+    private Duration deliveryTimeout;
 
     /**
      * Endpoint для получения изображений по полному пути
      * Пример: /images/ads/img_123.jpg, /images/avatars/user_456.png
+     * <p>
+     * Файл передаётся потоком из {@link Resource}; заголовок Range обрабатывает Spring
+     * (ответ 206 с Content-Range).
+     * Content-Type, Content-Length и ETag (хэш содержимого) берутся из метаданных, записанных
+     * при загрузке и закэшированных в памяти: тип определён по сигнатуре файла, диск для
+     * заголовков не опрашивается. If-None-Match / If-Modified-Since проверяются по метаданным до
+     * открытия файла: ответ 304 не читает хранилище. Для файлов без строки в images (загруженных
+     * до её появления) ETag нет, пока их не опишет {@link ru.skypro.homework.service.image.ImageMetadataBackfill}.
+     * <p>
+     * Параметр w запрашивает уменьшенную копию: отдаётся наименьшая готовая копия не уже w,
+     * пока копий нет - оригинал. Готовые копии и их размеры тоже берутся из метаданных.
+     * <p>
+     * Полный ответ на GET пишется неблокирующим способом ({@link NonBlockingResourceWriter}),
+     * запросы Range и HEAD идут прежним путём.
      */
     @GetMapping(value = "/{subfolder}/{filename:.+}",
             produces = {MediaType.IMAGE_JPEG_VALUE, MediaType.IMAGE_PNG_VALUE,
                     MediaType.IMAGE_GIF_VALUE, "image/*"})
-    public ResponseEntity<byte[]> getImage(
+    public ResponseEntity<Resource> getImage(
             @PathVariable String subfolder,
-            @PathVariable String filename) {
+            @PathVariable String filename,
+            @RequestParam(value = "w", required = false) Integer width,
+            HttpServletRequest request,
+            HttpServletResponse servletResponse) {
 
         String imagePath = "/images/" + subfolder + "/" + filename;
         log.info("Запрос изображения: {}", imagePath);
 
         try {
-            byte[] imageBytes = imageService.loadImage(imagePath);
-            MediaType mediaType = imageService.determineMediaType(imagePath);
-
-            log.info("Изображение успешно отправлено: {} (размер: {} байт)", imagePath, imageBytes.length);
+            ImageMetadata metadata = imageService.getImageMetadata(imagePath);
+            ImageVariant variant = width == null
+                    ? ImageVariant.original(imagePath, true)
+                    : imageService.resolveVariant(imagePath, width);
+            // Копии того же формата, что и оригинал
+            MediaType mediaType = metadata != null && metadata.getContentType() != null
+                    ? MediaType.parseMediaType(metadata.getContentType())
+                    : imageService.determineMediaType(imagePath);
 
-            return ResponseEntity.ok()
+            String cacheControl = variant.isExact()
+                    ? CacheControl.maxAge(cacheMaxAge).cachePublic().getHeaderValue() + ", immutable"
+                    : CacheControl.maxAge(pendingVariantMaxAge).cachePublic().getHeaderValue();
+            ResponseEntity.BodyBuilder response = ResponseEntity.ok()
                     .contentType(mediaType)
-                    .body(imageBytes);
+                    .header(HttpHeaders.CACHE_CONTROL, cacheControl);
+            if (metadata != null) {
+                String eTag = variant.getWidth() == null
+                        ? metadata.getContentHash()
+                        : metadata.getContentHash() + "-w" + variant.getWidth();
+                response.eTag(eTag)
+                        .lastModified(metadata.getCreatedAt());
+                // 304 решается по метаданным: файл не открывается и не попадает в кэш горячих изображений
+                if (new ServletWebRequest(request).checkNotModified(eTag, metadata.getCreatedAt())) {
+                    log.debug("Изображение не изменилось: {}", variant.getPath());
+                    return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                            .headers(response.build().getHeaders())
+                            .build();
+                }
+            }
+
+            // Все заголовки решены по метаданным; хранилище открывается только для тела ответа
+            Long knownLength = variant.getWidth() != null ? variant.getSize()
+                    : metadata != null ? metadata.getSize() : null;
+            Resource image = imageService.loadImage(variant.getPath());
+            long length = knownLength != null ? knownLength : image.contentLength();
+            log.info("Изображение отправляется: {} (размер: {} байт)", variant.getPath(), length);
+
+            if (!nonBlockingDelivery || !request.isAsyncSupported()
+                    || !HttpMethod.GET.matches(request.getMethod()) || request.getHeader(HttpHeaders.RANGE) != null) {
+                if (request.getHeader(HttpHeaders.RANGE) == null) {
+                    // на Range Spring сам выставит размер фрагмента
+                    response.contentLength(length);
+                }
+                return response.body(image);
+            }
+
+            response.build().getHeaders().forEach((name, values) ->
+                    values.forEach(value -> servletResponse.addHeader(name, value)));
+            servletResponse.setContentLengthLong(length);
+            NonBlockingResourceWriter.write(request, servletResponse, image, deliveryTimeout);
+            return null;
 
         } catch (IOException e) {
             log.error("Изображение не найдено: {}", imagePath);
             return ResponseEntity.notFound().build();
         }
     }
+
+    /**
+     * Сводка по хранилищу изображений (администратор): объём, ссылки и размеры по типам
+     */
+    @GetMapping("/report")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<ImageStorageReportDto> getStorageReport() {
+        return ResponseEntity.ok()
+                .cacheControl(CacheControl.noStore())
+                .body(imageService.getStorageReport());
+    }
+
+    /**
+     * Согласование загрузки: клиент присылает SHA-256 файла, и если такое содержимое уже
+     * сохранено, передаёт в addAd / updateImage параметр imageHash вместо самого файла
+     */
+    @PostMapping("/negotiate")
+    public ResponseEntity<ImageNegotiationDto> negotiate(@RequestBody ImageNegotiationDto request) {
+        if (!"ads".equals(request.getSubfolder()) && !"avatars".equals(request.getSubfolder())) {
+            return ResponseEntity.badRequest().build();
+        }
+
+        String path = imageService.findImageByHash(request.getSha256(), request.getSubfolder());
+        log.debug("Согласование загрузки {}: {}", request.getSha256(), path != null ? "уже сохранено" : "нужен файл");
+
+        request.setExists(path != null);
+        request.setPath(path);
+        return ResponseEntity.ok(request);
+    }
+
+    /**
+     * Докачиваемая загрузка: создание сессии. Дальше части отправляются PATCH /images/uploads/{id}
+     * с заголовком Upload-Offset, а готовый файл привязывается к объявлению параметром uploadId
+     */
+    @PostMapping("/uploads")
+    public ResponseEntity<UploadSessionDto> createUpload(@RequestBody UploadSessionDto request,
+                                                         Authentication authentication) throws IOException {
+        UploadSessionDto session = uploadService.create(request.getContentType(), request.getLength(),
+                authentication.getName());
+        return ResponseEntity.created(URI.create("/images/uploads/" + session.getId()))
+                .header(UPLOAD_OFFSET, Long.toString(session.getOffset()))
+                .body(session);
+    }
+
+    /**
+     * Текущее смещение сессии - с него клиент продолжает после обрыва (HEAD отвечает только заголовками)
+     */
+    @GetMapping("/uploads/{id}")
+    public ResponseEntity<UploadSessionDto> getUpload(@PathVariable String id,
+                                                      Authentication authentication) throws IOException {
+        UploadSessionDto session = uploadService.status(id, authentication.getName());
+        return ResponseEntity.ok()
+                .header(UPLOAD_OFFSET, Long.toString(session.getOffset()))
+                .cacheControl(CacheControl.noStore())
+                .body(session);
+    }
+
+    @PatchMapping(value = "/uploads/{id}",
+            consumes = {"application/offset+octet-stream", MediaType.APPLICATION_OCTET_STREAM_VALUE})
+    public ResponseEntity<Void> appendUpload(@PathVariable String id,
+                                             @RequestHeader(UPLOAD_OFFSET) long offset,
+                                             HttpServletRequest request,
+                                             Authentication authentication) throws IOException {
+        long newOffset = uploadService.append(id, authentication.getName(), offset, request.getInputStream());
+        return ResponseEntity.noContent()
+                .header(UPLOAD_OFFSET, Long.toString(newOffset))
+                .build();
+    }
+
+    @DeleteMapping("/uploads/{id}")
+    public ResponseEntity<Void> cancelUpload(@PathVariable String id,
+                                             Authentication authentication) throws IOException {
+        uploadService.cancel(id, authentication.getName());
+        return ResponseEntity.noContent().build();
+    }
 }
@@ -7,6 +7,7 @@ import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.security.core.Authentication;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.bind.annotation.RequestBody;
@@ -15,9 +16,14 @@ import org.springframework.web.multipart.MultipartFile;
 import ru.skypro.homework.dto.NewPasswordDto;
 import ru.skypro.homework.dto.UpdateUserDto;
 import ru.skypro.homework.dto.UserDto;
+import ru.skypro.homework.dto.UserStorageDto;
+import ru.skypro.homework.service.image.StorageQuotaService;
+import ru.skypro.homework.service.image.StreamedImageFile;
 import ru.skypro.homework.service.user.UserService;
 
+import javax.servlet.http.HttpServletRequest;
 import javax.validation.Valid;
+import java.io.IOException;
 
 @Slf4j
 @CrossOrigin(value = "http://localhost:3000")
@@ -27,6 +33,7 @@ import javax.validation.Valid;
 @Tag(name = "Пользователи")
 public class UsersController {
     private final UserService userService;
+    private final StorageQuotaService storageQuota;
 
     @Operation(summary = "Обновление пароля")
     @PostMapping("/set_password")
@@ -77,6 +84,15 @@ public class UsersController {
         return ResponseEntity.ok(updatedUser);
     }
 
+    @Operation(summary = "Место, занятое изображениями авторизованного пользователя")
+    @GetMapping("/me/storage")
+    public ResponseEntity<UserStorageDto> getStorage(Authentication authentication) {
+        UserStorageDto storage = new UserStorageDto();
+        storage.setUsedBytes(storageQuota.getUsedBytes(authentication.getName()));
+        storage.setQuotaBytes(storageQuota.getMaxBytesPerUser());
+        return ResponseEntity.ok(storage);
+    }
+
     @Operation(summary = "Обновление аватара пользователя")
     @PatchMapping(value = "/me/image", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
     public ResponseEntity<Void> updateUserImage(@RequestPart("image") MultipartFile image, Authentication authentication) {
@@ -89,5 +105,26 @@ public class UsersController {
         log.info("Аватар пользователя обновлен: {}", username);
         return ResponseEntity.ok().build();
     }
-}
 
+    @Operation(summary = "Обновление аватара пользователя телом запроса",
+            description = "Файл передаётся телом запроса с Content-Type image/* и сразу пишется в хранилище, "
+                    + "без промежуточной копии multipart во временном каталоге.")
+    @PatchMapping(value = "/me/image", consumes = "image/*")
+    public ResponseEntity<Void> updateUserImageRaw(HttpServletRequest request, Authentication authentication) throws IOException {
+        MultipartFile image = new StreamedImageFile(request.getInputStream(), request.getContentType(),
+                request.getContentLengthLong());
+        return updateUserImage(image, authentication);
+    }
+
+    @Operation(summary = "Удаление учётной записи пользователя (администратор)",
+            description = "Сразу отключает пользователя; его объявления, комментарии и изображения удаляются в фоне.")
+    @DeleteMapping("/{id}")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<Void> deleteUser(@PathVariable Integer id, Authentication authentication) {
+        log.info("Запрос на удаление пользователя ID: {} от администратора: {}", id, authentication.getName());
+
+        userService.deleteUser(id, authentication.getName());
+
+        return ResponseEntity.accepted().build();
+    }
+}
@@ -12,9 +12,15 @@ public class AdDto {
     private Integer author;
 
     @JsonProperty("image")
-    @Schema(description = "Ссылка на картинку объявления", example = "/images/ads/12.jpg")
+    @Schema(description = "Обложка объявления - в списках загружается только она, галерея - в ExtendedAdDto",
+            example = "/images/ads/12.jpg")
     private String image;
 
+    @JsonProperty("imagePlaceholder")
+    @Schema(description = "Размытая заглушка картинки (data URI), показывается до загрузки превью",
+            example = "data:image/png;base64,iVBORw0KGgo...")
+    private String imagePlaceholder;
+
     @JsonProperty("pk")
     @Schema(description = "ID объявления", example = "101")
     private Integer pk;
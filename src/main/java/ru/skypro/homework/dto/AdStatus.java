@@ -0,0 +1,10 @@
+package ru.skypro.homework.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+@Schema(description = "Состояние объявления: при асинхронном создании изображение обрабатывается в фоне")
+public enum AdStatus {
+    PROCESSING,
+    ACTIVE,
+    FAILED
+}
@@ -0,0 +1,18 @@
+package ru.skypro.homework.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.Data;
+
+@Data
+@Schema(description = "Состояние асинхронно создаваемого объявления")
+public class AdStatusDto {
+    @Schema(description = "ID объявления", example = "101")
+    private Integer pk;
+
+    @Schema(description = "PROCESSING - изображение обрабатывается, ACTIVE - объявление опубликовано, "
+            + "FAILED - изображение не удалось сохранить")
+    private AdStatus status;
+
+    @Schema(description = "Карточка объявления, когда оно опубликовано")
+    private AdDto ad;
+}
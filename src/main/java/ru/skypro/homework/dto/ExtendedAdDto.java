@@ -4,6 +4,8 @@ import com.fasterxml.jackson.annotation.JsonProperty;
 import io.swagger.v3.oas.annotations.media.Schema;
 import lombok.Data;
 
+import java.util.List;
+
 @Data
 @Schema(description = "Расширенное описание объявления")
 public class ExtendedAdDto {
@@ -28,9 +30,19 @@ public class ExtendedAdDto {
     private String email;
 
     @JsonProperty("image")
-    @Schema(description = "Ссылка на картинку объявления", example = "/images/ads/101.jpg")
+    @Schema(description = "Обложка объявления - первое фото галереи", example = "/images/ads/101.jpg")
     private String image;
 
+    @JsonProperty("images")
+    @Schema(description = "Галерея объявления по порядку, начиная с обложки",
+            example = "[\"/images/ads/101.jpg\", \"/images/ads/102.jpg\"]")
+    private List<String> images;
+
+    @JsonProperty("imagePlaceholder")
+    @Schema(description = "Размытая заглушка картинки (data URI), показывается до загрузки превью",
+            example = "data:image/png;base64,iVBORw0KGgo...")
+    private String imagePlaceholder;
+
     @JsonProperty("phone")
     @Schema(description = "Телефон автора объявления", example = "+7 (999) 123-45-67")
     private String phone;
@@ -0,0 +1,21 @@
+package ru.skypro.homework.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.Data;
+
+@Data
+@Schema(description = "Проверка, сохранено ли уже изображение с таким содержимым")
+public class ImageNegotiationDto {
+    @Schema(description = "SHA-256 содержимого файла (hex)",
+            example = "9f64a747e1b97f131fabb6b447296c9b6f0201e79fb3c5356e6c77e89b6a806a")
+    private String sha256;
+
+    @Schema(description = "Раздел изображений", example = "ads", allowableValues = {"ads", "avatars"})
+    private String subfolder;
+
+    @Schema(description = "Ответ: изображение уже есть, файл можно не отправлять", accessMode = Schema.AccessMode.READ_ONLY)
+    private boolean exists;
+
+    @Schema(description = "Ответ: путь сохранённого изображения", accessMode = Schema.AccessMode.READ_ONLY)
+    private String path;
+}
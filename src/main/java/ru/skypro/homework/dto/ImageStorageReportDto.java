@@ -0,0 +1,22 @@
+package ru.skypro.homework.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+@Schema(description = "Сводка по хранилищу изображений")
+public class ImageStorageReportDto {
+    @Schema(description = "Всего файлов", example = "1500")
+    private long images;
+
+    @Schema(description = "Всего занято байт", example = "209715200")
+    private long bytes;
+
+    @Schema(description = "Всего ссылок на файлы", example = "1700")
+    private long references;
+
+    @Schema(description = "По типам содержимого, от занимающего больше всего места")
+    private List<ImageTypeStatsDto> byType;
+}
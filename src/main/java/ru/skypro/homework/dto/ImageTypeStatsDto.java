@@ -0,0 +1,32 @@
+package ru.skypro.homework.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.Data;
+
+@Data
+@Schema(description = "Изображения одного типа в хранилище")
+public class ImageTypeStatsDto {
+    @Schema(description = "MIME-тип по сигнатуре файла", example = "image/jpeg")
+    private String contentType;
+
+    @Schema(description = "Число файлов", example = "1200")
+    private long images;
+
+    @Schema(description = "Занято байт", example = "157286400")
+    private long bytes;
+
+    @Schema(description = "Ссылок на эти файлы из объявлений и профилей", example = "1350")
+    private long references;
+
+    @Schema(description = "Сэкономлено дедупликацией: байты повторных ссылок", example = "9437184")
+    private long dedupSavedBytes;
+
+    @Schema(description = "Самый большой файл, байт", example = "2097152")
+    private long maxBytes;
+
+    @Schema(description = "Средняя ширина в пикселях; null - размеры не известны", example = "1536")
+    private Double averageWidth;
+
+    @Schema(description = "Средняя высота в пикселях; null - размеры не известны", example = "1152")
+    private Double averageHeight;
+}
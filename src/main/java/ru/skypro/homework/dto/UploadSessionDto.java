@@ -0,0 +1,26 @@
+package ru.skypro.homework.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.Data;
+
+@Data
+@Schema(description = "Сессия докачиваемой загрузки изображения")
+public class UploadSessionDto {
+    @Schema(description = "Идентификатор сессии - передаётся в addAd / updateImage параметром uploadId",
+            accessMode = Schema.AccessMode.READ_ONLY)
+    private String id;
+
+    @Schema(description = "Тип содержимого файла", example = "image/jpeg")
+    private String contentType;
+
+    @Schema(description = "Полный размер файла в байтах", example = "10485760")
+    private long length;
+
+    @Schema(description = "Сколько байт уже получено: следующая часть отправляется с этого смещения",
+            accessMode = Schema.AccessMode.READ_ONLY)
+    private long offset;
+
+    @Schema(description = "Момент (epoch ms), после которого недокачанная сессия удаляется",
+            accessMode = Schema.AccessMode.READ_ONLY)
+    private long expiresAt;
+}
@@ -0,0 +1,14 @@
+package ru.skypro.homework.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.Data;
+
+@Data
+@Schema(description = "Место, занятое изображениями пользователя")
+public class UserStorageDto {
+    @Schema(description = "Занято байт: обложки и фото объявлений и аватар", example = "5242880")
+    private long usedBytes;
+
+    @Schema(description = "Квота в байтах; загрузка сверх неё отклоняется с 413", example = "524288000")
+    private long quotaBytes;
+}
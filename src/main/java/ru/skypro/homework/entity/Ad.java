@@ -1,8 +1,11 @@
 package ru.skypro.homework.entity;
 
+import ru.skypro.homework.dto.AdStatus;
 
 import javax.persistence.Column;
 import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
 import javax.persistence.FetchType;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
@@ -33,12 +36,26 @@ public class Ad {
     @Column(nullable = false, length = 255)
     private String description;
 
-    @Column(nullable = false, length = 255)
+    // Пусто, пока изображение асинхронно создаваемого объявления обрабатывается
+    @Column(length = 255)
     private String imageUrl;
 
+    // Копия images.placeholder картинки: список объявлений отдаёт заглушки без соединения таблиц
+    @Column(length = 1024)
+    private String imagePlaceholder;
+
     @OneToMany(mappedBy = "ad", fetch = FetchType.LAZY)
     private List<Comment> comments;
 
+    // Помечено на удаление, комментарии и сама строка удаляются фоновой очисткой
+    @Column(nullable = false)
+    private Boolean deleted = false;
+
+    // Пользователям видны только объявления в статусе ACTIVE
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 16)
+    private AdStatus status = AdStatus.ACTIVE;
+
     public Integer getId() {
         return id;
     }
@@ -63,10 +80,22 @@ public class Ad {
         return imageUrl;
     }
 
+    public String getImagePlaceholder() {
+        return imagePlaceholder;
+    }
+
     public List<Comment> getComments() {
         return comments;
     }
 
+    public Boolean getDeleted() {
+        return deleted;
+    }
+
+    public AdStatus getStatus() {
+        return status;
+    }
+
     public void setId(Integer id) {
         this.id = id;
     }
@@ -91,7 +120,19 @@ public class Ad {
         this.imageUrl = imageUrl;
     }
 
+    public void setImagePlaceholder(String imagePlaceholder) {
+        this.imagePlaceholder = imagePlaceholder;
+    }
+
     public void setComments(List<Comment> comments) {
         this.comments = comments;
     }
+
+    public void setDeleted(Boolean deleted) {
+        this.deleted = deleted;
+    }
+
+    public void setStatus(AdStatus status) {
+        this.status = status;
+    }
 }
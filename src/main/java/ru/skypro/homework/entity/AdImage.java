@@ -0,0 +1,62 @@
+package ru.skypro.homework.entity;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Table;
+
+/**
+ * Дополнительное фото галереи объявления. Обложка хранится в ads.image_url,
+ * фото галереи идут за ней в порядке position
+ */
+@Entity
+@Table(name = "ad_images")
+public class AdImage {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Integer id;
+
+    @Column(name = "ad_id", nullable = false)
+    private Integer adId;
+
+    @Column(name = "position", nullable = false)
+    private Integer position;
+
+    @Column(name = "image_url", nullable = false, length = 255)
+    private String imageUrl;
+
+    @Column(name = "image_placeholder", length = 1024)
+    private String imagePlaceholder;
+
+    public AdImage() {
+    }
+
+    public AdImage(Integer adId, Integer position, String imageUrl, String imagePlaceholder) {
+        this.adId = adId;
+        this.position = position;
+        this.imageUrl = imageUrl;
+        this.imagePlaceholder = imagePlaceholder;
+    }
+
+    public Integer getId() {
+        return id;
+    }
+
+    public Integer getAdId() {
+        return adId;
+    }
+
+    public Integer getPosition() {
+        return position;
+    }
+
+    public String getImageUrl() {
+        return imageUrl;
+    }
+
+    public String getImagePlaceholder() {
+        return imagePlaceholder;
+    }
+}
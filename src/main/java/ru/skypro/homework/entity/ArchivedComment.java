@@ -0,0 +1,84 @@
+package ru.skypro.homework.entity;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.FetchType;
+import javax.persistence.Id;
+import javax.persistence.JoinColumn;
+import javax.persistence.ManyToOne;
+import javax.persistence.Table;
+
+/**
+ * Комментарий, перенесённый архиватором из comments в холодную таблицу comments_archive
+ */
+@Entity
+@Table(name = "comments_archive")
+public class ArchivedComment {
+    @Id
+    @Column(name = "id")
+    private Integer id;
+
+    @Column(name = "ad_id", nullable = false)
+    private Integer adId;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "author_id", nullable = false)
+    private User author;
+
+    @Column(name = "text", nullable = false, length = 255)
+    private String text;
+
+    @Column(name = "createdAt", nullable = false)
+    private Long createdAt;
+
+    @Column(name = "archivedAt", nullable = false)
+    private Long archivedAt;
+
+    public Integer getId() {
+        return id;
+    }
+
+    public Integer getAdId() {
+        return adId;
+    }
+
+    public User getAuthor() {
+        return author;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public Long getCreatedAt() {
+        return createdAt;
+    }
+
+    public Long getArchivedAt() {
+        return archivedAt;
+    }
+
+    public void setId(Integer id) {
+        this.id = id;
+    }
+
+    public void setAdId(Integer adId) {
+        this.adId = adId;
+    }
+
+    public void setAuthor(User author) {
+        this.author = author;
+    }
+
+    public void setText(String text) {
+        this.text = text;
+    }
+
+    public void setCreatedAt(Long createdAt) {
+        this.createdAt = createdAt;
+    }
+
+    public void setArchivedAt(Long archivedAt) {
+        this.archivedAt = archivedAt;
+    }
+}
@@ -0,0 +1,70 @@
+package ru.skypro.homework.entity;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+
+/**
+ * Изображение в хранилище в базе данных; содержимое лежит в image_chunks по contentId
+ */
+@Entity
+@Table(name = "image_blobs")
+public class ImageBlob {
+    @Id
+    @Column(name = "path", length = 255)
+    private String path;
+
+    @Column(name = "content_id", nullable = false, length = 36)
+    private String contentId;
+
+    @Column(name = "size", nullable = false)
+    private Long size;
+
+    @Column(name = "chunk_size", nullable = false)
+    private Integer chunkSize;
+
+    @Column(name = "chunk_count", nullable = false)
+    private Integer chunkCount;
+
+    @Column(name = "created_at", nullable = false)
+    private Long createdAt;
+
+    public ImageBlob() {
+
+    }
+
+    public ImageBlob(String path, String contentId, Long size, Integer chunkSize, Integer chunkCount,
+                     Long createdAt) {
+        this.path = path;
+        this.contentId = contentId;
+        this.size = size;
+        this.chunkSize = chunkSize;
+        this.chunkCount = chunkCount;
+        this.createdAt = createdAt;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public String getContentId() {
+        return contentId;
+    }
+
+    public Long getSize() {
+        return size;
+    }
+
+    public Integer getChunkSize() {
+        return chunkSize;
+    }
+
+    public Integer getChunkCount() {
+        return chunkCount;
+    }
+
+    public Long getCreatedAt() {
+        return createdAt;
+    }
+}
@@ -0,0 +1,45 @@
+package ru.skypro.homework.entity;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Table;
+
+/**
+ * Часть содержимого изображения. Пишется и читается запросами по одной части
+ * (ImageChunkRepository), сущность описывает таблицу
+ */
+@Entity
+@Table(name = "image_chunks")
+public class ImageChunk {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "content_id", nullable = false, length = 36)
+    private String contentId;
+
+    @Column(name = "chunk_index", nullable = false)
+    private Integer chunkIndex;
+
+    @Column(name = "data", nullable = false, length = 16777216)
+    private byte[] data;
+
+    public Long getId() {
+        return id;
+    }
+
+    public String getContentId() {
+        return contentId;
+    }
+
+    public Integer getChunkIndex() {
+        return chunkIndex;
+    }
+
+    public byte[] getData() {
+        return data;
+    }
+}
@@ -0,0 +1,49 @@
+package ru.skypro.homework.entity;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+
+/**
+ * Позиция обхода каталога изображений сборщиком неиспользуемых файлов (одна строка, id = 1)
+ */
+@Entity
+@Table(name = "image_gc_progress")
+public class ImageGcProgress {
+    public static final int SINGLETON_ID = 1;
+
+    @Id
+    private Integer id;
+
+    // Последний обработанный файл относительно каталога загрузок; null - обход с начала
+    @Column(name = "last_path", length = 1024)
+    private String lastPath;
+
+    @Column(name = "updated_at")
+    private Long updatedAt;
+
+    public Integer getId() {
+        return id;
+    }
+
+    public String getLastPath() {
+        return lastPath;
+    }
+
+    public Long getUpdatedAt() {
+        return updatedAt;
+    }
+
+    public void setId(Integer id) {
+        this.id = id;
+    }
+
+    public void setLastPath(String lastPath) {
+        this.lastPath = lastPath;
+    }
+
+    public void setUpdatedAt(Long updatedAt) {
+        this.updatedAt = updatedAt;
+    }
+}
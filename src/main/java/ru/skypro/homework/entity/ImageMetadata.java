@@ -0,0 +1,153 @@
+package ru.skypro.homework.entity;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+
+/**
+ * Метаданные сохранённого изображения. Файлы неизменяемы, поэтому хэш содержимого,
+ * посчитанный при загрузке, служит ETag на всё время жизни файла.
+ * <p>
+ * Одинаковые загрузки хранятся одним файлом, refCount - число записей, ссылающихся на него.
+ * Тип содержимого определяется по сигнатуре файла, а не по заголовку клиента.
+ */
+@Entity
+@Table(name = "images")
+public class ImageMetadata {
+    @Id
+    @Column(name = "path", length = 255)
+    private String path;
+
+    @Column(name = "content_hash", nullable = false, length = 64)
+    private String contentHash;
+
+    @Column(name = "size", nullable = false)
+    private Long size;
+
+    @Column(name = "createdAt", nullable = false)
+    private Long createdAt;
+
+    @Column(name = "ref_count", nullable = false)
+    private Integer refCount = 1;
+
+    @Column(name = "last_referenced_at")
+    private Long lastReferencedAt;
+
+    // Размытая заглушка для списков (data URI); null - не удалось декодировать
+    @Column(name = "placeholder", length = 1024)
+    private String placeholder;
+
+    @Column(name = "content_type", length = 64)
+    private String contentType;
+
+    // Размеры в пикселях; null - формат не декодируется (WebP) или файл загружен до их учёта
+    @Column(name = "width")
+    private Integer width;
+
+    @Column(name = "height")
+    private Integer height;
+
+    // Готовые уменьшенные копии: "ширина:байт" через запятую; null - копии ещё не учтены
+    @Column(name = "variants", length = 255)
+    private String variants;
+
+    public ImageMetadata() {
+
+    }
+
+    public ImageMetadata(String path, String contentHash, Long size, Long createdAt) {
+        this.path = path;
+        this.contentHash = contentHash;
+        this.size = size;
+        this.createdAt = createdAt;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public String getContentHash() {
+        return contentHash;
+    }
+
+    public Long getSize() {
+        return size;
+    }
+
+    public Long getCreatedAt() {
+        return createdAt;
+    }
+
+    public Integer getRefCount() {
+        return refCount;
+    }
+
+    public Long getLastReferencedAt() {
+        return lastReferencedAt;
+    }
+
+    public String getPlaceholder() {
+        return placeholder;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    public Integer getWidth() {
+        return width;
+    }
+
+    public Integer getHeight() {
+        return height;
+    }
+
+    public String getVariants() {
+        return variants;
+    }
+
+    public void setPath(String path) {
+        this.path = path;
+    }
+
+    public void setContentHash(String contentHash) {
+        this.contentHash = contentHash;
+    }
+
+    public void setSize(Long size) {
+        this.size = size;
+    }
+
+    public void setCreatedAt(Long createdAt) {
+        this.createdAt = createdAt;
+    }
+
+    public void setRefCount(Integer refCount) {
+        this.refCount = refCount;
+    }
+
+    public void setLastReferencedAt(Long lastReferencedAt) {
+        this.lastReferencedAt = lastReferencedAt;
+    }
+
+    public void setPlaceholder(String placeholder) {
+        this.placeholder = placeholder;
+    }
+
+    public void setContentType(String contentType) {
+        this.contentType = contentType;
+    }
+
+    public void setWidth(Integer width) {
+        this.width = width;
+    }
+
+    public void setHeight(Integer height) {
+        this.height = height;
+    }
+
+    public void setVariants(String variants) {
+        this.variants = variants;
+    }
+}
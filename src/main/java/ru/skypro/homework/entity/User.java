@@ -47,6 +47,10 @@ public class User {
     @Column(name = "enabled")
     private Boolean enabled = true;
 
+    // Время запроса на удаление учётной записи (epoch millis), null - не удаляется
+    @Column(name = "deletion_requested_at")
+    private Long deletionRequestedAt;
+
     @OneToMany(mappedBy = "author", fetch = FetchType.LAZY)
     private List<Ad> ads;
 
@@ -112,6 +116,10 @@ public class User {
         return enabled;
     }
 
+    public Long getDeletionRequestedAt() {
+        return deletionRequestedAt;
+    }
+
     public void setId(Integer id) {
         this.id = id;
     }
@@ -155,4 +163,8 @@ public class User {
     public void setEnabled(Boolean enabled) {
         this.enabled = enabled;
     }
+
+    public void setDeletionRequestedAt(Long deletionRequestedAt) {
+        this.deletionRequestedAt = deletionRequestedAt;
+    }
 }
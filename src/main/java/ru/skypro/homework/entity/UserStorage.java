@@ -0,0 +1,46 @@
+package ru.skypro.homework.entity;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+
+/**
+ * Занятое место пользователя, общее для всех узлов. Узлы ведут счётчики в памяти
+ * (StorageQuotaService) и по расписанию прибавляют сюда свои изменения
+ */
+@Entity
+@Table(name = "user_storage")
+public class UserStorage {
+    @Id
+    @Column(name = "email", length = 255)
+    private String email;
+
+    @Column(name = "used_bytes", nullable = false)
+    private Long usedBytes;
+
+    @Column(name = "updated_at", nullable = false)
+    private Long updatedAt;
+
+    public UserStorage() {
+
+    }
+
+    public UserStorage(String email, Long usedBytes, Long updatedAt) {
+        this.email = email;
+        this.usedBytes = usedBytes;
+        this.updatedAt = updatedAt;
+    }
+
+    public String getEmail() {
+        return email;
+    }
+
+    public Long getUsedBytes() {
+        return usedBytes;
+    }
+
+    public Long getUpdatedAt() {
+        return updatedAt;
+    }
+}
@@ -0,0 +1,54 @@
+package ru.skypro.homework.filter;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.filter.OncePerRequestFilter;
+import ru.skypro.homework.service.image.StorageQuotaService;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Проверка квоты места до чтения тела загрузки.
+ * <p>
+ * Загрузка аутентифицированного пользователя, которая по Content-Length не помещается в
+ * оставшуюся квоту, получает 413 сразу - multipart не разбирается и не пишется во временные
+ * файлы. Без Content-Length (chunked) отклоняется только загрузка пользователя, уже
+ * исчерпавшего квоту. Проверка - чтение счётчика из памяти {@link StorageQuotaService}.
+ */
+@Slf4j
+public class StorageQuotaFilter extends OncePerRequestFilter {
+    private final StorageQuotaService storageQuota;
+    private final Counter rejected;
+
+    public StorageQuotaFilter(StorageQuotaService storageQuota, MeterRegistry meterRegistry) {
+        this.storageQuota = storageQuota;
+        this.rejected = Counter.builder("uploads.quota.rejected")
+                .description("Загрузки, отклонённые по квоте места")
+                .register(meterRegistry);
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return request.getRemoteUser() == null || !UploadBulkheadFilter.isUpload(request);
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        String user = request.getRemoteUser();
+        if (!storageQuota.hasRoom(user, Math.max(0, request.getContentLengthLong()))) {
+            rejected.increment();
+            log.debug("Загрузка пользователя {} отклонена: занято {} из {} байт",
+                    user, storageQuota.getUsedBytes(user), storageQuota.getMaxBytesPerUser());
+            response.sendError(HttpStatus.PAYLOAD_TOO_LARGE.value(), "Превышена квота места для изображений");
+            return;
+        }
+        filterChain.doFilter(request, response);
+    }
+}
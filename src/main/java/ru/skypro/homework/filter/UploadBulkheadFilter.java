@@ -0,0 +1,164 @@
+package ru.skypro.homework.filter;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Изоляция загрузок изображений от остального трафика (bulkhead).
+ * <p>
+ * Загрузкой считается запрос с телом multipart/*, image/* или octet-stream - так под фильтр
+ * попадают addAd, updateImage, updateUserImage, галерея и части докачиваемой загрузки.
+ * Одновременно обрабатывается не больше max-concurrent загрузок, ещё max-queue ждут
+ * освобождения не дольше max-wait. Остальные отклоняются сразу, до чтения тела:
+ * 503, если заполнен общий лимит, 429 - если у пользователя уже max-per-user загрузок.
+ * В обоих случаях клиент получает Retry-After. Потоки Tomcat, не занятые загрузками,
+ * остаются чтению.
+ */
+@Slf4j
+public class UploadBulkheadFilter extends OncePerRequestFilter {
+    private final Semaphore permits;
+    private final int maxQueue;
+    private final Duration maxWait;
+    private final int maxPerUser;
+    private final String retryAfterSeconds;
+
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final AtomicInteger active = new AtomicInteger();
+    private final Map<String, Integer> perUser = new ConcurrentHashMap<>();
+
+    private final Timer waitTimer;
+    private final Counter rejectedQueueFull;
+    private final Counter rejectedTimeout;
+    private final Counter rejectedPerUser;
+
+    public UploadBulkheadFilter(int maxConcurrent, int maxQueue, Duration maxWait, int maxPerUser,
+                                Duration retryAfter, MeterRegistry meterRegistry) {
+        this.permits = new Semaphore(maxConcurrent, true);
+        this.maxQueue = maxQueue;
+        this.maxWait = maxWait;
+        this.maxPerUser = maxPerUser;
+        this.retryAfterSeconds = Long.toString(Math.max(1, retryAfter.toSeconds()));
+
+        Gauge.builder("uploads.bulkhead.queue.depth", waiting, AtomicInteger::get)
+                .description("Загрузки, ожидающие свободного места")
+                .register(meterRegistry);
+        Gauge.builder("uploads.bulkhead.active", active, AtomicInteger::get)
+                .description("Загрузки, обрабатываемые сейчас")
+                .register(meterRegistry);
+        this.waitTimer = Timer.builder("uploads.bulkhead.wait")
+                .description("Время ожидания места в очереди загрузок")
+                .register(meterRegistry);
+        this.rejectedQueueFull = rejectedCounter(meterRegistry, "queue_full");
+        this.rejectedTimeout = rejectedCounter(meterRegistry, "timeout");
+        this.rejectedPerUser = rejectedCounter(meterRegistry, "per_user");
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !isUpload(request);
+    }
+
+    // Общее правило для фильтров загрузок: тело - файл или его часть
+    static boolean isUpload(HttpServletRequest request) {
+        String contentType = request.getContentType();
+        if (contentType == null) {
+            return false;
+        }
+        String type = contentType.toLowerCase();
+        return type.startsWith("multipart/") || type.startsWith("image/")
+                || type.startsWith("application/octet-stream") || type.startsWith("application/offset+octet-stream");
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        String user = request.getRemoteUser() != null ? request.getRemoteUser() : request.getRemoteAddr();
+        if (perUser.merge(user, 1, Integer::sum) > maxPerUser) {
+            releaseUser(user);
+            rejectedPerUser.increment();
+            reject(response, HttpStatus.TOO_MANY_REQUESTS, "Слишком много одновременных загрузок");
+            return;
+        }
+        try {
+            if (!acquire(response)) {
+                return;
+            }
+            active.incrementAndGet();
+            try {
+                filterChain.doFilter(request, response);
+            } finally {
+                active.decrementAndGet();
+                permits.release();
+            }
+        } finally {
+            releaseUser(user);
+        }
+    }
+
+    private boolean acquire(HttpServletResponse response) throws IOException {
+        if (permits.tryAcquire()) {
+            waitTimer.record(0, TimeUnit.NANOSECONDS);
+            return true;
+        }
+        if (waiting.incrementAndGet() > maxQueue) {
+            waiting.decrementAndGet();
+            rejectedQueueFull.increment();
+            reject(response, HttpStatus.SERVICE_UNAVAILABLE, "Очередь загрузок заполнена");
+            return false;
+        }
+
+        long started = System.nanoTime();
+        boolean acquired;
+        try {
+            acquired = permits.tryAcquire(maxWait.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            acquired = false;
+        } finally {
+            waiting.decrementAndGet();
+            waitTimer.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+        }
+        if (!acquired) {
+            rejectedTimeout.increment();
+            reject(response, HttpStatus.SERVICE_UNAVAILABLE, "Сервер загрузок перегружен");
+        }
+        return acquired;
+    }
+
+    private void reject(HttpServletResponse response, HttpStatus status, String message) throws IOException {
+        log.debug("Загрузка отклонена: {} ({})", message, status.value());
+        response.setHeader(HttpHeaders.RETRY_AFTER, retryAfterSeconds);
+        response.setHeader(HttpHeaders.CONNECTION, "close");
+        response.sendError(status.value(), message);
+    }
+
+    // Запись пользователя удаляется вместе с последней загрузкой, карта не растёт
+    private void releaseUser(String user) {
+        perUser.computeIfPresent(user, (key, count) -> count > 1 ? count - 1 : null);
+    }
+
+    private static Counter rejectedCounter(MeterRegistry meterRegistry, String reason) {
+        return Counter.builder("uploads.bulkhead.rejected")
+                .description("Отклонённые загрузки")
+                .tag("reason", reason)
+                .register(meterRegistry);
+    }
+}
@@ -9,6 +9,7 @@ import ru.skypro.homework.entity.Ad;
 public interface AdMapper {
     @Mapping(target = "author", source = "author.id")
     @Mapping(target = "image", source = "imageUrl")
+    @Mapping(target = "imagePlaceholder", source = "imagePlaceholder")
     @Mapping(target = "pk", source = "id")
     @Mapping(target = "price", source = "price")
     @Mapping(target = "title", source = "title")
@@ -17,6 +18,8 @@ public interface AdMapper {
     @Mapping(target = "author", ignore = true)
     @Mapping(target = "description", ignore = true)
     @Mapping(target = "comments", ignore = true)
+    @Mapping(target = "deleted", ignore = true)
+    @Mapping(target = "status", ignore = true)
     @Mapping(target = "imageUrl", source = "image")
     @Mapping(target = "id", source = "pk")
     Ad adDtoToAd(AdDto adDto);
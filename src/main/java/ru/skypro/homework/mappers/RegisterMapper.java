@@ -18,5 +18,6 @@ public interface RegisterMapper {
     @Mapping(target = "ads", ignore = true)
     @Mapping(target = "comments", ignore = true)
     @Mapping(target = "enabled", constant = "true")
+    @Mapping(target = "deletionRequestedAt", ignore = true)
     User registerDtoToUser(RegisterDto registerDto);
 }
@@ -15,5 +15,6 @@ public interface UserMapper {
     @Mapping(target = "ads", ignore = true)
     @Mapping(target = "comments", ignore = true)
     @Mapping(target = "enabled", ignore = true)
+    @Mapping(target = "deletionRequestedAt", ignore = true)
     User userDtoToUser(UserDto userDto);
 }
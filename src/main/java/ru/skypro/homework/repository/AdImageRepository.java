@@ -0,0 +1,31 @@
+package ru.skypro.homework.repository;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+import ru.skypro.homework.entity.AdImage;
+
+import java.util.Collection;
+import java.util.List;
+
+public interface AdImageRepository extends JpaRepository<AdImage, Integer> {
+    List<AdImage> findByAdIdOrderByPosition(Integer adId);
+
+    long countByAdId(Integer adId);
+
+    @Query("select coalesce(max(i.position), 0) from AdImage i where i.adId = :adId")
+    int findMaxPosition(@Param("adId") Integer adId);
+
+    @Query("select i.imageUrl from AdImage i where i.adId = :adId")
+    List<String> findImageUrlsByAdId(@Param("adId") Integer adId);
+
+    @Transactional
+    @Modifying
+    @Query("delete from AdImage i where i.adId = :adId")
+    int deleteByAdId(@Param("adId") Integer adId);
+
+    @Query("select i.imageUrl from AdImage i where i.imageUrl in :paths")
+    List<String> findImageUrlsIn(@Param("paths") Collection<String> paths);
+}
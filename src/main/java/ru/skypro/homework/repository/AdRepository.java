@@ -1,13 +1,82 @@
 package ru.skypro.homework.repository;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import ru.skypro.homework.dto.AdStatus;
 import ru.skypro.homework.entity.Ad;
 import ru.skypro.homework.entity.User;
 
+import javax.persistence.LockModeType;
+import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
 
 public interface AdRepository extends JpaRepository<Ad, Integer> {
     List<Ad> findByAuthor(User author);
 
     List<Ad> findByTitleContainingIgnoreCase(String keyword);
+
+    // Объявления, помеченные на удаление, скрыты от всех запросов пользователей
+    Optional<Ad> findByIdAndDeletedFalse(Integer id);
+
+    boolean existsByIdAndDeletedFalse(Integer id);
+
+    // Удаление берёт строку объявления на запись: комментарии, добавляемые параллельно,
+    // дожидаются его и видят объявление удалённым вместо нарушения внешнего ключа
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select a from Ad a where a.id = :id and a.deleted = false")
+    Optional<Ad> findForUpdate(@Param("id") Integer id);
+
+    @Lock(LockModeType.PESSIMISTIC_READ)
+    @Query("select a from Ad a where a.id = :id and a.deleted = false")
+    Optional<Ad> findForShare(@Param("id") Integer id);
+
+    List<Ad> findAllByDeletedFalse();
+
+    List<Ad> findByAuthorAndDeletedFalse(User author);
+
+    // Асинхронно создаваемые объявления не видны, пока изображение не обработано
+    Optional<Ad> findByIdAndDeletedFalseAndStatus(Integer id, AdStatus status);
+
+    List<Ad> findAllByDeletedFalseAndStatus(AdStatus status);
+
+    List<Ad> findByAuthorAndDeletedFalseAndStatus(User author, AdStatus status);
+
+    // Публикует объявление, если его не удалили и не опубликовали, пока обрабатывалось изображение
+    @Modifying
+    @Query("update Ad a set a.imageUrl = :imageUrl, a.imagePlaceholder = :placeholder, "
+            + "a.status = ru.skypro.homework.dto.AdStatus.ACTIVE "
+            + "where a.id = :id and a.deleted = false and a.status = ru.skypro.homework.dto.AdStatus.PROCESSING")
+    int completeProcessing(@Param("id") Integer id, @Param("imageUrl") String imageUrl,
+                           @Param("placeholder") String placeholder);
+
+    @Modifying
+    @Query("update Ad a set a.status = ru.skypro.homework.dto.AdStatus.FAILED "
+            + "where a.id = :id and a.status = ru.skypro.homework.dto.AdStatus.PROCESSING")
+    int failProcessing(@Param("id") Integer id);
+
+    @Modifying
+    @Query("update Ad a set a.deleted = true where a.id = :id")
+    int markDeleted(@Param("id") Integer id);
+
+    @Modifying
+    @Query("update Ad a set a.deleted = true where a.author.id = :authorId and a.deleted = false")
+    int markDeletedByAuthorId(@Param("authorId") Integer authorId);
+
+    @Query("select a.id from Ad a where a.author.id = :authorId and a.deleted = false")
+    List<Integer> findActiveIdsByAuthorId(@Param("authorId") Integer authorId);
+
+    boolean existsByAuthorId(Integer authorId);
+
+    @Query(value = "SELECT id FROM ads WHERE deleted = TRUE ORDER BY id LIMIT :limit", nativeQuery = true)
+    List<Integer> findDeletedIds(@Param("limit") int limit);
+
+    @Query("select a.author.email from Ad a where a.id = :id")
+    Optional<String> findAuthorEmailById(@Param("id") Integer id);
+
+    @Query("select a.imageUrl from Ad a where a.imageUrl in :paths")
+    List<String> findImageUrlsIn(@Param("paths") Collection<String> paths);
 }
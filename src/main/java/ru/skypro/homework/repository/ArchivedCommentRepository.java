@@ -0,0 +1,48 @@
+package ru.skypro.homework.repository;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+import ru.skypro.homework.entity.ArchivedComment;
+
+import java.util.Collection;
+import java.util.List;
+
+public interface ArchivedCommentRepository extends JpaRepository<ArchivedComment, Integer> {
+    List<ArchivedComment> findByAdIdOrderByCreatedAtAscIdAsc(Integer adId);
+
+    @Query(value = "SELECT * FROM comments_archive WHERE ad_id = :adId " +
+            "ORDER BY created_at DESC, id DESC LIMIT :limit OFFSET :offset", nativeQuery = true)
+    List<ArchivedComment> findPageByAdId(@Param("adId") Integer adId,
+                                         @Param("limit") int limit,
+                                         @Param("offset") long offset);
+
+    @Query("select distinct c.adId from ArchivedComment c where c.author.id = :authorId")
+    List<Integer> findAdIdsByAuthorId(@Param("authorId") Integer authorId);
+
+    // Перенос порции из comments; вызывается в одной транзакции с удалением из comments
+    @Modifying
+    @Query(value = "INSERT INTO comments_archive (id, ad_id, author_id, text, created_at, archived_at) " +
+            "SELECT id, ad_id, author_id, text, created_at, :archivedAt FROM comments WHERE id IN (:ids)",
+            nativeQuery = true)
+    int copyFromComments(@Param("ids") Collection<Integer> ids, @Param("archivedAt") long archivedAt);
+
+    @Transactional
+    @Modifying
+    @Query("delete from ArchivedComment c where c.adId = :adId")
+    int deleteByAdId(@Param("adId") Integer adId);
+
+    @Transactional
+    @Modifying
+    @Query(value = "DELETE FROM comments_archive WHERE id IN " +
+            "(SELECT id FROM comments_archive WHERE ad_id = :adId LIMIT :limit)", nativeQuery = true)
+    int deleteChunkByAdId(@Param("adId") Integer adId, @Param("limit") int limit);
+
+    @Transactional
+    @Modifying
+    @Query(value = "DELETE FROM comments_archive WHERE id IN " +
+            "(SELECT id FROM comments_archive WHERE author_id = :authorId LIMIT :limit)", nativeQuery = true)
+    int deleteChunkByAuthorId(@Param("authorId") Integer authorId, @Param("limit") int limit);
+}
@@ -2,13 +2,58 @@ package ru.skypro.homework.repository;
 
 import org.springframework.data.jpa.repository.JpaRepository;
 
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 import ru.skypro.homework.entity.Comment;
 
 
+import java.util.Collection;
 import java.util.List;
 
 public interface CommentRepository extends JpaRepository<Comment, Integer> {
-    List<Comment> findByAdId(Integer adId);
+    // Порядок как у архива: список объявления - архивные, затем эти, от старых к новым
+    List<Comment> findByAdIdOrderByCreatedAtAscIdAsc(Integer adId);
 
     List<Comment> findByAuthorId(Integer authorId);
+
+    long countByAdId(Integer adId);
+
+    @Query(value = "SELECT * FROM comments WHERE ad_id = :adId " +
+            "ORDER BY created_at DESC, id DESC LIMIT :limit OFFSET :offset", nativeQuery = true)
+    List<Comment> findPageByAdId(@Param("adId") Integer adId,
+                                 @Param("limit") int limit,
+                                 @Param("offset") long offset);
+
+    @Query(value = "SELECT id FROM comments WHERE created_at < :createdBefore ORDER BY id LIMIT :limit",
+            nativeQuery = true)
+    List<Integer> findIdsCreatedBefore(@Param("createdBefore") long createdBefore, @Param("limit") int limit);
+
+    @Query("select distinct c.ad.id from Comment c where c.author.id = :authorId")
+    List<Integer> findAdIdsByAuthorId(@Param("authorId") Integer authorId);
+
+    @Query("select distinct c.ad.id from Comment c where c.id in :ids")
+    List<Integer> findAdIdsByIdIn(@Param("ids") Collection<Integer> ids);
+
+    @Modifying
+    @Query("delete from Comment c where c.id in :ids")
+    int deleteByIdIn(@Param("ids") Collection<Integer> ids);
+
+    @Modifying
+    @Query("delete from Comment c where c.ad.id = :adId")
+    int deleteByAdId(@Param("adId") Integer adId);
+
+    // Порционное удаление для фоновой очистки: каждая порция - отдельная короткая транзакция
+    @Transactional
+    @Modifying
+    @Query(value = "DELETE FROM comments WHERE id IN " +
+            "(SELECT id FROM comments WHERE ad_id = :adId LIMIT :limit)", nativeQuery = true)
+    int deleteChunkByAdId(@Param("adId") Integer adId, @Param("limit") int limit);
+
+    @Transactional
+    @Modifying
+    @Query(value = "DELETE FROM comments WHERE id IN " +
+            "(SELECT id FROM comments WHERE author_id = :authorId LIMIT :limit)", nativeQuery = true)
+    int deleteChunkByAuthorId(@Param("authorId") Integer authorId, @Param("limit") int limit);
 }
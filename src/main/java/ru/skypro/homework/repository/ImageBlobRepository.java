@@ -0,0 +1,26 @@
+package ru.skypro.homework.repository;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import ru.skypro.homework.entity.ImageBlob;
+
+import javax.persistence.LockModeType;
+import java.util.List;
+import java.util.Optional;
+
+public interface ImageBlobRepository extends JpaRepository<ImageBlob, String> {
+
+    long countByContentId(String contentId);
+
+    /**
+     * Ключ с блокировкой строки (SELECT ... FOR UPDATE) до конца транзакции
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT b FROM ImageBlob b WHERE b.path = :path")
+    Optional<ImageBlob> findForUpdate(@Param("path") String path);
+
+    @Query(value = "SELECT * FROM image_blobs WHERE path > :cursor ORDER BY path LIMIT :limit", nativeQuery = true)
+    List<ImageBlob> findPageAfter(@Param("cursor") String cursor, @Param("limit") int limit);
+}
@@ -0,0 +1,30 @@
+package ru.skypro.homework.repository;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import ru.skypro.homework.entity.ImageChunk;
+
+// Части читаются и пишутся по одной, минуя контекст персистентности: в памяти одна часть, а не весь файл
+public interface ImageChunkRepository extends JpaRepository<ImageChunk, Long> {
+
+    @Modifying
+    @Query(value = "INSERT INTO image_chunks (content_id, chunk_index, data) VALUES (:contentId, :chunkIndex, :data)",
+            nativeQuery = true)
+    void insertChunk(@Param("contentId") String contentId, @Param("chunkIndex") int chunkIndex,
+                     @Param("data") byte[] data);
+
+    @Query("SELECT c.data FROM ImageChunk c WHERE c.contentId = :contentId AND c.chunkIndex = :chunkIndex")
+    byte[] findData(@Param("contentId") String contentId, @Param("chunkIndex") int chunkIndex);
+
+    @Modifying
+    @Query("DELETE FROM ImageChunk c WHERE c.contentId = :contentId")
+    int deleteByContentId(@Param("contentId") String contentId);
+
+    // Части, оставшиеся без ссылок после одновременных удалений
+    @Modifying
+    @Query(value = "DELETE FROM image_chunks WHERE content_id NOT IN (SELECT content_id FROM image_blobs)",
+            nativeQuery = true)
+    int deleteUnreferenced();
+}
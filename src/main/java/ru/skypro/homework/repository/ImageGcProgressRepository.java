@@ -0,0 +1,7 @@
+package ru.skypro.homework.repository;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import ru.skypro.homework.entity.ImageGcProgress;
+
+public interface ImageGcProgressRepository extends JpaRepository<ImageGcProgress, Integer> {
+}
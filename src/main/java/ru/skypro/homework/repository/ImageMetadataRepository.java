@@ -0,0 +1,109 @@
+package ru.skypro.homework.repository;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import ru.skypro.homework.entity.ImageMetadata;
+
+import javax.persistence.LockModeType;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+public interface ImageMetadataRepository extends JpaRepository<ImageMetadata, String> {
+
+    Optional<ImageMetadata> findFirstByContentHashAndPathStartingWith(String contentHash, String pathPrefix);
+
+    @Modifying
+    @Query("UPDATE ImageMetadata i SET i.refCount = i.refCount + 1, i.lastReferencedAt = :now WHERE i.path = :path")
+    int incrementRefCount(@Param("path") String path, @Param("now") long now);
+
+    /**
+     * Новая строка с одной ссылкой. Именно INSERT, а не save (merge): строку, которую одновременно
+     * вставил другой узел, он не перезапишет, а завершится ошибкой первичного ключа
+     */
+    @Modifying
+    @Query(value = "INSERT INTO images (path, content_hash, size, created_at, ref_count) "
+            + "VALUES (:path, :contentHash, :size, :createdAt, 1)", nativeQuery = true)
+    void insertFirstReference(@Param("path") String path, @Param("contentHash") String contentHash,
+                              @Param("size") long size, @Param("createdAt") long createdAt);
+
+    @Modifying
+    @Query("UPDATE ImageMetadata i SET i.placeholder = :placeholder, i.contentType = :contentType, "
+            + "i.width = :width, i.height = :height WHERE i.path = :path")
+    int describe(@Param("path") String path, @Param("placeholder") String placeholder,
+                 @Param("contentType") String contentType, @Param("width") Integer width,
+                 @Param("height") Integer height);
+
+    @Modifying
+    @Query("UPDATE ImageMetadata i SET i.placeholder = :placeholder WHERE i.path = :path")
+    int setPlaceholder(@Param("path") String path, @Param("placeholder") String placeholder);
+
+    /**
+     * Строка с блокировкой (SELECT ... FOR UPDATE) до конца транзакции: захват ссылки на любом
+     * узле ждёт, пока снятие последней ссылки не удалит строку и файл
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT i FROM ImageMetadata i WHERE i.path = :path")
+    Optional<ImageMetadata> findForUpdate(@Param("path") String path);
+
+    @Modifying
+    @Query("UPDATE ImageMetadata i SET i.contentType = :contentType WHERE i.path = :path")
+    int setContentType(@Param("path") String path, @Param("contentType") String contentType);
+
+    @Modifying
+    @Query("UPDATE ImageMetadata i SET i.variants = :variants WHERE i.path = :path")
+    int setVariants(@Param("path") String path, @Param("variants") String variants);
+
+    // Для сверки с хранилищем: не перезаписывает копии, которые успел учесть генератор
+    @Modifying
+    @Query("UPDATE ImageMetadata i SET i.variants = :variants WHERE i.path = :path AND i.variants IS NULL")
+    int setVariantsIfMissing(@Param("path") String path, @Param("variants") String variants);
+
+    // Строки, записанные до определения типа по сигнатуре и учёта копий, по порядку путей
+    @Query("SELECT i FROM ImageMetadata i WHERE (i.contentType IS NULL OR i.variants IS NULL) AND i.path > :after "
+            + "ORDER BY i.path")
+    List<ImageMetadata> findUndescribedAfter(@Param("after") String after, Pageable pageable);
+
+    @Query("SELECT i.path FROM ImageMetadata i WHERE i.path IN :paths")
+    List<String> findExistingPaths(@Param("paths") Collection<String> paths);
+
+    @Query("SELECT i.path FROM ImageMetadata i WHERE i.path IN :paths AND i.lastReferencedAt > :since")
+    List<String> findReferencedSince(@Param("paths") Collection<String> paths, @Param("since") long since);
+
+    // Проверка и удаление одним запросом: строка остаётся, если ссылку захватили с момента since
+    @Modifying
+    @Query("DELETE FROM ImageMetadata i WHERE i.path = :path AND COALESCE(i.lastReferencedAt, i.createdAt) < :since")
+    int deleteIfUnreferencedSince(@Param("path") String path, @Param("since") long since);
+
+    @Query("SELECT COUNT(i) > 0 FROM ImageMetadata i WHERE i.path = :path AND COALESCE(i.lastReferencedAt, i.createdAt) >= :since")
+    boolean isReferencedSince(@Param("path") String path, @Param("since") long since);
+
+    // Сводка для администратора: один агрегирующий запрос по таблице, файлы не читаются
+    interface TypeStats {
+        String getContentType();
+
+        Long getImages();
+
+        Long getBytes();
+
+        Long getReferences();
+
+        Long getDedupSavedBytes();
+
+        Long getMaxBytes();
+
+        Double getAverageWidth();
+
+        Double getAverageHeight();
+    }
+
+    @Query("SELECT i.contentType AS contentType, COUNT(i) AS images, SUM(i.size) AS bytes, "
+            + "SUM(i.refCount) AS references, SUM(i.size * (i.refCount - 1)) AS dedupSavedBytes, "
+            + "MAX(i.size) AS maxBytes, AVG(i.width) AS averageWidth, AVG(i.height) AS averageHeight "
+            + "FROM ImageMetadata i GROUP BY i.contentType ORDER BY SUM(i.size) DESC")
+    List<TypeStats> summarizeByContentType();
+}
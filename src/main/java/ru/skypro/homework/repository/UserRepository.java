@@ -1,10 +1,21 @@
 package ru.skypro.homework.repository;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import ru.skypro.homework.entity.User;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 
 public interface UserRepository extends JpaRepository<User, Integer> {
     Optional<User> findByEmail(String email);
+
+    @Query(value = "SELECT id FROM users WHERE deletion_requested_at IS NOT NULL ORDER BY id LIMIT :limit",
+            nativeQuery = true)
+    List<Integer> findIdsPendingDeletion(@Param("limit") int limit);
+
+    @Query("SELECT u.image FROM User u WHERE u.image IN :paths")
+    List<String> findImagesIn(@Param("paths") Collection<String> paths);
 }
@@ -0,0 +1,56 @@
+package ru.skypro.homework.repository;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import ru.skypro.homework.entity.UserStorage;
+
+import javax.persistence.LockModeType;
+import java.util.List;
+
+public interface UserStorageRepository extends JpaRepository<UserStorage, String> {
+
+    // Узлы прибавляют свои изменения к строке, а не перезаписывают её
+    @Modifying
+    @Query("update UserStorage s set s.usedBytes = s.usedBytes + :delta, s.updatedAt = :now where s.email = :email")
+    int addUsedBytes(@Param("email") String email, @Param("delta") long delta, @Param("now") long now);
+
+    @Modifying
+    @Query(value = "insert into user_storage (email, used_bytes, updated_at) values (:email, :usedBytes, :now)",
+            nativeQuery = true)
+    void insertUsedBytes(@Param("email") String email, @Param("usedBytes") long usedBytes, @Param("now") long now);
+
+    @Modifying
+    @Query("update UserStorage s set s.usedBytes = :usedBytes, s.updatedAt = :now where s.email = :email")
+    int setUsedBytes(@Param("email") String email, @Param("usedBytes") long usedBytes, @Param("now") long now);
+
+    // Строки, изменённые с момента since любым узлом
+    List<UserStorage> findByUpdatedAtGreaterThanEqual(long since);
+
+    // Блокирует строки до конца транзакции: сброс изменений другими узлами ждёт окончания сверки
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select s from UserStorage s")
+    List<UserStorage> findAllForUpdate();
+
+    // Суммы для сверки: байты файлов, на которые ссылаются записи пользователя. Каждая ссылка
+    // считается отдельно, как и при учёте в ImageService; картинки по умолчанию не считаются
+    interface ReferencedBytes {
+        String getEmail();
+
+        Long getUsedBytes();
+    }
+
+    @Query("select a.author.email as email, sum(i.size) as usedBytes from Ad a, ImageMetadata i "
+            + "where i.path = a.imageUrl and i.path not like '%/default!_%' escape '!' group by a.author.email")
+    List<ReferencedBytes> sumAdCoverBytes();
+
+    @Query("select a.author.email as email, sum(i.size) as usedBytes from AdImage g, Ad a, ImageMetadata i "
+            + "where a.id = g.adId and i.path = g.imageUrl group by a.author.email")
+    List<ReferencedBytes> sumAdGalleryBytes();
+
+    @Query("select u.email as email, sum(i.size) as usedBytes from User u, ImageMetadata i "
+            + "where i.path = u.image and i.path not like '%/default!_%' escape '!' group by u.email")
+    List<ReferencedBytes> sumAvatarBytes();
+}
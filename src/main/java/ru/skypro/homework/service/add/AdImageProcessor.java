@@ -0,0 +1,201 @@
+package ru.skypro.homework.service.add;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.server.ResponseStatusException;
+import ru.skypro.homework.dto.AdStatus;
+import ru.skypro.homework.entity.Ad;
+import ru.skypro.homework.repository.AdRepository;
+import ru.skypro.homework.service.image.ImageService;
+import ru.skypro.homework.service.image.StreamedImageFile;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Фоновая обработка изображения асинхронно создаваемого объявления.
+ * <p>
+ * В потоке запроса тело только сохраняется во временный файл (для multipart-части Tomcat
+ * это обычно переименование уже записанного файла), строка объявления фиксируется в
+ * статусе PROCESSING, и клиент получает 202. Сохранение изображения через
+ * {@link ImageService#saveImage} идёт в пуле adImageExecutor; после него объявление
+ * публикуется (ACTIVE), при ошибке - помечается FAILED.
+ * <p>
+ * Файлы лежат в spool-dir под именем &lt;id объявления&gt;.upload и переживают перезапуск:
+ * при старте необработанные объявления ставятся в очередь снова, владелец изображения
+ * (автор объявления) находится по id.
+ */
+@Slf4j
+@Component
+public class AdImageProcessor {
+    private static final String SPOOL_SUFFIX = ".upload";
+    // После перезапуска исходный Content-Type неизвестен, формат определяется по сигнатуре файла
+    private static final String RESUMED_CONTENT_TYPE = "image/*";
+    private static final int MAX_ATTEMPTS = 3;
+
+    private final AdRepository adRepository;
+    private final ImageService imageService;
+    private final TaskExecutor executor;
+    private final TransactionTemplate transactionTemplate;
+    private final Path spoolDirectory;
+    private final long startedAt = System.currentTimeMillis();
+
+    @Value("${app.ad.async.retry-pause-ms:1000}")
+    private long retryPauseMs;
+
+    public AdImageProcessor(AdRepository adRepository, ImageService imageService,
+                            @Qualifier("adImageExecutor") TaskExecutor executor,
+                            PlatformTransactionManager transactionManager,
+                            @Value("${app.ad.async.spool-dir:uploads/pending/}") String spoolDirectory) {
+        this.adRepository = adRepository;
+        this.imageService = imageService;
+        this.executor = executor;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.spoolDirectory = Paths.get(spoolDirectory).toAbsolutePath();
+    }
+
+    @PostConstruct
+    public void init() throws IOException {
+        Files.createDirectories(spoolDirectory);
+    }
+
+    /**
+     * Сохраняет тело загрузки во временный файл; вызывается в потоке запроса до сохранения объявления
+     */
+    public Path spool(MultipartFile image) throws IOException {
+        Path spoolFile = Files.createTempFile(spoolDirectory, ".incoming", ".tmp");
+        try {
+            image.transferTo(spoolFile.toFile());
+            return spoolFile;
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(spoolFile);
+            throw e;
+        }
+    }
+
+    /**
+     * Привязывает файл к сохранённому объявлению и ставит обработку в очередь.
+     * Если очередь заполнена - 503, файл удаляется; объявление удаляет вызывающий код.
+     * owner - автор объявления, на чью квоту записывается изображение
+     */
+    public void submit(Integer adId, Path spoolFile, String contentType, String owner) throws IOException {
+        Path target = spoolFile(adId);
+        Files.move(spoolFile, target, StandardCopyOption.REPLACE_EXISTING);
+        try {
+            executor.execute(() -> process(adId, target, contentType, owner));
+        } catch (TaskRejectedException e) {
+            Files.deleteIfExists(target);
+            log.warn("Очередь обработки изображений объявлений заполнена, объявление ID={} отклонено", adId);
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE,
+                    "Сервер перегружен, повторите попытку позже");
+        }
+    }
+
+    public void discard(Path spoolFile) {
+        try {
+            Files.deleteIfExists(spoolFile);
+        } catch (IOException e) {
+            log.warn("Не удалось удалить временный файл {}: {}", spoolFile, e.getMessage());
+        }
+    }
+
+    /**
+     * Файлы, оставшиеся после остановки, обрабатываются снова; файлы удалённых или уже
+     * обработанных объявлений и недописанные .incoming удаляются
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void resumePending() {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(spoolDirectory)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                if (!name.endsWith(SPOOL_SUFFIX) && Files.getLastModifiedTime(file).toMillis() >= startedAt) {
+                    continue; // запрос, начатый уже после старта
+                }
+                Integer adId = name.endsWith(SPOOL_SUFFIX) ? parseId(name) : null;
+                AdStatus status = adId == null ? null
+                        : adRepository.findById(adId).map(Ad::getStatus).orElse(null);
+                if (status != AdStatus.PROCESSING) {
+                    Files.deleteIfExists(file);
+                    continue;
+                }
+                // Квота - автора объявления, как при первой постановке в очередь
+                String owner = adRepository.findAuthorEmailById(adId).orElse(null);
+                try {
+                    executor.execute(() -> process(adId, file, RESUMED_CONTENT_TYPE, owner));
+                    log.info("Обработка изображения объявления ID={} возобновлена после перезапуска", adId);
+                } catch (TaskRejectedException e) {
+                    log.warn("Очередь заполнена, объявление ID={} будет обработано после следующего перезапуска", adId);
+                }
+            }
+        } catch (IOException e) {
+            log.error("Ошибка возобновления обработки изображений объявлений", e);
+        }
+    }
+
+    private void process(Integer adId, Path spoolFile, String contentType, String owner) {
+        try {
+            String imagePath = saveWithRetry(spoolFile, contentType, owner);
+            String placeholder = imageService.getPlaceholder(imagePath);
+            Integer updated = transactionTemplate.execute(status ->
+                    adRepository.completeProcessing(adId, imagePath, placeholder));
+            if (updated == null || updated == 0) {
+                // объявление удалили, пока обрабатывалось изображение
+                imageService.deleteImage(imagePath, owner);
+                log.info("Объявление ID={} удалено до окончания обработки изображения", adId);
+            } else {
+                log.info("Объявление ID={} опубликовано, изображение {}", adId, imagePath);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn("Обработка изображения объявления ID={} прервана", adId);
+            return;
+        } catch (IOException | RuntimeException e) {
+            log.error("Ошибка обработки изображения объявления ID={}: {}", adId, e.getMessage());
+            transactionTemplate.executeWithoutResult(status -> adRepository.failProcessing(adId));
+        }
+        discard(spoolFile);
+    }
+
+    // Пул нормализации мог быть переполнен - в фоне можно подождать, а не отказывать сразу
+    private String saveWithRetry(Path spoolFile, String contentType, String owner)
+            throws IOException, InterruptedException {
+        for (int attempt = 1; ; attempt++) {
+            try (InputStream in = Files.newInputStream(spoolFile)) {
+                return imageService.saveImage(new StreamedImageFile(in, contentType, Files.size(spoolFile)), "ads", owner);
+            } catch (ResponseStatusException e) {
+                if (e.getStatus() != HttpStatus.SERVICE_UNAVAILABLE || attempt >= MAX_ATTEMPTS) {
+                    throw e;
+                }
+                Thread.sleep(retryPauseMs * attempt);
+            }
+        }
+    }
+
+    private Path spoolFile(Integer adId) {
+        return spoolDirectory.resolve(adId + SPOOL_SUFFIX);
+    }
+
+    private static Integer parseId(String name) {
+        try {
+            return Integer.valueOf(name.substring(0, name.length() - SPOOL_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
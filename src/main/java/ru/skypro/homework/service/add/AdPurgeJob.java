@@ -0,0 +1,104 @@
+package ru.skypro.homework.service.add;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import ru.skypro.homework.entity.Ad;
+import ru.skypro.homework.repository.AdImageRepository;
+import ru.skypro.homework.repository.AdRepository;
+import ru.skypro.homework.repository.ArchivedCommentRepository;
+import ru.skypro.homework.repository.CommentRepository;
+import ru.skypro.homework.service.image.ImageService;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Фоновая очистка объявлений, помеченных на удаление (ads.deleted = true).
+ * <p>
+ * Комментарии удаляются порциями, каждая в своей транзакции, поэтому большие ветки
+ * не держат долгих блокировок. Состояние очистки - сами данные в БД: прерванный
+ * запуск продолжается со следующего.
+ */
+@Slf4j
+@Component
+public class AdPurgeJob {
+    private final AdRepository adRepository;
+    private final AdImageRepository adImageRepository;
+    private final CommentRepository commentRepository;
+    private final ArchivedCommentRepository archivedCommentRepository;
+    private final ImageService imageService;
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    @Value("${app.ad.purge.ads-per-run:50}")
+    private int adsPerRun;
+
+    @Value("${app.ad.purge.chunk-size:1000}")
+    private int chunkSize;
+
+    @Value("${app.ad.purge.pause-ms:50}")
+    private long pauseMs;
+
+    public AdPurgeJob(AdRepository adRepository, AdImageRepository adImageRepository, CommentRepository commentRepository,
+                      ArchivedCommentRepository archivedCommentRepository, ImageService imageService) {
+        this.adRepository = adRepository;
+        this.adImageRepository = adImageRepository;
+        this.commentRepository = commentRepository;
+        this.archivedCommentRepository = archivedCommentRepository;
+        this.imageService = imageService;
+    }
+
+    @Scheduled(fixedDelayString = "${app.ad.purge.interval-ms:30000}")
+    public void purgeDeletedAds() {
+        if (!running.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            List<Integer> adIds = adRepository.findDeletedIds(adsPerRun);
+            for (Integer adId : adIds) {
+                // Сбой одного объявления не останавливает очистку остальных
+                try {
+                    purgeAd(adId);
+                } catch (RuntimeException e) {
+                    log.error("Ошибка очистки объявления ID {}", adId, e);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn("Очистка удалённых объявлений прервана");
+        } catch (RuntimeException e) {
+            log.error("Ошибка очистки удалённых объявлений", e);
+        } finally {
+            running.set(false);
+        }
+    }
+
+    private void purgeAd(Integer adId) throws InterruptedException {
+        int deleted;
+        while ((deleted = commentRepository.deleteChunkByAdId(adId, chunkSize)) > 0) {
+            log.debug("Удалена порция из {} комментариев объявления ID: {}", deleted, adId);
+            Thread.sleep(pauseMs);
+        }
+        while ((deleted = archivedCommentRepository.deleteChunkByAdId(adId, chunkSize)) > 0) {
+            log.debug("Удалена порция из {} архивных комментариев объявления ID: {}", deleted, adId);
+            Thread.sleep(pauseMs);
+        }
+
+        List<String> imagePaths = new ArrayList<>(adImageRepository.findImageUrlsByAdId(adId));
+        adRepository.findById(adId).map(Ad::getImageUrl).ifPresent(imagePaths::add);
+        String owner = adRepository.findAuthorEmailById(adId).orElse(null);
+        adImageRepository.deleteByAdId(adId);
+        adRepository.deleteById(adId);
+        for (String imagePath : imagePaths) {
+            try {
+                imageService.deleteImage(imagePath, owner);
+            } catch (IOException e) {
+                log.warn("Не удалось удалить изображение {}: {}", imagePath, e.getMessage());
+            }
+        }
+        log.info("Объявление ID {} окончательно удалено", adId);
+    }
+}
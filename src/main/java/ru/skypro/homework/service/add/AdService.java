@@ -2,17 +2,28 @@ package ru.skypro.homework.service.add;
 
 import org.springframework.web.multipart.MultipartFile;
 import ru.skypro.homework.dto.AdDto;
+import ru.skypro.homework.dto.AdStatusDto;
 import ru.skypro.homework.dto.AdsDto;
 import ru.skypro.homework.dto.CreateOrUpdateAdDto;
 import ru.skypro.homework.dto.ExtendedAdDto;
 
 import java.io.IOException;
+import java.util.List;
 
 public interface AdService {
     AdsDto getAllAds();
 
     AdDto createAd(CreateOrUpdateAdDto createAdDto, MultipartFile image, String username) throws IOException;
 
+    // Объявление с изображением, уже сохранённым на сервере (см. POST /images/negotiate)
+    AdDto createAd(CreateOrUpdateAdDto createAdDto, String imageHash, String username) throws IOException;
+
+    // Объявление сохраняется в статусе PROCESSING, изображение обрабатывается в фоне (Prefer: respond-async)
+    AdDto createAdAsync(CreateOrUpdateAdDto createAdDto, MultipartFile image, String username) throws IOException;
+
+    // GET /ads/{id}/status - Состояние асинхронно создаваемого объявления
+    AdStatusDto getAdStatus(Integer id);
+
     // GET /ads/{id} - Получение информации об объявлении
     ExtendedAdDto getExtendedAdById(Integer id);
 
@@ -27,6 +38,14 @@ public interface AdService {
     // PATCH /ads/{id}/image - Обновление картинки объявления
     void updateAdImage(Integer id, MultipartFile image, String username) throws IOException;
 
+    void updateAdImage(Integer id, String imageHash, String username) throws IOException;
+
+    // POST /ads/{id}/images - Добавление фото в галерею; возвращает галерею целиком
+    List<String> addAdImages(Integer id, List<MultipartFile> images, String username) throws IOException;
+
+    // GET /ads/{id}/images - Галерея: обложка и фото по порядку
+    List<String> getAdImages(Integer id);
+
     // Вспомогательные методы
     boolean isOwner(Integer adId, String userEmail);
 
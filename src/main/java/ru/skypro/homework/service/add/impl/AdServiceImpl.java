@@ -1,27 +1,43 @@
 package ru.skypro.homework.service.add.impl;
 
 import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
 import java.util.stream.Collectors;
 
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.server.ResponseStatusException;
 import ru.skypro.homework.dto.AdDto;
+import ru.skypro.homework.dto.AdStatus;
+import ru.skypro.homework.dto.AdStatusDto;
 import ru.skypro.homework.dto.AdsDto;
 import ru.skypro.homework.dto.CreateOrUpdateAdDto;
 import ru.skypro.homework.dto.ExtendedAdDto;
 import ru.skypro.homework.dto.Role;
 import ru.skypro.homework.entity.Ad;
-import ru.skypro.homework.entity.Comment;
+import ru.skypro.homework.entity.AdImage;
 import ru.skypro.homework.entity.User;
 import ru.skypro.homework.exception.AdAccessDeniedException;
 import ru.skypro.homework.exception.AdNotFoundException;
 import ru.skypro.homework.mappers.AdMapper;
+import ru.skypro.homework.repository.AdImageRepository;
 import ru.skypro.homework.repository.AdRepository;
+import ru.skypro.homework.repository.ArchivedCommentRepository;
 import ru.skypro.homework.repository.CommentRepository;
 import ru.skypro.homework.repository.UserRepository;
+import ru.skypro.homework.service.add.AdImageProcessor;
 import ru.skypro.homework.service.add.AdService;
+import ru.skypro.homework.service.comment.CommentPageCache;
 import ru.skypro.homework.service.image.ImageService;
 
 @Slf4j
@@ -33,19 +49,34 @@ public class AdServiceImpl implements AdService {
     private final UserRepository userRepository;
     private final ImageService imageService;
     private final CommentRepository commentRepository;
+    private final CommentPageCache commentPageCache;
+    private final ArchivedCommentRepository archivedCommentRepository;
+    private final AdImageProcessor adImageProcessor;
+    private final AdImageRepository adImageRepository;
 
-    public AdServiceImpl(AdRepository adRepository, UserRepository userRepository, AdMapper adMapper, ImageService imageService, CommentRepository commentRepository) {
+    @Value("${app.ad.delete.deferred:false}")
+    private boolean deferredDelete;
+
+    // Всего фото в объявлении вместе с обложкой
+    @Value("${app.ad.gallery.max-images:10}")
+    private int maxGalleryImages;
+
+    public AdServiceImpl(AdRepository adRepository, UserRepository userRepository, AdMapper adMapper, ImageService imageService, CommentRepository commentRepository, CommentPageCache commentPageCache, ArchivedCommentRepository archivedCommentRepository, AdImageProcessor adImageProcessor, AdImageRepository adImageRepository) {
         this.adRepository = adRepository;
         this.userRepository = userRepository;
         this.adMapper = adMapper;
         this.imageService = imageService;
         this.commentRepository = commentRepository;
+        this.commentPageCache = commentPageCache;
+        this.archivedCommentRepository = archivedCommentRepository;
+        this.adImageProcessor = adImageProcessor;
+        this.adImageRepository = adImageRepository;
     }
 
     @Override
     public AdsDto getAllAds() {
         log.info("Получение списка всех объявлений");
-        List<Ad> ads = adRepository.findAll();
+        List<Ad> ads = adRepository.findAllByDeletedFalseAndStatus(AdStatus.ACTIVE);
 
         AdsDto adsDto = new AdsDto();
         adsDto.setCount(ads.size());
@@ -61,33 +92,106 @@ public class AdServiceImpl implements AdService {
     public AdDto createAd(CreateOrUpdateAdDto createAdDto, MultipartFile image, String username) throws IOException {
         log.info("Создание нового объявления пользователем: {}", username);
 
-        // Находим автора
-        User author = userRepository.findByEmail(username)
+        User author = findAuthor(username);
+        validateNewAd(createAdDto);
+        if (image == null || image.isEmpty()) {
+            throw new IllegalArgumentException("Изображение обязательно");
+        }
+
+        // Сохраняем изображение
+        String imagePath = imageService.saveImage(image, "ads", author.getEmail());
+        return saveNewAd(createAdDto, author, imagePath);
+    }
+
+    @Override
+    public AdDto createAd(CreateOrUpdateAdDto createAdDto, String imageHash, String username) throws IOException {
+        log.info("Создание нового объявления с уже загруженным изображением пользователем: {}", username);
+
+        User author = findAuthor(username);
+        validateNewAd(createAdDto);
+
+        String imagePath = imageService.reuseImage(imageHash, "ads", author.getEmail());
+        return saveNewAd(createAdDto, author, imagePath);
+    }
+
+    @Override
+    public AdDto createAdAsync(CreateOrUpdateAdDto createAdDto, MultipartFile image, String username) throws IOException {
+        log.info("Асинхронное создание объявления пользователем: {}", username);
+
+        User author = findAuthor(username);
+        validateNewAd(createAdDto);
+        if (image == null || image.isEmpty()) {
+            throw new IllegalArgumentException("Изображение обязательно");
+        }
+
+        // В потоке запроса только дочитываем тело; сохранение изображения - в фоне
+        Path spoolFile = adImageProcessor.spool(image);
+        Ad savedAd;
+        try {
+            Ad ad = newAd(createAdDto, author);
+            ad.setStatus(AdStatus.PROCESSING);
+            savedAd = adRepository.save(ad);
+        } catch (RuntimeException e) {
+            adImageProcessor.discard(spoolFile);
+            throw e;
+        }
+
+        try {
+            adImageProcessor.submit(savedAd.getId(), spoolFile, image.getContentType(), author.getEmail());
+        } catch (IOException | RuntimeException e) {
+            adImageProcessor.discard(spoolFile);
+            adRepository.delete(savedAd);
+            throw e;
+        }
+        log.info("Объявление ID={} принято, изображение обрабатывается", savedAd.getId());
+        return adMapper.adToAdDto(savedAd);
+    }
+
+    @Override
+    public AdStatusDto getAdStatus(Integer id) {
+        Ad ad = adRepository.findByIdAndDeletedFalse(id)
+                .orElseThrow(() -> new AdNotFoundException("Объявление не найдено"));
+
+        AdStatusDto status = new AdStatusDto();
+        status.setPk(ad.getId());
+        status.setStatus(ad.getStatus());
+        if (ad.getStatus() == AdStatus.ACTIVE) {
+            status.setAd(adMapper.adToAdDto(ad));
+        }
+        return status;
+    }
+
+    private User findAuthor(String username) {
+        return userRepository.findByEmail(username)
                 .orElseThrow(() -> {
                     log.error("Пользователь {} не найден", username);
                     return new RuntimeException("Пользователь не найден");
                 });
+    }
 
+    private void validateNewAd(CreateOrUpdateAdDto createAdDto) {
         if (createAdDto.getTitle() == null || createAdDto.getTitle().trim().isEmpty()) {
             throw new IllegalArgumentException("Заголовок объявления не может быть пустым");
         }
         if (createAdDto.getPrice() == null || createAdDto.getPrice() <= 0) {
             throw new IllegalArgumentException("Цена должна быть положительной");
         }
-        if (image == null || image.isEmpty()) {
-            throw new IllegalArgumentException("Изображение обязательно");
-        }
-
-        // Сохраняем изображение
-        String imagePath = imageService.saveImage(image, "ads");
+    }
 
-        // Создаем объявление
+    private Ad newAd(CreateOrUpdateAdDto createAdDto, User author) {
         Ad ad = new Ad();
         ad.setAuthor(author);
         ad.setTitle(createAdDto.getTitle());
         ad.setPrice(createAdDto.getPrice());
         ad.setDescription(createAdDto.getDescription() != null ? createAdDto.getDescription() : "");
+        return ad;
+    }
+
+    private AdDto saveNewAd(CreateOrUpdateAdDto createAdDto, User author, String imagePath) {
+        // Создаем объявление
+        Ad ad = newAd(createAdDto, author);
         ad.setImageUrl(imagePath);
+        ad.setImagePlaceholder(imageService.getPlaceholder(imagePath));
 
         Ad savedAd = adRepository.save(ad);
         log.info("Объявление успешно создано: ID={}, заголовок='{}'", savedAd.getId(), savedAd.getTitle());
@@ -99,7 +203,7 @@ public class AdServiceImpl implements AdService {
     public ExtendedAdDto getExtendedAdById(Integer id) {
         log.info("Получение расширенной информации об объявлении ID: {}", id);
 
-        Ad ad = adRepository.findById(id)
+        Ad ad = adRepository.findByIdAndDeletedFalseAndStatus(id, AdStatus.ACTIVE)
                 .orElseThrow(() -> {
                     log.error("Объявление с ID {} не найдено", id);
                     return new AdNotFoundException("Объявление не найдено");
@@ -113,6 +217,8 @@ public class AdServiceImpl implements AdService {
         extendedAd.setPrice(ad.getPrice());
         extendedAd.setDescription(ad.getDescription());
         extendedAd.setImage(ad.getImageUrl());
+        extendedAd.setImagePlaceholder(ad.getImagePlaceholder());
+        extendedAd.setImages(gallery(ad));
         extendedAd.setEmail(author.getEmail());
         extendedAd.setPhone(author.getPhone());
         extendedAd.setAuthorFirstName(author.getFirstName());
@@ -123,10 +229,11 @@ public class AdServiceImpl implements AdService {
     }
 
     @Override
+    @Transactional
     public void deleteAd(Integer id, String username) {
         log.info("Удаление объявления ID: {} пользователем: {}", id, username);
 
-        Ad ad = adRepository.findById(id)
+        Ad ad = adRepository.findForUpdate(id)
                 .orElseThrow(() -> new AdNotFoundException("Объявление не найдено"));
 
         // Проверяем права: владелец ИЛИ админ
@@ -138,14 +245,28 @@ public class AdServiceImpl implements AdService {
             throw new AdAccessDeniedException("Нет прав для удаления объявления");
         }
 
-        // сначала удаляем все комментарии этого объявления
-        List<Comment> comments = commentRepository.findByAdId(id);
-        if (!comments.isEmpty()) {
-            log.debug("Удаление {} комментариев объявления ID: {}", comments.size(), id);
-            commentRepository.deleteAll(comments);
+        if (deferredDelete) {
+            // Объявление сразу скрывается, комментарии и картинку удалит AdPurgeJob
+            adRepository.markDeleted(id);
+            evictComments(id);
+            log.info("Объявление с ID {} помечено на удаление", id);
+            return;
         }
 
+        // Комментарии удаляются одним запросом, без загрузки в память
+        int deletedComments = commentRepository.deleteByAdId(id);
+        int deletedArchived = archivedCommentRepository.deleteByAdId(id);
+        log.debug("Удалено {} комментариев и {} архивных комментариев объявления ID: {}", deletedComments, deletedArchived, id);
+
+        List<String> galleryImages = adImageRepository.findImageUrlsByAdId(id);
+        adImageRepository.deleteByAdId(id);
         adRepository.delete(ad);
+        evictComments(id);
+        String owner = ad.getAuthor().getEmail();
+        if (ad.getImageUrl() != null) {
+            deleteImageAfterCommit(ad.getImageUrl(), owner);
+        }
+        galleryImages.forEach(imagePath -> deleteImageAfterCommit(imagePath, owner));
         log.info("Объявление с ID {} успешно удалено", id);
     }
 
@@ -153,7 +274,7 @@ public class AdServiceImpl implements AdService {
     public AdDto updateAd(Integer id, CreateOrUpdateAdDto updateDto, String username) {
         log.info("Обновление объявления ID: {} пользователем: {}", id, username);
 
-        Ad existingAd = adRepository.findById(id)
+        Ad existingAd = adRepository.findByIdAndDeletedFalse(id)
                 .orElseThrow(() ->  new AdNotFoundException("Объявление не найдено"));
 
         // Получаем пользователя чтобы проверить роль
@@ -193,7 +314,7 @@ public class AdServiceImpl implements AdService {
         User author = userRepository.findByEmail(username)
                 .orElseThrow(() -> new RuntimeException("Пользователь не найден"));
 
-        List<Ad> userAds = adRepository.findByAuthor(author);
+        List<Ad> userAds = adRepository.findByAuthorAndDeletedFalseAndStatus(author, AdStatus.ACTIVE);
 
         AdsDto adsDto = new AdsDto();
         adsDto.setCount(userAds.size());
@@ -206,10 +327,91 @@ public class AdServiceImpl implements AdService {
     }
 
     @Override
+    @Transactional
     public void updateAdImage(Integer id, MultipartFile image, String username) throws IOException {
         log.info("Обновление изображения объявления ID: {} пользователем: {}", id, username);
 
-        Ad existingAd = adRepository.findById(id)
+        Ad existingAd = findAdForImageUpdate(id, username);
+
+        if (image == null || image.isEmpty()) {
+            throw new IllegalArgumentException("Изображение обязательно");
+        }
+
+        // Сохраняем изображение
+        // Фронт отправляет файл → сервис сохраняет на диск → возвращает путь
+        String newImagePath = imageService.saveImage(image, "ads", existingAd.getAuthor().getEmail());
+        replaceAdImage(existingAd, newImagePath);
+    }
+
+    @Override
+    @Transactional
+    public void updateAdImage(Integer id, String imageHash, String username) throws IOException {
+        log.info("Обновление изображения объявления ID: {} уже загруженным файлом, пользователь: {}", id, username);
+
+        Ad existingAd = findAdForImageUpdate(id, username);
+        String newImagePath = imageService.reuseImage(imageHash, "ads", existingAd.getAuthor().getEmail());
+        replaceAdImage(existingAd, newImagePath);
+    }
+
+    @Override
+    @Transactional
+    public List<String> addAdImages(Integer id, List<MultipartFile> images, String username) throws IOException {
+        log.info("Добавление фото в галерею объявления ID: {} пользователем: {}", id, username);
+
+        Ad ad = findAdForImageUpdate(id, username);
+        List<MultipartFile> files = images == null ? List.of() : images.stream()
+                .filter(image -> image != null && !image.isEmpty())
+                .collect(Collectors.toList());
+        if (files.isEmpty()) {
+            throw new IllegalArgumentException("Изображение обязательно");
+        }
+        if (1 + adImageRepository.countByAdId(id) + files.size() > maxGalleryImages) {
+            throw new IllegalArgumentException("В объявлении может быть не больше " + maxGalleryImages + " фото");
+        }
+
+        // Фото сохраняются параллельно: запрос длится примерно как сохранение самого большого из них.
+        // Место записывается на автора объявления, даже если фото добавляет администратор
+        String owner = ad.getAuthor().getEmail();
+        List<String> imagePaths = imageService.saveImages(files, "ads", owner);
+
+        int position = adImageRepository.findMaxPosition(id);
+        List<AdImage> added = new ArrayList<>(imagePaths.size());
+        for (String imagePath : imagePaths) {
+            added.add(new AdImage(id, ++position, imagePath, imageService.getPlaceholder(imagePath)));
+        }
+        try {
+            adImageRepository.saveAll(added);
+        } catch (DataIntegrityViolationException e) {
+            // параллельный запрос занял те же позиции или объявление удалили
+            for (String imagePath : imagePaths) {
+                imageService.deleteImage(imagePath, owner);
+            }
+            throw new ResponseStatusException(HttpStatus.CONFLICT, "Галерея изменилась, повторите загрузку");
+        }
+        log.info("В галерею объявления ID={} добавлено {} фото", id, added.size());
+        return gallery(ad);
+    }
+
+    @Override
+    public List<String> getAdImages(Integer id) {
+        Ad ad = adRepository.findByIdAndDeletedFalseAndStatus(id, AdStatus.ACTIVE)
+                .orElseThrow(() -> new AdNotFoundException("Объявление не найдено"));
+        return gallery(ad);
+    }
+
+    private List<String> gallery(Ad ad) {
+        List<String> gallery = new ArrayList<>();
+        gallery.add(ad.getImageUrl());
+        adImageRepository.findByAdIdOrderByPosition(ad.getId()).stream()
+                .map(AdImage::getImageUrl)
+                .forEach(gallery::add);
+        gallery.removeIf(Objects::isNull);
+        return gallery;
+    }
+
+    private Ad findAdForImageUpdate(Integer id, String username) {
+        // Пока изображение обрабатывается в фоне, заменить его нельзя - фон перезапишет замену
+        Ad existingAd = adRepository.findByIdAndDeletedFalseAndStatus(id, AdStatus.ACTIVE)
                 .orElseThrow(() -> new AdNotFoundException("Объявление не найдено"));
 
         // Получаем пользователя чтобы проверить роль
@@ -224,32 +426,58 @@ public class AdServiceImpl implements AdService {
             log.warn("Попытка обновления изображения чужого объявления: пользователь={}, объявление={}", username, id);
             throw new AdAccessDeniedException("Нет прав для обновления объявления");
         }
+        return existingAd;
+    }
 
-        if (image == null || image.isEmpty()) {
-            throw new IllegalArgumentException("Изображение обязательно");
-        }
-
-        // Сохраняем изображение
-        // Фронт отправляет файл → сервис сохраняет на диск → возвращает путь
-        String newImagePath = imageService.saveImage(image, "ads");
+    private void replaceAdImage(Ad existingAd, String newImagePath) {
+        String oldImagePath = existingAd.getImageUrl();
         existingAd.setImageUrl(newImagePath);
+        existingAd.setImagePlaceholder(imageService.getPlaceholder(newImagePath));
         adRepository.save(existingAd);
 
-        log.info("Изображение обновлено для объявления ID: {}", id);
+        // Старый файл теряет ссылку этого объявления
+        if (oldImagePath != null) {
+            deleteImageAfterCommit(oldImagePath, existingAd.getAuthor().getEmail());
+        }
+        log.info("Изображение обновлено для объявления ID: {}", existingAd.getId());
     }
 
     @Override
     public String getAdImagePath(Integer id) {
-        return adRepository.findById(id)
+        return adRepository.findByIdAndDeletedFalse(id)
                 .map(Ad::getImageUrl)
                 .orElseThrow(() -> new RuntimeException("Объявление не найдено"));
     }
 
 
+    // Повторно после фиксации: чтение, начатое до неё, ещё видело объявление и могло вернуть ветку в кэш
+    private void evictComments(Integer adId) {
+        commentPageCache.evict(adId);
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                commentPageCache.evict(adId);
+            }
+        });
+    }
+
+    private void deleteImageAfterCommit(String imagePath, String owner) {
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                try {
+                    imageService.deleteImage(imagePath, owner);
+                } catch (IOException e) {
+                    log.warn("Не удалось удалить изображение {}: {}", imagePath, e.getMessage());
+                }
+            }
+        });
+    }
+
     @Override
     public boolean isOwner(Integer adId, String userEmail) {
         log.debug("Проверка прав доступа: объявление ID={}, пользователь={}", adId, userEmail);
-        boolean isOwner = adRepository.findById(adId)
+        boolean isOwner = adRepository.findByIdAndDeletedFalse(adId)
                 .map(ad -> {
                     boolean result = ad.getAuthor().getEmail().equals(userEmail);
                     log.debug("Результат проверки прав: {}", result);
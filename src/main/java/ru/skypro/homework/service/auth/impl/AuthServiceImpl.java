@@ -33,7 +33,7 @@ public class AuthServiceImpl implements AuthService {
     public boolean login(String email, String password) {
         try {
             UserDetails userDetails = userDetailsService.loadUserByUsername(email);
-            return encoder.matches(password, userDetails.getPassword());
+            return userDetails.isEnabled() && encoder.matches(password, userDetails.getPassword());
         } catch (UsernameNotFoundException e) {
             return false;
         }
@@ -0,0 +1,108 @@
+package ru.skypro.homework.service.comment;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.skypro.homework.repository.ArchivedCommentRepository;
+import ru.skypro.homework.repository.CommentRepository;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Фоновый перенос старых комментариев из comments в comments_archive.
+ * <p>
+ * Каждая порция переносится в отдельной транзакции (копирование + удаление), поэтому
+ * прерванный запуск оставляет данные согласованными, а следующий продолжает с оставшихся строк.
+ * Нагрузку ограничивают размер порции, пауза между порциями и число порций за запуск.
+ */
+@Slf4j
+@Component
+public class CommentArchiver {
+    private final CommentRepository commentRepository;
+    private final ArchivedCommentRepository archivedCommentRepository;
+    private final CommentPageCache commentPageCache;
+    private final TransactionTemplate transactionTemplate;
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    @Value("${app.comment.archive.enabled:true}")
+    private boolean enabled;
+
+    @Value("${app.comment.archive.max-age:P90D}")
+    private Duration maxAge;
+
+    @Value("${app.comment.archive.chunk-size:500}")
+    private int chunkSize;
+
+    @Value("${app.comment.archive.pause-ms:200}")
+    private long pauseMs;
+
+    @Value("${app.comment.archive.max-chunks-per-run:100}")
+    private int maxChunksPerRun;
+
+    public CommentArchiver(CommentRepository commentRepository, ArchivedCommentRepository archivedCommentRepository,
+                           CommentPageCache commentPageCache, PlatformTransactionManager transactionManager) {
+        this.commentRepository = commentRepository;
+        this.archivedCommentRepository = archivedCommentRepository;
+        this.commentPageCache = commentPageCache;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    @Scheduled(fixedDelayString = "${app.comment.archive.interval-ms:3600000}",
+            initialDelayString = "${app.comment.archive.initial-delay-ms:60000}")
+    public void archiveOldComments() {
+        if (!enabled || !running.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            long createdBefore = Instant.now().minus(maxAge).toEpochMilli();
+            int archived = 0;
+
+            for (int chunk = 0; chunk < maxChunksPerRun; chunk++) {
+                int moved = archiveChunk(createdBefore);
+                if (moved == 0) {
+                    break;
+                }
+                archived += moved;
+                Thread.sleep(pauseMs);
+            }
+
+            if (archived > 0) {
+                log.info("В архив перенесено {} комментариев старше {}", archived, maxAge);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn("Архивация комментариев прервана");
+        } catch (RuntimeException e) {
+            log.error("Ошибка архивации комментариев", e);
+        } finally {
+            running.set(false);
+        }
+    }
+
+    private int archiveChunk(long createdBefore) {
+        List<Integer> ids = commentRepository.findIdsCreatedBefore(createdBefore, chunkSize);
+        if (ids.isEmpty()) {
+            return 0;
+        }
+
+        List<Integer> adIds = transactionTemplate.execute(status -> {
+            List<Integer> touchedAds = commentRepository.findAdIdsByIdIn(ids);
+            archivedCommentRepository.copyFromComments(ids, Instant.now().toEpochMilli());
+            commentRepository.deleteByIdIn(ids);
+            return touchedAds;
+        });
+
+        // Перенесённые комментарии больше не входят в горячую страницу
+        if (adIds != null) {
+            adIds.forEach(commentPageCache::evict);
+        }
+        log.debug("Перенесена в архив порция из {} комментариев", ids.size());
+        return ids.size();
+    }
+}
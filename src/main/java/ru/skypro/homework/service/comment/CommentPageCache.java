@@ -0,0 +1,240 @@
+package ru.skypro.homework.service.comment;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.skypro.homework.dto.CommentDto;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Кэш новых комментариев объявления (готовые {@link CommentDto}, от новых к старым).
+ * <p>
+ * Запись не перестраивается при каждом изменении: добавление, редактирование и удаление
+ * комментария дописывают или правят закэшированный список на месте.
+ * Количество записей ограничено (LRU), как и размер одной записи: хранятся max-page-size самых
+ * новых комментариев. Если ветка короче, запись содержит её целиком и отвечает и на запрос
+ * всех комментариев; длинная ветка отдаётся из кэша только первой страницей.
+ * <p>
+ * Кэш локален для узла: изменения, сделанные на других узлах, в него не попадают. Поэтому запись
+ * живёт не дольше ttl с момента чтения из БД - на столько отстают ветки, изменённые на соседних узлах.
+ */
+@Slf4j
+@Component
+public class CommentPageCache {
+    private final int maxEntries;
+    private final int maxPageSize;
+    private final long ttlMillis;
+    private final Map<Integer, Page> entries;
+
+    // Версия последнего изменения по объявлению, чтобы загрузка из БД не перетёрла более свежие данные.
+    // Изменение одного объявления не отбрасывает загрузки остальных
+    private final Map<Integer, Long> modified;
+    private long clock;
+    // Наибольшая версия среди вытесненных из modified: для них известна только верхняя граница
+    private long forgotten;
+    // Версия последнего evictAuthor - касается всех объявлений
+    private long authorsChanged;
+
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter evictions;
+
+    public CommentPageCache(@Value("${app.comment.cache.max-entries:1000}") int maxEntries,
+                            @Value("${app.comment.cache.max-page-size:50}") int maxPageSize,
+                            @Value("${app.comment.cache.ttl:PT10S}") Duration ttl,
+                            MeterRegistry meterRegistry) {
+        this.maxEntries = maxEntries;
+        this.maxPageSize = maxPageSize;
+        this.ttlMillis = ttl.toMillis();
+        this.hits = Counter.builder("comments.cache.requests").tag("result", "hit").register(meterRegistry);
+        this.misses = Counter.builder("comments.cache.requests").tag("result", "miss").register(meterRegistry);
+        this.evictions = Counter.builder("comments.cache.evictions").register(meterRegistry);
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Page> eldest) {
+                boolean evict = size() > CommentPageCache.this.maxEntries;
+                if (evict) {
+                    evictions.increment();
+                }
+                return evict;
+            }
+        };
+        this.modified = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Long> eldest) {
+                boolean evict = size() > CommentPageCache.this.maxEntries;
+                if (evict) {
+                    forgotten = Math.max(forgotten, eldest.getValue());
+                }
+                return evict;
+            }
+        };
+        Gauge.builder("comments.cache.size", this, CommentPageCache::size).register(meterRegistry);
+    }
+
+    public int getMaxPageSize() {
+        return maxPageSize;
+    }
+
+    /**
+     * Первые size комментариев от новых к старым или {@code null}, если записи нет
+     * или в ней меньше комментариев, чем запрошено, а ветка длиннее
+     */
+    public synchronized List<CommentDto> getNewest(Integer adId, int size) {
+        Page page = live(adId);
+        if (page == null || (!page.complete && page.comments.size() < size)) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return page.comments.subList(0, Math.min(size, page.comments.size()));
+    }
+
+    /**
+     * Все комментарии объявления от старых к новым или {@code null}, если ветка закэширована
+     * не целиком
+     */
+    public synchronized List<CommentDto> getAll(Integer adId) {
+        Page page = live(adId);
+        if (page == null || !page.complete) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        List<CommentDto> oldestFirst = new ArrayList<>(page.comments);
+        Collections.reverse(oldestFirst);
+        return Collections.unmodifiableList(oldestFirst);
+    }
+
+    /**
+     * Текущая версия для объявления; берётся перед чтением из БД и передаётся в {@link #put}
+     */
+    public synchronized long version(Integer adId) {
+        return lastModified(adId);
+    }
+
+    /**
+     * Кладёт загруженные из БД комментарии (от новых к старым), если с момента
+     * {@link #version(Integer)} объявление не менялось. Хранятся первые max-page-size
+     *
+     * @param complete в списке вся ветка
+     */
+    public synchronized void put(Integer adId, List<CommentDto> newestFirst, boolean complete, long loadedVersion) {
+        if (lastModified(adId) != loadedVersion) {
+            return;
+        }
+        entries.put(adId, new Page(newestFirst, complete, System.currentTimeMillis()));
+    }
+
+    public synchronized void append(Integer adId, CommentDto comment) {
+        touch(adId);
+        Page page = entries.get(adId);
+        if (page == null) {
+            return;
+        }
+        List<CommentDto> updated = new ArrayList<>(page.comments.size() + 1);
+        updated.add(comment);
+        updated.addAll(page.comments);
+        entries.put(adId, page.with(updated));
+    }
+
+    public synchronized void replace(Integer adId, CommentDto comment) {
+        touch(adId);
+        Page page = entries.get(adId);
+        if (page == null) {
+            return;
+        }
+        List<CommentDto> updated = new ArrayList<>(page.comments);
+        for (int i = 0; i < updated.size(); i++) {
+            if (Objects.equals(updated.get(i).getPk(), comment.getPk())) {
+                updated.set(i, comment);
+            }
+        }
+        entries.put(adId, page.with(updated));
+    }
+
+    public synchronized void remove(Integer adId, Integer commentId) {
+        touch(adId);
+        Page page = entries.get(adId);
+        if (page == null) {
+            return;
+        }
+        List<CommentDto> updated = new ArrayList<>(page.comments);
+        updated.removeIf(comment -> Objects.equals(comment.getPk(), commentId));
+        entries.put(adId, page.with(updated));
+    }
+
+    public synchronized void evict(Integer adId) {
+        touch(adId);
+        entries.remove(adId);
+    }
+
+    /**
+     * Удаляет записи, где встречаются комментарии пользователя (сменились имя или аватар)
+     */
+    public synchronized void evictAuthor(Integer authorId) {
+        authorsChanged = ++clock;
+        Iterator<Page> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().comments.stream().anyMatch(comment -> Objects.equals(comment.getAuthor(), authorId))) {
+                iterator.remove();
+            }
+        }
+        log.debug("Из кэша комментариев удалены записи автора ID: {}", authorId);
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    // Запись, которая ещё не устарела; устаревшая удаляется
+    private Page live(Integer adId) {
+        Page page = entries.get(adId);
+        if (page != null && System.currentTimeMillis() - page.loadedAt >= ttlMillis) {
+            entries.remove(adId);
+            return null;
+        }
+        return page;
+    }
+
+    private void touch(Integer adId) {
+        modified.put(adId, ++clock);
+    }
+
+    private long lastModified(Integer adId) {
+        Long stamp = modified.get(adId);
+        return Math.max(stamp == null ? forgotten : stamp, authorsChanged);
+    }
+
+    /**
+     * Закэшированные комментарии объявления; правки на месте не продлевают срок записи
+     */
+    private final class Page {
+        private final List<CommentDto> comments;
+        private final boolean complete;
+        private final long loadedAt;
+
+        Page(List<CommentDto> newestFirst, boolean complete, long loadedAt) {
+            // ветка, которая не помещается в запись, хранится первой страницей
+            this.complete = complete && newestFirst.size() <= maxPageSize;
+            this.comments = Collections.unmodifiableList(
+                    new ArrayList<>(newestFirst.subList(0, Math.min(maxPageSize, newestFirst.size()))));
+            this.loadedAt = loadedAt;
+        }
+
+        Page with(List<CommentDto> newestFirst) {
+            return new Page(newestFirst, complete, loadedAt);
+        }
+    }
+}
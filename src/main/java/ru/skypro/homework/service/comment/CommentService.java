@@ -7,8 +7,12 @@ import ru.skypro.homework.dto.CreateOrUpdateCommentDto;
 
 
 public interface CommentService {
+    // Все комментарии объявления, включая архивные
     List<CommentDto> getCommentsByAdId(Integer adId);
 
+    // Постраничное чтение от новых к старым; за пределами горячих комментариев читает архив
+    List<CommentDto> getCommentsByAdId(Integer adId, int page, int size);
+
     CommentDto addComment(Integer adId, CreateOrUpdateCommentDto createCommentDto, String username);
 
     CommentDto updateComment(Integer commentId, CreateOrUpdateCommentDto updateCommentDto, String username);
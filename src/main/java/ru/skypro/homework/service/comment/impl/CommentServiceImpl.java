@@ -1,17 +1,20 @@
 package ru.skypro.homework.service.comment.impl;
 
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import java.util.stream.Collectors;
 
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.server.ResponseStatusException;
 import ru.skypro.homework.dto.CommentDto;
 import ru.skypro.homework.dto.CreateOrUpdateCommentDto;
 import ru.skypro.homework.dto.Role;
 import ru.skypro.homework.entity.Ad;
+import ru.skypro.homework.entity.ArchivedComment;
 import ru.skypro.homework.entity.Comment;
 import ru.skypro.homework.entity.User;
 import ru.skypro.homework.exception.AdNotFoundException;
@@ -19,8 +22,10 @@ import ru.skypro.homework.exception.CommentAccessDeniedException;
 import ru.skypro.homework.exception.CommentNotFoundException;
 import ru.skypro.homework.mappers.CommentMapper;
 import ru.skypro.homework.repository.AdRepository;
+import ru.skypro.homework.repository.ArchivedCommentRepository;
 import ru.skypro.homework.repository.CommentRepository;
 import ru.skypro.homework.repository.UserRepository;
+import ru.skypro.homework.service.comment.CommentPageCache;
 import ru.skypro.homework.service.comment.CommentService;
 
 @Slf4j
@@ -30,15 +35,24 @@ public class CommentServiceImpl implements CommentService {
     private final CommentMapper commentMapper;
     private final AdRepository adRepository;
     private final UserRepository userRepository;
+    private final CommentPageCache commentPageCache;
+    private final ArchivedCommentRepository archivedCommentRepository;
 
-    public CommentServiceImpl(CommentRepository commentRepository, AdRepository adRepository, UserRepository userRepository, CommentMapper commentMapper) {
+    public CommentServiceImpl(CommentRepository commentRepository, AdRepository adRepository, UserRepository userRepository, CommentMapper commentMapper, CommentPageCache commentPageCache, ArchivedCommentRepository archivedCommentRepository) {
         this.commentRepository = commentRepository;
         this.adRepository = adRepository;
         this.userRepository = userRepository;
         this.commentMapper = commentMapper;
+        this.commentPageCache = commentPageCache;
+        this.archivedCommentRepository = archivedCommentRepository;
     }
 
+    /**
+     * Объявление читается под разделяемой блокировкой до конца транзакции: удаление
+     * объявления ждёт вставки комментария, а вставка после удаления получает 404
+     */
     @Override
+    @Transactional
     public CommentDto addComment(Integer adId, CreateOrUpdateCommentDto createCommentDto, String username) {
         log.debug("Добавление комментария к объявлению ID: {} пользователем: {}", adId, username);
 
@@ -49,7 +63,7 @@ public class CommentServiceImpl implements CommentService {
         }
 
         try {
-            Ad ad = adRepository.findById(adId)
+            Ad ad = adRepository.findForShare(adId)
                     .orElseThrow(() -> new AdNotFoundException("Объявление с ID " + adId + " не найдено"));
 
             User author = userRepository.findByEmail(username)
@@ -68,7 +82,9 @@ public class CommentServiceImpl implements CommentService {
             Comment savedComment = commentRepository.save(comment);
             log.info("Добавлен комментарий к объявлению ID: {}", adId);
 
-            return commentMapper.commentToCommentDto(savedComment);
+            CommentDto commentDto = commentMapper.commentToCommentDto(savedComment);
+            commentPageCache.append(adId, commentDto);
+            return commentDto;
         } catch (AdNotFoundException e) {
             log.warn("Объявление не найдено: ID {}", adId);
             throw new ResponseStatusException(HttpStatus.NOT_FOUND, e.getMessage());
@@ -78,19 +94,24 @@ public class CommentServiceImpl implements CommentService {
         }
     }
 
+    /**
+     * Комментарий ищется и в архиве: списки отдают архивные комментарии вместе с горячими
+     */
     @Override
     public CommentDto updateComment(Integer commentId, CreateOrUpdateCommentDto updateCommentDto, String username) {
         log.debug("Обновление комментария ID: {} пользователем: {}", commentId, username);
 
         try {
-            Comment comment = commentRepository.findById(commentId)
+            Comment comment = commentRepository.findById(commentId).orElse(null);
+            ArchivedComment archived = comment != null ? null : archivedCommentRepository.findById(commentId)
                     .orElseThrow(() -> new CommentNotFoundException("Комментарий не найден"));
 
             User user = userRepository.findByEmail(username)
                     .orElseThrow(() -> new RuntimeException("Пользователь не найден"));
 
             // Проверяем права: автор комментария или админ
-            if (!comment.getAuthor().getEmail().equals(username) && user.getRole() != Role.ADMIN) {
+            User author = comment != null ? comment.getAuthor() : archived.getAuthor();
+            if (!author.getEmail().equals(username) && user.getRole() != Role.ADMIN) {
                 log.warn("Попытка обновления чужого комментария: пользователь={}, комментарий={}", username, commentId);
                 throw new CommentAccessDeniedException("Нет прав для обновления комментария");
             }
@@ -99,11 +120,21 @@ public class CommentServiceImpl implements CommentService {
                 throw new IllegalArgumentException("Текст комментария не может быть пустым");
             }
 
-            comment.setText(updateCommentDto.getText());
-            Comment updatedComment = commentRepository.save(comment);
+            CommentDto commentDto;
+            Integer adId;
+            if (comment != null) {
+                comment.setText(updateCommentDto.getText());
+                commentDto = commentMapper.commentToCommentDto(commentRepository.save(comment));
+                adId = comment.getAd().getId();
+            } else {
+                archived.setText(updateCommentDto.getText());
+                commentDto = commentMapper.archivedCommentToCommentDto(archivedCommentRepository.save(archived));
+                adId = archived.getAdId();
+            }
             log.info("Обновлен комментарий ID: {}", commentId);
 
-            return commentMapper.commentToCommentDto(updatedComment);
+            commentPageCache.replace(adId, commentDto);
+            return commentDto;
         } catch (CommentNotFoundException e) {
             log.warn("Комментарий не найден: ID {}", commentId);
             throw new ResponseStatusException(HttpStatus.NOT_FOUND, e.getMessage());
@@ -118,19 +149,29 @@ public class CommentServiceImpl implements CommentService {
         log.debug("Удаление комментария ID: {} пользователем: {}", commentId, username);
 
         try {
-            Comment comment = commentRepository.findById(commentId)
+            Comment comment = commentRepository.findById(commentId).orElse(null);
+            ArchivedComment archived = comment != null ? null : archivedCommentRepository.findById(commentId)
                     .orElseThrow(() -> new CommentNotFoundException("Комментарий не найден"));
 
             User user = userRepository.findByEmail(username)
                     .orElseThrow(() -> new RuntimeException("Пользователь не найден"));
 
             // Проверяем права: автор комментария или админ
-            if (!comment.getAuthor().getEmail().equals(username) && user.getRole() != Role.ADMIN) {
+            User author = comment != null ? comment.getAuthor() : archived.getAuthor();
+            if (!author.getEmail().equals(username) && user.getRole() != Role.ADMIN) {
                 log.warn("Попытка удаления чужого комментария: пользователь={}, комментарий={}", username, commentId);
                 throw new CommentAccessDeniedException("Нет прав для удаления комментария");
             }
 
-            commentRepository.delete(comment);
+            Integer adId;
+            if (comment != null) {
+                commentRepository.delete(comment);
+                adId = comment.getAd().getId();
+            } else {
+                archivedCommentRepository.delete(archived);
+                adId = archived.getAdId();
+            }
+            commentPageCache.remove(adId, commentId);
             log.info("Удален комментарий ID: {}", commentId);
         } catch (CommentNotFoundException e) {
             log.warn("Комментарий не найден: ID {}", commentId);
@@ -142,27 +183,98 @@ public class CommentServiceImpl implements CommentService {
     public List<CommentDto> getCommentsByAdId(Integer adId) {
         log.debug("Получение комментариев для объявления ID: {}", adId);
 
+        // Горячие объявления отдаём из кэша, не обращаясь к БД
+        List<CommentDto> cached = commentPageCache.getAll(adId);
+        if (cached != null) {
+            return cached;
+        }
+
+        long cacheVersion = commentPageCache.version(adId);
         try {
-            // Проверяем существование объявления
-            if (!adRepository.existsById(adId)) {
+            if (!adRepository.existsByIdAndDeletedFalse(adId)) {
                 throw new AdNotFoundException("Объявление с ID " + adId + " не найдено");
             }
 
-            List<Comment> comments = commentRepository.findByAdId(adId);
-            return comments.stream()
+            // Те же комментарии, что и при постраничном чтении: архивные старше горячих и идут первыми
+            List<CommentDto> commentDtos = new ArrayList<>();
+            archivedCommentRepository.findByAdIdOrderByCreatedAtAscIdAsc(adId).stream()
+                    .map(commentMapper::archivedCommentToCommentDto)
+                    .forEach(commentDtos::add);
+            List<Comment> comments = commentRepository.findByAdIdOrderByCreatedAtAscIdAsc(adId);
+            comments.stream()
                     .map(commentMapper::commentToCommentDto)
-                    .collect(Collectors.toList());
+                    .forEach(commentDtos::add);
+
+            List<CommentDto> newestFirst = new ArrayList<>(commentDtos);
+            Collections.reverse(newestFirst);
+            commentPageCache.put(adId, newestFirst, true, cacheVersion);
+            return commentDtos;
         } catch (AdNotFoundException e) {
             log.warn("Объявление не найдено: ID {}", adId);
             throw new ResponseStatusException(HttpStatus.NOT_FOUND, e.getMessage());
         }
     }
 
+    @Override
+    public List<CommentDto> getCommentsByAdId(Integer adId, int page, int size) {
+        log.debug("Получение страницы {} (размер {}) комментариев объявления ID: {}", page, size, adId);
+
+        if (page < 0 || size <= 0) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Некорректные параметры страницы");
+        }
+        if (page == 0) {
+            List<CommentDto> cached = commentPageCache.getNewest(adId, size);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        long cacheVersion = commentPageCache.version(adId);
+        if (!adRepository.existsByIdAndDeletedFalse(adId)) {
+            log.warn("Объявление не найдено: ID {}", adId);
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Объявление с ID " + adId + " не найдено");
+        }
+        if (page > 0) {
+            return readPage(adId, (long) page * size, size);
+        }
+
+        // Первая страница читается размером записи кэша, чтобы следующие запросы попадали в кэш
+        int limit = Math.max(size, commentPageCache.getMaxPageSize());
+        List<CommentDto> newest = readPage(adId, 0, limit);
+        commentPageCache.put(adId, newest, newest.size() < limit, cacheVersion);
+        return newest.subList(0, Math.min(size, newest.size()));
+    }
+
+    // Страница от новых к старым: сначала горячие комментарии, за их пределами - архив
+    private List<CommentDto> readPage(Integer adId, long offset, int size) {
+        long hotCount = commentRepository.countByAdId(adId);
+        List<CommentDto> result = new ArrayList<>(size);
+
+        if (offset < hotCount) {
+            commentRepository.findPageByAdId(adId, size, offset).stream()
+                    .map(commentMapper::commentToCommentDto)
+                    .forEach(result::add);
+        }
+
+        // Архив читаем только когда страница выходит за пределы горячих комментариев
+        int remaining = size - result.size();
+        if (remaining > 0 && offset + result.size() >= hotCount) {
+            long archiveOffset = Math.max(0, offset - hotCount);
+            archivedCommentRepository.findPageByAdId(adId, remaining, archiveOffset).stream()
+                    .map(commentMapper::archivedCommentToCommentDto)
+                    .forEach(result::add);
+        }
+
+        return result;
+    }
+
     //вспомогательный метод для проверки авторизации
     @Override
     public boolean isCommentAuthor(Integer commentId, String userEmail) {
         return commentRepository.findById(commentId)
                 .map(comment -> comment.getAuthor().getEmail().equals(userEmail))
+                .or(() -> archivedCommentRepository.findById(commentId)
+                        .map(comment -> comment.getAuthor().getEmail().equals(userEmail)))
                 .orElse(false);
     }
 }
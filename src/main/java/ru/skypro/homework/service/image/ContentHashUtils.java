@@ -0,0 +1,49 @@
+package ru.skypro.homework.service.image;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+// Утилитный класс: SHA-256 содержимого изображений
+public final class ContentHashUtils {
+
+    private ContentHashUtils() {
+
+    }
+
+    public static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 недоступен", e);
+        }
+    }
+
+    public static String toHex(byte[] digest) {
+        StringBuilder hex = new StringBuilder(digest.length * 2);
+        for (byte b : digest) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16));
+            hex.append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    public static String hashFile(Path file) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            return hashStream(in);
+        }
+    }
+
+    // Поток читается до конца, но не закрывается
+    public static String hashStream(InputStream in) throws IOException {
+        MessageDigest digest = newDigest();
+        new DigestInputStream(in, digest).transferTo(OutputStream.nullOutputStream());
+        return toHex(digest.digest());
+    }
+
+}
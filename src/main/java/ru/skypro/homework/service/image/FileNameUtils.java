@@ -13,6 +13,33 @@ public final class FileNameUtils {
                 Math.abs(originalFilename.hashCode()) + fileExtension;
     }
 
+    // Картинки по умолчанию общие для всех записей и не удаляются
+    public static boolean isDefaultImage(String imagePath) {
+        return imagePath == null || imagePath.substring(imagePath.lastIndexOf('/') + 1).startsWith("default_");
+    }
+
+    // Путь уменьшенной копии: img_1_2.jpg -> img_1_2_w160.jpg
+    public static String variantPath(String imagePath, int width) {
+        int slash = imagePath.lastIndexOf('/');
+        int dot = imagePath.lastIndexOf('.');
+        if (dot <= slash) {
+            return imagePath + "_w" + width;
+        }
+        return imagePath.substring(0, dot) + "_w" + width + imagePath.substring(dot);
+    }
+
+    // Путь оригинала для уменьшенной копии: img_1_2_w160.jpg -> img_1_2.jpg
+    public static String originalPath(String imagePath) {
+        return imagePath.replaceFirst("_w\\d+(\\.[^./]*)?$", "$1");
+    }
+
+    // Раздел изображения: /images/ads/img.jpg -> ads
+    public static String subfolderOf(String imagePath) {
+        String relative = imagePath.startsWith("/images/") ? imagePath.substring("/images/".length()) : imagePath;
+        int slash = relative.indexOf('/');
+        return slash < 0 ? "" : relative.substring(0, slash);
+    }
+
     public static String getFileName(String filename) {
         if (filename == null || !filename.contains(".")) {
             return ".jpg";
@@ -0,0 +1,95 @@
+package ru.skypro.homework.service.image;
+
+import org.apache.commons.fileupload.FileCountLimitExceededException;
+import org.apache.commons.fileupload.FileItem;
+import org.apache.commons.fileupload.FileUploadBase;
+import org.apache.commons.fileupload.FileUploadException;
+import org.apache.commons.fileupload.disk.DiskFileItemFactory;
+import org.apache.commons.fileupload.servlet.ServletFileUpload;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.multipart.commons.CommonsMultipartFile;
+import org.springframework.web.server.ResponseStatusException;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Разбор multipart-запроса галереи (POST /ads/{id}/images) со своим лимитом размера.
+ * <p>
+ * Общий spring.servlet.multipart.max-request-size рассчитан на один файл, а запрос галереи
+ * несёт до app.ad.gallery.max-images файлов. Поэтому тело галереи читается отсюда, а не
+ * контейнером (spring.servlet.multipart.resolve-lazily=true, части не разбираются заранее),
+ * с лимитом max-images × max-upload-size на запрос и max-upload-size на файл.
+ * Остальные запросы ограничены общим лимитом.
+ */
+@Component
+public class GalleryUploadReader {
+    private final DiskFileItemFactory itemFactory;
+    private final int maxImages;
+    private final long maxFileBytes;
+
+    public GalleryUploadReader(@Value("${app.ad.gallery.max-images:10}") int maxImages,
+                               @Value("${app.image.max-upload-size:10MB}") DataSize maxUploadSize,
+                               @Value("${spring.servlet.multipart.location:${java.io.tmpdir}}") String location,
+                               @Value("${spring.servlet.multipart.file-size-threshold:0B}") DataSize sizeThreshold) {
+        this.maxImages = maxImages;
+        this.maxFileBytes = maxUploadSize.toBytes();
+        this.itemFactory = new DiskFileItemFactory((int) sizeThreshold.toBytes(), new File(location));
+        this.itemFactory.setDefaultCharset(StandardCharsets.UTF_8.name());
+    }
+
+    public long getMaxRequestBytes() {
+        return maxImages * maxFileBytes;
+    }
+
+    /**
+     * Файлы из частей partName. Запрос больше лимита отклоняется с 413 - по Content-Length
+     * до чтения тела, иначе как только прочитано больше лимита
+     */
+    public List<MultipartFile> read(HttpServletRequest request, String partName) {
+        ServletFileUpload upload = new ServletFileUpload(itemFactory);
+        upload.setSizeMax(getMaxRequestBytes());
+        upload.setFileSizeMax(maxFileBytes);
+        // Лишние части не разбираются: фото больше max-images всё равно не поместятся в галерею
+        upload.setFileCountMax(maxImages);
+        List<FileItem> items;
+        try {
+            items = upload.parseRequest(request);
+        } catch (FileUploadBase.SizeLimitExceededException | FileUploadBase.FileSizeLimitExceededException e) {
+            throw new ResponseStatusException(HttpStatus.PAYLOAD_TOO_LARGE, "Превышен размер загрузки галереи");
+        } catch (FileCountLimitExceededException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    "В одном запросе не больше " + maxImages + " фото");
+        } catch (FileUploadException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Некорректный multipart-запрос");
+        }
+
+        List<MultipartFile> files = new ArrayList<>();
+        for (FileItem item : items) {
+            if (!item.isFormField() && partName.equals(item.getFieldName())) {
+                files.add(new CommonsMultipartFile(item));
+            } else {
+                item.delete();
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Удаляет временные файлы частей, записанные на диск
+     */
+    public void cleanup(List<MultipartFile> files) {
+        for (MultipartFile file : files) {
+            if (file instanceof CommonsMultipartFile) {
+                ((CommonsMultipartFile) file).getFileItem().delete();
+            }
+        }
+    }
+}
@@ -0,0 +1,405 @@
+package ru.skypro.homework.service.image;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.AbstractResource;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Кэш содержимого часто запрашиваемых изображений в direct {@link ByteBuffer} (вне кучи).
+ * <p>
+ * Объём ограничен бюджетом в байтах. Вытеснение учитывает частоту обращений: новый файл
+ * попадает в кэш, только если его запрашивали не реже, чем вытесняемый (TinyLFU); кандидаты
+ * на вытеснение - случайная выборка из закэшированных файлов. Решение о допуске принимается
+ * до чтения файла, поэтому редкие файлы не занимают direct-память даже временно.
+ * Одновременные промахи по одному файлу открывают его в хранилище один раз: допущенный файл
+ * читается в буфер один раз, недопущенный отдаётся всем ожидающим тем же ресурсом хранилища.
+ * Файлы крупнее max-entry-bytes не кэшируются и отдаются из хранилища.
+ * <p>
+ * Direct-память ограничивается -XX:MaxDirectMemorySize (по умолчанию равна -Xmx).
+ */
+@Component
+public class HotImageCache {
+    private static final int EVICTION_SAMPLE = 8;
+    private static final int GENERATION_STRIPES = 64;
+
+    private final long maxBytes;
+    private final long maxEntryBytes;
+    private final Map<String, ByteBuffer> entries = new ConcurrentHashMap<>();
+    private final Map<String, CompletableFuture<Loaded>> loading = new ConcurrentHashMap<>();
+    private final FrequencySketch frequencies = new FrequencySketch(1 << 16);
+    private final AtomicLong residentBytes = new AtomicLong();
+    // Ключи кэша в массиве для случайной выборки кандидатов на вытеснение; меняются под монитором кэша
+    private final List<String> slots = new ArrayList<>();
+    private final Map<String, Integer> slotOf = new HashMap<>();
+    // Поколения по полосам ключей: invalidate() увеличивает поколение, и чтение, начатое
+    // раньше, не кладёт в кэш устаревшее содержимое
+    private final AtomicLongArray generations = new AtomicLongArray(GENERATION_STRIPES);
+
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter evictions;
+
+    public HotImageCache(@Value("${app.image.cache.max-bytes:268435456}") long maxBytes,
+                         @Value("${app.image.cache.max-entry-bytes:2097152}") long maxEntryBytes,
+                         MeterRegistry meterRegistry) {
+        this.maxBytes = maxBytes;
+        this.maxEntryBytes = maxEntryBytes;
+        this.hits = Counter.builder("images.cache.requests").tag("result", "hit").register(meterRegistry);
+        this.misses = Counter.builder("images.cache.requests").tag("result", "miss").register(meterRegistry);
+        this.evictions = Counter.builder("images.cache.evictions").register(meterRegistry);
+        Gauge.builder("images.cache.resident.bytes", residentBytes, AtomicLong::get).baseUnit("bytes").register(meterRegistry);
+        Gauge.builder("images.cache.entries", entries, Map::size).register(meterRegistry);
+        Gauge.builder("images.cache.hit.ratio", this, HotImageCache::hitRatio).register(meterRegistry);
+    }
+
+    /**
+     * Возвращает изображение из кэша или читает его из хранилища
+     *
+     * @param key    публичный путь изображения (/images/...)
+     * @param source содержимое в хранилище; открывается только при промахе
+     */
+    public Resource load(String key, Source source) throws IOException {
+        frequencies.increment(key);
+
+        ByteBuffer cached = entries.get(key);
+        if (cached != null) {
+            hits.increment();
+            return new ByteBufferResource(cached, key);
+        }
+        misses.increment();
+
+        // Промах регистрируется до открытия источника: одновременные промахи по одному файлу
+        // ждут одно открытие, в том числе когда файл не допускается в кэш
+        CompletableFuture<Loaded> ownLoad = new CompletableFuture<>();
+        CompletableFuture<Loaded> inFlight = loading.putIfAbsent(key, ownLoad);
+        if (inFlight != null) {
+            Loaded loaded = await(inFlight);
+            if (loaded.buffer != null) {
+                return new ByteBufferResource(loaded.buffer, key);
+            }
+            // Ресурс с уже открытым потоком читается один раз - такой открываем заново
+            return loaded.resource.isOpen() ? source.open() : loaded.resource;
+        }
+
+        long generation = generations.get(stripe(key));
+        try {
+            // чтение, закончившееся между проверкой кэша и регистрацией, уже положило файл в кэш
+            cached = entries.get(key);
+            if (cached != null) {
+                ownLoad.complete(new Loaded(cached, null));
+                return new ByteBufferResource(cached, key);
+            }
+            Resource resource = source.open();
+            long size = resource.contentLength();
+            if (size > maxEntryBytes || !admissible(key, size)) {
+                ownLoad.complete(new Loaded(null, resource));
+                return resource;
+            }
+            ByteBuffer buffer = readDirect(resource);
+            admit(key, buffer, generation);
+            ownLoad.complete(new Loaded(buffer, null));
+            return new ByteBufferResource(buffer, key);
+        } catch (IOException | RuntimeException e) {
+            ownLoad.completeExceptionally(e);
+            throw e;
+        } finally {
+            loading.remove(key, ownLoad);
+        }
+    }
+
+    public synchronized void invalidate(String key) {
+        generations.incrementAndGet(stripe(key));
+        // новые промахи не должны присоединяться к чтению, начатому до изменения
+        loading.remove(key);
+        ByteBuffer removed = entries.remove(key);
+        if (removed != null) {
+            residentBytes.addAndGet(-removed.capacity());
+            removeSlot(key);
+        }
+    }
+
+    public long residentBytes() {
+        return residentBytes.get();
+    }
+
+    private double hitRatio() {
+        double total = hits.count() + misses.count();
+        return total == 0 ? 0 : hits.count() / total;
+    }
+
+    private Loaded await(CompletableFuture<Loaded> inFlight) throws IOException {
+        try {
+            return inFlight.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private ByteBuffer readDirect(Resource resource) throws IOException {
+        if (resource.isFile()) {
+            try (FileChannel channel = FileChannel.open(resource.getFile().toPath(), StandardOpenOption.READ)) {
+                ByteBuffer buffer = ByteBuffer.allocateDirect((int) channel.size());
+                while (buffer.hasRemaining() && channel.read(buffer, buffer.position()) >= 0) {
+                    // читаем до конца файла
+                }
+                buffer.flip();
+                return buffer.asReadOnlyBuffer();
+            }
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect((int) resource.contentLength());
+        byte[] chunk = new byte[8192];
+        try (InputStream in = resource.getInputStream()) {
+            int read;
+            while (buffer.hasRemaining() && (read = in.read(chunk, 0, Math.min(chunk.length, buffer.remaining()))) >= 0) {
+                buffer.put(chunk, 0, read);
+            }
+        }
+        buffer.flip();
+        return buffer.asReadOnlyBuffer();
+    }
+
+    /**
+     * Предварительное решение о допуске до выделения буфера: файл помещается в свободный
+     * бюджет или запрашивается не реже, чем случайно выбранный кандидат на вытеснение
+     */
+    private synchronized boolean admissible(String key, long size) {
+        if (size > maxBytes) {
+            return false;
+        }
+        if (residentBytes.get() + size <= maxBytes) {
+            return true;
+        }
+        String victim = pickVictim();
+        return victim != null && frequencies.estimate(victim) <= frequencies.estimate(key);
+    }
+
+    private synchronized void admit(String key, ByteBuffer buffer, long generation) {
+        int size = buffer.capacity();
+        if (size > maxBytes || entries.containsKey(key) || generations.get(stripe(key)) != generation) {
+            // файл изменили или удалили, пока он читался
+            return;
+        }
+
+        int candidateFrequency = frequencies.estimate(key);
+        while (residentBytes.get() + size > maxBytes) {
+            String victim = pickVictim();
+            if (victim == null || frequencies.estimate(victim) > candidateFrequency) {
+                // вытесняемые файлы популярнее нового - новый не кэшируем
+                return;
+            }
+            ByteBuffer removed = entries.remove(victim);
+            if (removed != null) {
+                residentBytes.addAndGet(-removed.capacity());
+                removeSlot(victim);
+            }
+            evictions.increment();
+        }
+
+        entries.put(key, buffer);
+        residentBytes.addAndGet(size);
+        slotOf.put(key, slots.size());
+        slots.add(key);
+    }
+
+    // Наименее популярный из случайной выборки; вызывается под монитором кэша
+    private String pickVictim() {
+        if (slots.isEmpty()) {
+            return null;
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        String victim = null;
+        int victimFrequency = Integer.MAX_VALUE;
+        for (int i = 0; i < Math.min(EVICTION_SAMPLE, slots.size()); i++) {
+            String key = slots.get(random.nextInt(slots.size()));
+            int frequency = frequencies.estimate(key);
+            if (frequency < victimFrequency) {
+                victim = key;
+                victimFrequency = frequency;
+            }
+        }
+        return victim;
+    }
+
+    // Удаление из массива ключей перестановкой последнего на место удалённого
+    private void removeSlot(String key) {
+        Integer slot = slotOf.remove(key);
+        if (slot == null) {
+            return;
+        }
+        String last = slots.remove(slots.size() - 1);
+        if (slot < slots.size()) {
+            slots.set(slot, last);
+            slotOf.put(last, slot);
+        }
+    }
+
+    private static int stripe(String key) {
+        return (key.hashCode() & Integer.MAX_VALUE) % GENERATION_STRIPES;
+    }
+
+    // Результат промаха для ожидающих: буфер кэша или ресурс хранилища, если файл не допущен
+    private static final class Loaded {
+        private final ByteBuffer buffer;
+        private final Resource resource;
+
+        private Loaded(ByteBuffer buffer, Resource resource) {
+            this.buffer = buffer;
+            this.resource = resource;
+        }
+    }
+
+    /**
+     * Источник содержимого при промахе кэша
+     */
+    @FunctionalInterface
+    public interface Source {
+        Resource open() throws IOException;
+    }
+
+    /**
+     * Count-min sketch частот обращений с периодическим делением счётчиков пополам,
+     * чтобы старая популярность постепенно забывалась
+     */
+    static final class FrequencySketch {
+        private static final int MAX_COUNT = 15;
+
+        private final AtomicIntegerArray counters;
+        private final int mask;
+        private final int resetThreshold;
+        private final AtomicLong additions = new AtomicLong();
+
+        FrequencySketch(int size) {
+            this.counters = new AtomicIntegerArray(size);
+            this.mask = size - 1;
+            this.resetThreshold = size * 10;
+        }
+
+        void increment(String key) {
+            int hash = spread(key.hashCode());
+            for (int i = 0; i < 4; i++) {
+                int index = indexOf(hash, i);
+                counters.getAndUpdate(index, value -> value < MAX_COUNT ? value + 1 : value);
+            }
+            if (additions.incrementAndGet() >= resetThreshold) {
+                reset();
+            }
+        }
+
+        int estimate(String key) {
+            int hash = spread(key.hashCode());
+            int min = MAX_COUNT;
+            for (int i = 0; i < 4; i++) {
+                min = Math.min(min, counters.get(indexOf(hash, i)));
+            }
+            return min;
+        }
+
+        private synchronized void reset() {
+            if (additions.get() < resetThreshold) {
+                return;
+            }
+            for (int i = 0; i < counters.length(); i++) {
+                counters.getAndUpdate(i, value -> value >>> 1);
+            }
+            additions.set(0);
+        }
+
+        private int indexOf(int hash, int row) {
+            int h = hash * (0x9E3779B9 + row * 0x61C88647);
+            return (h ^ (h >>> 16)) & mask;
+        }
+
+        private static int spread(int hash) {
+            hash ^= hash >>> 17;
+            hash *= 0xED5AD4BB;
+            return hash ^ (hash >>> 11);
+        }
+    }
+
+    /**
+     * Ресурс поверх закэшированного буфера; каждый читатель получает свою копию позиции
+     */
+    static final class ByteBufferResource extends AbstractResource {
+        private final ByteBuffer buffer;
+        private final String description;
+
+        ByteBufferResource(ByteBuffer buffer, String description) {
+            this.buffer = buffer;
+            this.description = description;
+        }
+
+        @Override
+        public String getDescription() {
+            return "Cached image [" + description + "]";
+        }
+
+        @Override
+        public long contentLength() {
+            return buffer.limit();
+        }
+
+        @Override
+        public boolean exists() {
+            return true;
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            ByteBuffer view = buffer.duplicate();
+            view.position(0);
+            return new InputStream() {
+                @Override
+                public int read() {
+                    return view.hasRemaining() ? view.get() & 0xFF : -1;
+                }
+
+                @Override
+                public int read(byte[] bytes, int off, int len) {
+                    if (!view.hasRemaining()) {
+                        return -1;
+                    }
+                    int count = Math.min(len, view.remaining());
+                    view.get(bytes, off, count);
+                    return count;
+                }
+
+                @Override
+                public long skip(long n) {
+                    int count = (int) Math.max(0, Math.min(n, view.remaining()));
+                    view.position(view.position() + count);
+                    return count;
+                }
+
+                @Override
+                public int available() {
+                    return view.remaining();
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package ru.skypro.homework.service.image;
+
+// Утилитный класс: формат изображения по первым байтам содержимого
+public final class ImageFormat {
+    // Столько байт нужно, чтобы распознать любой из поддерживаемых форматов
+    public static final int HEADER_SIZE = 12;
+
+    private ImageFormat() {
+
+    }
+
+    /**
+     * Расширение файла по сигнатуре или null, если содержимое не похоже на изображение
+     */
+    public static String detectExtension(byte[] header) {
+        if (startsWith(header, 0xFF, 0xD8, 0xFF)) {
+            return ".jpg";
+        }
+        if (startsWith(header, 0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A)) {
+            return ".png";
+        }
+        if (startsWith(header, 'G', 'I', 'F', '8')) {
+            return ".gif";
+        }
+        if (startsWith(header, 'R', 'I', 'F', 'F') && header.length >= 12
+                && header[8] == 'W' && header[9] == 'E' && header[10] == 'B' && header[11] == 'P') {
+            return ".webp";
+        }
+        if (startsWith(header, 'B', 'M')) {
+            return ".bmp";
+        }
+        return null;
+    }
+
+    /**
+     * MIME-тип по сигнатуре или null, если содержимое не похоже на изображение
+     */
+    public static String detectMediaType(byte[] header) {
+        String extension = detectExtension(header);
+        return extension == null ? null : mediaTypeOf(extension);
+    }
+
+    // Расширения здесь - только те, что выдаёт detectExtension
+    public static String mediaTypeOf(String extension) {
+        switch (extension) {
+            case ".png":
+                return "image/png";
+            case ".gif":
+                return "image/gif";
+            case ".webp":
+                return "image/webp";
+            case ".bmp":
+                return "image/bmp";
+            default:
+                return "image/jpeg";
+        }
+    }
+
+    private static boolean startsWith(byte[] header, int... signature) {
+        if (header.length < signature.length) {
+            return false;
+        }
+        for (int i = 0; i < signature.length; i++) {
+            if ((header[i] & 0xFF) != signature[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,229 @@
+package ru.skypro.homework.service.image;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.skypro.homework.entity.ImageMetadata;
+import ru.skypro.homework.repository.AdImageRepository;
+import ru.skypro.homework.repository.AdRepository;
+import ru.skypro.homework.repository.ImageMetadataRepository;
+import ru.skypro.homework.repository.UserRepository;
+import ru.skypro.homework.service.image.storage.ImageStorage;
+import ru.skypro.homework.service.image.storage.StoredImage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.NoSuchFileException;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Однократное описание изображений, сохранённых до появления нужных полей таблицы images;
+ * всё считается здесь, в фоне, а не при отдаче файла.
+ * <p>
+ * Сначала хранилище обходится порциями по batch-size ключей: для порции запросами IN
+ * выясняется, у каких оригиналов нет строки, и из них читаются только те, на которые ссылаются
+ * объявления или пользователи, - хэш (ETag), размер и тип по сигнатуре. Файл без ссылок не
+ * описывается: это может быть копия изображения, удалённого, пока узел кластера был недоступен,
+ * и строка вернула бы его к жизни; такие файлы удаляет сборщик неиспользуемых. Строка вставляется INSERT-ом с одной ссылкой: если её успела вставить загрузка или
+ * другой узел, файл пропускается. Затем по порядку путей обходятся строки без типа или без учёта
+ * уменьшенных копий: тип определяется по первым байтам файла, готовые копии ищутся в хранилище.
+ * Позиции обходов хранятся в памяти; после полного прохода задание на этом узле больше не запускается.
+ */
+@Slf4j
+@Component
+public class ImageMetadataBackfill {
+    private final ImageMetadataRepository imageMetadataRepository;
+    private final AdRepository adRepository;
+    private final AdImageRepository adImageRepository;
+    private final UserRepository userRepository;
+    private final ImageStorage imageStorage;
+    private final ThumbnailGenerator thumbnailGenerator;
+    private final ImageMetadataCache metadataCache;
+    private final TransactionTemplate transactionTemplate;
+    private final AtomicBoolean running = new AtomicBoolean();
+    private volatile boolean filesCompleted;
+    private volatile boolean rowsCompleted;
+    private String fileCursor;
+    private String rowCursor = "";
+
+    @Value("${app.image.metadata-backfill.enabled:true}")
+    private boolean enabled;
+
+    @Value("${app.image.metadata-backfill.batch-size:200}")
+    private int batchSize;
+
+    @Value("${app.image.metadata-backfill.max-batches-per-run:10}")
+    private int maxBatchesPerRun;
+
+    public ImageMetadataBackfill(ImageMetadataRepository imageMetadataRepository, AdRepository adRepository,
+                                 AdImageRepository adImageRepository, UserRepository userRepository,
+                                 ImageStorage imageStorage, ThumbnailGenerator thumbnailGenerator,
+                                 ImageMetadataCache metadataCache, PlatformTransactionManager transactionManager) {
+        this.imageMetadataRepository = imageMetadataRepository;
+        this.adRepository = adRepository;
+        this.adImageRepository = adImageRepository;
+        this.userRepository = userRepository;
+        this.imageStorage = imageStorage;
+        this.thumbnailGenerator = thumbnailGenerator;
+        this.metadataCache = metadataCache;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    @Scheduled(fixedDelayString = "${app.image.metadata-backfill.interval-ms:60000}",
+            initialDelayString = "${app.image.metadata-backfill.initial-delay-ms:60000}")
+    public void backfill() {
+        if (!enabled || rowsCompleted || !running.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            int described = 0;
+            for (int batchNumber = 0; batchNumber < maxBatchesPerRun && !rowsCompleted; batchNumber++) {
+                described += filesCompleted ? describeRows() : describeFiles();
+            }
+            if (described > 0) {
+                log.info("Описано {} изображений без метаданных", described);
+            }
+        } catch (IOException | RuntimeException e) {
+            log.error("Ошибка описания изображений без метаданных", e);
+        } finally {
+            running.set(false);
+        }
+    }
+
+    private int describeFiles() throws IOException {
+        List<StoredImage> batch = imageStorage.list(fileCursor, batchSize);
+        if (batch.isEmpty()) {
+            filesCompleted = true;
+            log.info("Файлы без строк в images описаны");
+            return 0;
+        }
+        int described = describeMissing(batch);
+        fileCursor = batch.get(batch.size() - 1).getCursor();
+        return described;
+    }
+
+    private int describeRows() throws IOException {
+        List<ImageMetadata> rows = imageMetadataRepository.findUndescribedAfter(rowCursor, PageRequest.of(0, batchSize));
+        if (rows.isEmpty()) {
+            rowsCompleted = true;
+            log.info("Типы и уменьшенные копии изображений описаны");
+            return 0;
+        }
+        int described = 0;
+        for (ImageMetadata row : rows) {
+            if (describeRow(row)) {
+                described++;
+            }
+        }
+        rowCursor = rows.get(rows.size() - 1).getPath();
+        return described;
+    }
+
+    private int describeMissing(List<StoredImage> batch) throws IOException {
+        // Уменьшенные копии описываются метаданными оригинала
+        Map<String, StoredImage> originals = new LinkedHashMap<>();
+        for (StoredImage image : batch) {
+            if (FileNameUtils.originalPath(image.getPath()).equals(image.getPath())) {
+                originals.put(image.getPath(), image);
+            }
+        }
+        if (originals.isEmpty()) {
+            return 0;
+        }
+        originals.keySet().removeAll(imageMetadataRepository.findExistingPaths(originals.keySet()));
+        if (originals.isEmpty()) {
+            return 0;
+        }
+        Set<String> referenced = new HashSet<>(adRepository.findImageUrlsIn(originals.keySet()));
+        referenced.addAll(adImageRepository.findImageUrlsIn(originals.keySet()));
+        referenced.addAll(userRepository.findImagesIn(originals.keySet()));
+        originals.keySet().retainAll(referenced);
+
+        int described = 0;
+        for (StoredImage image : originals.values()) {
+            if (describe(image)) {
+                described++;
+            }
+        }
+        return described;
+    }
+
+    private boolean describe(StoredImage image) throws IOException {
+        MessageDigest digest = ContentHashUtils.newDigest();
+        String contentType;
+        try (InputStream in = new DigestInputStream(imageStorage.load(image.getPath()).getInputStream(), digest)) {
+            contentType = ImageFormat.detectMediaType(in.readNBytes(ImageFormat.HEADER_SIZE));
+            in.transferTo(OutputStream.nullOutputStream());
+        } catch (NoSuchFileException e) {
+            // файл удалён между обходом и чтением
+            return false;
+        }
+        String contentHash = ContentHashUtils.toHex(digest.digest());
+
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                imageMetadataRepository.insertFirstReference(image.getPath(), contentHash, image.getSize(),
+                        image.getLastModified());
+                imageMetadataRepository.setContentType(image.getPath(), contentType);
+            });
+        } catch (DataIntegrityViolationException e) {
+            log.debug("Метаданные {} уже записаны", image.getPath());
+            return false;
+        }
+        log.debug("Метаданные изображения {} восстановлены по файлу", image.getPath());
+        return true;
+    }
+
+    private boolean describeRow(ImageMetadata row) throws IOException {
+        String imagePath = row.getPath();
+        boolean changed = false;
+        if (row.getContentType() == null) {
+            String contentType;
+            try (InputStream in = imageStorage.load(imagePath).getInputStream()) {
+                contentType = ImageFormat.detectMediaType(in.readNBytes(ImageFormat.HEADER_SIZE));
+            } catch (NoSuchFileException e) {
+                return false;
+            }
+            // неизвестный формат остаётся NULL и отдаётся с типом по расширению
+            if (contentType != null) {
+                transactionTemplate.executeWithoutResult(status ->
+                        imageMetadataRepository.setContentType(imagePath, contentType));
+                changed = true;
+            }
+        }
+        if (row.getVariants() == null) {
+            Map<Integer, Long> sizes = new TreeMap<>();
+            for (int width : thumbnailGenerator.getWidths()) {
+                try {
+                    sizes.put(width, imageStorage.load(FileNameUtils.variantPath(imagePath, width)).contentLength());
+                } catch (NoSuchFileException e) {
+                    // копии этой ширины нет
+                }
+            }
+            // без копий строку оставляем генератору: он мог ещё не закончить
+            if (!sizes.isEmpty()) {
+                String variants = ImageVariant.formatSizes(sizes);
+                changed |= transactionTemplate.execute(status ->
+                        imageMetadataRepository.setVariantsIfMissing(imagePath, variants)) > 0;
+            }
+        }
+        if (changed) {
+            metadataCache.invalidate(imagePath);
+        }
+        return changed;
+    }
+}
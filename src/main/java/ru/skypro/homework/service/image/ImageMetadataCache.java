@@ -0,0 +1,66 @@
+package ru.skypro.homework.service.image;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.skypro.homework.entity.ImageMetadata;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Метаданные изображений для отдачи файлов: тип, размер, ETag и время создания.
+ * <p>
+ * Эти поля не меняются, пока файл существует, поэтому запись живёт до вытеснения (LRU)
+ * или удаления изображения - повторная отдача одного файла не обращается ни к БД, ни к диску.
+ * Счётчик ссылок и заглушка в закэшированной записи могут устареть и отсюда не читаются.
+ */
+@Component
+public class ImageMetadataCache {
+    private final int maxEntries;
+    private final Map<String, ImageMetadata> entries;
+
+    private final Counter hits;
+    private final Counter misses;
+
+    public ImageMetadataCache(@Value("${app.image.metadata-cache.max-entries:10000}") int maxEntries,
+                              MeterRegistry meterRegistry) {
+        this.maxEntries = maxEntries;
+        this.hits = Counter.builder("images.metadata.cache.requests").tag("result", "hit").register(meterRegistry);
+        this.misses = Counter.builder("images.metadata.cache.requests").tag("result", "miss").register(meterRegistry);
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, ImageMetadata> eldest) {
+                return size() > ImageMetadataCache.this.maxEntries;
+            }
+        };
+        Gauge.builder("images.metadata.cache.size", this, ImageMetadataCache::size).register(meterRegistry);
+    }
+
+    /**
+     * Закэшированные метаданные или {@code null}, если записи нет
+     */
+    public synchronized ImageMetadata get(String imagePath) {
+        ImageMetadata metadata = entries.get(imagePath);
+        if (metadata == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return metadata;
+    }
+
+    public synchronized void put(ImageMetadata metadata) {
+        entries.put(metadata.getPath(), metadata);
+    }
+
+    public synchronized void invalidate(String imagePath) {
+        entries.remove(imagePath);
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+}
@@ -0,0 +1,483 @@
+package ru.skypro.homework.service.image;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+
+import javax.imageio.IIOException;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Нормализация загружаемых изображений перед сохранением.
+ * <p>
+ * Снимки с телефонов приходят по 8-10 МБ. Изображение декодируется, поворачивается по
+ * EXIF Orientation, уменьшается так, чтобы длинная сторона не превышала max-dimension,
+ * и перекодируется (progressive JPEG с качеством jpeg-quality, PNG с чередованием строк).
+ * Метаданные (EXIF с координатами, XMP, текстовые блоки PNG) при перекодировании не переносятся.
+ * BMP сохраняется как PNG; GIF (анимация) и WebP (нет кодека) хранятся как есть.
+ * <p>
+ * Работа идёт в ограниченном пуле imageIngestExecutor; поток запроса ждёт результата.
+ * Экономия по каждой загрузке пишется в метрики images.ingest.*.
+ */
+@Slf4j
+@Component
+public class ImageNormalizer {
+    private static final int ORIENTATION_TAG = 0x0112;
+
+    private final AsyncTaskExecutor executor;
+    private final int maxDimension;
+    private final long maxPixels;
+    private final float jpegQuality;
+
+    private final DistributionSummary originalBytes;
+    private final DistributionSummary normalizedBytes;
+    private final Counter savedBytes;
+    private final Counter normalized;
+    private final Counter passedThrough;
+    private final Timer duration;
+
+    public ImageNormalizer(@Qualifier("imageIngestExecutor") AsyncTaskExecutor executor,
+                           @Value("${app.image.ingest.max-dimension:2048}") int maxDimension,
+                           @Value("${app.image.ingest.max-pixels:50000000}") long maxPixels,
+                           @Value("${app.image.ingest.jpeg-quality:0.85}") float jpegQuality,
+                           MeterRegistry meterRegistry) {
+        this.executor = executor;
+        this.maxDimension = maxDimension;
+        this.maxPixels = maxPixels;
+        this.jpegQuality = jpegQuality;
+        this.originalBytes = DistributionSummary.builder("images.ingest.bytes").tag("stage", "original")
+                .baseUnit("bytes").register(meterRegistry);
+        this.normalizedBytes = DistributionSummary.builder("images.ingest.bytes").tag("stage", "normalized")
+                .baseUnit("bytes").register(meterRegistry);
+        this.savedBytes = Counter.builder("images.ingest.saved.bytes").baseUnit("bytes").register(meterRegistry);
+        this.normalized = Counter.builder("images.ingest.requests").tag("result", "normalized").register(meterRegistry);
+        this.passedThrough = Counter.builder("images.ingest.requests").tag("result", "passthrough").register(meterRegistry);
+        this.duration = Timer.builder("images.ingest.duration").register(meterRegistry);
+    }
+
+    /**
+     * Нормализует загрузку в target. Если формат не перекодируется или не декодируется,
+     * результатом остаётся сама загрузка
+     *
+     * @param upload    загруженный файл
+     * @param extension расширение по сигнатуре (ImageFormat)
+     * @param target    пустой временный файл для результата
+     */
+    public Result normalize(Path upload, String extension, Path target) throws IOException {
+        Future<Result> result;
+        try {
+            result = executor.submit(() -> duration.recordCallable(() -> normalizeNow(upload, extension, target)));
+        } catch (TaskRejectedException e) {
+            log.warn("Очередь нормализации изображений переполнена, загрузка отклонена");
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Сервер перегружен, повторите загрузку позже");
+        }
+
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            result.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new IOException("Нормализация изображения прервана", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    private Result normalizeNow(Path upload, String extension, Path target) throws IOException {
+        long uploadSize = Files.size(upload);
+        String format = outputFormat(extension);
+        BufferedImage decoded = format == null ? null : decode(upload);
+        if (decoded == null) {
+            record(uploadSize, uploadSize);
+            passedThrough.increment();
+            Dimension size = readSize(upload);
+            return size == null ? new Result(upload, extension, false, null, null, null)
+                    : new Result(upload, extension, false, null, size.width, size.height);
+        }
+
+        int orientation = ".jpg".equals(extension) ? readExifOrientation(upload) : 1;
+        boolean alpha = "png".equals(format) && decoded.getColorModel().hasAlpha();
+        BufferedImage image = orient(scale(decoded, alpha), orientation, alpha);
+        write(image, format, target);
+        String placeholder = ImagePlaceholder.of(image);
+
+        long targetSize = Files.size(target);
+        boolean unchanged = orientation == 1 && image.getWidth() == decoded.getWidth()
+                && image.getHeight() == decoded.getHeight() && format.equals(extension.substring(1));
+        if (unchanged && targetSize >= uploadSize && !hasMetadata(upload, extension)) {
+            // Перекодирование ничего не дало: ни пикселей, ни метаданных убирать не нужно
+            record(uploadSize, uploadSize);
+            passedThrough.increment();
+            return new Result(upload, extension, false, placeholder, image.getWidth(), image.getHeight());
+        }
+
+        record(uploadSize, targetSize);
+        normalized.increment();
+        log.debug("Изображение нормализовано: {}x{} -> {}x{}, {} -> {} байт", decoded.getWidth(), decoded.getHeight(),
+                image.getWidth(), image.getHeight(), uploadSize, targetSize);
+        return new Result(target, "." + format, true, placeholder, image.getWidth(), image.getHeight());
+    }
+
+    private void record(long original, long stored) {
+        originalBytes.record(original);
+        normalizedBytes.record(stored);
+        savedBytes.increment(Math.max(0, original - stored));
+    }
+
+    // null - формат хранится как есть
+    private static String outputFormat(String extension) {
+        switch (extension) {
+            case ".jpg":
+                return "jpg";
+            case ".png":
+            case ".bmp":
+                return "png";
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Декодирует с прореживанием, если изображение намного больше max-dimension:
+     * 48-мегапиксельный снимок не разворачивается в памяти целиком. null - ImageIO не справился
+     * (например, CMYK JPEG)
+     */
+    private BufferedImage decode(Path upload) throws IOException {
+        try (ImageInputStream input = ImageIO.createImageInputStream(upload.toFile())) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                if ((long) width * height > maxPixels) {
+                    throw new IllegalArgumentException("Разрешение изображения превышает " + maxPixels + " пикселей");
+                }
+                ImageReadParam param = reader.getDefaultReadParam();
+                int subsampling = Math.max(1, Math.max(width, height) / maxDimension);
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                return reader.read(0, param);
+            } catch (IIOException e) {
+                log.debug("Изображение не декодируется ({}), сохраняется как есть", e.getMessage());
+                return null;
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Размеры из заголовка без декодирования пикселей (GIF хранится как есть); null - нет
+     * подходящего ImageIO-читателя, как у WebP
+     */
+    private static Dimension readSize(Path file) {
+        try (ImageInputStream input = ImageIO.createImageInputStream(file.toFile())) {
+            Iterator<ImageReader> readers = input == null ? null : ImageIO.getImageReaders(input);
+            if (readers == null || !readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                return new Dimension(reader.getWidth(0), reader.getHeight(0));
+            } finally {
+                reader.dispose();
+            }
+        } catch (IOException e) {
+            log.debug("Размеры изображения не прочитаны: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    // Уменьшение с шагом в два раза, чтобы билинейная интерполяция не теряла детали
+    private BufferedImage scale(BufferedImage source, boolean alpha) {
+        int longest = Math.max(source.getWidth(), source.getHeight());
+        double ratio = Math.min(1.0, (double) maxDimension / longest);
+        int targetWidth = Math.max(1, (int) Math.round(source.getWidth() * ratio));
+        int targetHeight = Math.max(1, (int) Math.round(source.getHeight() * ratio));
+
+        BufferedImage current = source;
+        do {
+            int width = Math.max(targetWidth, current.getWidth() / 2);
+            int height = Math.max(targetHeight, current.getHeight() / 2);
+            current = draw(current, width, height, null, alpha);
+        } while (current.getWidth() != targetWidth || current.getHeight() != targetHeight);
+        return current;
+    }
+
+    private static BufferedImage orient(BufferedImage source, int orientation, boolean alpha) {
+        int w = source.getWidth();
+        int h = source.getHeight();
+        switch (orientation) {
+            case 2:
+                return draw(source, w, h, new AffineTransform(-1, 0, 0, 1, w, 0), alpha);
+            case 3:
+                return draw(source, w, h, new AffineTransform(-1, 0, 0, -1, w, h), alpha);
+            case 4:
+                return draw(source, w, h, new AffineTransform(1, 0, 0, -1, 0, h), alpha);
+            case 5:
+                return draw(source, h, w, new AffineTransform(0, 1, 1, 0, 0, 0), alpha);
+            case 6:
+                return draw(source, h, w, new AffineTransform(0, 1, -1, 0, h, 0), alpha);
+            case 7:
+                return draw(source, h, w, new AffineTransform(0, -1, -1, 0, h, w), alpha);
+            case 8:
+                return draw(source, h, w, new AffineTransform(0, -1, 1, 0, 0, w), alpha);
+            default:
+                return source;
+        }
+    }
+
+    // transform == null - масштабирование к width x height
+    private static BufferedImage draw(BufferedImage source, int width, int height, AffineTransform transform,
+                                      boolean alpha) {
+        BufferedImage result = new BufferedImage(width, height,
+                alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = result.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            if (transform == null) {
+                graphics.drawImage(source, 0, 0, width, height, null);
+            } else {
+                graphics.drawImage(source, transform, null);
+            }
+        } finally {
+            graphics.dispose();
+        }
+        return result;
+    }
+
+    private void write(BufferedImage image, String format, Path target) throws IOException {
+        Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName(format);
+        if (!writers.hasNext()) {
+            throw new IOException("Нет кодировщика для формата " + format);
+        }
+        ImageWriter writer = writers.next();
+        try (ImageOutputStream output = ImageIO.createImageOutputStream(Files.newOutputStream(target))) {
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            if (param.canWriteProgressive()) {
+                param.setProgressiveMode(ImageWriteParam.MODE_DEFAULT);
+            }
+            if ("jpg".equals(format)) {
+                param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                param.setCompressionQuality(jpegQuality);
+            }
+            writer.setOutput(output);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+    }
+
+    /**
+     * Значение EXIF Orientation (1-8) из сегмента APP1 JPEG; 1, если тега нет
+     */
+    private static int readExifOrientation(Path jpeg) throws IOException {
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(jpeg))) {
+            in.readUnsignedShort(); // SOI
+            while (true) {
+                int marker = in.readUnsignedShort();
+                if ((marker & 0xFF00) != 0xFF00 || marker == 0xFFDA || marker == 0xFFD9) {
+                    return 1;
+                }
+                int length = in.readUnsignedShort() - 2;
+                if (length < 0) {
+                    return 1;
+                }
+                if (marker != 0xFFE1) {
+                    skipFully(in, length);
+                    continue;
+                }
+                byte[] segment = in.readNBytes(length);
+                if (segment.length < 14 || segment[0] != 'E' || segment[1] != 'x' || segment[2] != 'i' || segment[3] != 'f') {
+                    continue;
+                }
+                return orientationFromTiff(segment, 6);
+            }
+        } catch (EOFException e) {
+            return 1;
+        }
+    }
+
+    /**
+     * Orientation из TIFF-заголовка EXIF. Смещения берутся из самого файла, поэтому каждое
+     * проверяется на выход за границы сегмента; при битых данных - 1 (без поворота)
+     */
+    private static int orientationFromTiff(byte[] data, int tiff) {
+        if (tiff + 8 > data.length) {
+            return 1;
+        }
+        boolean littleEndian = data[tiff] == 'I';
+        long ifd = tiff + (readInt(data, tiff + 4, littleEndian) & 0xFFFFFFFFL);
+        if (ifd + 2 > data.length) {
+            return 1;
+        }
+        int entries = readShort(data, (int) ifd, littleEndian);
+        for (int i = 0; i < entries; i++) {
+            long entry = ifd + 2 + i * 12L;
+            if (entry + 12 > data.length) {
+                return 1;
+            }
+            if (readShort(data, (int) entry, littleEndian) == ORIENTATION_TAG) {
+                int value = readShort(data, (int) entry + 8, littleEndian);
+                return value >= 1 && value <= 8 ? value : 1;
+            }
+        }
+        return 1;
+    }
+
+    private static int readShort(byte[] data, int offset, boolean littleEndian) {
+        int b0 = data[offset] & 0xFF;
+        int b1 = data[offset + 1] & 0xFF;
+        return littleEndian ? b1 << 8 | b0 : b0 << 8 | b1;
+    }
+
+    private static int readInt(byte[] data, int offset, boolean littleEndian) {
+        int high = readShort(data, littleEndian ? offset + 2 : offset, littleEndian);
+        int low = readShort(data, littleEndian ? offset : offset + 2, littleEndian);
+        return high << 16 | low;
+    }
+
+    // InputStream.skip может пропустить меньше запрошенного; skipNBytes появился только в Java 12
+    private static void skipFully(DataInputStream in, long count) throws IOException {
+        if (count < 0) {
+            throw new EOFException("Отрицательная длина блока");
+        }
+        while (count > 0) {
+            long skipped = in.skip(count);
+            if (skipped <= 0) {
+                if (in.read() < 0) {
+                    throw new EOFException();
+                }
+                skipped = 1;
+            }
+            count -= skipped;
+        }
+    }
+
+    /**
+     * Есть ли в файле метаданные, которые нужно убрать: сегменты APP1-APP15 в JPEG,
+     * текстовые блоки и EXIF в PNG
+     */
+    private static boolean hasMetadata(Path file, String extension) throws IOException {
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(file))) {
+            if (".jpg".equals(extension)) {
+                in.readUnsignedShort();
+                while (true) {
+                    int marker = in.readUnsignedShort();
+                    if ((marker & 0xFF00) != 0xFF00 || marker == 0xFFDA || marker == 0xFFD9) {
+                        return false;
+                    }
+                    if (marker >= 0xFFE1 && marker <= 0xFFEF) {
+                        return true;
+                    }
+                    skipFully(in, in.readUnsignedShort() - 2);
+                }
+            }
+            if (".png".equals(extension)) {
+                skipFully(in, 8);
+                while (true) {
+                    int length = in.readInt();
+                    String type = new String(in.readNBytes(4), StandardCharsets.US_ASCII);
+                    if ("IEND".equals(type)) {
+                        return false;
+                    }
+                    if ("tEXt".equals(type) || "zTXt".equals(type) || "iTXt".equals(type) || "eXIf".equals(type)) {
+                        return true;
+                    }
+                    skipFully(in, length + 4L);
+                }
+            }
+            return true;
+        } catch (EOFException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Результат нормализации: файл для сохранения, его расширение и заглушка, посчитанная
+     * по уже декодированному изображению (null, если изображение не декодировалось)
+     */
+    public static final class Result {
+        private final Path file;
+        private final String extension;
+        private final boolean normalized;
+        private final String placeholder;
+        private final Integer width;
+        private final Integer height;
+
+        Result(Path file, String extension, boolean normalized, String placeholder, Integer width, Integer height) {
+            this.file = file;
+            this.extension = extension;
+            this.normalized = normalized;
+            this.placeholder = placeholder;
+            this.width = width;
+            this.height = height;
+        }
+
+        public Path getFile() {
+            return file;
+        }
+
+        public String getExtension() {
+            return extension;
+        }
+
+        public boolean isNormalized() {
+            return normalized;
+        }
+
+        public String getPlaceholder() {
+            return placeholder;
+        }
+
+        public Integer getWidth() {
+            return width;
+        }
+
+        public Integer getHeight() {
+            return height;
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package ru.skypro.homework.service.image;
+
+import org.springframework.stereotype.Component;
+
+/**
+ * Блокировки по пути изображения, общие для всех, кто меняет файл: сохранение, захват
+ * и снятие ссылки ({@link ImageService}), перенос между каталогами. Операции с одним файлом
+ * выполняются по очереди; уменьшенные копии блокируются путём оригинала.
+ */
+@Component
+public class ImagePathLocks {
+    private final Object[] locks = new Object[64];
+
+    public ImagePathLocks() {
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    public Object lockFor(String imagePath) {
+        return locks[(imagePath.hashCode() & Integer.MAX_VALUE) % locks.length];
+    }
+}
@@ -0,0 +1,40 @@
+package ru.skypro.homework.service.image;
+
+import javax.imageio.ImageIO;
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Base64;
+
+// Утилитный класс: размытая заглушка изображения для списков объявлений
+public final class ImagePlaceholder {
+    // Длинная сторона заглушки: PNG 12x9 - несколько сотен байт, браузер растягивает его с размытием
+    private static final int SIZE = 12;
+
+    private ImagePlaceholder() {
+
+    }
+
+    /**
+     * data URI с PNG в SIZE пикселей по длинной стороне; цвета усредняются по площади
+     */
+    public static String of(BufferedImage image) throws IOException {
+        double ratio = (double) SIZE / Math.max(image.getWidth(), image.getHeight());
+        int width = Math.max(1, (int) Math.round(image.getWidth() * ratio));
+        int height = Math.max(1, (int) Math.round(image.getHeight() * ratio));
+
+        BufferedImage small = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = small.createGraphics();
+        try {
+            graphics.drawImage(image.getScaledInstance(width, height, Image.SCALE_AREA_AVERAGING), 0, 0, null);
+        } finally {
+            graphics.dispose();
+        }
+
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        ImageIO.write(small, "png", png);
+        return "data:image/png;base64," + Base64.getEncoder().encodeToString(png.toByteArray());
+    }
+}
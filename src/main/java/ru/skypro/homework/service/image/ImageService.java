@@ -1,20 +1,57 @@
 package ru.skypro.homework.service.image;
 
+import org.springframework.core.io.Resource;
 import org.springframework.web.multipart.MultipartFile;
 import org.springframework.http.MediaType;
+import ru.skypro.homework.dto.ImageStorageReportDto;
+import ru.skypro.homework.entity.ImageMetadata;
 
 import java.io.IOException;
+import java.util.List;
 
+/**
+ * Методы, создающие и снимающие ссылки, принимают owner - пользователя, на чью квоту
+ * записывается ссылка (см. {@link StorageQuotaService}); null - без учёта, до ближайшей сверки
+ */
 public interface ImageService {
-    String saveImage(MultipartFile image, String subfolder) throws IOException;
+    // Файл хранится под хэшем содержимого: повторная загрузка тех же байт добавляет ссылку
+    String saveImage(MultipartFile image, String subfolder, String owner) throws IOException;
 
-    byte[] loadImage(String imagePath) throws IOException;
+    // Несколько файлов сохраняются параллельно; при ошибке уже сохранённые из этой порции снимаются
+    List<String> saveImages(List<MultipartFile> images, String subfolder, String owner) throws IOException;
 
-    void deleteImage(String imagePath) throws IOException;
+    // Путь уже сохранённого файла с таким SHA-256 или null - тогда содержимое нужно загрузить
+    String findImageByHash(String contentHash, String subfolder);
 
+    // Новая ссылка на уже сохранённый файл без передачи содержимого
+    String reuseImage(String contentHash, String subfolder, String owner) throws IOException;
+
+    // Файл отдаётся потоком, без чтения целиком в память
+    Resource loadImage(String imagePath) throws IOException;
+
+    // Ближайшая готовая уменьшенная копия шириной не меньше width, иначе оригинал
+    ImageVariant resolveVariant(String imagePath, int width);
+
+    // Тип по сигнатуре, размер, хэш (ETag) и время загрузки; кэшируются в памяти. null - строки в images нет
+    ImageMetadata getImageMetadata(String imagePath);
+
+    // Сводка по хранилищу для администратора: по таблице images, без обхода файлов
+    ImageStorageReportDto getStorageReport();
+
+    // Размытая заглушка (data URI) для списков; null, если изображение не декодируется
+    String getPlaceholder(String imagePath);
+
+    // Снимает одну ссылку; файл удаляется вместе с последней
+    void deleteImage(String imagePath, String owner) throws IOException;
+
+    // Удаляет файл, который сборщик счёл неиспользуемым, если с момента since на него (или на его
+    // оригинал) не захватывали ссылку; false - ссылку успели захватить, файл остаётся
+    boolean deleteUnreferenced(String imagePath, long since) throws IOException;
+
+    // Тип по расширению - для файлов, чьи метаданные записаны до определения типа по сигнатуре
     MediaType determineMediaType(String imagePath);
 
-    MediaType determineMediaType(MultipartFile file);
+    MediaType determineMediaType(MultipartFile file) throws IOException;
 
     String getFileExtension(MediaType mediaType);
 }
@@ -0,0 +1,70 @@
+package ru.skypro.homework.service.image;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+/**
+ * Файл, которым отвечают на запрос изображения с шириной ?w=
+ */
+public final class ImageVariant {
+    private final String path;
+    private final Integer width;
+    private final boolean exact;
+    private final Long size;
+
+    public ImageVariant(String path, Integer width, boolean exact) {
+        this(path, width, exact, null);
+    }
+
+    public ImageVariant(String path, Integer width, boolean exact, Long size) {
+        this.path = path;
+        this.width = width;
+        this.exact = exact;
+        this.size = size;
+    }
+
+    public static ImageVariant original(String imagePath, boolean exact) {
+        return new ImageVariant(imagePath, null, exact);
+    }
+
+    /**
+     * Размеры готовых копий из images.variants ("160:5120,480:20480") по возрастанию ширины
+     */
+    public static Map<Integer, Long> parseSizes(String variants) {
+        Map<Integer, Long> sizes = new TreeMap<>();
+        if (variants == null || variants.isEmpty()) {
+            return sizes;
+        }
+        for (String entry : variants.split(",")) {
+            int colon = entry.indexOf(':');
+            sizes.put(Integer.parseInt(entry.substring(0, colon)), Long.parseLong(entry.substring(colon + 1)));
+        }
+        return sizes;
+    }
+
+    public static String formatSizes(Map<Integer, Long> sizes) {
+        return new TreeMap<>(sizes).entrySet().stream()
+                .map(entry -> entry.getKey() + ":" + entry.getValue())
+                .collect(Collectors.joining(","));
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    // null - оригинал
+    public Integer getWidth() {
+        return width;
+    }
+
+    // false - нужный вариант ещё генерируется, отдан ближайший готовый
+    public boolean isExact() {
+        return exact;
+    }
+
+    // Размер копии из метаданных; null - неизвестен (у оригинала размер в его метаданных)
+    public Long getSize() {
+        return size;
+    }
+}
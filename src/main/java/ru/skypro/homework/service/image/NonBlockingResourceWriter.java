@@ -0,0 +1,139 @@
+package ru.skypro.homework.service.image;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.Resource;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+
+/**
+ * Отдача файла без удержания потока Tomcat на время передачи (Servlet 3.1, WriteListener).
+ * <p>
+ * Запрос переводится в асинхронный режим, и очередная порция пишется, только когда сокет
+ * готов её принять ({@link ServletOutputStream#isReady()}); пока медленный клиент вычитывает
+ * буфер, поток возвращается в пул. Заголовки ответа выставляет вызывающий код до вызова.
+ * <p>
+ * Если контейнер не поддерживает неблокирующий вывод (например, MockMvc), файл пишется
+ * обычным копированием в текущем потоке.
+ */
+@Slf4j
+public final class NonBlockingResourceWriter {
+    private static final int BUFFER_SIZE = 32 * 1024;
+
+    private NonBlockingResourceWriter() {
+    }
+
+    /**
+     * @param timeout сколько может длиться передача; по истечении соединение закрывается
+     */
+    public static void write(HttpServletRequest request, HttpServletResponse response, Resource resource,
+                             Duration timeout) throws IOException {
+        AsyncContext asyncContext = request.startAsync(request, response);
+        asyncContext.setTimeout(timeout.toMillis());
+        InputStream in;
+        try {
+            in = resource.getInputStream();
+        } catch (IOException | RuntimeException e) {
+            asyncContext.complete();
+            throw e;
+        }
+        asyncContext.addListener(new ClosingListener(in, request.getRequestURI()));
+
+        ServletOutputStream out = response.getOutputStream();
+        try {
+            out.setWriteListener(new ResourceWriteListener(in, out, asyncContext, request.getRequestURI()));
+        } catch (UnsupportedOperationException e) {
+            try {
+                in.transferTo(out);
+            } finally {
+                asyncContext.complete();
+            }
+        }
+    }
+
+    // Ошибку записи контейнер сообщает и WriteListener, и AsyncListener: завершается первый вызов
+    private static void complete(AsyncContext asyncContext) {
+        try {
+            asyncContext.complete();
+        } catch (IllegalStateException e) {
+            log.trace("Асинхронный запрос уже завершён");
+        }
+    }
+
+    private static final class ResourceWriteListener implements WriteListener {
+        private final InputStream in;
+        private final ServletOutputStream out;
+        private final AsyncContext asyncContext;
+        private final String uri;
+        private final byte[] buffer = new byte[BUFFER_SIZE];
+
+        ResourceWriteListener(InputStream in, ServletOutputStream out, AsyncContext asyncContext, String uri) {
+            this.in = in;
+            this.out = out;
+            this.asyncContext = asyncContext;
+            this.uri = uri;
+        }
+
+        // Вызывается контейнером, когда в сокет снова можно писать; пишем, пока он не заполнится
+        @Override
+        public void onWritePossible() throws IOException {
+            while (out.isReady()) {
+                int read = in.read(buffer);
+                if (read < 0) {
+                    asyncContext.complete();
+                    return;
+                }
+                out.write(buffer, 0, read);
+            }
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            // обычно клиент закрыл соединение, не дочитав
+            log.debug("Передача {} прервана: {}", uri, t.getMessage());
+            complete(asyncContext);
+        }
+    }
+
+    private static final class ClosingListener implements AsyncListener {
+        private final InputStream in;
+        private final String uri;
+
+        ClosingListener(InputStream in, String uri) {
+            this.in = in;
+            this.uri = uri;
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            try {
+                in.close();
+            } catch (IOException e) {
+                log.debug("Не удалось закрыть {}: {}", uri, e.getMessage());
+            }
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            log.warn("Передача {} не завершилась за отведённое время, соединение закрывается", uri);
+            complete(event.getAsyncContext());
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            complete(event.getAsyncContext());
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+        }
+    }
+}
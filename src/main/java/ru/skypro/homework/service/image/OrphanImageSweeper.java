@@ -0,0 +1,213 @@
+package ru.skypro.homework.service.image;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.skypro.homework.entity.ImageGcProgress;
+import ru.skypro.homework.repository.AdImageRepository;
+import ru.skypro.homework.repository.AdRepository;
+import ru.skypro.homework.repository.ImageGcProgressRepository;
+import ru.skypro.homework.repository.ImageMetadataRepository;
+import ru.skypro.homework.repository.UserRepository;
+import ru.skypro.homework.service.image.storage.ImageStorage;
+import ru.skypro.homework.service.image.storage.StoredImage;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Фоновое удаление файлов изображений, на которые не ссылаются ads.image_url, ad_images.image_url и users.image.
+ * <p>
+ * Хранилище обходится в фиксированном порядке порциями по batch-size файлов; для каждой
+ * порции ссылки проверяются запросами IN. Файл удаляется, только если он старше
+ * grace-period и на него недавно не захватывали ссылку (images.last_referenced_at) - так
+ * не трогаются только что загруженные файлы, объявления которых ещё не сохранены.
+ * Позиция обхода сохраняется после каждой порции (image_gc_progress), прерванный обход
+ * продолжается со следующего запуска. Скорость ограничена max-files-per-second.
+ * <p>
+ * В режиме dry-run файлы не удаляются, в лог выводится отчёт о том, что было бы удалено.
+ * Иначе заодно удаляются старые временные файлы прерванных загрузок.
+ */
+@Slf4j
+@Component
+public class OrphanImageSweeper {
+    private final AdRepository adRepository;
+    private final AdImageRepository adImageRepository;
+    private final UserRepository userRepository;
+    private final ImageMetadataRepository imageMetadataRepository;
+    private final ImageGcProgressRepository progressRepository;
+    private final ImageService imageService;
+    private final ImageStorage imageStorage;
+    private final TransactionTemplate transactionTemplate;
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    @Value("${app.image.gc.enabled:true}")
+    private boolean enabled;
+
+    @Value("${app.image.gc.dry-run:true}")
+    private boolean dryRun;
+
+    @Value("${app.image.gc.grace-period:P1D}")
+    private Duration gracePeriod;
+
+    @Value("${app.image.gc.batch-size:500}")
+    private int batchSize;
+
+    @Value("${app.image.gc.max-batches-per-run:20}")
+    private int maxBatchesPerRun;
+
+    @Value("${app.image.gc.max-files-per-second:200}")
+    private int maxFilesPerSecond;
+
+    public OrphanImageSweeper(AdRepository adRepository, AdImageRepository adImageRepository,
+                              UserRepository userRepository,
+                              ImageMetadataRepository imageMetadataRepository,
+                              ImageGcProgressRepository progressRepository, ImageService imageService,
+                              ImageStorage imageStorage, PlatformTransactionManager transactionManager) {
+        this.adRepository = adRepository;
+        this.adImageRepository = adImageRepository;
+        this.userRepository = userRepository;
+        this.imageMetadataRepository = imageMetadataRepository;
+        this.progressRepository = progressRepository;
+        this.imageService = imageService;
+        this.imageStorage = imageStorage;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    @Scheduled(fixedDelayString = "${app.image.gc.interval-ms:3600000}",
+            initialDelayString = "${app.image.gc.initial-delay-ms:300000}")
+    public void sweep() {
+        if (!enabled || !running.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            long cutoff = Instant.now().minus(gracePeriod).toEpochMilli();
+            if (!dryRun) {
+                imageStorage.cleanupTemporaryFiles(cutoff);
+            }
+            ImageGcProgress progress = progressRepository.findById(ImageGcProgress.SINGLETON_ID)
+                    .orElseGet(this::newProgress);
+
+            long scanned = 0;
+            List<StoredImage> orphans = new ArrayList<>();
+            long orphanBytes = 0;
+
+            for (int batchNumber = 0; batchNumber < maxBatchesPerRun; batchNumber++) {
+                long started = System.currentTimeMillis();
+                List<StoredImage> batch = imageStorage.list(progress.getLastPath(), batchSize);
+                if (batch.isEmpty()) {
+                    // обход закончен - следующий запуск начнёт сначала
+                    saveProgress(progress, null);
+                    break;
+                }
+
+                for (StoredImage image : findOrphans(batch, cutoff)) {
+                    if (dryRun || delete(image.getPath(), cutoff)) {
+                        orphanBytes += image.getSize();
+                        orphans.add(image);
+                    }
+                }
+                scanned += batch.size();
+                saveProgress(progress, batch.get(batch.size() - 1).getCursor());
+                throttle(batch.size(), started);
+            }
+
+            report(scanned, orphans, orphanBytes);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn("Сборка неиспользуемых изображений прервана");
+        } catch (IOException | RuntimeException e) {
+            log.error("Ошибка сборки неиспользуемых изображений", e);
+        } finally {
+            running.set(false);
+        }
+    }
+
+    private List<StoredImage> findOrphans(List<StoredImage> batch, long cutoff) {
+        // Уменьшенная копия используется, пока используется её оригинал
+        Map<StoredImage, String> owners = new LinkedHashMap<>();
+        for (StoredImage image : batch) {
+            if (FileNameUtils.isDefaultImage(image.getPath())) {
+                continue;
+            }
+            owners.put(image, FileNameUtils.originalPath(image.getPath()));
+        }
+
+        Set<String> keys = new HashSet<>(owners.values());
+        Set<String> referenced = new HashSet<>();
+        if (!keys.isEmpty()) {
+            referenced.addAll(adRepository.findImageUrlsIn(keys));
+            referenced.addAll(adImageRepository.findImageUrlsIn(keys));
+            referenced.addAll(userRepository.findImagesIn(keys));
+            referenced.addAll(imageMetadataRepository.findReferencedSince(keys, cutoff));
+        }
+
+        List<StoredImage> orphans = new ArrayList<>();
+        for (Map.Entry<StoredImage, String> owner : owners.entrySet()) {
+            StoredImage image = owner.getKey();
+            if (!referenced.contains(owner.getValue()) && image.getLastModified() < cutoff) {
+                orphans.add(image);
+            }
+        }
+        return orphans;
+    }
+
+    // Решение принято по снимку ссылок; удаление перепроверяет его под блокировкой файла
+    private boolean delete(String imagePath, long cutoff) throws IOException {
+        if (!imageService.deleteUnreferenced(imagePath, cutoff)) {
+            log.debug("На файл {} захвачена ссылка, не удаляется", imagePath);
+            return false;
+        }
+        log.debug("Удалён неиспользуемый файл {}", imagePath);
+        return true;
+    }
+
+    private void throttle(int files, long started) throws InterruptedException {
+        if (maxFilesPerSecond <= 0) {
+            return;
+        }
+        long budgetMs = files * 1000L / maxFilesPerSecond;
+        long elapsed = System.currentTimeMillis() - started;
+        if (budgetMs > elapsed) {
+            Thread.sleep(budgetMs - elapsed);
+        }
+    }
+
+    private void report(long scanned, List<StoredImage> orphans, long orphanBytes) {
+        if (orphans.isEmpty()) {
+            log.debug("Сборка изображений: просмотрено {} файлов, неиспользуемых нет", scanned);
+            return;
+        }
+        if (dryRun) {
+            log.info("Сборка изображений (dry-run): просмотрено {} файлов, было бы удалено {} ({} байт)",
+                    scanned, orphans.size(), orphanBytes);
+            orphans.forEach(image -> log.info("  неиспользуемый файл: {}", image.getPath()));
+        } else {
+            log.info("Сборка изображений: просмотрено {} файлов, удалено {} ({} байт)",
+                    scanned, orphans.size(), orphanBytes);
+        }
+    }
+
+    private void saveProgress(ImageGcProgress progress, String lastPath) {
+        progress.setLastPath(lastPath);
+        progress.setUpdatedAt(Instant.now().toEpochMilli());
+        transactionTemplate.executeWithoutResult(status -> progressRepository.save(progress));
+    }
+
+    private ImageGcProgress newProgress() {
+        ImageGcProgress progress = new ImageGcProgress();
+        progress.setId(ImageGcProgress.SINGLETON_ID);
+        return progress;
+    }
+}
@@ -0,0 +1,297 @@
+package ru.skypro.homework.service.image;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.server.ResponseStatusException;
+import ru.skypro.homework.dto.UploadSessionDto;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Докачиваемая загрузка изображений для нестабильных мобильных соединений.
+ * <p>
+ * Клиент создаёт сессию с полным размером файла, затем отправляет части с указанием
+ * смещения; после обрыва он запрашивает текущее смещение и продолжает с него. Полученные
+ * байты дописываются в файл сессии сразу, поэтому сохраняется всё, что дошло до обрыва.
+ * Готовый файл передаётся в {@link ImageService#saveImage} только при привязке к
+ * объявлению (addAd / updateImage с uploadId) - так на загрузку не захватывается лишняя
+ * ссылка, а нормализация и дедупликация работают как для обычной загрузки.
+ * <p>
+ * Сессия - два файла в каталоге dir: &lt;id&gt;.part с содержимым и &lt;id&gt;.properties
+ * с владельцем, типом и размером. Сессии без активности дольше expiry удаляются по расписанию.
+ */
+@Slf4j
+@Component
+public class ResumableUploadService {
+    private static final String PART_SUFFIX = ".part";
+    private static final String META_SUFFIX = ".properties";
+
+    private final Path directory;
+    private final Duration expiry;
+    private final long maxUploadSize;
+    private final StorageQuotaService storageQuota;
+    // Сессии, в которые сейчас пишут или которые привязываются: параллельные PATCH одной сессии
+    // перемешали бы байты
+    private final Set<String> busy = ConcurrentHashMap.newKeySet();
+
+    public ResumableUploadService(@Value("${app.image.upload-session.dir:uploads/sessions/}") String directory,
+                                  @Value("${app.image.upload-session.expiry:P1D}") Duration expiry,
+                                  @Value("${app.image.max-upload-size:10MB}") DataSize maxUploadSize,
+                                  StorageQuotaService storageQuota) {
+        this.directory = Paths.get(directory);
+        this.expiry = expiry;
+        this.maxUploadSize = maxUploadSize.toBytes();
+        this.storageQuota = storageQuota;
+    }
+
+    @PostConstruct
+    public void init() throws IOException {
+        Files.createDirectories(directory);
+    }
+
+    /**
+     * Действие с собранным файлом; сессия удаляется, только если оно завершилось без ошибки
+     */
+    @FunctionalInterface
+    public interface UploadConsumer<T> {
+        T accept(MultipartFile image) throws IOException;
+    }
+
+    public UploadSessionDto create(String contentType, long length, String username) throws IOException {
+        if (contentType == null || !contentType.startsWith("image/")) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Файл должен быть изображением");
+        }
+        if (length <= 0) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Размер файла должен быть положительным");
+        }
+        if (length > maxUploadSize) {
+            throw new ResponseStatusException(HttpStatus.PAYLOAD_TOO_LARGE,
+                    "Размер изображения превышает " + maxUploadSize + " байт");
+        }
+        // Полный размер известен заранее: файл, не помещающийся в квоту, не начинает докачиваться
+        if (!storageQuota.hasRoom(username, length)) {
+            throw new ResponseStatusException(HttpStatus.PAYLOAD_TOO_LARGE, "Превышена квота места для изображений");
+        }
+
+        String id = UUID.randomUUID().toString();
+        Properties meta = new Properties();
+        meta.setProperty("owner", username);
+        meta.setProperty("contentType", contentType);
+        meta.setProperty("length", Long.toString(length));
+        Files.createFile(partFile(id));
+        writeMeta(id, meta);
+
+        log.info("Создана сессия загрузки {} ({} байт) пользователя {}", id, length, username);
+        return status(id, username);
+    }
+
+    public UploadSessionDto status(String id, String username) throws IOException {
+        Properties meta = readMeta(id, username);
+        UploadSessionDto dto = new UploadSessionDto();
+        dto.setId(id);
+        dto.setContentType(meta.getProperty("contentType"));
+        dto.setLength(Long.parseLong(meta.getProperty("length")));
+        dto.setOffset(Files.size(partFile(id)));
+        dto.setExpiresAt(lastActivity(id) + expiry.toMillis());
+        return dto;
+    }
+
+    /**
+     * Дописывает часть с позиции offset; offset должен совпадать с уже полученным размером,
+     * иначе 409 - клиент запрашивает текущее смещение и повторяет с него.
+     *
+     * @return новое смещение
+     */
+    public long append(String id, String username, long offset, InputStream chunk) throws IOException {
+        Properties meta = readMeta(id, username);
+        long length = Long.parseLong(meta.getProperty("length"));
+        if (!busy.add(id)) {
+            throw new ResponseStatusException(HttpStatus.CONFLICT, "Часть этой загрузки уже передаётся");
+        }
+        try (FileChannel channel = FileChannel.open(partFile(id), StandardOpenOption.WRITE)) {
+            long position = channel.size();
+            if (offset != position) {
+                throw new ResponseStatusException(HttpStatus.CONFLICT,
+                        "Смещение " + offset + " не совпадает с полученным размером " + position);
+            }
+            channel.position(position);
+
+            // Байты пишутся по мере получения: при обрыве соединения полученное остаётся в файле
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = chunk.read(buffer, 0, (int) Math.min(buffer.length, length - position + 1))) > 0) {
+                if (position + read > length) {
+                    channel.write(ByteBuffer.wrap(buffer, 0, (int) (length - position)));
+                    throw new ResponseStatusException(HttpStatus.PAYLOAD_TOO_LARGE,
+                            "Часть выходит за объявленный размер " + length + " байт");
+                }
+                channel.write(ByteBuffer.wrap(buffer, 0, read));
+                position += read;
+            }
+            log.debug("Сессия загрузки {}: получено {} из {} байт", id, position, length);
+            return position;
+        } finally {
+            busy.remove(id);
+        }
+    }
+
+    /**
+     * Передаёт собранный файл в consumer (обычно сохранение через ImageService) и удаляет сессию
+     */
+    public <T> T attach(String id, String username, UploadConsumer<T> consumer) throws IOException {
+        Properties meta = readMeta(id, username);
+        long length = Long.parseLong(meta.getProperty("length"));
+        if (!busy.add(id)) {
+            throw new ResponseStatusException(HttpStatus.CONFLICT, "Загрузка ещё передаётся");
+        }
+        try {
+            if (Files.size(partFile(id)) != length) {
+                throw new ResponseStatusException(HttpStatus.CONFLICT, "Загрузка не завершена");
+            }
+            T result;
+            try (InputStream in = Files.newInputStream(partFile(id))) {
+                result = consumer.accept(new StreamedImageFile(in, meta.getProperty("contentType"), length));
+            }
+            deleteFiles(id);
+            log.info("Сессия загрузки {} привязана и удалена", id);
+            return result;
+        } finally {
+            busy.remove(id);
+        }
+    }
+
+    public void cancel(String id, String username) throws IOException {
+        readMeta(id, username);
+        if (!busy.add(id)) {
+            throw new ResponseStatusException(HttpStatus.CONFLICT, "Загрузка ещё передаётся");
+        }
+        try {
+            deleteFiles(id);
+            log.info("Сессия загрузки {} отменена", id);
+        } finally {
+            busy.remove(id);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${app.image.upload-session.cleanup-interval-ms:600000}",
+            initialDelayString = "${app.image.upload-session.cleanup-interval-ms:600000}")
+    public void removeExpired() {
+        long cutoff = Instant.now().minus(expiry).toEpochMilli();
+        Set<String> ids = new HashSet<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                int dot = name.indexOf('.');
+                String id = dot < 0 ? name : name.substring(0, dot);
+                if (isSessionId(id)) {
+                    ids.add(id);
+                }
+            }
+            int removed = 0;
+            for (String id : ids) {
+                if (lastActivity(id) < cutoff && busy.add(id)) {
+                    try {
+                        deleteFiles(id);
+                        removed++;
+                    } finally {
+                        busy.remove(id);
+                    }
+                }
+            }
+            if (removed > 0) {
+                log.info("Удалено {} просроченных сессий загрузки", removed);
+            }
+        } catch (IOException e) {
+            log.error("Ошибка удаления просроченных сессий загрузки", e);
+        }
+    }
+
+    // Сессия другого пользователя не отличается от несуществующей
+    private Properties readMeta(String id, String username) throws IOException {
+        Properties meta = new Properties();
+        try (Reader reader = Files.newBufferedReader(metaFile(id), StandardCharsets.UTF_8)) {
+            meta.load(reader);
+        } catch (NoSuchFileException e) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Сессия загрузки не найдена");
+        }
+        if (!meta.getProperty("owner", "").equals(username) || !Files.exists(partFile(id))) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Сессия загрузки не найдена");
+        }
+        return meta;
+    }
+
+    // Запись через временный файл: после сбоя не остаётся наполовину записанных метаданных
+    private void writeMeta(String id, Properties meta) throws IOException {
+        Path temp = directory.resolve(id + ".meta.tmp");
+        try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            meta.store(writer, null);
+        }
+        Files.move(temp, metaFile(id), StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private long lastActivity(String id) throws IOException {
+        long last = 0;
+        for (Path file : new Path[]{partFile(id), metaFile(id)}) {
+            if (Files.exists(file)) {
+                last = Math.max(last, Files.getLastModifiedTime(file).toMillis());
+            }
+        }
+        return last;
+    }
+
+    private void deleteFiles(String id) throws IOException {
+        Files.deleteIfExists(partFile(id));
+        Files.deleteIfExists(metaFile(id));
+        Files.deleteIfExists(directory.resolve(id + ".meta.tmp"));
+    }
+
+    private Path partFile(String id) {
+        return directory.resolve(checkId(id) + PART_SUFFIX);
+    }
+
+    private Path metaFile(String id) {
+        return directory.resolve(checkId(id) + META_SUFFIX);
+    }
+
+    // Идентификатор попадает в имя файла: принимаются только UUID
+    private static String checkId(String id) {
+        if (!isSessionId(id)) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Сессия загрузки не найдена");
+        }
+        return id;
+    }
+
+    private static boolean isSessionId(String id) {
+        try {
+            return id != null && UUID.fromString(id).toString().equals(id);
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+}
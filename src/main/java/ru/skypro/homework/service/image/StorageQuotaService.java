@@ -0,0 +1,212 @@
+package ru.skypro.homework.service.image;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.unit.DataSize;
+import ru.skypro.homework.entity.UserStorage;
+import ru.skypro.homework.repository.UserStorageRepository;
+
+import javax.annotation.PreDestroy;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Квота места в хранилище на пользователя.
+ * <p>
+ * Занятое место - сумма размеров файлов по всем ссылкам пользователя: обложки и галереи его
+ * объявлений и аватар. {@link ImageService} прибавляет размер при каждой новой ссылке и
+ * вычитает при снятии, счётчики лежат в памяти, поэтому проверка перед загрузкой - одно
+ * чтение из ConcurrentHashMap без блокировок и запросов к БД.
+ * <p>
+ * Источник истины - user_storage. Раз в flush-interval-ms узел прибавляет к строкам
+ * накопленные изменения (used_bytes = used_bytes + delta), не перезаписывая то, что сбросили
+ * другие узлы, и перечитывает строки, изменённые с прошлого раза. Счётчик в памяти - значение
+ * из БД плюс ещё не сброшенные изменения этого узла.
+ * <p>
+ * Ссылки, созданные без известного владельца (например, после перезапуска фоновой обработки),
+ * и расхождения после сбоев исправляет сверка: под блокировкой строк user_storage она
+ * пересчитывает суммы по ссылкам и размерам файлов в таблице images и записывает их.
+ * Изменения, которые другие узлы ещё не сбросили, могут быть учтены повторно - не больше
+ * чем за один flush-interval-ms, до следующей сверки.
+ */
+@Slf4j
+@Component
+public class StorageQuotaService {
+    // Запас на расхождение часов узлов при чтении изменённых строк
+    private static final long CLOCK_SKEW_MS = 60_000;
+
+    private final UserStorageRepository userStorageRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final long maxBytesPerUser;
+
+    private final Map<String, AtomicLong> usage = new ConcurrentHashMap<>();
+    // Изменения, ещё не прибавленные к user_storage
+    private final Map<String, Long> pending = new ConcurrentHashMap<>();
+    private volatile long refreshedAt;
+
+    public StorageQuotaService(UserStorageRepository userStorageRepository,
+                               PlatformTransactionManager transactionManager,
+                               @Value("${app.image.quota.max-bytes-per-user:500MB}") DataSize maxBytesPerUser) {
+        this.userStorageRepository = userStorageRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.maxBytesPerUser = maxBytesPerUser.toBytes();
+    }
+
+    public long getMaxBytesPerUser() {
+        return maxBytesPerUser;
+    }
+
+    public long getUsedBytes(String username) {
+        AtomicLong used = usage.get(username);
+        return used == null ? 0 : used.get();
+    }
+
+    /**
+     * Поместятся ли ещё incomingBytes; при неизвестном размере (0) отказ, только если квота уже исчерпана
+     */
+    public boolean hasRoom(String username, long incomingBytes) {
+        long used = getUsedBytes(username);
+        return incomingBytes > 0 ? used + incomingBytes <= maxBytesPerUser : used < maxBytesPerUser;
+    }
+
+    public void charge(String username, long bytes) {
+        add(username, bytes);
+    }
+
+    public void release(String username, long bytes) {
+        add(username, -bytes);
+    }
+
+    private void add(String username, long bytes) {
+        if (username == null || bytes == 0) {
+            return;
+        }
+        pending.merge(username, bytes, Long::sum);
+        usage.computeIfAbsent(username, key -> new AtomicLong()).addAndGet(bytes);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void load() {
+        long started = Instant.now().toEpochMilli();
+        List<UserStorage> saved = userStorageRepository.findAll();
+        if (saved.isEmpty()) {
+            // первый запуск с квотами: счётчики строятся по существующим ссылкам
+            reconcile();
+            return;
+        }
+        saved.forEach(this::apply);
+        refreshedAt = started;
+        log.info("Загружены счётчики места {} пользователей", saved.size());
+    }
+
+    /**
+     * Прибавляет накопленные изменения к user_storage и перечитывает строки, изменённые с прошлого раза
+     */
+    @PreDestroy
+    @Scheduled(fixedDelayString = "${app.image.quota.flush-interval-ms:10000}",
+            initialDelayString = "${app.image.quota.flush-interval-ms:10000}")
+    public void flush() {
+        Map<String, Long> deltas = new HashMap<>();
+        for (String username : pending.keySet()) {
+            Long delta = pending.remove(username);
+            if (delta != null && delta != 0) {
+                deltas.put(username, delta);
+            }
+        }
+        long now = Instant.now().toEpochMilli();
+        if (!deltas.isEmpty()) {
+            try {
+                transactionTemplate.executeWithoutResult(status -> deltas.forEach((username, delta) -> {
+                    if (userStorageRepository.addUsedBytes(username, delta, now) == 0) {
+                        // строку одновременно вставил другой узел - транзакция откатится и повторится
+                        userStorageRepository.insertUsedBytes(username, delta, now);
+                    }
+                }));
+                log.debug("Сохранены изменения счётчиков места {} пользователей", deltas.size());
+            } catch (RuntimeException e) {
+                deltas.forEach((username, delta) -> pending.merge(username, delta, Long::sum));
+                log.warn("Не удалось сохранить счётчики места: {}", e.getMessage());
+            }
+        }
+        try {
+            userStorageRepository.findByUpdatedAtGreaterThanEqual(refreshedAt - CLOCK_SKEW_MS).forEach(this::apply);
+            refreshedAt = now;
+        } catch (RuntimeException e) {
+            log.warn("Не удалось прочитать счётчики места: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Пересчитывает занятое место по ссылкам в БД. Строки user_storage блокируются на время
+     * пересчёта: сброс изменений другими узлами ждёт и прибавляется уже к новым значениям
+     */
+    @Scheduled(fixedDelayString = "${app.image.quota.reconcile-interval-ms:21600000}",
+            initialDelayString = "${app.image.quota.reconcile-interval-ms:21600000}")
+    public void reconcile() {
+        // свои изменения - в БД до пересчёта, иначе они прибавятся к суммам повторно
+        flush();
+        try {
+            long started = Instant.now().toEpochMilli();
+            Integer corrected = transactionTemplate.execute(status -> {
+                Map<String, Long> stored = new HashMap<>();
+                for (UserStorage row : userStorageRepository.findAllForUpdate()) {
+                    stored.put(row.getEmail(), row.getUsedBytes());
+                }
+
+                Map<String, Long> actual = new HashMap<>();
+                List<UserStorageRepository.ReferencedBytes> sums = new ArrayList<>();
+                sums.addAll(userStorageRepository.sumAdCoverBytes());
+                sums.addAll(userStorageRepository.sumAdGalleryBytes());
+                sums.addAll(userStorageRepository.sumAvatarBytes());
+                for (UserStorageRepository.ReferencedBytes sum : sums) {
+                    actual.merge(sum.getEmail(), sum.getUsedBytes(), Long::sum);
+                }
+
+                int changed = 0;
+                for (String username : union(stored.keySet(), actual.keySet())) {
+                    long used = actual.getOrDefault(username, 0L);
+                    Long current = stored.get(username);
+                    if (current == null) {
+                        userStorageRepository.insertUsedBytes(username, used, started);
+                        changed++;
+                    } else if (current != used) {
+                        userStorageRepository.setUsedBytes(username, used, started);
+                        changed++;
+                    }
+                }
+                return changed;
+            });
+            List<UserStorage> rows = userStorageRepository.findAll();
+            rows.forEach(this::apply);
+            refreshedAt = started;
+            log.info("Сверка места в хранилище: {} пользователей, исправлено {}", rows.size(), corrected);
+        } catch (RuntimeException e) {
+            log.error("Ошибка сверки места в хранилище", e);
+        }
+    }
+
+    // Значение из БД плюс изменения этого узла, которые ещё не сброшены
+    private void apply(UserStorage row) {
+        usage.computeIfAbsent(row.getEmail(), key -> new AtomicLong())
+                .set(row.getUsedBytes() + pending.getOrDefault(row.getEmail(), 0L));
+    }
+
+    private static Set<String> union(Set<String> first, Set<String> second) {
+        Set<String> all = new HashSet<>(first);
+        all.addAll(second);
+        return all;
+    }
+}
@@ -0,0 +1,81 @@
+package ru.skypro.homework.service.image;
+
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Изображение, переданное телом запроса (Content-Type: image/*), а не multipart-частью.
+ * <p>
+ * Содержимое не буферизуется: {@link #getInputStream()} отдаёт поток запроса, и
+ * {@link ImageService#saveImage} пишет его сразу в каталог хранения. Поток читается один раз.
+ */
+public class StreamedImageFile implements MultipartFile {
+    private final InputStream content;
+    private final String contentType;
+    private final long size;
+    private boolean consumed;
+
+    public StreamedImageFile(InputStream content, String contentType, long size) {
+        this.content = content;
+        this.contentType = contentType;
+        this.size = size;
+    }
+
+    @Override
+    public String getName() {
+        return "image";
+    }
+
+    @Override
+    public String getOriginalFilename() {
+        return null;
+    }
+
+    @Override
+    public String getContentType() {
+        return contentType;
+    }
+
+    // Размер неизвестен заранее (chunked), если Content-Length не передан
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public long getSize() {
+        return size;
+    }
+
+    @Override
+    public byte[] getBytes() throws IOException {
+        return getInputStream().readAllBytes();
+    }
+
+    @Override
+    public synchronized InputStream getInputStream() throws IOException {
+        if (consumed) {
+            throw new IOException("Тело запроса уже прочитано");
+        }
+        consumed = true;
+        return content;
+    }
+
+    @Override
+    public void transferTo(File dest) throws IOException {
+        transferTo(dest.toPath());
+    }
+
+    @Override
+    public void transferTo(Path dest) throws IOException {
+        try (InputStream in = getInputStream()) {
+            Files.copy(in, dest, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
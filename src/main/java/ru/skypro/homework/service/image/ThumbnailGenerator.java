@@ -0,0 +1,176 @@
+package ru.skypro.homework.service.image;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.skypro.homework.repository.ImageMetadataRepository;
+import ru.skypro.homework.service.image.storage.ImageStorage;
+
+import javax.imageio.ImageIO;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Генерация уменьшенных копий изображения по ширинам из app.image.thumbnail.widths.
+ * <p>
+ * Копии создаются в фоне после сохранения оригинала под соседним ключом (img_1_2_w160.jpg).
+ * Каждая копия пишется во временный файл и сохраняется в хранилище целиком, поэтому
+ * недописанная копия никогда не отдаётся. Если оригинал не шире нужного размера или формат
+ * не читается ImageIO, копией становится ссылка на оригинал ({@link ImageStorage#link}):
+ * после генерации копия есть для каждой ширины.
+ * <p>
+ * Готовые копии и их размеры записываются в images.variants: по ним копия выбирается при
+ * отдаче без проверки хранилища по каждой ширине.
+ */
+@Slf4j
+@Component
+public class ThumbnailGenerator {
+    private final TaskExecutor executor;
+    private final ImageStorage imageStorage;
+    private final ImageMetadataRepository imageMetadataRepository;
+    private final ImageMetadataCache metadataCache;
+    private final TransactionTemplate transactionTemplate;
+    private final int[] widths;
+
+    public ThumbnailGenerator(@Qualifier("thumbnailExecutor") TaskExecutor executor, ImageStorage imageStorage,
+                              ImageMetadataRepository imageMetadataRepository, ImageMetadataCache metadataCache,
+                              PlatformTransactionManager transactionManager,
+                              @Value("${app.image.thumbnail.widths:160,480,1080}") int[] widths) {
+        this.executor = executor;
+        this.imageStorage = imageStorage;
+        this.imageMetadataRepository = imageMetadataRepository;
+        this.metadataCache = metadataCache;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.widths = Arrays.stream(widths).sorted().distinct().toArray();
+    }
+
+    /**
+     * Ширины вариантов по возрастанию
+     */
+    public int[] getWidths() {
+        return widths.clone();
+    }
+
+    /**
+     * Наименьшая настроенная ширина не меньше запрошенной; -1, если запрошено больше максимальной
+     */
+    public int targetWidth(int requested) {
+        for (int width : widths) {
+            if (width >= requested) {
+                return width;
+            }
+        }
+        return -1;
+    }
+
+    public void submit(String original) {
+        try {
+            executor.execute(() -> generate(original));
+        } catch (TaskRejectedException e) {
+            log.warn("Очередь генерации превью переполнена, {} будет отдаваться без уменьшенных копий", original);
+        }
+    }
+
+    void generate(String original) {
+        Map<Integer, Long> sizes = new TreeMap<>();
+        try {
+            Resource resource = imageStorage.load(original);
+            BufferedImage source;
+            try (InputStream in = resource.getInputStream()) {
+                source = ImageIO.read(in);
+            }
+            String format = formatOf(original);
+            for (int width : widths) {
+                String target = FileNameUtils.variantPath(original, width);
+                if (source == null || format == null || source.getWidth() <= width) {
+                    imageStorage.link(original, target);
+                    sizes.put(width, resource.contentLength());
+                } else {
+                    sizes.put(width, writeScaled(source, width, format, target));
+                }
+            }
+            log.debug("Уменьшенные копии {} созданы", original);
+        } catch (NoSuchFileException e) {
+            log.debug("Оригинал {} удалён до генерации превью", original);
+        } catch (IOException | RuntimeException e) {
+            log.warn("Ошибка генерации превью для {}: {}", original, e.getMessage());
+        } finally {
+            // и при ошибке: уже созданные копии отдаются, недостающие заменяет ближайшая готовая
+            recordVariants(original, sizes);
+        }
+    }
+
+    private void recordVariants(String original, Map<Integer, Long> sizes) {
+        if (sizes.isEmpty()) {
+            return;
+        }
+        try {
+            transactionTemplate.executeWithoutResult(status ->
+                    imageMetadataRepository.setVariants(original, ImageVariant.formatSizes(sizes)));
+            metadataCache.invalidate(original);
+        } catch (RuntimeException e) {
+            log.warn("Не удалось записать уменьшенные копии {}: {}", original, e.getMessage());
+        }
+    }
+
+    // Размер сохранённой копии в байтах
+    private long writeScaled(BufferedImage source, int width, String format, String target) throws IOException {
+        int height = Math.max(1, (int) Math.round((double) source.getHeight() * width / source.getWidth()));
+        boolean alpha = !"jpg".equals(format) && !"bmp".equals(format);
+        BufferedImage scaled = new BufferedImage(width, height,
+                alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+
+        Graphics2D graphics = scaled.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            graphics.drawImage(source, 0, 0, width, height, null);
+        } finally {
+            graphics.dispose();
+        }
+
+        Path temp = imageStorage.createTempFile(FileNameUtils.subfolderOf(target));
+        try {
+            if (!ImageIO.write(scaled, format, temp.toFile())) {
+                throw new IOException("Нет кодировщика для формата " + format);
+            }
+            long size = Files.size(temp);
+            imageStorage.store(target, temp);
+            return size;
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static String formatOf(String imagePath) {
+        String extension = FileNameUtils.getFileName(imagePath.substring(imagePath.lastIndexOf('/') + 1)).toLowerCase();
+        switch (extension) {
+            case ".jpg":
+            case ".jpeg":
+                return "jpg";
+            case ".png":
+                return "png";
+            case ".gif":
+                return "gif";
+            case ".bmp":
+                return "bmp";
+            default:
+                return null;
+        }
+    }
+}
@@ -1,42 +1,100 @@
 package ru.skypro.homework.service.image.impl;
 
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.unit.DataSize;
 import org.springframework.http.MediaType;
 import org.springframework.web.multipart.MultipartFile;
+import ru.skypro.homework.dto.ImageStorageReportDto;
+import ru.skypro.homework.dto.ImageTypeStatsDto;
+import ru.skypro.homework.entity.ImageMetadata;
+import ru.skypro.homework.repository.ImageMetadataRepository;
+import ru.skypro.homework.service.image.ContentHashUtils;
 import ru.skypro.homework.service.image.FileNameUtils;
+import ru.skypro.homework.service.image.HotImageCache;
+import ru.skypro.homework.service.image.ImageFormat;
+import ru.skypro.homework.service.image.ImageMetadataCache;
+import ru.skypro.homework.service.image.ImageNormalizer;
+import ru.skypro.homework.service.image.ImagePathLocks;
+import ru.skypro.homework.service.image.ImagePlaceholder;
 import ru.skypro.homework.service.image.ImageService;
+import ru.skypro.homework.service.image.ImageVariant;
+import ru.skypro.homework.service.image.StorageQuotaService;
+import ru.skypro.homework.service.image.ThumbnailGenerator;
+import ru.skypro.homework.service.image.storage.ImageStorage;
 
-import javax.annotation.PostConstruct;
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
 import java.io.IOException;
+import java.io.FilterInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.time.Instant;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
 
 @Slf4j
 @Service
 public class ImageServiceImpl implements ImageService {
-    @Value("${app.image.upload-dir:uploads/images/}")
-    private String uploadDir;
+    private static final int MAX_REFERENCE_ATTEMPTS = 3;
 
     @Value("${app.image.base-url:http://localhost:8080}")
     private String baseUrl;
 
-    @PostConstruct
-    public void init() {
-        try {
-            Files.createDirectories(Paths.get(uploadDir, "avatars"));
-            Files.createDirectories(Paths.get(uploadDir, "ads"));
-            log.info("Директории для изображений созданы");
-        } catch (IOException e) {
-            log.error("Ошибка создания директорий", e);
-        }
+    @Value("${app.image.max-upload-size:10MB}")
+    private DataSize maxUploadSize;
+
+    private final ImageMetadataRepository imageMetadataRepository;
+    private final HotImageCache hotImageCache;
+    private final ThumbnailGenerator thumbnailGenerator;
+    private final ImageNormalizer imageNormalizer;
+    private final ImageStorage imageStorage;
+    private final TaskExecutor batchExecutor;
+    private final StorageQuotaService storageQuota;
+    private final ImageMetadataCache metadataCache;
+    private final TransactionTemplate requiresNewTransaction;
+    // Операции с одним файлом (сохранение, захват и снятие ссылки) выполняются по очереди
+    private final ImagePathLocks pathLocks;
+
+    public ImageServiceImpl(ImageMetadataRepository imageMetadataRepository, HotImageCache hotImageCache,
+                            ThumbnailGenerator thumbnailGenerator, ImageNormalizer imageNormalizer,
+                            ImageStorage imageStorage,
+                            @Qualifier("imageBatchExecutor") TaskExecutor batchExecutor,
+                            StorageQuotaService storageQuota, ImageMetadataCache metadataCache,
+                            ImagePathLocks pathLocks, PlatformTransactionManager transactionManager) {
+        this.imageMetadataRepository = imageMetadataRepository;
+        this.hotImageCache = hotImageCache;
+        this.thumbnailGenerator = thumbnailGenerator;
+        this.imageNormalizer = imageNormalizer;
+        this.imageStorage = imageStorage;
+        this.batchExecutor = batchExecutor;
+        this.storageQuota = storageQuota;
+        this.metadataCache = metadataCache;
+        this.pathLocks = pathLocks;
+        this.requiresNewTransaction = new TransactionTemplate(transactionManager);
+        this.requiresNewTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
     }
 
     @Override
-    public String saveImage(MultipartFile image, String subfolder) throws IOException {
+    public String saveImage(MultipartFile image, String subfolder, String owner) throws IOException {
         log.debug("Сохранение изображения: {}", image.getOriginalFilename());
 
         // Валидация
@@ -44,66 +102,408 @@ public class ImageServiceImpl implements ImageService {
             throw new IllegalArgumentException("Файл изображения пустой");
         }
 
-        // Проверка типа файла
-        String contentType = image.getContentType();
-        if (contentType == null || !contentType.startsWith("image/")) {
-            throw new IllegalArgumentException("Файл должен быть изображением");
+        // Content-Type клиента не учитывается: тип определяется только по сигнатуре содержимого.
+        // Один проход по содержимому: проверка сигнатуры, ограничение размера и хэш считаются
+        // на лету, байты пишутся во временный файл хранилища и сохраняются под именем по хэшу
+        Path tempFile = imageStorage.createTempFile(subfolder);
+        Path normalizedFile = imageStorage.createTempFile(subfolder);
+        try {
+            MessageDigest digest = ContentHashUtils.newDigest();
+            String extension;
+            try (InputStream in = new DigestInputStream(
+                    new SizeLimitedInputStream(image.getInputStream(), maxUploadSize.toBytes()), digest);
+                 OutputStream out = Files.newOutputStream(tempFile)) {
+                byte[] header = in.readNBytes(ImageFormat.HEADER_SIZE);
+                extension = ImageFormat.detectExtension(header);
+                if (extension == null) {
+                    throw new IllegalArgumentException("Файл должен быть изображением");
+                }
+                out.write(header);
+                in.transferTo(out);
+            }
+
+            // Хэш считается по загруженным байтам, а не по нормализованным: повторная загрузка
+            // того же файла находит сохранённое изображение и не нормализуется заново
+            String contentHash = ContentHashUtils.toHex(digest.digest());
+            String existingPath = findImageByHash(contentHash, subfolder);
+            ImageNormalizer.Result content = existingPath == null
+                    ? imageNormalizer.normalize(tempFile, extension, normalizedFile) : null;
+            String imagePath = existingPath != null ? existingPath
+                    : "/images/" + subfolder + "/" + contentHash + content.getExtension();
+
+            // Блокировка по пути не даёт потокам этого узла записывать один файл дважды;
+            // между узлами ссылки согласует БД (addReference, deleteImage)
+            synchronized (lockFor(imagePath)) {
+                boolean known = inNewTransaction(() -> imageMetadataRepository.incrementRefCount(imagePath, Instant.now().toEpochMilli()) > 0);
+                long storedSize = 0;
+                ImageNormalizer.Result stored = null;
+                if (!known || !imageStorage.exists(imagePath)) {
+                    if (content == null) {
+                        // сохранённое изображение удалили после поиска
+                        content = imageNormalizer.normalize(tempFile, extension, normalizedFile);
+                    }
+                    storedSize = Files.size(content.getFile());
+                    stored = content;
+                    imageStorage.store(imagePath, content.getFile());
+                }
+                if (!known) {
+                    // Файл уже в хранилище: строка без файла не появляется ни на одном узле
+                    known = !addReference(imagePath, contentHash, storedSize, stored);
+                }
+                if (known) {
+                    storageQuota.charge(owner, storedSize(imagePath));
+                    log.info("Изображение {} уже сохранено, добавлена ссылка", imagePath);
+                    return imagePath;
+                }
+                storageQuota.charge(owner, storedSize);
+            }
+
+            hotImageCache.invalidate(imagePath);
+            String fullImageUrl = baseUrl + imagePath;
+            log.info("Изображение сохранено: {} (URL: {})", imagePath, fullImageUrl);
+
+            // Оригинал уже в хранилище - уменьшенные копии создаются в фоне
+            thumbnailGenerator.submit(imagePath);
+            return imagePath;
+        } finally {
+            Files.deleteIfExists(tempFile);
+            Files.deleteIfExists(normalizedFile);
         }
+    }
 
-        // Генерация имени файла
-        String fileName = FileNameUtils.generateFileName(image.getOriginalFilename());
+    /**
+     * Файлы сохраняются одновременно в пуле imageBatchExecutor, поэтому порция занимает примерно
+     * время самого долгого файла, а не сумму. Порядок результата совпадает с порядком файлов
+     */
+    @Override
+    public List<String> saveImages(List<MultipartFile> images, String subfolder, String owner) throws IOException {
+        List<CompletableFuture<String>> saves = new ArrayList<>(images.size());
+        for (MultipartFile image : images) {
+            saves.add(CompletableFuture.supplyAsync(() -> {
+                try {
+                    return saveImage(image, subfolder, owner);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, batchExecutor));
+        }
 
-        // Путь для сохранения
-        String fullUploadDir = uploadDir + subfolder + "/";
-        Path uploadPath = Paths.get(fullUploadDir);
+        List<String> saved = new ArrayList<>(images.size());
+        Throwable failure = null;
+        for (CompletableFuture<String> save : saves) {
+            try {
+                saved.add(save.join());
+            } catch (CompletionException e) {
+                if (failure == null) {
+                    failure = e.getCause() instanceof UncheckedIOException ? e.getCause().getCause() : e.getCause();
+                }
+            }
+        }
+        if (failure == null) {
+            return saved;
+        }
 
-        // Создаем директорию если не существует
-        if (!Files.exists(uploadPath)) {
-            Files.createDirectories(uploadPath);
+        // Порция сохраняется целиком или никак: уже сохранённые файлы теряют ссылку
+        for (String imagePath : saved) {
+            try {
+                deleteImage(imagePath, owner);
+            } catch (IOException e) {
+                log.warn("Не удалось удалить изображение {}: {}", imagePath, e.getMessage());
+            }
         }
+        if (failure instanceof IOException) {
+            throw (IOException) failure;
+        }
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        }
+        throw new IOException("Ошибка сохранения изображений", failure);
+    }
 
-        // Сохраняем файл
-        Path filePath = uploadPath.resolve(fileName);
-        Files.copy(image.getInputStream(), filePath, StandardCopyOption.REPLACE_EXISTING);
+    @Override
+    public String findImageByHash(String contentHash, String subfolder) {
+        if (!isValidHash(contentHash)) {
+            return null;
+        }
+        return imageMetadataRepository.findFirstByContentHashAndPathStartingWith(
+                        contentHash.toLowerCase(), "/images/" + subfolder + "/")
+                .map(ImageMetadata::getPath)
+                .filter(imageStorage::exists)
+                .orElse(null);
+    }
 
-        String imagePath = "/images/" + subfolder + "/" + fileName;
-        String fullImageUrl = baseUrl + imagePath;
-        log.info("Изображение сохранено: {} (URL: {})", filePath, fullImageUrl);
+    @Override
+    public String reuseImage(String contentHash, String subfolder, String owner) throws IOException {
+        String imagePath = findImageByHash(contentHash, subfolder);
+        if (imagePath == null) {
+            throw new IOException("Изображение с таким хэшем не найдено");
+        }
 
+        synchronized (lockFor(imagePath)) {
+            boolean claimed = inNewTransaction(() -> imageMetadataRepository.incrementRefCount(imagePath, Instant.now().toEpochMilli()) > 0);
+            if (!claimed) {
+                // файл удалили между поиском и захватом ссылки
+                throw new IOException("Изображение с таким хэшем не найдено");
+            }
+            storageQuota.charge(owner, storedSize(imagePath));
+        }
+        log.info("Добавлена ссылка на изображение {} без загрузки содержимого", imagePath);
         return imagePath;
     }
 
     @Override
-    public byte[] loadImage(String imagePath) throws IOException {
+    public Resource loadImage(String imagePath) throws IOException {
         log.debug("Загрузка изображения: {}", imagePath);
 
-        // Убираем начальный слэш для создания полного пути
-        String relativePath = imagePath.startsWith("/images/") ? imagePath.substring(8) : imagePath;
-        Path filePath = Paths.get(uploadDir, relativePath);
+        try {
+            return hotImageCache.load(imagePath, () -> imageStorage.load(imagePath));
+        } catch (NoSuchFileException e) {
+            // файл мог быть перенесён в шардированный каталог между поиском и открытием
+            try {
+                return hotImageCache.load(imagePath, () -> imageStorage.load(imagePath));
+            } catch (NoSuchFileException again) {
+                log.warn("Изображение не найдено: {}", imagePath);
+                throw new IOException("Изображение не найдено");
+            }
+        }
+    }
+
+    /**
+     * Копии выбираются по images.variants, хранилище не опрашивается. Пока нужной копии нет,
+     * метаданные перечитываются из БД: копии могли появиться после того, как строка попала в кэш
+     */
+    @Override
+    public ImageVariant resolveVariant(String imagePath, int width) {
+        int target = thumbnailGenerator.targetWidth(width);
+        if (target < 0) {
+            return ImageVariant.original(imagePath, true);
+        }
 
-        if (!Files.exists(filePath)) {
-            log.warn("Изображение не найдено: {}", filePath);
-            throw new IOException("Изображение не найдено");
+        ImageVariant variant = readyVariant(getImageMetadata(imagePath), imagePath, target);
+        if (variant == null) {
+            metadataCache.invalidate(imagePath);
+            variant = readyVariant(getImageMetadata(imagePath), imagePath, target);
         }
+        // Копии ещё не готовы
+        return variant != null ? variant : ImageVariant.original(imagePath, false);
+    }
 
-        return Files.readAllBytes(filePath);
+    private static ImageVariant readyVariant(ImageMetadata metadata, String imagePath, int target) {
+        if (metadata == null) {
+            return null;
+        }
+        for (Map.Entry<Integer, Long> ready : ImageVariant.parseSizes(metadata.getVariants()).entrySet()) {
+            if (ready.getKey() >= target) {
+                return new ImageVariant(FileNameUtils.variantPath(imagePath, ready.getKey()), ready.getKey(),
+                        ready.getKey() == target, ready.getValue());
+            }
+        }
+        return null;
     }
 
+    /**
+     * Только таблица images: файл на этом пути не читается. Файлы, загруженные до её появления,
+     * описывает {@link ru.skypro.homework.service.image.ImageMetadataBackfill}, до тех пор - null
+     */
     @Override
-    public void deleteImage(String imagePath) throws IOException {
+    public ImageMetadata getImageMetadata(String imagePath) {
+        ImageMetadata metadata = metadataCache.get(imagePath);
+        if (metadata != null) {
+            return metadata;
+        }
+        metadata = imageMetadataRepository.findById(imagePath).orElse(null);
+        if (metadata != null) {
+            metadataCache.put(metadata);
+        }
+        return metadata;
+    }
+
+    @Override
+    public ImageStorageReportDto getStorageReport() {
+        ImageStorageReportDto report = new ImageStorageReportDto();
+        List<ImageTypeStatsDto> byType = new ArrayList<>();
+        for (ImageMetadataRepository.TypeStats stats : imageMetadataRepository.summarizeByContentType()) {
+            ImageTypeStatsDto type = new ImageTypeStatsDto();
+            type.setContentType(stats.getContentType());
+            type.setImages(stats.getImages());
+            type.setBytes(stats.getBytes());
+            type.setReferences(stats.getReferences());
+            type.setDedupSavedBytes(stats.getDedupSavedBytes());
+            type.setMaxBytes(stats.getMaxBytes());
+            type.setAverageWidth(stats.getAverageWidth());
+            type.setAverageHeight(stats.getAverageHeight());
+            byType.add(type);
+
+            report.setImages(report.getImages() + type.getImages());
+            report.setBytes(report.getBytes() + type.getBytes());
+            report.setReferences(report.getReferences() + type.getReferences());
+        }
+        report.setByType(byType);
+        return report;
+    }
+
+    @Override
+    public String getPlaceholder(String imagePath) {
+        ImageMetadata metadata = imageMetadataRepository.findById(imagePath).orElse(null);
+        if (metadata != null && metadata.getPlaceholder() != null) {
+            return metadata.getPlaceholder();
+        }
+
+        // Изображения, загруженные до появления заглушек (и картинки по умолчанию): считаем по файлу
+        String placeholder;
+        try (InputStream in = imageStorage.load(imagePath).getInputStream()) {
+            BufferedImage image = ImageIO.read(in);
+            if (image == null) {
+                return null;
+            }
+            placeholder = ImagePlaceholder.of(image);
+        } catch (IOException e) {
+            log.debug("Заглушка для {} не построена: {}", imagePath, e.getMessage());
+            return null;
+        }
+
+        if (metadata != null) {
+            // Только заглушка: save перезаписал бы счётчик ссылок прочитанным значением
+            inNewTransaction(() -> imageMetadataRepository.setPlaceholder(imagePath, placeholder));
+        }
+        return placeholder;
+    }
+
+    @Override
+    public void deleteImage(String imagePath, String owner) throws IOException {
         log.debug("Удаление изображения: {}", imagePath);
 
-        String relativePath = imagePath.startsWith("/images/") ? imagePath.substring(8) : imagePath;
-        Path filePath = Paths.get(uploadDir, relativePath);
+        if (FileNameUtils.isDefaultImage(imagePath)) {
+            log.debug("Изображение по умолчанию не удаляется: {}", imagePath);
+            return;
+        }
 
-        if (Files.exists(filePath)) {
-            Files.delete(filePath);
-            log.info("Изображение удалено: {}", filePath);
-        } else {
-            log.warn("Изображение для удаления не найдено: {}", filePath);
+        synchronized (lockFor(imagePath)) {
+            // Строка блокируется до конца транзакции, и последняя ссылка снимается вместе
+            // с файлом: захват ссылки на другом узле ждёт и после удаления сохраняет файл заново
+            long size = storedSize(imagePath);
+            boolean stillReferenced = inNewTransactionWithIo(() -> {
+                ImageMetadata metadata = imageMetadataRepository.findForUpdate(imagePath).orElse(null);
+                if (metadata != null) {
+                    if (metadata.getRefCount() > 1) {
+                        metadata.setRefCount(metadata.getRefCount() - 1);
+                        return true;
+                    }
+                    imageMetadataRepository.delete(metadata);
+                }
+                deleteStoredFiles(imagePath);
+                return false;
+            });
+            storageQuota.release(owner, size);
+            if (stillReferenced) {
+                log.debug("Изображение {} используется другими записями, снята одна ссылка", imagePath);
+                return;
+            }
+            metadataCache.invalidate(imagePath);
+            log.info("Изображение удалено: {}", imagePath);
+        }
+    }
+
+    /**
+     * Выполняется под той же блокировкой, что и захват ссылки в saveImage/reuseImage, а строка
+     * images удаляется условным запросом: если ссылку захватили после решения сборщика, файл
+     * не удаляется. Уменьшенная копия удаляется, только пока не захвачен её оригинал
+     */
+    @Override
+    public boolean deleteUnreferenced(String imagePath, long since) throws IOException {
+        String originalPath = FileNameUtils.originalPath(imagePath);
+        boolean original = imagePath.equals(originalPath);
+        synchronized (lockFor(originalPath)) {
+            // Файл удаляется до фиксации удаления строки - как в deleteImage
+            boolean unused = inNewTransactionWithIo(() -> {
+                boolean free = original
+                        ? imageMetadataRepository.deleteIfUnreferencedSince(imagePath, since) > 0
+                                || !imageMetadataRepository.existsById(imagePath)
+                        : !imageMetadataRepository.isReferencedSince(originalPath, since);
+                if (free) {
+                    deleteStored(imagePath);
+                }
+                return free;
+            });
+            if (unused && original) {
+                metadataCache.invalidate(imagePath);
+            }
+            return unused;
+        }
+    }
+
+    /**
+     * Добавляет ссылку на изображение, только что сохранённое в хранилище: вставляет строку
+     * images или, если её тем временем вставил другой узел, увеличивает её счётчик
+     *
+     * @return true - вставлена новая строка, false - добавлена ссылка на существующую
+     */
+    private boolean addReference(String imagePath, String contentHash, long size, ImageNormalizer.Result stored) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                inNewTransaction(() -> {
+                    imageMetadataRepository.insertFirstReference(imagePath, contentHash, size, Instant.now().toEpochMilli());
+                    return imageMetadataRepository.describe(imagePath, stored.getPlaceholder(),
+                            ImageFormat.mediaTypeOf(stored.getExtension()), stored.getWidth(), stored.getHeight());
+                });
+                return true;
+            } catch (DataIntegrityViolationException e) {
+                log.debug("Строку изображения {} одновременно вставил другой узел", imagePath);
+            }
+            if (inNewTransaction(() -> imageMetadataRepository.incrementRefCount(imagePath, Instant.now().toEpochMilli()) > 0)) {
+                return false;
+            }
+            if (attempt == MAX_REFERENCE_ATTEMPTS) {
+                // строку вставляют и удаляют быстрее, чем удаётся на неё сослаться
+                throw new IllegalStateException("Не удалось добавить ссылку на изображение " + imagePath);
+            }
+        }
+    }
+
+    // Оригинал и его уменьшенные копии; вызывается в транзакции, удаляющей строку images
+    private void deleteStoredFiles(String imagePath) {
+        deleteStored(imagePath);
+        for (int width : thumbnailGenerator.getWidths()) {
+            deleteStored(FileNameUtils.variantPath(imagePath, width));
+        }
+    }
+
+    private void deleteStored(String imagePath) {
+        hotImageCache.invalidate(imagePath);
+        try {
+            imageStorage.delete(imagePath);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Счётчики ссылок фиксируются сразу: откат внешней транзакции может оставить лишнюю ссылку
+    // (файл не удалится), но никогда не удалит используемый файл
+    private <T> T inNewTransaction(Supplier<T> action) {
+        return requiresNewTransaction.execute(status -> action.get());
+    }
+
+    // Для удаления файлов внутри транзакции: их IOException откатывает её и передаётся дальше
+    private <T> T inNewTransactionWithIo(Supplier<T> action) throws IOException {
+        try {
+            return inNewTransaction(action);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
         }
     }
 
+    private long storedSize(String imagePath) {
+        return imageMetadataRepository.findById(imagePath).map(ImageMetadata::getSize).orElse(0L);
+    }
+
+    private Object lockFor(String imagePath) {
+        return pathLocks.lockFor(imagePath);
+    }
+
+    private static boolean isValidHash(String contentHash) {
+        return contentHash != null && contentHash.matches("[0-9a-fA-F]{64}");
+    }
+
     @Override
     public MediaType determineMediaType(String imagePath) {
         if (imagePath == null) {
@@ -125,16 +525,19 @@ public class ImageServiceImpl implements ImageService {
     }
 
     /**
-     * Определяет MediaType по MultipartFile
+     * Определяет MediaType по сигнатуре содержимого MultipartFile; заголовку клиента не доверяем
      */
     @Override
-    public MediaType determineMediaType(MultipartFile file) {
-        if (file.getContentType() != null && file.getContentType().startsWith("image/")) {
-            return MediaType.parseMediaType(file.getContentType());
+    public MediaType determineMediaType(MultipartFile file) throws IOException {
+        byte[] header;
+        try (InputStream in = file.getInputStream()) {
+            header = in.readNBytes(ImageFormat.HEADER_SIZE);
         }
-
-        // Если Content-Type неопределен, определяем по имени файла
-        return determineMediaType(file.getOriginalFilename());
+        String mediaType = ImageFormat.detectMediaType(header);
+        if (mediaType == null) {
+            throw new IllegalArgumentException("Файл должен быть изображением");
+        }
+        return MediaType.parseMediaType(mediaType);
     }
 
     /**
@@ -154,5 +557,43 @@ public class ImageServiceImpl implements ImageService {
             return ".jpg";
         }
     }
-}
 
+    /**
+     * Обрывает чтение, как только содержимое превышает лимит: тело запроса без
+     * Content-Length не попадает на диск целиком
+     */
+    private static final class SizeLimitedInputStream extends FilterInputStream {
+        private final long limit;
+        private long count;
+
+        SizeLimitedInputStream(InputStream in, long limit) {
+            super(in);
+            this.limit = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count(n);
+            }
+            return n;
+        }
+
+        private void count(long n) {
+            count += n;
+            if (count > limit) {
+                throw new IllegalArgumentException("Размер изображения превышает " + limit + " байт");
+            }
+        }
+    }
+}
@@ -0,0 +1,624 @@
+package ru.skypro.homework.service.image.storage;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.io.AbstractResource;
+import org.springframework.core.io.Resource;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+import ru.skypro.homework.repository.ImageMetadataRepository;
+import ru.skypro.homework.service.image.FileNameUtils;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+/**
+ * Хранение изображений на нескольких узлах без общего диска (app.image.storage=cluster).
+ * <p>
+ * Узлы перечислены в app.image.cluster.nodes, каждый хранит файлы в своём каталоге загрузок
+ * (как {@link FileSystemImageStorage}). Владельцы изображения - replication узлов по кольцу
+ * согласованного хэширования ({@link HashRing}) от пути оригинала, поэтому уменьшенные копии
+ * лежат там же, где оригинал. Новое изображение отправляется владельцам сразу при сохранении;
+ * если ни один из них недоступен, копия остаётся на принявшем узле до перебалансировки.
+ * <p>
+ * Узел, у которого файла нет, забирает его у владельцев по HTTP (ClusterImageController на их
+ * стороне) и при cache-remote=true кладёт в локальный кэш, который чистится по cache-max-age.
+ * <p>
+ * Раз в health-interval-ms узлы опрашиваются; узел выходит из кольца или возвращается в него
+ * после health-threshold одинаковых ответов подряд ({@link NodeHealth}). При смене состава кольцо
+ * перестраивается, и каждый узел перебалансирует свои файлы: досылает их новым владельцам и удаляет
+ * копии, которыми больше не владеет, после того как все владельцы подтвердили получение.
+ * Уходит примерно 1/N файлов - то, что сменило владельца.
+ * <p>
+ * Удаление доходит только до доступных узлов. Чтобы вернувшийся узел не разослал удалённое
+ * изображение заново, перебалансировка досылает только файлы, оригиналы которых есть в таблице
+ * images; оставшуюся у него копию удаляет сборщик неиспользуемых файлов.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "app.image.storage", havingValue = "cluster")
+public class ClusterImageStorage implements ImageStorage {
+    static final int MIN_SECRET_LENGTH = 16;
+
+    private final ImageMetadataRepository imageMetadataRepository;
+    private final FileSystemImageStorage local;
+    private final FileSystemImageStorage cache;
+    private final ImagePeerClient peers;
+    private final String self;
+    private final List<String> nodes;
+    private final byte[] secret;
+    private final int replication;
+    private final int virtualNodes;
+    private final boolean cacheRemote;
+    private final Duration cacheMaxAge;
+    private final int rebalanceBatchSize;
+    private final NodeHealth health;
+
+    // Кольцо по доступным сейчас узлам; заменяется целиком при смене состава
+    private volatile HashRing ring;
+    private final AtomicBoolean rebalancing = new AtomicBoolean();
+    private final ThreadPoolTaskExecutor rebalanceExecutor = new ThreadPoolTaskExecutor();
+
+    public ClusterImageStorage(ImageStorageLayout layout, ImageMetadataRepository imageMetadataRepository,
+                               @Value("${app.image.cluster.self}") String self,
+                               @Value("${app.image.cluster.nodes}") String nodes,
+                               @Value("${app.image.cluster.secret}") String secret,
+                               @Value("${app.image.cluster.replication:2}") int replication,
+                               @Value("${app.image.cluster.virtual-nodes:128}") int virtualNodes,
+                               @Value("${app.image.cluster.cache-remote:true}") boolean cacheRemote,
+                               @Value("${app.image.cluster.cache-dir:uploads/cache/}") String cacheDir,
+                               @Value("${app.image.cluster.cache-max-age:P7D}") Duration cacheMaxAge,
+                               @Value("${app.image.cluster.timeout:PT5S}") Duration timeout,
+                               @Value("${app.image.cluster.rebalance-batch-size:500}") int rebalanceBatchSize,
+                               @Value("${app.image.cluster.health-threshold:3}") int healthThreshold) {
+        this.imageMetadataRepository = imageMetadataRepository;
+        this.local = new FileSystemImageStorage(layout);
+        this.cache = new FileSystemImageStorage(new ImageStorageLayout(cacheDir));
+        this.peers = new ImagePeerClient(secret, timeout);
+        this.self = normalize(self);
+        this.nodes = Arrays.stream(nodes.split(","))
+                .map(String::trim)
+                .filter(node -> !node.isEmpty())
+                .map(ClusterImageStorage::normalize)
+                .distinct()
+                .collect(Collectors.toList());
+        if (!this.nodes.contains(this.self)) {
+            throw new IllegalStateException("Узел " + this.self + " не входит в app.image.cluster.nodes");
+        }
+        // Пустой ключ принимал бы запросы с пустым X-Cluster-Token: эндпоинты узлов открыты без входа
+        if (secret == null || secret.trim().length() < MIN_SECRET_LENGTH) {
+            throw new IllegalStateException("app.image.cluster.secret должен быть не короче "
+                    + MIN_SECRET_LENGTH + " символов");
+        }
+        this.secret = secret.getBytes(StandardCharsets.UTF_8);
+        this.replication = replication;
+        this.virtualNodes = virtualNodes;
+        this.cacheRemote = cacheRemote;
+        this.cacheMaxAge = cacheMaxAge;
+        this.rebalanceBatchSize = rebalanceBatchSize;
+        // До первого опроса считаем доступными все узлы: одновременный старт не вызывает лишних переносов
+        this.ring = new HashRing(this.nodes, virtualNodes);
+        this.health = new NodeHealth(this.nodes, healthThreshold);
+    }
+
+    @PostConstruct
+    public void init() {
+        local.init();
+        if (cacheRemote) {
+            cache.init();
+        }
+        rebalanceExecutor.setCorePoolSize(1);
+        rebalanceExecutor.setMaxPoolSize(1);
+        rebalanceExecutor.setQueueCapacity(1);
+        rebalanceExecutor.setThreadNamePrefix("image-rebalance-");
+        rebalanceExecutor.initialize();
+        log.info("Узел {} в кластере хранения изображений из {} узлов, копий на изображение: {}",
+                self, nodes.size(), replication);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        rebalanceExecutor.shutdown();
+    }
+
+    @Override
+    public Path createTempFile(String subfolder) throws IOException {
+        return local.createTempFile(subfolder);
+    }
+
+    @Override
+    public void store(String imagePath, Path tempFile) throws IOException {
+        List<String> owners = ownersOf(imagePath);
+        int pushed = 0;
+        for (String owner : owners) {
+            if (owner.equals(self)) {
+                continue;
+            }
+            try {
+                peers.push(owner, imagePath, tempFile);
+                pushed++;
+            } catch (IOException e) {
+                log.warn("Не удалось передать {} на узел {}: {}", imagePath, owner, e.getMessage());
+            }
+        }
+
+        // Локальная копия остаётся у владельца и у узла, не сумевшего раздать файл всем
+        // владельцам: перебалансировка дошлёт его и удалит лишнюю копию
+        if (owners.contains(self) || pushed < owners.size()) {
+            local.store(imagePath, tempFile);
+        } else {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    // Копия расходится владельцам нового ключа так же, как новое изображение
+    @Override
+    public void link(String existingPath, String newPath) throws IOException {
+        Path tempFile = local.createTempFile(FileNameUtils.subfolderOf(newPath));
+        try {
+            try (InputStream in = load(existingPath).getInputStream()) {
+                Files.copy(in, tempFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+            store(newPath, tempFile);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    /**
+     * До HEAD на каждого владельца, поэтому только для редких проверок (сохранение уже известного
+     * изображения); уменьшенные копии при отдаче выбираются по метаданным, без этого вызова
+     */
+    @Override
+    public boolean exists(String imagePath) {
+        if (local.exists(imagePath) || (cacheRemote && cache.exists(imagePath))) {
+            return true;
+        }
+        for (String owner : remoteOwnersOf(imagePath)) {
+            try {
+                if (peers.head(owner, imagePath).isPresent()) {
+                    return true;
+                }
+            } catch (IOException e) {
+                log.debug("Узел {} не ответил о {}: {}", owner, imagePath, e.getMessage());
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Своя копия, затем кэш, затем владельцы и остальные доступные узлы - копия могла
+     * остаться у прежнего владельца, пока перебалансировка не закончилась
+     */
+    @Override
+    public Resource load(String imagePath) throws IOException {
+        if (local.exists(imagePath)) {
+            return local.load(imagePath);
+        }
+        if (cacheRemote && cache.exists(imagePath)) {
+            return cache.load(imagePath);
+        }
+        for (String node : candidatesFor(imagePath)) {
+            try {
+                Optional<Resource> resource = cacheRemote ? fetchToCache(node, imagePath) : open(node, imagePath);
+                if (resource.isPresent()) {
+                    return resource.get();
+                }
+            } catch (IOException e) {
+                log.warn("Не удалось получить {} с узла {}: {}", imagePath, node, e.getMessage());
+            }
+        }
+        throw new NoSuchFileException(imagePath);
+    }
+
+    @Override
+    public long lastModified(String imagePath) throws IOException {
+        if (local.exists(imagePath)) {
+            return local.lastModified(imagePath);
+        }
+        for (String node : candidatesFor(imagePath)) {
+            try {
+                Optional<ImagePeerClient.PeerFile> file = peers.head(node, imagePath);
+                if (file.isPresent()) {
+                    return file.get().getLastModified();
+                }
+            } catch (IOException e) {
+                log.debug("Узел {} не ответил о {}: {}", node, imagePath, e.getMessage());
+            }
+        }
+        throw new NoSuchFileException(imagePath);
+    }
+
+    /**
+     * Удаляет копии на всех доступных узлах: кроме владельцев, файл может лежать в кэшах
+     * и у узлов, ещё не закончивших перебалансировку. Недоступный узел свою копию не
+     * разошлёт: строки images уже нет (см. {@link #rebalance()})
+     */
+    @Override
+    public void delete(String imagePath) throws IOException {
+        deleteLocal(imagePath);
+        for (String node : ring.getNodes()) {
+            if (node.equals(self)) {
+                continue;
+            }
+            try {
+                peers.delete(node, imagePath);
+            } catch (IOException e) {
+                // Оставшуюся копию уберёт сборщик неиспользуемых файлов на том узле
+                log.warn("Не удалось удалить {} на узле {}: {}", imagePath, node, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Только файлы этого узла: сборщик мусора и сверки на каждом узле обходят свой диск
+     */
+    @Override
+    public List<StoredImage> list(String cursor, int limit) throws IOException {
+        return local.list(cursor, limit);
+    }
+
+    @Override
+    public void cleanupTemporaryFiles(long olderThan) throws IOException {
+        local.cleanupTemporaryFiles(olderThan);
+        if (cacheRemote) {
+            cache.cleanupTemporaryFiles(olderThan);
+        }
+    }
+
+    // --- Операции для ClusterImageController: только над копией этого узла ---
+
+    public boolean isAuthorized(String token) {
+        return token != null && MessageDigest.isEqual(secret, token.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public Resource loadLocal(String imagePath) throws IOException {
+        return local.load(imagePath);
+    }
+
+    public void storeLocal(String imagePath, InputStream content) throws IOException {
+        Path tempFile = local.createTempFile(FileNameUtils.subfolderOf(imagePath));
+        try {
+            Files.copy(content, tempFile, StandardCopyOption.REPLACE_EXISTING);
+            local.store(imagePath, tempFile);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    public void deleteLocal(String imagePath) throws IOException {
+        local.delete(imagePath);
+        if (cacheRemote) {
+            cache.delete(imagePath);
+        }
+    }
+
+    public List<String> missingLocally(List<String> imagePaths) {
+        return imagePaths.stream()
+                .filter(imagePath -> !local.exists(imagePath))
+                .collect(Collectors.toList());
+    }
+
+    public List<String> getLiveNodes() {
+        return ring.getNodes();
+    }
+
+    /**
+     * Опрос соседей; при смене состава кольцо перестраивается и запускается перебалансировка
+     */
+    @Scheduled(fixedDelayString = "${app.image.cluster.health-interval-ms:5000}",
+            initialDelayString = "${app.image.cluster.health-interval-ms:5000}")
+    public void healthCheck() {
+        Map<String, Boolean> reachable = new LinkedHashMap<>();
+        for (String node : nodes) {
+            reachable.put(node, node.equals(self) || peers.ping(node));
+        }
+        List<String> live = health.update(reachable);
+        HashRing current = ring;
+        if (live.equals(current.getNodes())) {
+            return;
+        }
+
+        Set<String> joined = new LinkedHashSet<>(live);
+        joined.removeAll(current.getNodes());
+        Set<String> left = new LinkedHashSet<>(current.getNodes());
+        left.removeAll(live);
+        ring = new HashRing(live, virtualNodes);
+        log.info("Состав кластера изменился: доступны {}, вернулись {}, недоступны {}", live, joined, left);
+        triggerRebalance();
+    }
+
+    /**
+     * Периодическая перебалансировка досылает копии, которые не удалось раздать при сохранении
+     */
+    @Scheduled(fixedDelayString = "${app.image.cluster.rebalance-interval-ms:3600000}",
+            initialDelayString = "${app.image.cluster.rebalance-interval-ms:3600000}")
+    public void triggerRebalance() {
+        try {
+            rebalanceExecutor.execute(this::rebalance);
+        } catch (RejectedExecutionException e) {
+            log.debug("Перебалансировка уже запланирована");
+        }
+    }
+
+    /**
+     * Проход по своим файлам порциями: владельцам, у которых файла нет (один запрос на узел
+     * и порцию), он досылается; копия, которой узел больше не владеет, удаляется, когда все
+     * владельцы её подтвердили. Файлы, у оригиналов которых нет строки images (изображение
+     * удалено, пока узел был недоступен, или только сохраняется), не досылаются и не удаляются.
+     * Если состав кластера меняется во время прохода, проход прерывается - следующий начнётся
+     * по новому кольцу.
+     */
+    public void rebalance() {
+        if (!rebalancing.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            HashRing pass = ring;
+            long started = System.currentTimeMillis();
+            int sent = 0;
+            int released = 0;
+            String cursor = null;
+            while (true) {
+                List<StoredImage> batch = local.list(cursor, rebalanceBatchSize);
+                if (batch.isEmpty()) {
+                    break;
+                }
+                cursor = batch.get(batch.size() - 1).getCursor();
+                if (ring != pass) {
+                    log.info("Состав кластера изменился во время перебалансировки, проход прерван");
+                    return;
+                }
+
+                // Пути, которые хотя бы одному владельцу досылать не удалось или не следует
+                Set<String> unconfirmed = unrecorded(batch);
+                Map<String, List<String>> byOwner = new LinkedHashMap<>();
+                List<String> imagePaths = new ArrayList<>(batch.size());
+                for (StoredImage image : batch) {
+                    imagePaths.add(image.getPath());
+                    if (FileNameUtils.isDefaultImage(image.getPath()) || unconfirmed.contains(image.getPath())) {
+                        continue;
+                    }
+                    List<String> owners = pass.nodesFor(FileNameUtils.originalPath(image.getPath()), replication);
+                    for (String owner : owners) {
+                        if (!owner.equals(self)) {
+                            byOwner.computeIfAbsent(owner, key -> new ArrayList<>()).add(image.getPath());
+                        }
+                    }
+                }
+
+                for (Map.Entry<String, List<String>> entry : byOwner.entrySet()) {
+                    String owner = entry.getKey();
+                    List<String> missing;
+                    try {
+                        missing = peers.missing(owner, entry.getValue());
+                    } catch (IOException e) {
+                        log.warn("Узел {} не ответил при перебалансировке: {}", owner, e.getMessage());
+                        unconfirmed.addAll(entry.getValue());
+                        continue;
+                    }
+                    for (String imagePath : missing) {
+                        if (push(owner, imagePath)) {
+                            sent++;
+                        } else {
+                            unconfirmed.add(imagePath);
+                        }
+                    }
+                }
+
+                for (String imagePath : releasable(imagePaths, pass, replication, self, unconfirmed)) {
+                    local.delete(imagePath);
+                    released++;
+                }
+            }
+            if (sent > 0 || released > 0) {
+                log.info("Перебалансировка завершена за {} мс: передано копий {}, освобождено {}",
+                        System.currentTimeMillis() - started, sent, released);
+            }
+        } catch (IOException | RuntimeException e) {
+            log.error("Ошибка перебалансировки изображений", e);
+        } finally {
+            rebalancing.set(false);
+        }
+    }
+
+    /**
+     * Копии, которые узел может удалить после прохода по порции: сам он ими не владеет,
+     * и каждый владелец подтвердил, что копия у него есть (unconfirmed - пути, которые
+     * хотя бы одному владельцу передать не удалось). Картинки по умолчанию не трогаются
+     */
+    static List<String> releasable(Collection<String> imagePaths, HashRing ring, int replication, String self,
+                                   Set<String> unconfirmed) {
+        List<String> released = new ArrayList<>();
+        for (String imagePath : imagePaths) {
+            if (FileNameUtils.isDefaultImage(imagePath) || unconfirmed.contains(imagePath)) {
+                continue;
+            }
+            List<String> owners = ring.nodesFor(FileNameUtils.originalPath(imagePath), replication);
+            // без владельцев подтверждать некому
+            if (!owners.isEmpty() && !owners.contains(self)) {
+                released.add(imagePath);
+            }
+        }
+        return released;
+    }
+
+    /**
+     * Удаляет из кэша копии чужих изображений старше cache-max-age
+     */
+    @Scheduled(fixedDelayString = "${app.image.cluster.cache-cleanup-interval-ms:3600000}",
+            initialDelayString = "${app.image.cluster.cache-cleanup-interval-ms:3600000}")
+    public void evictCache() {
+        if (!cacheRemote) {
+            return;
+        }
+        long olderThan = Instant.now().minus(cacheMaxAge).toEpochMilli();
+        int evicted = 0;
+        try {
+            String cursor = null;
+            while (true) {
+                List<StoredImage> batch = cache.list(cursor, rebalanceBatchSize);
+                if (batch.isEmpty()) {
+                    break;
+                }
+                cursor = batch.get(batch.size() - 1).getCursor();
+                for (StoredImage image : batch) {
+                    if (image.getLastModified() < olderThan) {
+                        cache.delete(image.getPath());
+                        evicted++;
+                    }
+                }
+            }
+            if (evicted > 0) {
+                log.info("Из кэша удалено копий чужих изображений: {}", evicted);
+            }
+        } catch (IOException e) {
+            log.error("Ошибка очистки кэша изображений", e);
+        }
+    }
+
+    // Файлы порции, у оригиналов которых нет строки images; картинки по умолчанию в таблице не учитываются
+    private Set<String> unrecorded(List<StoredImage> batch) {
+        Set<String> originals = batch.stream()
+                .map(image -> FileNameUtils.originalPath(image.getPath()))
+                .filter(imagePath -> !FileNameUtils.isDefaultImage(imagePath))
+                .collect(Collectors.toSet());
+        if (originals.isEmpty()) {
+            return new HashSet<>();
+        }
+        Set<String> recorded = new HashSet<>(imageMetadataRepository.findExistingPaths(originals));
+        Set<String> unrecorded = batch.stream()
+                .map(StoredImage::getPath)
+                .filter(imagePath -> !FileNameUtils.isDefaultImage(imagePath))
+                .filter(imagePath -> !recorded.contains(FileNameUtils.originalPath(imagePath)))
+                .collect(Collectors.toCollection(HashSet::new));
+        if (!unrecorded.isEmpty()) {
+            log.debug("Перебалансировка пропускает {} файлов без строки images", unrecorded.size());
+        }
+        return unrecorded;
+    }
+
+    private boolean push(String owner, String imagePath) {
+        try {
+            // Путь на диске берётся заново: файл мог быть удалён после получения порции
+            Resource resource = local.load(imagePath);
+            peers.push(owner, imagePath, resource.getFile().toPath());
+            return true;
+        } catch (NoSuchFileException e) {
+            return false;
+        } catch (IOException e) {
+            log.warn("Не удалось передать {} на узел {}: {}", imagePath, owner, e.getMessage());
+            return false;
+        }
+    }
+
+    private Optional<Resource> fetchToCache(String node, String imagePath) throws IOException {
+        Path tempFile = cache.createTempFile(FileNameUtils.subfolderOf(imagePath));
+        try {
+            if (!peers.fetch(node, imagePath, tempFile)) {
+                return Optional.empty();
+            }
+            cache.store(imagePath, tempFile);
+            log.debug("Изображение {} получено с узла {}", imagePath, node);
+            return Optional.of(cache.load(imagePath));
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    private Optional<Resource> open(String node, String imagePath) throws IOException {
+        Optional<ImagePeerClient.PeerFile> file = peers.head(node, imagePath);
+        if (file.isEmpty()) {
+            return Optional.empty();
+        }
+        return Optional.of(new PeerResource(node, imagePath, file.get()));
+    }
+
+    private List<String> ownersOf(String imagePath) {
+        return ring.nodesFor(FileNameUtils.originalPath(imagePath), replication);
+    }
+
+    private List<String> remoteOwnersOf(String imagePath) {
+        return ownersOf(imagePath).stream()
+                .filter(node -> !node.equals(self))
+                .collect(Collectors.toList());
+    }
+
+    // Сначала владельцы в порядке предпочтения, затем остальные доступные узлы
+    private List<String> candidatesFor(String imagePath) {
+        Set<String> candidates = new LinkedHashSet<>(ownersOf(imagePath));
+        candidates.addAll(ring.getNodes());
+        candidates.remove(self);
+        return new ArrayList<>(candidates);
+    }
+
+    private static String normalize(String node) {
+        String trimmed = node.trim();
+        return trimmed.endsWith("/") ? trimmed.substring(0, trimmed.length() - 1) : trimmed;
+    }
+
+    /**
+     * Содержимое на соседнем узле, читается потоком при каждом открытии (cache-remote=false)
+     */
+    private final class PeerResource extends AbstractResource {
+        private final String node;
+        private final String imagePath;
+        private final ImagePeerClient.PeerFile file;
+
+        PeerResource(String node, String imagePath, ImagePeerClient.PeerFile file) {
+            this.node = node;
+            this.imagePath = imagePath;
+            this.file = file;
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            return peers.open(node, imagePath);
+        }
+
+        @Override
+        public long contentLength() {
+            return file.getLength();
+        }
+
+        @Override
+        public long lastModified() {
+            return file.getLastModified();
+        }
+
+        @Override
+        public String getFilename() {
+            return imagePath.substring(imagePath.lastIndexOf('/') + 1);
+        }
+
+        @Override
+        public String getDescription() {
+            return "image " + imagePath + " on " + node;
+        }
+    }
+}
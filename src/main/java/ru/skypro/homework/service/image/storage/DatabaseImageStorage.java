@@ -0,0 +1,267 @@
+package ru.skypro.homework.service.image.storage;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.io.AbstractResource;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.unit.DataSize;
+import ru.skypro.homework.entity.ImageBlob;
+import ru.skypro.homework.repository.ImageBlobRepository;
+import ru.skypro.homework.repository.ImageChunkRepository;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+/**
+ * Хранение изображений в базе данных (app.image.storage=database): узлы приложения
+ * не держат файлов и взаимозаменяемы за балансировщиком.
+ * <p>
+ * Содержимое делится на части по chunk-size и пишется построчно в image_chunks, чтение
+ * тоже идёт по одной части - в памяти никогда не лежит весь файл. Ключ (image_blobs)
+ * указывает на content_id; ссылки делят content_id, части удаляются вместе с последней
+ * ссылкой. Временные файлы загрузки - локальные, на время одного запроса.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "app.image.storage", havingValue = "database")
+public class DatabaseImageStorage implements ImageStorage {
+    private final ImageBlobRepository blobRepository;
+    private final ImageChunkRepository chunkRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final Path tempDirectory;
+    private final int chunkSize;
+
+    public DatabaseImageStorage(ImageBlobRepository blobRepository, ImageChunkRepository chunkRepository,
+                                PlatformTransactionManager transactionManager,
+                                @Value("${app.image.database.temp-dir:${java.io.tmpdir}/image-uploads}") String tempDirectory,
+                                @Value("${app.image.database.chunk-size:256KB}") DataSize chunkSize) {
+        this.blobRepository = blobRepository;
+        this.chunkRepository = chunkRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.tempDirectory = Paths.get(tempDirectory);
+        this.chunkSize = (int) chunkSize.toBytes();
+    }
+
+    @PostConstruct
+    public void init() throws IOException {
+        Files.createDirectories(tempDirectory);
+    }
+
+    @Override
+    public Path createTempFile(String subfolder) throws IOException {
+        return Files.createTempFile(tempDirectory, ".upload", ".tmp");
+    }
+
+    /**
+     * Части и строка ключа пишутся одной транзакцией: недописанное изображение не видно читателям
+     */
+    @Override
+    public void store(String imagePath, Path tempFile) throws IOException {
+        String contentId = UUID.randomUUID().toString();
+        long size = Files.size(tempFile);
+        try (InputStream in = Files.newInputStream(tempFile)) {
+            transactionTemplate.executeWithoutResult(status -> {
+                int chunks = writeChunks(contentId, in);
+                String previous = blobRepository.findById(imagePath).map(ImageBlob::getContentId).orElse(null);
+                blobRepository.save(new ImageBlob(imagePath, contentId, size, chunkSize, chunks,
+                        Instant.now().toEpochMilli()));
+                release(previous);
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        Files.deleteIfExists(tempFile);
+    }
+
+    /**
+     * Источник читается с блокировкой строки в той же транзакции, что и вставка ссылки:
+     * параллельный delete источника либо ждёт её конца и видит новую ссылку (части остаются),
+     * либо успевает раньше - тогда ссылка не создаётся
+     */
+    @Override
+    public void link(String existingPath, String newPath) throws IOException {
+        Boolean linked = transactionTemplate.execute(status -> {
+            ImageBlob source = blobRepository.findForUpdate(existingPath).orElse(null);
+            if (source == null) {
+                return false;
+            }
+            String previous = blobRepository.findById(newPath).map(ImageBlob::getContentId).orElse(null);
+            blobRepository.save(new ImageBlob(newPath, source.getContentId(), source.getSize(),
+                    source.getChunkSize(), source.getChunkCount(), Instant.now().toEpochMilli()));
+            if (!source.getContentId().equals(previous)) {
+                release(previous);
+            }
+            return true;
+        });
+        if (!Boolean.TRUE.equals(linked)) {
+            throw new NoSuchFileException(existingPath);
+        }
+    }
+
+    @Override
+    public boolean exists(String imagePath) {
+        return blobRepository.existsById(imagePath);
+    }
+
+    @Override
+    public Resource load(String imagePath) throws IOException {
+        ImageBlob blob = blobRepository.findById(imagePath).orElseThrow(() -> new NoSuchFileException(imagePath));
+        return new ChunkedResource(blob);
+    }
+
+    @Override
+    public long lastModified(String imagePath) throws IOException {
+        return blobRepository.findById(imagePath).map(ImageBlob::getCreatedAt)
+                .orElseThrow(() -> new NoSuchFileException(imagePath));
+    }
+
+    @Override
+    public void delete(String imagePath) {
+        transactionTemplate.executeWithoutResult(status -> blobRepository.findForUpdate(imagePath).ifPresent(blob -> {
+            blobRepository.delete(blob);
+            blobRepository.flush();
+            release(blob.getContentId());
+        }));
+    }
+
+    @Override
+    public List<StoredImage> list(String cursor, int limit) {
+        return blobRepository.findPageAfter(cursor == null ? "" : cursor, limit).stream()
+                .map(blob -> new StoredImage(blob.getPath(), blob.getSize(), blob.getCreatedAt(), blob.getPath()))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Кроме локальных временных файлов удаляет части, оставшиеся без ссылок
+     */
+    @Override
+    public void cleanupTemporaryFiles(long olderThan) throws IOException {
+        try (DirectoryStream<Path> tempFiles = Files.newDirectoryStream(tempDirectory, ".*.tmp")) {
+            for (Path tempFile : tempFiles) {
+                if (Files.getLastModifiedTime(tempFile).toMillis() < olderThan) {
+                    Files.deleteIfExists(tempFile);
+                }
+            }
+        }
+        Integer removed = transactionTemplate.execute(status -> chunkRepository.deleteUnreferenced());
+        if (removed != null && removed > 0) {
+            log.info("Удалено {} частей изображений без ссылок", removed);
+        }
+    }
+
+    private int writeChunks(String contentId, InputStream in) {
+        try {
+            int index = 0;
+            byte[] chunk;
+            while ((chunk = in.readNBytes(chunkSize)).length > 0) {
+                chunkRepository.insertChunk(contentId, index++, chunk);
+            }
+            return index;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Вызывается в транзакции после удаления или замены ключа
+    private void release(String contentId) {
+        if (contentId != null && blobRepository.countByContentId(contentId) == 0) {
+            chunkRepository.deleteByContentId(contentId);
+        }
+    }
+
+    /**
+     * Изображение из базы; части запрашиваются по мере чтения, пропуск не загружает лишних частей
+     */
+    private final class ChunkedResource extends AbstractResource {
+        private final ImageBlob blob;
+        // Размер части на момент записи: настройка chunk-size могла измениться
+        private final int chunkSize;
+
+        ChunkedResource(ImageBlob blob) {
+            this.blob = blob;
+            this.chunkSize = blob.getChunkSize();
+        }
+
+        @Override
+        public String getDescription() {
+            return "Database image [" + blob.getPath() + "]";
+        }
+
+        @Override
+        public boolean exists() {
+            return true;
+        }
+
+        @Override
+        public long contentLength() {
+            return blob.getSize();
+        }
+
+        @Override
+        public long lastModified() {
+            return blob.getCreatedAt();
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return new InputStream() {
+                private long position;
+                private int loadedIndex = -1;
+                private byte[] loaded;
+
+                @Override
+                public int read() throws IOException {
+                    byte[] one = new byte[1];
+                    return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+                }
+
+                @Override
+                public int read(byte[] bytes, int off, int len) throws IOException {
+                    if (position >= blob.getSize()) {
+                        return -1;
+                    }
+                    int index = (int) (position / chunkSize);
+                    if (index != loadedIndex) {
+                        loaded = chunkRepository.findData(blob.getContentId(), index);
+                        if (loaded == null) {
+                            throw new IOException("Изображение " + blob.getPath() + " удалено во время чтения");
+                        }
+                        loadedIndex = index;
+                    }
+                    int from = (int) (position - (long) index * chunkSize);
+                    int count = Math.min(len, loaded.length - from);
+                    System.arraycopy(loaded, from, bytes, off, count);
+                    position += count;
+                    return count;
+                }
+
+                @Override
+                public long skip(long n) {
+                    long skipped = Math.max(0, Math.min(n, blob.getSize() - position));
+                    position += skipped;
+                    return skipped;
+                }
+
+                @Override
+                public int available() {
+                    return loaded == null ? 0 : Math.max(0, loaded.length - (int) (position - (long) loadedIndex * chunkSize));
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,254 @@
+package ru.skypro.homework.service.image.storage;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Файл на изображение в шардированных каталогах ({@link ImageStorageLayout})
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "app.image.storage", havingValue = "filesystem", matchIfMissing = true)
+public class FileSystemImageStorage implements ImageStorage {
+    // Сколько живёт прочитанный список каталога. Обход за один запуск сборщика укладывается
+    // в это время, а файлы, появившиеся после чтения, моложе любого разумного grace-period
+    // и всё равно попадут в следующий проход
+    private static final long LISTING_TTL_MS = Duration.ofMinutes(5).toMillis();
+    private static final int MAX_LISTINGS = 16;
+
+    private final ImageStorageLayout layout;
+    // Отсортированные списки каталогов на пути курсора: следующая порция продолжает с позиции
+    // курсора двоичным поиском, а не перечитывает и сортирует весь каталог заново
+    private final Map<Path, Listing> listings = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Path, Listing> eldest) {
+            return size() > MAX_LISTINGS;
+        }
+    };
+
+    public FileSystemImageStorage(ImageStorageLayout layout) {
+        this.layout = layout;
+    }
+
+    @PostConstruct
+    public void init() {
+        try {
+            Files.createDirectories(layout.getRoot().resolve("avatars"));
+            Files.createDirectories(layout.getRoot().resolve("ads"));
+            log.info("Директории для изображений созданы");
+        } catch (IOException e) {
+            log.error("Ошибка создания директорий", e);
+        }
+    }
+
+    // Временный файл в каталоге раздела - на той же файловой системе, что и шарды,
+    // поэтому store() переносит его атомарным переименованием
+    @Override
+    public Path createTempFile(String subfolder) throws IOException {
+        Path directory = layout.getRoot().resolve(subfolder);
+        Files.createDirectories(directory);
+        return Files.createTempFile(directory, ".upload", ".tmp");
+    }
+
+    @Override
+    public void store(String imagePath, Path tempFile) throws IOException {
+        Path target = layout.resolve(imagePath);
+        Files.createDirectories(target.getParent());
+        Files.move(tempFile, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    @Override
+    public void link(String existingPath, String newPath) throws IOException {
+        Path source = layout.locate(existingPath);
+        Path target = layout.resolve(newPath);
+        Files.createDirectories(target.getParent());
+        Files.deleteIfExists(target);
+        try {
+            Files.createLink(target, source);
+        } catch (UnsupportedOperationException | IOException e) {
+            Path tempFile = Files.createTempFile(target.getParent(), ".upload", ".tmp");
+            try {
+                Files.copy(source, tempFile, StandardCopyOption.REPLACE_EXISTING);
+                Files.move(tempFile, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(tempFile);
+            }
+        }
+    }
+
+    @Override
+    public boolean exists(String imagePath) {
+        return Files.exists(layout.locate(imagePath));
+    }
+
+    @Override
+    public Resource load(String imagePath) throws IOException {
+        Path file = layout.locate(imagePath);
+        if (!Files.exists(file)) {
+            throw new NoSuchFileException(imagePath);
+        }
+        return new FileSystemResource(file);
+    }
+
+    @Override
+    public long lastModified(String imagePath) throws IOException {
+        return Files.getLastModifiedTime(layout.locate(imagePath)).toMillis();
+    }
+
+    @Override
+    public void delete(String imagePath) throws IOException {
+        Files.deleteIfExists(layout.locate(imagePath));
+    }
+
+    /**
+     * Обход каталогов и файлов по имени, в глубину; позиция - путь файла относительно корня
+     */
+    @Override
+    public List<StoredImage> list(String cursor, int limit) throws IOException {
+        if (cursor == null) {
+            // новый проход - каталоги читаются заново
+            synchronized (listings) {
+                listings.clear();
+            }
+        }
+        List<Path> files = new ArrayList<>();
+        if (Files.isDirectory(layout.getRoot())) {
+            collect(layout.getRoot(), cursor == null ? null : Arrays.asList(cursor.split("/")), 0, limit, files);
+        }
+
+        List<StoredImage> images = new ArrayList<>(files.size());
+        for (Path file : files) {
+            try {
+                images.add(new StoredImage(layout.imagePath(file), Files.size(file),
+                        Files.getLastModifiedTime(file, LinkOption.NOFOLLOW_LINKS).toMillis(), relativePath(file)));
+            } catch (NoSuchFileException e) {
+                // удалён после чтения каталога
+            }
+        }
+        return images;
+    }
+
+    @Override
+    public void cleanupTemporaryFiles(long olderThan) throws IOException {
+        if (!Files.isDirectory(layout.getRoot())) {
+            return;
+        }
+        try (DirectoryStream<Path> subfolders = Files.newDirectoryStream(layout.getRoot(), Files::isDirectory)) {
+            for (Path subfolder : subfolders) {
+                try (DirectoryStream<Path> tempFiles = Files.newDirectoryStream(subfolder, ".*.tmp")) {
+                    for (Path tempFile : tempFiles) {
+                        if (Files.getLastModifiedTime(tempFile).toMillis() < olderThan) {
+                            Files.deleteIfExists(tempFile);
+                            log.debug("Удалён временный файл прерванной загрузки {}", tempFile);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @param after компоненты курсора, если каталог лежит на пути к нему; null - весь каталог после курсора
+     * @param depth глубина каталога относительно корня
+     */
+    private void collect(Path dir, List<String> after, int depth, int limit, List<Path> files) throws IOException {
+        List<String> names = listing(dir);
+        int start = 0;
+        if (after != null && after.size() > depth) {
+            int found = Collections.binarySearch(names, after.get(depth));
+            start = found >= 0 ? found : -found - 1;
+        }
+
+        for (int i = start; i < names.size(); i++) {
+            if (files.size() >= limit) {
+                return;
+            }
+            String name = names.get(i);
+            Path child = dir.resolve(name);
+            List<String> components = Arrays.asList(relativePath(child).split("/"));
+            int order = after == null ? 1 : compare(components, after);
+            if (Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+                boolean containsCursor = after != null && after.size() > components.size()
+                        && after.subList(0, components.size()).equals(components);
+                if (order > 0 || containsCursor) {
+                    collect(child, containsCursor ? after : null, depth + 1, limit, files);
+                }
+            } else if (order > 0 && !isTempFile(name) && Files.isRegularFile(child, LinkOption.NOFOLLOW_LINKS)) {
+                files.add(child);
+            }
+        }
+    }
+
+    private List<String> listing(Path dir) throws IOException {
+        long now = System.currentTimeMillis();
+        synchronized (listings) {
+            Listing cached = listings.get(dir);
+            if (cached != null && now - cached.loadedAt < LISTING_TTL_MS) {
+                return cached.names;
+            }
+        }
+        List<String> names;
+        try (Stream<Path> entries = Files.list(dir)) {
+            names = entries.map(entry -> entry.getFileName().toString()).sorted().collect(Collectors.toList());
+        }
+        synchronized (listings) {
+            listings.put(dir, new Listing(names, now));
+        }
+        return names;
+    }
+
+    // Сравнение путей по компонентам, чтобы порядок совпадал с порядком обхода
+    private static int compare(List<String> left, List<String> right) {
+        for (int i = 0; i < Math.min(left.size(), right.size()); i++) {
+            int order = left.get(i).compareTo(right.get(i));
+            if (order != 0) {
+                return order;
+            }
+        }
+        return Integer.compare(left.size(), right.size());
+    }
+
+    private String relativePath(Path file) {
+        StringJoiner joiner = new StringJoiner("/");
+        for (Path part : layout.getRoot().relativize(file)) {
+            joiner.add(part.toString());
+        }
+        return joiner.toString();
+    }
+
+    private static boolean isTempFile(String fileName) {
+        return fileName.startsWith(".") && fileName.endsWith(".tmp");
+    }
+
+    private static final class Listing {
+        private final List<String> names;
+        private final long loadedAt;
+
+        Listing(List<String> names, long loadedAt) {
+            this.names = names;
+            this.loadedAt = loadedAt;
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package ru.skypro.homework.service.image.storage;
+
+import ru.skypro.homework.service.image.ContentHashUtils;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Кольцо согласованного хэширования узлов. Каждый узел занимает virtualNodes точек кольца,
+ * ключ принадлежит первым replicas разным узлам по часовой стрелке от своего хэша.
+ * При добавлении или уходе узла меняются владельцы только примерно 1/N ключей.
+ * Неизменяемо: при смене состава строится новое кольцо.
+ */
+public final class HashRing {
+    private final NavigableMap<Long, String> points = new TreeMap<>();
+    private final List<String> nodes;
+
+    public HashRing(Collection<String> nodes, int virtualNodes) {
+        this.nodes = List.copyOf(nodes);
+        for (String node : this.nodes) {
+            for (int i = 0; i < virtualNodes; i++) {
+                points.put(hash(node + "#" + i), node);
+            }
+        }
+    }
+
+    public List<String> getNodes() {
+        return nodes;
+    }
+
+    /**
+     * Узлы-владельцы ключа в порядке предпочтения; не больше числа узлов в кольце
+     */
+    public List<String> nodesFor(String key, int replicas) {
+        if (points.isEmpty()) {
+            return Collections.emptyList();
+        }
+        int count = Math.min(replicas, nodes.size());
+        List<String> owners = new ArrayList<>(count);
+        long hash = hash(key);
+        for (Map.Entry<Long, String> point : points.tailMap(hash, true).entrySet()) {
+            if (owners.size() == count) {
+                return owners;
+            }
+            if (!owners.contains(point.getValue())) {
+                owners.add(point.getValue());
+            }
+        }
+        for (Map.Entry<Long, String> point : points.headMap(hash, false).entrySet()) {
+            if (owners.size() == count) {
+                break;
+            }
+            if (!owners.contains(point.getValue())) {
+                owners.add(point.getValue());
+            }
+        }
+        return owners;
+    }
+
+    // Первые 8 байт SHA-256: равномерно и одинаково на всех узлах независимо от JVM
+    private static long hash(String value) {
+        byte[] digest = ContentHashUtils.newDigest().digest(value.getBytes(StandardCharsets.UTF_8));
+        return ByteBuffer.wrap(digest, 0, Long.BYTES).getLong();
+    }
+}
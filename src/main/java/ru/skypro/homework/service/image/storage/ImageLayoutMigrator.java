@@ -0,0 +1,148 @@
+package ru.skypro.homework.service.image.storage;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import ru.skypro.homework.service.image.ContentHashUtils;
+import ru.skypro.homework.service.image.FileNameUtils;
+import ru.skypro.homework.service.image.ImagePathLocks;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Онлайн-перенос файлов из плоских каталогов (ads/name.jpg) в шардированные (ads/ab/cd/name.jpg).
+ * <p>
+ * Включается app.image.layout.migrate=true. Файлы переносятся порциями атомарным
+ * переименованием в пределах файловой системы; пока файл не перенесён, он читается по
+ * старому пути ({@link ImageStorageLayout#locate}), поэтому приложение работает во время переноса.
+ * Состояние переноса - сами каталоги: прерванный запуск продолжается со следующего.
+ * Перенос идёт под блокировкой пути ({@link ImagePathLocks}), как сохранение и удаление файла.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "app.image.storage", havingValue = "filesystem", matchIfMissing = true)
+public class ImageLayoutMigrator {
+    private final ImageStorageLayout storageLayout;
+    private final ImagePathLocks pathLocks;
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    @Value("${app.image.layout.migrate:false}")
+    private boolean enabled;
+
+    @Value("${app.image.layout.batch-size:500}")
+    private int batchSize;
+
+    @Value("${app.image.layout.pause-ms:100}")
+    private long pauseMs;
+
+    @Value("${app.image.layout.max-batches-per-run:100}")
+    private int maxBatchesPerRun;
+
+    public ImageLayoutMigrator(ImageStorageLayout storageLayout, ImagePathLocks pathLocks) {
+        this.storageLayout = storageLayout;
+        this.pathLocks = pathLocks;
+    }
+
+    @Scheduled(fixedDelayString = "${app.image.layout.interval-ms:60000}")
+    public void migrate() {
+        if (!enabled || !running.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            int moved = 0;
+            for (int batchNumber = 0; batchNumber < maxBatchesPerRun; batchNumber++) {
+                List<Path> batch = nextBatch();
+                if (batch.isEmpty()) {
+                    break;
+                }
+                int relocated = 0;
+                for (Path file : batch) {
+                    if (relocate(file)) {
+                        relocated++;
+                    }
+                }
+                moved += relocated;
+                log.debug("Перенесена порция из {} файлов в шардированные каталоги", relocated);
+                if (relocated == 0) {
+                    // в плоских каталогах остались только файлы, которые перенести нельзя
+                    break;
+                }
+                Thread.sleep(pauseMs);
+            }
+            if (moved > 0) {
+                log.info("В шардированные каталоги перенесено {} файлов", moved);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn("Перенос изображений в шардированные каталоги прерван");
+        } catch (IOException | RuntimeException e) {
+            log.error("Ошибка переноса изображений в шардированные каталоги", e);
+        } finally {
+            running.set(false);
+        }
+    }
+
+    // Файлы, лежащие прямо в каталогах разделов (ads/, avatars/)
+    private List<Path> nextBatch() throws IOException {
+        List<Path> batch = new ArrayList<>();
+        if (!Files.isDirectory(storageLayout.getRoot())) {
+            return batch;
+        }
+        try (DirectoryStream<Path> subfolders = Files.newDirectoryStream(storageLayout.getRoot(), Files::isDirectory)) {
+            for (Path subfolder : subfolders) {
+                try (DirectoryStream<Path> files = Files.newDirectoryStream(subfolder,
+                        file -> Files.isRegularFile(file, LinkOption.NOFOLLOW_LINKS)
+                                && !file.getFileName().toString().endsWith(".tmp"))) {
+                    for (Path file : files) {
+                        batch.add(file);
+                        if (batch.size() >= batchSize) {
+                            return batch;
+                        }
+                    }
+                }
+            }
+        }
+        return batch;
+    }
+
+    /**
+     * Переносит файл; false, если файл остаётся на месте. Если по новому пути уже лежит тот же
+     * файл (запуск прервался после копирования или перенос повторяется), старая копия удаляется
+     */
+    boolean relocate(Path file) throws IOException {
+        String imagePath = storageLayout.imagePath(file);
+        Path target = storageLayout.resolve(imagePath);
+        synchronized (pathLocks.lockFor(FileNameUtils.originalPath(imagePath))) {
+            if (!Files.exists(file, LinkOption.NOFOLLOW_LINKS)) {
+                // удалён, пока ждали блокировку
+                return false;
+            }
+            Files.createDirectories(target.getParent());
+            if (Files.exists(target)) {
+                if (!ContentHashUtils.hashFile(file).equals(ContentHashUtils.hashFile(target))) {
+                    log.warn("Файл {} не перенесён: по пути {} лежит другое содержимое", file, target);
+                    return false;
+                }
+                Files.delete(file);
+                return true;
+            }
+            try {
+                Files.move(file, target, StandardCopyOption.ATOMIC_MOVE);
+            } catch (NoSuchFileException e) {
+                return false;
+            }
+            return true;
+        }
+    }
+}
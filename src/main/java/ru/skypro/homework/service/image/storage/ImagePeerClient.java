@@ -0,0 +1,164 @@
+package ru.skypro.homework.service.image.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+/**
+ * HTTP-обращения к соседним узлам кластера хранения (ClusterImageController на их стороне).
+ * Каждый запрос несёт общий секрет кластера в заголовке {@link #TOKEN_HEADER}.
+ */
+final class ImagePeerClient {
+    static final String TOKEN_HEADER = "X-Cluster-Token";
+    static final String BASE_PATH = "/internal/images";
+    // Тело реплики не выдаётся за загрузку пользователя: фильтры квот и очереди загрузок его пропускают
+    static final String REPLICA_CONTENT_TYPE = "application/vnd.image-replica";
+
+    private final HttpClient client;
+    private final String secret;
+    private final Duration timeout;
+
+    ImagePeerClient(String secret, Duration timeout) {
+        this.client = HttpClient.newBuilder()
+                .connectTimeout(timeout)
+                .version(HttpClient.Version.HTTP_1_1)
+                .build();
+        this.secret = secret;
+        this.timeout = timeout;
+    }
+
+    boolean ping(String node) {
+        try {
+            return send(request(node, "/ping").GET(), HttpResponse.BodyHandlers.discarding()).statusCode() == 200;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Размер и время изменения копии на узле; пусто, если её там нет
+     */
+    Optional<PeerFile> head(String node, String imagePath) throws IOException {
+        HttpResponse<Void> response = send(request(node, imagePath).method("HEAD", HttpRequest.BodyPublishers.noBody()),
+                HttpResponse.BodyHandlers.discarding());
+        if (response.statusCode() == 404) {
+            return Optional.empty();
+        }
+        expect(response, 200);
+        long length = response.headers().firstValueAsLong("Content-Length").orElse(-1);
+        long lastModified = response.headers().firstValue("Last-Modified")
+                .map(value -> ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli())
+                .orElse(0L);
+        return Optional.of(new PeerFile(length, lastModified));
+    }
+
+    /**
+     * Какие из путей отсутствуют на узле - один запрос на порцию вместо запроса на файл
+     */
+    List<String> missing(String node, Collection<String> imagePaths) throws IOException {
+        HttpRequest.Builder request = request(node, "/missing")
+                .header("Content-Type", "text/plain; charset=UTF-8")
+                .POST(HttpRequest.BodyPublishers.ofString(String.join("\n", imagePaths), StandardCharsets.UTF_8));
+        HttpResponse<String> response = send(request, HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8));
+        expect(response, 200);
+        return Arrays.stream(response.body().split("\n"))
+                .filter(line -> !line.isEmpty())
+                .collect(Collectors.toList());
+    }
+
+    void push(String node, String imagePath, Path file) throws IOException {
+        HttpRequest.Builder request = request(node, imagePath)
+                .header("Content-Type", REPLICA_CONTENT_TYPE)
+                .PUT(HttpRequest.BodyPublishers.ofFile(file));
+        expect(send(request, HttpResponse.BodyHandlers.discarding()), 204);
+    }
+
+    /**
+     * Скачивает копию в target; false, если на узле её нет
+     */
+    boolean fetch(String node, String imagePath, Path target) throws IOException {
+        HttpResponse<Path> response = send(request(node, imagePath).GET(),
+                HttpResponse.BodyHandlers.ofFile(target, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING));
+        if (response.statusCode() == 404) {
+            return false;
+        }
+        expect(response, 200);
+        return true;
+    }
+
+    InputStream open(String node, String imagePath) throws IOException {
+        HttpResponse<InputStream> response = send(request(node, imagePath).GET(),
+                HttpResponse.BodyHandlers.ofInputStream());
+        if (response.statusCode() != 200) {
+            response.body().close();
+            if (response.statusCode() == 404) {
+                throw new NoSuchFileException(imagePath);
+            }
+            throw new IOException("Узел " + node + " ответил " + response.statusCode() + " на " + imagePath);
+        }
+        return response.body();
+    }
+
+    void delete(String node, String imagePath) throws IOException {
+        expect(send(request(node, imagePath).DELETE(), HttpResponse.BodyHandlers.discarding()), 204);
+    }
+
+    // /images/ads/name.jpg -> http://node/internal/images/ads/name.jpg
+    private HttpRequest.Builder request(String node, String path) {
+        String relative = path.startsWith("/images/") ? path.substring("/images".length()) : path;
+        return HttpRequest.newBuilder(URI.create(node + BASE_PATH + relative))
+                .timeout(timeout)
+                .header(TOKEN_HEADER, secret);
+    }
+
+    private <T> HttpResponse<T> send(HttpRequest.Builder request, HttpResponse.BodyHandler<T> handler)
+            throws IOException {
+        try {
+            return client.send(request.build(), handler);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Обращение к узлу прервано");
+        }
+    }
+
+    private static void expect(HttpResponse<?> response, int status) throws IOException {
+        if (response.statusCode() != status) {
+            throw new IOException("Узел ответил " + response.statusCode() + " на " + response.request().method()
+                    + " " + response.uri().getPath());
+        }
+    }
+
+    static final class PeerFile {
+        private final long length;
+        private final long lastModified;
+
+        PeerFile(long length, long lastModified) {
+            this.length = length;
+            this.lastModified = lastModified;
+        }
+
+        long getLength() {
+            return length;
+        }
+
+        long getLastModified() {
+            return lastModified;
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package ru.skypro.homework.service.image.storage;
+
+import org.springframework.core.io.Resource;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Хранилище содержимого изображений. Ключ - публичный путь (/images/ads/name.jpg).
+ * <p>
+ * Реализация выбирается свойством app.image.storage: filesystem (по умолчанию, файл на
+ * изображение), segments (упаковка в большие файлы-сегменты), database (части в БД),
+ * cluster (файлы распределены по узлам согласованным хэшированием). Ссылки, дедупликация и
+ * уменьшенные копии реализованы выше, в ImageServiceImpl, и от хранилища не зависят.
+ */
+public interface ImageStorage {
+
+    /**
+     * Временный файл для приёма содержимого; затем передаётся в {@link #store}
+     */
+    Path createTempFile(String subfolder) throws IOException;
+
+    /**
+     * Сохраняет содержимое временного файла под ключом; временный файл после вызова не нужен
+     */
+    void store(String imagePath, Path tempFile) throws IOException;
+
+    /**
+     * Делает то же содержимое доступным под вторым ключом (без копирования, если хранилище умеет)
+     */
+    void link(String existingPath, String newPath) throws IOException;
+
+    boolean exists(String imagePath);
+
+    /**
+     * @throws java.nio.file.NoSuchFileException если ключа нет
+     */
+    Resource load(String imagePath) throws IOException;
+
+    long lastModified(String imagePath) throws IOException;
+
+    // Отсутствующий ключ не ошибка
+    void delete(String imagePath) throws IOException;
+
+    /**
+     * Следующие limit ключей в постоянном порядке после позиции cursor (null - с начала);
+     * позиция продолжения - {@link StoredImage#getCursor()} последнего элемента
+     */
+    List<StoredImage> list(String cursor, int limit) throws IOException;
+
+    /**
+     * Удаляет временные файлы прерванных загрузок, созданные раньше olderThan (мс)
+     */
+    void cleanupTemporaryFiles(long olderThan) throws IOException;
+}
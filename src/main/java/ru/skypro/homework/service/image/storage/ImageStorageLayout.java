@@ -0,0 +1,90 @@
+package ru.skypro.homework.service.image.storage;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.skypro.homework.service.image.ContentHashUtils;
+import ru.skypro.homework.service.image.FileNameUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Размещение файлов изображений на диске.
+ * <p>
+ * Публичный путь /images/ads/name.jpg хранится в uploads/images/ads/ab/cd/name.jpg, где ab/cd -
+ * первые байты SHA-256 от имени оригинала: в одном каталоге остаётся не больше нескольких
+ * десятков файлов даже при миллионах изображений. Уменьшенные копии лежат рядом с оригиналом.
+ * <p>
+ * Файлы, сохранённые до перехода, лежат прямо в ads/ и находятся по старому пути, пока
+ * {@link ImageLayoutMigrator} не перенесёт их.
+ */
+@Component
+public class ImageStorageLayout {
+    private static final int SHARD_LEVELS = 2;
+
+    private final Path root;
+
+    public ImageStorageLayout(@Value("${app.image.upload-dir:uploads/images/}") String uploadDir) {
+        this.root = Paths.get(uploadDir);
+    }
+
+    public Path getRoot() {
+        return root;
+    }
+
+    /**
+     * Путь для записи: всегда в шардированном каталоге
+     */
+    public Path resolve(String imagePath) {
+        String relativePath = relativePath(imagePath);
+        int slash = relativePath.lastIndexOf('/');
+        String subfolder = slash < 0 ? "" : relativePath.substring(0, slash);
+        String fileName = relativePath.substring(slash + 1);
+        return root.resolve(subfolder).resolve(shardOf(fileName)).resolve(fileName);
+    }
+
+    /**
+     * Путь для чтения: шардированный, а для ещё не перенесённых файлов - прежний плоский
+     */
+    public Path locate(String imagePath) {
+        Path sharded = resolve(imagePath);
+        if (Files.exists(sharded)) {
+            return sharded;
+        }
+        Path legacy = legacyPath(imagePath);
+        return Files.exists(legacy) ? legacy : sharded;
+    }
+
+    public Path legacyPath(String imagePath) {
+        return root.resolve(relativePath(imagePath));
+    }
+
+    /**
+     * Публичный путь файла, лежащего в каталоге загрузок (в любом из размещений)
+     */
+    public String imagePath(Path file) {
+        Path relative = root.relativize(file);
+        return "/images/" + relative.getName(0) + "/" + relative.getFileName();
+    }
+
+    // Копии img_w160.jpg попадают в каталог оригинала img.jpg
+    static String shardOf(String fileName) {
+        byte[] digest = ContentHashUtils.newDigest()
+                .digest(FileNameUtils.originalPath(fileName).getBytes(StandardCharsets.UTF_8));
+        StringBuilder shard = new StringBuilder();
+        for (int level = 0; level < SHARD_LEVELS; level++) {
+            if (level > 0) {
+                shard.append('/');
+            }
+            shard.append(ContentHashUtils.toHex(new byte[]{digest[level]}));
+        }
+        return shard.toString();
+    }
+
+    private static String relativePath(String imagePath) {
+        // Убираем начальный слэш для создания полного пути
+        return imagePath.startsWith("/images/") ? imagePath.substring(8) : imagePath;
+    }
+}
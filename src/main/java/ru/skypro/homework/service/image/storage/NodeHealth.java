@@ -0,0 +1,50 @@
+package ru.skypro.homework.service.image.storage;
+
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Состав кластера с гистерезисом: узел выходит из кольца после threshold неудачных опросов
+ * подряд и возвращается после threshold удачных подряд. Единичный таймаут или короткий
+ * перезапуск соседа не перестраивает кольцо и не запускает перебалансировку.
+ */
+final class NodeHealth {
+    private final List<String> nodes;
+    private final int threshold;
+    private final Set<String> live;
+    // Сколько опросов подряд узел отвечает не так, как предполагает текущий состав
+    private final Map<String, Integer> streaks = new HashMap<>();
+
+    NodeHealth(List<String> nodes, int threshold) {
+        this.nodes = List.copyOf(nodes);
+        this.threshold = Math.max(1, threshold);
+        // До первых опросов доступны все узлы
+        this.live = new LinkedHashSet<>(nodes);
+    }
+
+    /**
+     * Учитывает результаты очередного опроса и возвращает доступные узлы в порядке app.image.cluster.nodes
+     */
+    synchronized List<String> update(Map<String, Boolean> reachable) {
+        for (String node : nodes) {
+            boolean up = reachable.getOrDefault(node, false);
+            if (up == live.contains(node)) {
+                streaks.remove(node);
+                continue;
+            }
+            if (streaks.merge(node, 1, Integer::sum) >= threshold) {
+                streaks.remove(node);
+                if (up) {
+                    live.add(node);
+                } else {
+                    live.remove(node);
+                }
+            }
+        }
+        return nodes.stream().filter(live::contains).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,806 @@
+package ru.skypro.homework.service.image.storage;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.io.AbstractResource;
+import org.springframework.core.io.Resource;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32;
+
+/**
+ * Хранение изображений в больших файлах-сегментах только с дозаписью (app.image.storage=segments).
+ * <p>
+ * Каждое сохранение, удаление и ссылка - запись в конец текущего сегмента
+ * (segment-000001.dat); заполненный до max-segment-bytes сегмент закрывается и больше
+ * не меняется. Вместо миллионов маленьких файлов на диске несколько сотен больших:
+ * не расходуются inode и блоки файловой системы под хвосты, резервное копирование
+ * и перенос - последовательное чтение. Положение каждого изображения хранится в памяти
+ * (ключ -> сегмент, смещение, длина) и периодически сбрасывается в index.snapshot; при
+ * запуске снимок загружается и дочитываются только записи, сделанные после него.
+ * Оборванная при сбое последняя запись (не сходится длина или CRC) отрезается.
+ * <p>
+ * Удалённые изображения остаются в закрытых сегментах до уплотнения: сегмент, в котором
+ * мусора больше compaction.garbage-ratio, переписывается - живые записи дописываются
+ * в текущий сегмент, старый файл удаляется.
+ * <p>
+ * Формат записи: тип (1 байт), длина ключа (2), ключ UTF-8, время создания (8),
+ * длина данных (8), данные, CRC32 данных (4).
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "app.image.storage", havingValue = "segments")
+public class SegmentImageStorage implements ImageStorage {
+    private static final byte PUT = 1;
+    private static final byte DELETE = 2;
+    private static final byte LINK = 3;
+    private static final int FIXED_HEADER_SIZE = 1 + 2 + 8 + 8;
+    private static final int CRC_SIZE = 4;
+    private static final int LINK_PAYLOAD_SIZE = 4 + 8 + 8;
+    private static final int SNAPSHOT_VERSION = 1;
+    private static final String SNAPSHOT_FILE = "index.snapshot";
+
+    private final Path directory;
+    private final Path tempDirectory;
+    private final long maxSegmentBytes;
+    private final boolean fsync;
+    private final double garbageRatio;
+
+    private final NavigableMap<String, Location> index = new ConcurrentSkipListMap<>();
+    private final Map<Integer, Segment> segments = new ConcurrentHashMap<>();
+    // Выведенные уплотнением сегменты закрываются на следующем запуске, когда их уже никто не читает
+    private final List<Segment> retired = new ArrayList<>();
+    private final AtomicBoolean compacting = new AtomicBoolean();
+    // Все дозаписи выполняются по очереди под этим монитором
+    private final Object writeLock = new Object();
+    private Segment active;
+    private volatile boolean dirty;
+
+    public SegmentImageStorage(@Value("${app.image.segments.dir:uploads/segments/}") String directory,
+                               @Value("${app.image.segments.max-segment-bytes:256MB}") DataSize maxSegmentBytes,
+                               @Value("${app.image.segments.fsync:false}") boolean fsync,
+                               @Value("${app.image.segments.compaction.garbage-ratio:0.5}") double garbageRatio) {
+        this.directory = Paths.get(directory);
+        this.tempDirectory = this.directory.resolve("tmp");
+        this.maxSegmentBytes = maxSegmentBytes.toBytes();
+        this.fsync = fsync;
+        this.garbageRatio = garbageRatio;
+    }
+
+    @PostConstruct
+    public void init() throws IOException {
+        Files.createDirectories(tempDirectory);
+
+        TreeMap<Integer, Path> files = new TreeMap<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "segment-*.dat")) {
+            for (Path file : stream) {
+                String name = file.getFileName().toString();
+                files.put(Integer.parseInt(name.substring("segment-".length(), name.length() - ".dat".length())), file);
+            }
+        }
+        for (Map.Entry<Integer, Path> file : files.entrySet()) {
+            segments.put(file.getKey(), Segment.open(file.getKey(), file.getValue()));
+        }
+
+        Map<Integer, Long> scanned = loadSnapshot();
+        for (Segment segment : new TreeMap<>(segments).values()) {
+            replay(segment, scanned.getOrDefault(segment.id, 0L));
+        }
+
+        active = files.isEmpty() ? createSegment(1) : segments.get(files.lastKey());
+        log.info("Хранилище сегментов {}: {} сегментов, {} изображений", directory, segments.size(), index.size());
+    }
+
+    @PreDestroy
+    public void close() {
+        try {
+            writeSnapshot();
+        } catch (IOException e) {
+            log.warn("Не удалось сохранить снимок индекса сегментов: {}", e.getMessage());
+        }
+        synchronized (writeLock) {
+            segments.values().forEach(Segment::closeQuietly);
+            retired.forEach(Segment::closeQuietly);
+        }
+    }
+
+    @Override
+    public Path createTempFile(String subfolder) throws IOException {
+        return Files.createTempFile(tempDirectory, ".upload", ".tmp");
+    }
+
+    @Override
+    public void store(String imagePath, Path tempFile) throws IOException {
+        try (FileChannel source = FileChannel.open(tempFile, StandardOpenOption.READ)) {
+            long length = source.size();
+            int crc = crcOf(source, 0, length);
+            synchronized (writeLock) {
+                Location location = append(PUT, imagePath, Instant.now().toEpochMilli(), length, crc,
+                        (target, position) -> transfer(source, 0, length, target, position));
+                index.put(imagePath, location);
+            }
+        }
+        Files.deleteIfExists(tempFile);
+    }
+
+    @Override
+    public void link(String existingPath, String newPath) throws IOException {
+        synchronized (writeLock) {
+            Location existing = index.get(existingPath);
+            if (existing == null) {
+                throw new NoSuchFileException(existingPath);
+            }
+            index.put(newPath, appendLink(newPath, existing, Instant.now().toEpochMilli()));
+        }
+    }
+
+    @Override
+    public boolean exists(String imagePath) {
+        return index.containsKey(imagePath);
+    }
+
+    @Override
+    public Resource load(String imagePath) throws IOException {
+        Location location = index.get(imagePath);
+        Segment segment = location == null ? null : segmentOf(location);
+        if (segment == null && location != null) {
+            // сегмент только что выведен уплотнением - ключ уже указывает на копию
+            location = index.get(imagePath);
+            segment = location == null ? null : segmentOf(location);
+        }
+        if (segment == null) {
+            throw new NoSuchFileException(imagePath);
+        }
+        return new SegmentResource(segment, location, imagePath);
+    }
+
+    @Override
+    public long lastModified(String imagePath) throws IOException {
+        Location location = index.get(imagePath);
+        if (location == null) {
+            throw new NoSuchFileException(imagePath);
+        }
+        return location.createdAt;
+    }
+
+    @Override
+    public void delete(String imagePath) throws IOException {
+        synchronized (writeLock) {
+            if (!index.containsKey(imagePath)) {
+                return;
+            }
+            append(DELETE, imagePath, Instant.now().toEpochMilli(), 0, 0, (target, position) -> {
+            });
+            index.remove(imagePath);
+        }
+    }
+
+    @Override
+    public List<StoredImage> list(String cursor, int limit) {
+        NavigableMap<String, Location> tail = cursor == null ? index : index.tailMap(cursor, false);
+        List<StoredImage> images = new ArrayList<>(limit);
+        for (Map.Entry<String, Location> entry : tail.entrySet()) {
+            if (images.size() >= limit) {
+                break;
+            }
+            Location location = entry.getValue();
+            images.add(new StoredImage(entry.getKey(), location.length, location.createdAt, entry.getKey()));
+        }
+        return images;
+    }
+
+    @Override
+    public void cleanupTemporaryFiles(long olderThan) throws IOException {
+        try (DirectoryStream<Path> tempFiles = Files.newDirectoryStream(tempDirectory, ".*.tmp")) {
+            for (Path tempFile : tempFiles) {
+                if (Files.getLastModifiedTime(tempFile).toMillis() < olderThan) {
+                    Files.deleteIfExists(tempFile);
+                    log.debug("Удалён временный файл прерванной загрузки {}", tempFile);
+                }
+            }
+        }
+    }
+
+    /**
+     * Уплотнение закрытых сегментов и сброс снимка индекса
+     */
+    @Scheduled(fixedDelayString = "${app.image.segments.compaction.interval-ms:600000}",
+            initialDelayString = "${app.image.segments.compaction.initial-delay-ms:600000}")
+    public void compact() {
+        if (!compacting.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            closeRetired();
+            for (Segment segment : candidatesForCompaction()) {
+                compact(segment);
+            }
+            if (dirty) {
+                writeSnapshot();
+            }
+        } catch (IOException | RuntimeException e) {
+            log.error("Ошибка уплотнения сегментов изображений", e);
+        } finally {
+            compacting.set(false);
+        }
+    }
+
+    private List<Segment> candidatesForCompaction() {
+        Map<Integer, Map<Long, Long>> live = new HashMap<>();
+        for (Location location : index.values()) {
+            // ссылки на одни данные считаются один раз
+            live.computeIfAbsent(location.segment, id -> new HashMap<>()).put(location.offset, location.length);
+        }
+
+        List<Segment> candidates = new ArrayList<>();
+        synchronized (writeLock) {
+            for (Segment segment : segments.values()) {
+                if (segment == active || segment.size == 0) {
+                    continue;
+                }
+                long liveBytes = live.getOrDefault(segment.id, Map.of()).values().stream().mapToLong(Long::longValue).sum();
+                if (1 - (double) liveBytes / segment.size >= garbageRatio) {
+                    candidates.add(segment);
+                }
+            }
+        }
+        return candidates;
+    }
+
+    private void compact(Segment segment) throws IOException {
+        // Живые ключи сегмента, сгруппированные по данным: ссылки на одни данные переносятся одной копией
+        Map<Long, List<String>> groups = new LinkedHashMap<>();
+        for (Map.Entry<String, Location> entry : index.entrySet()) {
+            if (entry.getValue().segment == segment.id) {
+                groups.computeIfAbsent(entry.getValue().offset, offset -> new ArrayList<>()).add(entry.getKey());
+            }
+        }
+
+        // Копии данных по смещению в старом сегменте: ключи одних данных ссылаются на одну копию
+        Map<Long, Location> copies = new HashMap<>();
+        long moved = 0;
+        for (List<String> keys : groups.values()) {
+            synchronized (writeLock) {
+                for (String key : keys) {
+                    moved += moveKey(segment, key, copies);
+                }
+            }
+        }
+        carryTombstones(segment);
+
+        // Пока шло уплотнение, link() мог сослаться на ещё не перенесённые данные: такие ключи
+        // дособираются под тем же монитором, под которым сегмент выводится, - после этого
+        // ни один ключ и ни одна новая ссылка на него не указывают
+        synchronized (writeLock) {
+            for (String key : index.keySet()) {
+                moved += moveKey(segment, key, copies);
+            }
+            segments.remove(segment.id);
+            retired.add(segment);
+        }
+
+        // Снимок до удаления файла: после перезапуска индекс не укажет на удалённый сегмент
+        writeSnapshot();
+        Files.deleteIfExists(segment.file);
+        log.info("Сегмент {} уплотнён: перенесено {} байт, освобождено {} байт",
+                segment.file.getFileName(), moved, segment.size - moved);
+    }
+
+    /**
+     * Переносит ключ из уплотняемого сегмента (вызывается под writeLock); возвращает число
+     * скопированных байт - 0, если ключ уже не в этом сегменте или его данные уже скопированы
+     */
+    private long moveKey(Segment segment, String key, Map<Long, Location> copies) throws IOException {
+        Location current = index.get(key);
+        if (current == null || current.segment != segment.id) {
+            // ключ удалён или перезаписан, пока шло уплотнение
+            return 0;
+        }
+        Location copy = copies.get(current.offset);
+        if (copy != null) {
+            index.put(key, appendLink(key, copy, current.createdAt));
+            return 0;
+        }
+        int crc = storedCrc(segment, current);
+        copy = append(PUT, key, current.createdAt, current.length, crc,
+                (target, position) -> transfer(segment.channel, current.offset, current.length, target, position));
+        index.put(key, copy);
+        copies.put(current.offset, copy);
+        return current.length;
+    }
+
+    // Удаления из уплотняемого сегмента переносятся, пока в более старых сегментах может лежать сама запись
+    private void carryTombstones(Segment segment) throws IOException {
+        long position = 0;
+        while (position < segment.size) {
+            Header header = readHeader(segment, position);
+            if (header == null) {
+                break;
+            }
+            if (header.type == DELETE) {
+                synchronized (writeLock) {
+                    boolean olderExists = segments.keySet().stream().anyMatch(id -> id < segment.id);
+                    if (olderExists && !index.containsKey(header.key)) {
+                        append(DELETE, header.key, header.createdAt, 0, 0, (target, at) -> {
+                        });
+                    }
+                }
+            }
+            position = header.end();
+        }
+    }
+
+    private void closeRetired() {
+        synchronized (writeLock) {
+            retired.forEach(Segment::closeQuietly);
+            retired.clear();
+        }
+    }
+
+    private Location appendLink(String key, Location target, long createdAt) throws IOException {
+        ByteBuffer payload = ByteBuffer.allocate(LINK_PAYLOAD_SIZE)
+                .putInt(target.segment).putLong(target.offset).putLong(target.length);
+        payload.flip();
+        CRC32 crc = new CRC32();
+        crc.update(payload.duplicate());
+        append(LINK, key, createdAt, LINK_PAYLOAD_SIZE, (int) crc.getValue(),
+                (channel, position) -> writeFully(channel, payload, position));
+        return new Location(target.segment, target.offset, target.length, createdAt);
+    }
+
+    /**
+     * Дозапись в текущий сегмент (вызывается под writeLock). Возвращает положение данных
+     */
+    private Location append(byte type, String key, long createdAt, long length, int crc, PayloadWriter payload)
+            throws IOException {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        long recordSize = FIXED_HEADER_SIZE + keyBytes.length + length + CRC_SIZE;
+        if (active.size > 0 && active.size + recordSize > maxSegmentBytes) {
+            active.channel.force(false);
+            active = createSegment(active.id + 1);
+        }
+
+        long start = active.size;
+        ByteBuffer header = ByteBuffer.allocate(FIXED_HEADER_SIZE + keyBytes.length)
+                .put(type).putShort((short) keyBytes.length).put(keyBytes).putLong(createdAt).putLong(length);
+        header.flip();
+        writeFully(active.channel, header, start);
+        long dataOffset = start + FIXED_HEADER_SIZE + keyBytes.length;
+        payload.writeTo(active.channel, dataOffset);
+        writeFully(active.channel, ByteBuffer.allocate(CRC_SIZE).putInt(0, crc), dataOffset + length);
+        if (fsync) {
+            active.channel.force(false);
+        }
+
+        active.size = start + recordSize;
+        dirty = true;
+        return new Location(active.id, dataOffset, length, createdAt);
+    }
+
+    private Segment createSegment(int id) throws IOException {
+        Segment segment = Segment.open(id, directory.resolve(String.format("segment-%06d.dat", id)));
+        segments.put(id, segment);
+        log.debug("Создан сегмент изображений {}", segment.file.getFileName());
+        return segment;
+    }
+
+    private Segment segmentOf(Location location) {
+        return segments.get(location.segment);
+    }
+
+    /**
+     * Дочитывает записи сегмента начиная с from; оборванный хвост отрезается
+     */
+    private void replay(Segment segment, long from) throws IOException {
+        long position = from;
+        int records = 0;
+        while (position < segment.size) {
+            Header header = readHeader(segment, position);
+            if (header == null || crcOf(segment.channel, header.dataOffset, header.length) != storedCrc(segment, header)) {
+                log.warn("Сегмент {}: повреждённая запись на позиции {}, хвост {} байт отрезан",
+                        segment.file.getFileName(), position, segment.size - position);
+                segment.channel.truncate(position);
+                segment.size = position;
+                break;
+            }
+            apply(header);
+            position = header.end();
+            records++;
+        }
+        if (records > 0) {
+            log.debug("Сегмент {}: дочитано {} записей", segment.file.getFileName(), records);
+        }
+    }
+
+    private void apply(Header header) throws IOException {
+        switch (header.type) {
+            case PUT:
+                index.put(header.key, new Location(header.segment, header.dataOffset, header.length, header.createdAt));
+                break;
+            case DELETE:
+                index.remove(header.key);
+                break;
+            case LINK:
+                ByteBuffer payload = ByteBuffer.allocate(LINK_PAYLOAD_SIZE);
+                readFully(segments.get(header.segment).channel, payload, header.dataOffset);
+                payload.flip();
+                int targetSegment = payload.getInt();
+                // Сегмент цели мог быть уплотнён - тогда ключ переписан более поздней записью
+                if (segments.containsKey(targetSegment)) {
+                    index.put(header.key, new Location(targetSegment, payload.getLong(), payload.getLong(), header.createdAt));
+                }
+                break;
+            default:
+                throw new IllegalStateException("Неизвестный тип записи " + header.type);
+        }
+    }
+
+    // null - запись неполная или заголовок не разбирается
+    private Header readHeader(Segment segment, long position) throws IOException {
+        if (segment.size - position < FIXED_HEADER_SIZE) {
+            return null;
+        }
+        ByteBuffer fixed = ByteBuffer.allocate(3);
+        readFully(segment.channel, fixed, position);
+        fixed.flip();
+        byte type = fixed.get();
+        int keyLength = fixed.getShort() & 0xFFFF;
+        if (type < PUT || type > LINK || keyLength == 0) {
+            return null;
+        }
+
+        ByteBuffer rest = ByteBuffer.allocate(keyLength + 16);
+        if (position + 3 + rest.capacity() > segment.size) {
+            return null;
+        }
+        readFully(segment.channel, rest, position + 3);
+        rest.flip();
+        byte[] key = new byte[keyLength];
+        rest.get(key);
+        long createdAt = rest.getLong();
+        long length = rest.getLong();
+        long dataOffset = position + FIXED_HEADER_SIZE + keyLength;
+        if (length < 0 || dataOffset + length + CRC_SIZE > segment.size) {
+            return null;
+        }
+        return new Header(segment.id, type, new String(key, StandardCharsets.UTF_8), createdAt, dataOffset, length);
+    }
+
+    private int storedCrc(Segment segment, Location location) throws IOException {
+        return readCrc(segment, location.offset + location.length);
+    }
+
+    private int storedCrc(Segment segment, Header header) throws IOException {
+        return readCrc(segment, header.dataOffset + header.length);
+    }
+
+    private static int readCrc(Segment segment, long position) throws IOException {
+        ByteBuffer crc = ByteBuffer.allocate(CRC_SIZE);
+        readFully(segment.channel, crc, position);
+        return crc.getInt(0);
+    }
+
+    private static int crcOf(FileChannel channel, long position, long length) throws IOException {
+        CRC32 crc = new CRC32();
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        long remaining = length;
+        while (remaining > 0) {
+            buffer.clear().limit((int) Math.min(buffer.capacity(), remaining));
+            int read = channel.read(buffer, position + length - remaining);
+            if (read < 0) {
+                throw new IOException("Неожиданный конец файла");
+            }
+            buffer.flip();
+            crc.update(buffer);
+            remaining -= read;
+        }
+        return (int) crc.getValue();
+    }
+
+    private static void transfer(FileChannel source, long from, long length, FileChannel target, long position)
+            throws IOException {
+        long done = 0;
+        while (done < length) {
+            target.position(position + done);
+            long transferred = source.transferTo(from + done, length - done, target);
+            if (transferred <= 0) {
+                throw new IOException("Не удалось скопировать данные изображения");
+            }
+            done += transferred;
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        long at = position;
+        while (buffer.hasRemaining()) {
+            at += channel.write(buffer, at);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        long at = position;
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, at);
+            if (read < 0) {
+                throw new IOException("Неожиданный конец сегмента");
+            }
+            at += read;
+        }
+    }
+
+    // Снимок: позиция, до которой прочитан каждый сегмент, и все ключи на этот момент
+    private void writeSnapshot() throws IOException {
+        Map<Integer, Long> sizes = new HashMap<>();
+        Map<String, Location> entries;
+        synchronized (writeLock) {
+            for (Segment segment : segments.values()) {
+                segment.channel.force(false);
+                sizes.put(segment.id, segment.size);
+            }
+            entries = new TreeMap<>(index);
+            dirty = false;
+        }
+
+        Path temp = Files.createTempFile(directory, ".snapshot", ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE);
+                 DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)))) {
+                out.writeInt(SNAPSHOT_VERSION);
+                out.writeInt(sizes.size());
+                for (Map.Entry<Integer, Long> size : sizes.entrySet()) {
+                    out.writeInt(size.getKey());
+                    out.writeLong(size.getValue());
+                }
+                out.writeInt(entries.size());
+                for (Map.Entry<String, Location> entry : entries.entrySet()) {
+                    Location location = entry.getValue();
+                    out.writeUTF(entry.getKey());
+                    out.writeInt(location.segment);
+                    out.writeLong(location.offset);
+                    out.writeLong(location.length);
+                    out.writeLong(location.createdAt);
+                }
+                out.flush();
+                channel.force(true);
+            }
+            Files.move(temp, directory.resolve(SNAPSHOT_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Загружает снимок индекса; возвращает позиции, с которых дочитывать сегменты.
+     * Несогласованный с файлами снимок отбрасывается - сегменты читаются целиком
+     */
+    private Map<Integer, Long> loadSnapshot() {
+        Path file = directory.resolve(SNAPSHOT_FILE);
+        if (!Files.exists(file)) {
+            return Map.of();
+        }
+        Map<Integer, Long> scanned = new HashMap<>();
+        Map<String, Location> entries = new HashMap<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != SNAPSHOT_VERSION) {
+                throw new IOException("Неизвестная версия снимка");
+            }
+            for (int i = in.readInt(); i > 0; i--) {
+                int id = in.readInt();
+                long size = in.readLong();
+                Segment segment = segments.get(id);
+                if (segment != null && segment.size < size) {
+                    throw new IOException("Сегмент " + id + " короче, чем в снимке");
+                }
+                scanned.put(id, size);
+            }
+            for (int i = in.readInt(); i > 0; i--) {
+                String key = in.readUTF();
+                Location location = new Location(in.readInt(), in.readLong(), in.readLong(), in.readLong());
+                if (segments.containsKey(location.segment)) {
+                    entries.put(key, location);
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Снимок индекса сегментов не прочитан ({}), сегменты будут прочитаны целиком", e.getMessage());
+            return Map.of();
+        }
+        index.putAll(entries);
+        return scanned;
+    }
+
+    @FunctionalInterface
+    private interface PayloadWriter {
+        void writeTo(FileChannel channel, long position) throws IOException;
+    }
+
+    private static final class Segment {
+        private final int id;
+        private final Path file;
+        private final FileChannel channel;
+        private volatile long size;
+
+        private Segment(int id, Path file, FileChannel channel, long size) {
+            this.id = id;
+            this.file = file;
+            this.channel = channel;
+            this.size = size;
+        }
+
+        static Segment open(int id, Path file) throws IOException {
+            FileChannel channel = FileChannel.open(file,
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            return new Segment(id, file, channel, channel.size());
+        }
+
+        void closeQuietly() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                log.debug("Ошибка закрытия сегмента {}: {}", file, e.getMessage());
+            }
+        }
+    }
+
+    private static final class Location {
+        private final int segment;
+        private final long offset;
+        private final long length;
+        private final long createdAt;
+
+        Location(int segment, long offset, long length, long createdAt) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+            this.createdAt = createdAt;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Location)) {
+                return false;
+            }
+            Location other = (Location) o;
+            return segment == other.segment && offset == other.offset
+                    && length == other.length && createdAt == other.createdAt;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(segment, offset, length, createdAt);
+        }
+    }
+
+    private static final class Header {
+        private final int segment;
+        private final byte type;
+        private final String key;
+        private final long createdAt;
+        private final long dataOffset;
+        private final long length;
+
+        Header(int segment, byte type, String key, long createdAt, long dataOffset, long length) {
+            this.segment = segment;
+            this.type = type;
+            this.key = key;
+            this.createdAt = createdAt;
+            this.dataOffset = dataOffset;
+            this.length = length;
+        }
+
+        long end() {
+            return dataOffset + length + CRC_SIZE;
+        }
+    }
+
+    /**
+     * Изображение внутри сегмента; читается позиционно, без общей позиции канала
+     */
+    private static final class SegmentResource extends AbstractResource {
+        private final Segment segment;
+        private final Location location;
+        private final String description;
+
+        SegmentResource(Segment segment, Location location, String description) {
+            this.segment = segment;
+            this.location = location;
+            this.description = description;
+        }
+
+        @Override
+        public String getDescription() {
+            return "Segment image [" + description + "]";
+        }
+
+        @Override
+        public boolean exists() {
+            return true;
+        }
+
+        @Override
+        public long contentLength() {
+            return location.length;
+        }
+
+        @Override
+        public long lastModified() {
+            return location.createdAt;
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return new InputStream() {
+                private final long end = location.offset + location.length;
+                private long position = location.offset;
+
+                @Override
+                public int read() throws IOException {
+                    byte[] one = new byte[1];
+                    return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+                }
+
+                @Override
+                public int read(byte[] bytes, int off, int len) throws IOException {
+                    if (position >= end) {
+                        return -1;
+                    }
+                    ByteBuffer buffer = ByteBuffer.wrap(bytes, off, (int) Math.min(len, end - position));
+                    int read = segment.channel.read(buffer, position);
+                    if (read < 0) {
+                        return -1;
+                    }
+                    position += read;
+                    return read;
+                }
+
+                @Override
+                public long skip(long n) {
+                    long skipped = Math.max(0, Math.min(n, end - position));
+                    position += skipped;
+                    return skipped;
+                }
+
+                @Override
+                public int available() {
+                    return (int) Math.min(Integer.MAX_VALUE, end - position);
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package ru.skypro.homework.service.image.storage;
+
+/**
+ * Элемент обхода хранилища {@link ImageStorage#list}
+ */
+public final class StoredImage {
+    private final String path;
+    private final long size;
+    private final long lastModified;
+    private final String cursor;
+
+    public StoredImage(String path, long size, long lastModified, String cursor) {
+        this.path = path;
+        this.size = size;
+        this.lastModified = lastModified;
+        this.cursor = cursor;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    public String getCursor() {
+        return cursor;
+    }
+}
@@ -0,0 +1,120 @@
+package ru.skypro.homework.service.user;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.skypro.homework.entity.User;
+import ru.skypro.homework.repository.AdRepository;
+import ru.skypro.homework.repository.ArchivedCommentRepository;
+import ru.skypro.homework.repository.CommentRepository;
+import ru.skypro.homework.repository.UserRepository;
+import ru.skypro.homework.service.comment.CommentPageCache;
+import ru.skypro.homework.service.image.ImageService;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Фоновое удаление учётных записей, отключённых администратором (users.deletion_requested_at).
+ * <p>
+ * Комментарии пользователя удаляются порциями в коротких транзакциях. Его объявления
+ * помечаются deleted и очищаются {@link ru.skypro.homework.service.add.AdPurgeJob}
+ * вместе с чужими комментариями к ним. Строка пользователя и аватар удаляются, когда
+ * не осталось ни комментариев, ни объявлений. Прогресс хранится в самих данных,
+ * поэтому прерванная очистка продолжается при следующем запуске.
+ */
+@Slf4j
+@Component
+public class AccountPurgeJob {
+    private final UserRepository userRepository;
+    private final AdRepository adRepository;
+    private final CommentRepository commentRepository;
+    private final ArchivedCommentRepository archivedCommentRepository;
+    private final ImageService imageService;
+    private final CommentPageCache commentPageCache;
+    private final TransactionTemplate transactionTemplate;
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    @Value("${app.user.purge.users-per-run:20}")
+    private int usersPerRun;
+
+    @Value("${app.user.purge.chunk-size:1000}")
+    private int chunkSize;
+
+    @Value("${app.user.purge.pause-ms:50}")
+    private long pauseMs;
+
+    public AccountPurgeJob(UserRepository userRepository, AdRepository adRepository, CommentRepository commentRepository,
+                           ArchivedCommentRepository archivedCommentRepository, ImageService imageService,
+                           CommentPageCache commentPageCache, PlatformTransactionManager transactionManager) {
+        this.userRepository = userRepository;
+        this.adRepository = adRepository;
+        this.commentRepository = commentRepository;
+        this.archivedCommentRepository = archivedCommentRepository;
+        this.imageService = imageService;
+        this.commentPageCache = commentPageCache;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    @Scheduled(fixedDelayString = "${app.user.purge.interval-ms:30000}")
+    public void purgeDeletedAccounts() {
+        if (!running.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            List<Integer> userIds = userRepository.findIdsPendingDeletion(usersPerRun);
+            for (Integer userId : userIds) {
+                purgeAccount(userId);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn("Очистка удалённых учётных записей прервана");
+        } catch (RuntimeException e) {
+            log.error("Ошибка очистки удалённых учётных записей", e);
+        } finally {
+            running.set(false);
+        }
+    }
+
+    private void purgeAccount(Integer userId) throws InterruptedException {
+        // Объявления, в кэше комментариев которых остались бы удалённые комментарии (и архивные тоже)
+        Set<Integer> commentedAdIds = new HashSet<>(commentRepository.findAdIdsByAuthorId(userId));
+        commentedAdIds.addAll(archivedCommentRepository.findAdIdsByAuthorId(userId));
+        int deleted;
+        while ((deleted = commentRepository.deleteChunkByAuthorId(userId, chunkSize)) > 0) {
+            log.debug("Удалена порция из {} комментариев пользователя ID: {}", deleted, userId);
+            Thread.sleep(pauseMs);
+        }
+        while ((deleted = archivedCommentRepository.deleteChunkByAuthorId(userId, chunkSize)) > 0) {
+            log.debug("Удалена порция из {} архивных комментариев пользователя ID: {}", deleted, userId);
+            Thread.sleep(pauseMs);
+        }
+        commentedAdIds.forEach(commentPageCache::evict);
+        commentPageCache.evictAuthor(userId);
+
+        // Объявления, созданные до отключения, но после пометки, тоже уходят в очистку
+        transactionTemplate.executeWithoutResult(status -> adRepository.markDeletedByAuthorId(userId));
+        if (adRepository.existsByAuthorId(userId)) {
+            log.debug("Пользователь ID {} ждёт очистки своих объявлений", userId);
+            return;
+        }
+
+        User user = userRepository.findById(userId).orElse(null);
+        String avatar = user != null ? user.getImage() : null;
+        userRepository.deleteById(userId);
+        if (avatar != null) {
+            try {
+                imageService.deleteImage(avatar, user.getEmail());
+            } catch (IOException e) {
+                log.warn("Не удалось удалить аватар {}: {}", avatar, e.getMessage());
+            }
+        }
+        log.info("Учётная запись ID {} окончательно удалена", userId);
+    }
+}
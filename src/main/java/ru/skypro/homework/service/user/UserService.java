@@ -13,4 +13,7 @@ public interface UserService {
     UpdateUserDto updateUser(String email, UpdateUserDto updateUser);
 
     void updateUserImage(String email, MultipartFile image);
+
+    // Администратор: отключить учётную запись и поставить её данные в очередь на удаление
+    void deleteUser(Integer userId, String adminEmail);
 }
@@ -1,12 +1,15 @@
 package ru.skypro.homework.service.user.impl;
 
 import java.io.IOException;
+import java.time.Instant;
+import java.util.List;
 
 
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.HttpStatus;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.multipart.MultipartFile;
 import org.springframework.web.server.ResponseStatusException;
 import ru.skypro.homework.dto.NewPasswordDto;
@@ -14,7 +17,9 @@ import ru.skypro.homework.dto.UpdateUserDto;
 import ru.skypro.homework.dto.UserDto;
 import ru.skypro.homework.entity.User;
 import ru.skypro.homework.mappers.UserMapper;
+import ru.skypro.homework.repository.AdRepository;
 import ru.skypro.homework.repository.UserRepository;
+import ru.skypro.homework.service.comment.CommentPageCache;
 import ru.skypro.homework.service.image.ImageService;
 import ru.skypro.homework.service.user.UserService;
 
@@ -25,12 +30,16 @@ public class UserServiceImpl implements UserService {
     private final UserMapper userMapper;
     private final PasswordEncoder passwordEncoder;
     private final ImageService imageService;
+    private final CommentPageCache commentPageCache;
+    private final AdRepository adRepository;
 
-    public UserServiceImpl(UserRepository userRepository, UserMapper userMapper, PasswordEncoder passwordEncoder, ImageService imageService) {
+    public UserServiceImpl(UserRepository userRepository, UserMapper userMapper, PasswordEncoder passwordEncoder, ImageService imageService, CommentPageCache commentPageCache, AdRepository adRepository) {
         this.userRepository = userRepository;
         this.userMapper = userMapper;
         this.passwordEncoder = passwordEncoder;
         this.imageService = imageService;
+        this.commentPageCache = commentPageCache;
+        this.adRepository = adRepository;
     }
 
     @Override
@@ -102,6 +111,8 @@ public class UserServiceImpl implements UserService {
         }
 
         User updatedUser = userRepository.save(user);
+        // имя автора хранится в закэшированных комментариях
+        commentPageCache.evictAuthor(updatedUser.getId());
         log.info("Информация пользователя обновлена: {}", email);
 
         UpdateUserDto response = new UpdateUserDto();
@@ -122,13 +133,55 @@ public class UserServiceImpl implements UserService {
                         return new ResponseStatusException(HttpStatus.NOT_FOUND, "Пользователь не найден");
                     });
 
-            String imagePath = imageService.saveImage(image, "avatars");
+            String oldImagePath = user.getImage();
+            String imagePath = imageService.saveImage(image, "avatars", email);
             user.setImage(imagePath);
             userRepository.save(user);
+            commentPageCache.evictAuthor(user.getId());
             log.info("Аватар пользователя обновлен: {}", email);
-        } catch (IOException e) {
+
+            // Старый файл теряет ссылку этого пользователя
+            if (oldImagePath != null) {
+                try {
+                    imageService.deleteImage(oldImagePath, email);
+                } catch (IOException e) {
+                    log.warn("Не удалось удалить прежний аватар {}: {}", oldImagePath, e.getMessage());
+                }
+            }
+        } catch (IOException | IllegalArgumentException e) {
             log.error("Ошибка при сохранении изображения для пользователя {}: {}", email, e.getMessage());
             throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Ошибка при загрузке изображения");
         }
     }
+
+    @Override
+    @Transactional
+    public void deleteUser(Integer userId, String adminEmail) {
+        log.debug("Запрос на удаление пользователя ID: {} администратором: {}", userId, adminEmail);
+
+        User user = userRepository.findById(userId)
+                .orElseThrow(() -> {
+                    log.warn("Пользователь не найден: ID {}", userId);
+                    return new ResponseStatusException(HttpStatus.NOT_FOUND, "Пользователь не найден");
+                });
+
+        if (user.getEmail().equals(adminEmail)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Нельзя удалить собственную учётную запись");
+        }
+
+        // Вход блокируется сразу, данные удаляет AccountPurgeJob
+        user.setEnabled(false);
+        if (user.getDeletionRequestedAt() == null) {
+            user.setDeletionRequestedAt(Instant.now().toEpochMilli());
+        }
+        userRepository.save(user);
+
+        // Объявления скрываются одним запросом и дальше очищаются AdPurgeJob
+        List<Integer> adIds = adRepository.findActiveIdsByAuthorId(userId);
+        adRepository.markDeletedByAuthorId(userId);
+        adIds.forEach(commentPageCache::evict);
+        commentPageCache.evictAuthor(userId);
+
+        log.info("Пользователь ID {} отключён и поставлен в очередь на удаление ({} объявлений)", userId, adIds.size());
+    }
 }
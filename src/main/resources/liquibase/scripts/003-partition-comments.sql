@@ -0,0 +1,152 @@
+--liquibase formatted sql
+
+-- Перевод comments на HASH-секционирование по ad_id.
+--
+-- 1. Changeset'ы 9-14 выполняются при обычном старте: создаётся секционированная копия
+--    comments_partitioned (число секций - параметр comments-partitions), триггер зеркалирует
+--    в неё все новые изменения comments.
+-- 2. Перенос существующих строк выполняется онлайн, порциями с COMMIT после каждой
+--    (вызывать вне транзакции, можно прерывать и перезапускать):
+--        CALL comments_partition_backfill(10000, 0.05);
+-- 3. Проверка: количество строк по каждому объявлению должно совпасть
+--        SELECT * FROM comments_partition_verify();   -- пустой результат = всё сошлось
+--    Если расхождения есть: CALL comments_partition_reconcile(10000);
+-- 4. Переключение - запуск с контекстом comments-partition-swap
+--    (LIQUIBASE_CONTEXTS=default,comments-partition-swap). Под блокировкой ещё раз
+--    сверяются счётчики, таблицы меняются местами, старая остаётся как comments_unpartitioned
+--    (внешние ключи с неё снимает changeset 39 в 016-comments-unpartitioned-fk.sql).
+
+--changeset a.zhuravlev:9 dbms:postgresql
+CREATE TABLE comments_partitioned (
+    id INTEGER NOT NULL DEFAULT nextval('comments_id_seq'),
+    ad_id INTEGER NOT NULL,
+    author_id INTEGER NOT NULL,
+    text VARCHAR(255) NOT NULL,
+    created_at BIGINT NOT NULL,
+    PRIMARY KEY (id, ad_id),
+    FOREIGN KEY (ad_id) REFERENCES ads(id),
+    FOREIGN KEY (author_id) REFERENCES users(id)
+) PARTITION BY HASH (ad_id);
+
+--changeset a.zhuravlev:10 dbms:postgresql splitStatements:false
+DO $$
+BEGIN
+    FOR i IN 0..${comments-partitions} - 1 LOOP
+        EXECUTE format('CREATE TABLE comments_p%s PARTITION OF comments_partitioned FOR VALUES WITH (MODULUS %s, REMAINDER %s)',
+                       i, ${comments-partitions}, i);
+    END LOOP;
+END $$;
+
+--changeset a.zhuravlev:11 dbms:postgresql
+-- Индексы создаются в каждой секции отдельно
+CREATE INDEX idx_comments_partitioned_ad_created ON comments_partitioned (ad_id, created_at);
+CREATE INDEX idx_comments_partitioned_author ON comments_partitioned (author_id);
+
+--changeset a.zhuravlev:12 dbms:postgresql splitStatements:false
+CREATE OR REPLACE FUNCTION comments_mirror() RETURNS trigger AS $$
+BEGIN
+    IF TG_OP = 'DELETE' OR TG_OP = 'UPDATE' THEN
+        DELETE FROM comments_partitioned WHERE id = OLD.id AND ad_id = OLD.ad_id;
+    END IF;
+    IF TG_OP = 'DELETE' THEN
+        RETURN OLD;
+    END IF;
+    INSERT INTO comments_partitioned (id, ad_id, author_id, text, created_at)
+    VALUES (NEW.id, NEW.ad_id, NEW.author_id, NEW.text, NEW.created_at)
+    ON CONFLICT (id, ad_id) DO UPDATE
+        SET author_id = EXCLUDED.author_id, text = EXCLUDED.text, created_at = EXCLUDED.created_at;
+    RETURN NEW;
+END;
+$$ LANGUAGE plpgsql;
+
+--changeset a.zhuravlev:13 dbms:postgresql
+CREATE TRIGGER comments_mirror_trg
+    AFTER INSERT OR UPDATE OR DELETE ON comments
+    FOR EACH ROW EXECUTE FUNCTION comments_mirror();
+
+--changeset a.zhuravlev:14 dbms:postgresql
+CREATE TABLE comments_partition_progress (
+    id INTEGER PRIMARY KEY,
+    last_id INTEGER NOT NULL
+);
+INSERT INTO comments_partition_progress (id, last_id) VALUES (1, 0);
+
+--changeset a.zhuravlev:15 dbms:postgresql splitStatements:false
+CREATE OR REPLACE PROCEDURE comments_partition_backfill(batch_size INTEGER DEFAULT 10000,
+                                                        pause_seconds DOUBLE PRECISION DEFAULT 0)
+LANGUAGE plpgsql AS $$
+DECLARE
+    from_id INTEGER;
+    max_id INTEGER;
+BEGIN
+    SELECT last_id INTO from_id FROM comments_partition_progress WHERE id = 1;
+    SELECT coalesce(max(id), 0) INTO max_id FROM comments;
+
+    WHILE from_id < max_id LOOP
+        -- строки, уже записанные триггером, свежее - их не трогаем
+        INSERT INTO comments_partitioned (id, ad_id, author_id, text, created_at)
+        SELECT id, ad_id, author_id, text, created_at
+        FROM comments
+        WHERE id > from_id AND id <= from_id + batch_size
+        ON CONFLICT (id, ad_id) DO NOTHING;
+
+        from_id := from_id + batch_size;
+        UPDATE comments_partition_progress SET last_id = from_id WHERE id = 1;
+        COMMIT;
+
+        IF pause_seconds > 0 THEN
+            PERFORM pg_sleep(pause_seconds);
+        END IF;
+    END LOOP;
+END;
+$$;
+
+--changeset a.zhuravlev:16 dbms:postgresql splitStatements:false
+CREATE OR REPLACE FUNCTION comments_partition_verify()
+RETURNS TABLE (ad INTEGER, source_rows BIGINT, partitioned_rows BIGINT) AS $$
+    SELECT coalesce(s.ad_id, p.ad_id), coalesce(s.cnt, 0), coalesce(p.cnt, 0)
+    FROM (SELECT ad_id, count(*) AS cnt FROM comments GROUP BY ad_id) s
+    FULL JOIN (SELECT ad_id, count(*) AS cnt FROM comments_partitioned GROUP BY ad_id) p
+        ON s.ad_id = p.ad_id
+    WHERE coalesce(s.cnt, 0) <> coalesce(p.cnt, 0);
+$$ LANGUAGE sql STABLE;
+
+--changeset a.zhuravlev:17 dbms:postgresql splitStatements:false
+-- Досинхронизация только для объявлений, по которым verify нашёл расхождение
+CREATE OR REPLACE PROCEDURE comments_partition_reconcile(batch_size INTEGER DEFAULT 10000)
+LANGUAGE plpgsql AS $$
+DECLARE
+    mismatch RECORD;
+BEGIN
+    FOR mismatch IN SELECT ad FROM comments_partition_verify() LOOP
+        DELETE FROM comments_partitioned p
+        WHERE p.ad_id = mismatch.ad
+          AND NOT EXISTS (SELECT 1 FROM comments c WHERE c.id = p.id AND c.ad_id = p.ad_id);
+
+        INSERT INTO comments_partitioned (id, ad_id, author_id, text, created_at)
+        SELECT id, ad_id, author_id, text, created_at
+        FROM comments
+        WHERE ad_id = mismatch.ad
+        ON CONFLICT (id, ad_id) DO NOTHING;
+        COMMIT;
+    END LOOP;
+END;
+$$;
+
+--changeset a.zhuravlev:18 dbms:postgresql context:comments-partition-swap splitStatements:false
+DO $$
+DECLARE
+    mismatches BIGINT;
+BEGIN
+    LOCK TABLE comments IN ACCESS EXCLUSIVE MODE;
+
+    SELECT count(*) INTO mismatches FROM comments_partition_verify();
+    IF mismatches > 0 THEN
+        RAISE EXCEPTION 'comments_partitioned расходится с comments по % объявлениям, выполните comments_partition_reconcile', mismatches;
+    END IF;
+
+    DROP TRIGGER comments_mirror_trg ON comments;
+    ALTER TABLE comments RENAME TO comments_unpartitioned;
+    ALTER TABLE comments_partitioned RENAME TO comments;
+    ALTER SEQUENCE comments_id_seq OWNED BY comments.id;
+END $$;
@@ -0,0 +1,25 @@
+--liquibase formatted sql
+
+--changeset a.zhuravlev:19
+CREATE TABLE comments_archive (
+    id INTEGER PRIMARY KEY,
+    ad_id INTEGER NOT NULL,
+    author_id INTEGER NOT NULL,
+    text VARCHAR(255) NOT NULL,
+    created_at BIGINT NOT NULL,
+    archived_at BIGINT NOT NULL,
+    FOREIGN KEY (ad_id) REFERENCES ads(id),
+    FOREIGN KEY (author_id) REFERENCES users(id)
+);
+
+--changeset a.zhuravlev:20
+CREATE INDEX idx_comments_archive_ad_created ON comments_archive (ad_id, created_at);
+
+--changeset a.zhuravlev:21
+-- Архиватор выбирает старые комментарии по дате создания
+CREATE INDEX idx_comments_created ON comments (created_at);
+
+--changeset a.zhuravlev:22 dbms:postgresql
+--preconditions onFail:MARK_RAN
+--precondition-sql-check expectedResult:1 SELECT count(*) FROM information_schema.tables WHERE table_name = 'comments_partitioned'
+CREATE INDEX idx_comments_partitioned_created ON comments_partitioned (created_at);
@@ -0,0 +1,11 @@
+--liquibase formatted sql
+
+--changeset a.zhuravlev:23
+ALTER TABLE ads ADD COLUMN deleted BOOLEAN NOT NULL DEFAULT FALSE;
+
+--changeset a.zhuravlev:24 dbms:postgresql
+-- Очередь фоновой очистки: только помеченные объявления
+CREATE INDEX idx_ads_deleted ON ads (id) WHERE deleted;
+
+--changeset a.zhuravlev:25
+CREATE INDEX idx_comments_ad ON comments (ad_id);
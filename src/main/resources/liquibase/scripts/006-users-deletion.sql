@@ -0,0 +1,10 @@
+--liquibase formatted sql
+
+--changeset a.zhuravlev:26
+-- Заполнено - учётная запись отключена и ждёт фоновой очистки
+ALTER TABLE users ADD COLUMN deletion_requested_at BIGINT;
+
+--changeset a.zhuravlev:27
+CREATE INDEX idx_comments_author ON comments (author_id);
+CREATE INDEX idx_comments_archive_author ON comments_archive (author_id);
+CREATE INDEX idx_ads_author ON ads (author_id);
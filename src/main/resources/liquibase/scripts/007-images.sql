@@ -0,0 +1,10 @@
+--liquibase formatted sql
+
+--changeset a.zhuravlev:28
+-- Метаданные загруженных файлов; path совпадает с ads.image_url / users.image
+CREATE TABLE images (
+    path VARCHAR(255) PRIMARY KEY,
+    content_hash VARCHAR(64) NOT NULL,
+    size BIGINT NOT NULL,
+    created_at BIGINT NOT NULL
+);
@@ -0,0 +1,8 @@
+--liquibase formatted sql
+
+--changeset a.zhuravlev:29
+-- Число ссылок на файл из ads.image_url и users.image; файл удаляется, когда оно падает до нуля
+ALTER TABLE images ADD COLUMN ref_count INTEGER NOT NULL DEFAULT 1;
+
+--changeset a.zhuravlev:30
+CREATE INDEX idx_images_content_hash ON images (content_hash);
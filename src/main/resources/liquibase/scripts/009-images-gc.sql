@@ -0,0 +1,14 @@
+--liquibase formatted sql
+
+--changeset a.zhuravlev:31
+-- Время последнего захвата ссылки: файл, на который только что сослались, сборщик не трогает
+ALTER TABLE images ADD COLUMN last_referenced_at BIGINT;
+
+--changeset a.zhuravlev:32
+-- Позиция сборщика неиспользуемых файлов: обход продолжается с last_path
+CREATE TABLE image_gc_progress (
+    id INTEGER PRIMARY KEY,
+    last_path VARCHAR(1024),
+    updated_at BIGINT
+);
+INSERT INTO image_gc_progress (id, last_path, updated_at) VALUES (1, NULL, NULL);
@@ -0,0 +1,22 @@
+--liquibase formatted sql
+
+--changeset a.zhuravlev:33
+-- Содержимое изображений в базе (app.image.storage=database): строка на ключ и части по chunk-size.
+-- Ссылки (уменьшенные копии-дубликаты) делят content_id, части удаляются вместе с последней ссылкой
+CREATE TABLE image_blobs (
+    path VARCHAR(255) PRIMARY KEY,
+    content_id VARCHAR(36) NOT NULL,
+    size BIGINT NOT NULL,
+    chunk_size INTEGER NOT NULL,
+    chunk_count INTEGER NOT NULL,
+    created_at BIGINT NOT NULL
+);
+CREATE INDEX idx_image_blobs_content_id ON image_blobs (content_id);
+
+CREATE TABLE image_chunks (
+    id BIGSERIAL PRIMARY KEY,
+    content_id VARCHAR(36) NOT NULL,
+    chunk_index INTEGER NOT NULL,
+    data BYTEA NOT NULL,
+    CONSTRAINT uq_image_chunks_content_chunk UNIQUE (content_id, chunk_index)
+);
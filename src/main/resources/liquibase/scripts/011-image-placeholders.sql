@@ -0,0 +1,6 @@
+--liquibase formatted sql
+
+--changeset a.zhuravlev:34
+-- Размытая заглушка (data URI PNG) считается один раз при загрузке и отдаётся в списках объявлений
+ALTER TABLE images ADD COLUMN placeholder VARCHAR(1024);
+ALTER TABLE ads ADD COLUMN image_placeholder VARCHAR(1024);
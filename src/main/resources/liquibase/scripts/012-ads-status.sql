@@ -0,0 +1,7 @@
+--liquibase formatted sql
+
+--changeset a.zhuravlev:35
+-- Асинхронное создание: строка объявления сохраняется до обработки изображения и скрыта,
+-- пока статус не станет ACTIVE; до этого картинки у объявления нет
+ALTER TABLE ads ADD COLUMN status VARCHAR(16) NOT NULL DEFAULT 'ACTIVE';
+ALTER TABLE ads ALTER COLUMN image_url DROP NOT NULL;
@@ -0,0 +1,16 @@
+--liquibase formatted sql
+
+--changeset a.zhuravlev:36
+-- Галерея объявления: обложка остаётся в ads.image_url, дополнительные фото - здесь по порядку position.
+-- Каждая строка держит свою ссылку на файл (images.ref_count)
+CREATE TABLE ad_images (
+    id SERIAL PRIMARY KEY,
+    ad_id INTEGER NOT NULL,
+    position INTEGER NOT NULL,
+    image_url VARCHAR(255) NOT NULL,
+    image_placeholder VARCHAR(1024),
+    FOREIGN KEY (ad_id) REFERENCES ads(id),
+    CONSTRAINT uq_ad_images_ad_position UNIQUE (ad_id, position)
+);
+-- Сборка неиспользуемых файлов проверяет ссылки по image_url
+CREATE INDEX idx_ad_images_image_url ON ad_images (image_url);
@@ -0,0 +1,10 @@
+--liquibase formatted sql
+
+--changeset a.zhuravlev:37
+-- Занятое пользователем место в хранилище: счётчики ведутся в памяти и сбрасываются сюда порциями,
+-- при старте читаются обратно. Сверка со ссылками на изображения переписывает таблицу целиком
+CREATE TABLE user_storage (
+    email VARCHAR(255) PRIMARY KEY,
+    used_bytes BIGINT NOT NULL,
+    updated_at BIGINT NOT NULL
+);
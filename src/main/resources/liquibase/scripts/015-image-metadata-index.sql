@@ -0,0 +1,11 @@
+--liquibase formatted sql
+
+--changeset a.zhuravlev:38
+--validCheckSum: ANY
+-- Тип содержимого по сигнатуре файла и размеры в пикселях определяются при загрузке;
+-- по ним отдаются изображения и строятся отчёты о хранилище без чтения файлов.
+-- У строк, записанных раньше, тип остаётся NULL: его по сигнатуре определяет ImageMetadataBackfill,
+-- а до тех пор изображение отдаётся с типом по расширению
+ALTER TABLE images ADD COLUMN content_type VARCHAR(64);
+ALTER TABLE images ADD COLUMN width INTEGER;
+ALTER TABLE images ADD COLUMN height INTEGER;
@@ -0,0 +1,21 @@
+--liquibase formatted sql
+
+--changeset a.zhuravlev:39 dbms:postgresql runAlways:true splitStatements:false
+-- После переключения (changeset 18) старая таблица остаётся как comments_unpartitioned
+-- со своими внешними ключами на ads и users: удаление объявления или пользователя падало
+-- на её строках. Копия нужна только для сверки и отката, поэтому ключи с неё снимаются.
+-- Выполняется при каждом старте: переключение запускается отдельным контекстом и может
+-- случиться позже, чем этот changeset впервые отметится выполненным. Пока таблицы нет,
+-- ничего не делает. Когда сверка больше не нужна: DROP TABLE comments_unpartitioned;
+DO $$
+DECLARE
+    fk RECORD;
+BEGIN
+    IF to_regclass('comments_unpartitioned') IS NULL THEN
+        RETURN;
+    END IF;
+    FOR fk IN SELECT conname FROM pg_constraint
+              WHERE conrelid = 'comments_unpartitioned'::regclass AND contype = 'f' LOOP
+        EXECUTE format('ALTER TABLE comments_unpartitioned DROP CONSTRAINT %I', fk.conname);
+    END LOOP;
+END $$;
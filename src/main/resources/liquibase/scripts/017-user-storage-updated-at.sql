@@ -0,0 +1,5 @@
+--liquibase formatted sql
+
+--changeset a.zhuravlev:40
+-- Узлы раз в flush-interval-ms перечитывают строки, изменённые с прошлого раза
+CREATE INDEX idx_user_storage_updated_at ON user_storage (updated_at);
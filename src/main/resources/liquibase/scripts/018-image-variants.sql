@@ -0,0 +1,11 @@
+--liquibase formatted sql
+
+--changeset a.zhuravlev:41
+-- Первая версия 38 заполняла тип по расширению. Такие строки - без размеров в пикселях
+-- (при загрузке тип и размеры пишутся вместе); тип сбрасывается и определяется заново по сигнатуре
+UPDATE images SET content_type = NULL WHERE width IS NULL;
+
+--changeset a.zhuravlev:42
+-- Готовые уменьшенные копии и их размеры ("160:5120,480:20480"): копия выбирается и
+-- Content-Length выставляется без обращения к хранилищу. NULL - копии ещё не учтены
+ALTER TABLE images ADD COLUMN variants VARCHAR(255);
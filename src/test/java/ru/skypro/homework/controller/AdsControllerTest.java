@@ -5,22 +5,31 @@ import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.context.annotation.Import;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.mock.web.MockMultipartFile;
 import org.springframework.security.test.context.support.WithMockUser;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.server.ResponseStatusException;
 import ru.skypro.homework.config.TestSecurityConfig;
+import ru.skypro.homework.dto.AdDto;
 import ru.skypro.homework.dto.AdsDto;
 import ru.skypro.homework.dto.CreateOrUpdateAdDto;
 import ru.skypro.homework.service.add.AdService;
+import ru.skypro.homework.service.image.GalleryUploadReader;
 import ru.skypro.homework.service.image.ImageService;
+import ru.skypro.homework.service.image.ResumableUploadService;
 
-
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.List;
 
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.argThat;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.csrf;
@@ -28,9 +37,13 @@ import static org.springframework.test.web.servlet.request.MockMvcRequestBuilder
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.multipart;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 
-@WebMvcTest(AdsController.class)
-@Import(TestSecurityConfig.class)
+@WebMvcTest(controllers = AdsController.class, properties = {
+        "app.ad.gallery.max-images=3",
+        "app.image.max-upload-size=1KB"
+})
+@Import({TestSecurityConfig.class, GalleryUploadReader.class})
 class AdsControllerTest {
+    private static final String BOUNDARY = "gallery-boundary";
 
     @Autowired
     private MockMvc mockMvc;
@@ -44,6 +57,9 @@ class AdsControllerTest {
     @MockBean
     private ImageService imageService;
 
+    @MockBean
+    private ResumableUploadService uploadService;
+
     @Test
     @WithMockUser
     void getAllAds_ok() throws Exception {
@@ -60,6 +76,25 @@ class AdsControllerTest {
                 .andExpect(jsonPath("$.results").isArray());
     }
 
+    @Test
+    @WithMockUser
+    void getAllAds_withImagePlaceholder() throws Exception {
+        AdDto ad = new AdDto();
+        ad.setPk(1);
+        ad.setImage("/images/ads/1.jpg");
+        ad.setImagePlaceholder("data:image/png;base64,iVBORw0KGgo=");
+        AdsDto mockAdsDto = new AdsDto();
+        mockAdsDto.setCount(1);
+        mockAdsDto.setResults(List.of(ad));
+
+        when(adService.getAllAds()).thenReturn(mockAdsDto);
+
+        mockMvc.perform(get("/ads"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.results[0].image").value("/images/ads/1.jpg"))
+                .andExpect(jsonPath("$.results[0].imagePlaceholder").value("data:image/png;base64,iVBORw0KGgo="));
+    }
+
     @Test
     @WithMockUser(roles = "USER")
     void addAd_created() throws Exception {
@@ -125,6 +160,122 @@ class AdsControllerTest {
                 .andExpect(status().isBadRequest());
     }
 
+    @Test
+    @WithMockUser(roles = "USER")
+    void addAd_withImageHash_created() throws Exception {
+        CreateOrUpdateAdDto dto = new CreateOrUpdateAdDto();
+        dto.setTitle("Велосипед");
+        dto.setPrice(10000);
+        String imageHash = "9f64a747e1b97f131fabb6b447296c9b6f0201e79fb3c5356e6c77e89b6a806a";
+
+        MockMultipartFile props = new MockMultipartFile(
+                "properties", "properties.json", "application/json",
+                objectMapper.writeValueAsBytes(dto)
+        );
+
+        when(adService.createAd(any(CreateOrUpdateAdDto.class), eq(imageHash), any(String.class)))
+                .thenReturn(new AdDto());
+
+        mockMvc.perform(multipart("/ads").file(props).param("imageHash", imageHash).with(csrf()))
+                .andExpect(status().isCreated());
+
+        verify(adService).createAd(any(CreateOrUpdateAdDto.class), eq(imageHash), any(String.class));
+    }
+
+    @Test
+    @WithMockUser(roles = "USER")
+    void addAd_respondAsync_accepted() throws Exception {
+        CreateOrUpdateAdDto dto = new CreateOrUpdateAdDto();
+        dto.setTitle("Велосипед");
+        dto.setPrice(10000);
+
+        MockMultipartFile props = new MockMultipartFile(
+                "properties", "properties.json", "application/json",
+                objectMapper.writeValueAsBytes(dto)
+        );
+        MockMultipartFile image = new MockMultipartFile(
+                "image", "bike.jpg", "image/jpeg", new byte[]{1,2,3}
+        );
+        AdDto accepted = new AdDto();
+        accepted.setPk(42);
+
+        when(adService.createAdAsync(any(CreateOrUpdateAdDto.class), any(MultipartFile.class), any(String.class)))
+                .thenReturn(accepted);
+
+        mockMvc.perform(multipart("/ads").file(props).file(image).header("Prefer", "respond-async").with(csrf()))
+                .andExpect(status().isAccepted())
+                .andExpect(header().string("Location", "/ads/42/status"))
+                .andExpect(jsonPath("$.pk").value(42));
+
+        verify(adService, never()).createAd(any(CreateOrUpdateAdDto.class), any(MultipartFile.class), any(String.class));
+    }
+
+    @Test
+    @WithMockUser(roles = "USER")
+    void addAd_withIncompleteUpload_conflict() throws Exception {
+        CreateOrUpdateAdDto dto = new CreateOrUpdateAdDto();
+        dto.setTitle("Велосипед");
+        dto.setPrice(10000);
+        String uploadId = "3f2b8c1e-7a4d-4e55-9b0a-2c6d8e1f4a77";
+
+        MockMultipartFile props = new MockMultipartFile(
+                "properties", "properties.json", "application/json",
+                objectMapper.writeValueAsBytes(dto)
+        );
+
+        when(uploadService.attach(eq(uploadId), any(String.class), any()))
+                .thenThrow(new ResponseStatusException(HttpStatus.CONFLICT, "Загрузка не завершена"));
+
+        mockMvc.perform(multipart("/ads").file(props).param("uploadId", uploadId).with(csrf()))
+                .andExpect(status().isConflict());
+
+        verify(adService, never()).createAd(any(CreateOrUpdateAdDto.class), any(MultipartFile.class), any(String.class));
+    }
+
+    @Test
+    @WithMockUser(roles = "ADMIN")
+    void addImages_returnsGallery() throws Exception {
+        when(adService.addAdImages(eq(1), anyList(), any(String.class)))
+                .thenReturn(List.of("/images/ads/cover.jpg", "/images/ads/1.jpg", "/images/ads/2.jpg"));
+
+        mockMvc.perform(post("/ads/{id}/images", 1)
+                        .contentType("multipart/form-data; boundary=" + BOUNDARY)
+                        .content(multipartBody(new byte[]{1, 2, 3}, new byte[]{4, 5, 6}))
+                        .with(csrf()))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(3))
+                .andExpect(jsonPath("$[0]").value("/images/ads/cover.jpg"));
+
+        verify(adService).addAdImages(eq(1), argThat(images -> images.size() == 2
+                && images.get(1).getSize() == 3 && "2.jpg".equals(images.get(1).getOriginalFilename())),
+                any(String.class));
+    }
+
+    @Test
+    @WithMockUser(roles = "ADMIN")
+    void addImages_totalAboveGalleryLimit_rejected() throws Exception {
+        // Лимит галереи в тесте: 3 фото по 1KB
+        mockMvc.perform(post("/ads/{id}/images", 1)
+                        .contentType("multipart/form-data; boundary=" + BOUNDARY)
+                        .content(multipartBody(new byte[900], new byte[900], new byte[900], new byte[900]))
+                        .with(csrf()))
+                .andExpect(status().isPayloadTooLarge());
+
+        verify(adService, never()).addAdImages(any(), anyList(), any());
+    }
+
+    @Test
+    @WithMockUser(roles = "ADMIN")
+    void addImages_fileAboveUploadLimit_rejected() throws Exception {
+        mockMvc.perform(post("/ads/{id}/images", 1)
+                        .contentType("multipart/form-data; boundary=" + BOUNDARY)
+                        .content(multipartBody(new byte[2048]))
+                        .with(csrf()))
+                .andExpect(status().isPayloadTooLarge());
+
+        verify(adService, never()).addAdImages(any(), anyList(), any());
+    }
+
     @Test
     @WithMockUser
     void getAdById_ok() throws Exception {
@@ -292,4 +443,19 @@ class AdsControllerTest {
                 .andExpect(status().isOk())
                 .andExpect(jsonPath("$.count").value(0));
     }
+
+    // Тело multipart с частями images: 1.jpg, 2.jpg, ...
+    private static byte[] multipartBody(byte[]... files) {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        for (int i = 0; i < files.length; i++) {
+            String header = "--" + BOUNDARY + "\r\n"
+                    + "Content-Disposition: form-data; name=\"images\"; filename=\"" + (i + 1) + ".jpg\"\r\n"
+                    + "Content-Type: image/jpeg\r\n\r\n";
+            body.writeBytes(header.getBytes(StandardCharsets.UTF_8));
+            body.writeBytes(files[i]);
+            body.writeBytes("\r\n".getBytes(StandardCharsets.UTF_8));
+        }
+        body.writeBytes(("--" + BOUNDARY + "--\r\n").getBytes(StandardCharsets.UTF_8));
+        return body.toByteArray();
+    }
 }
@@ -60,6 +60,19 @@ class CommentsControllerTest {
                 .andExpect(jsonPath("$.results[0].text").value("Отличный товар!"));
     }
 
+    @Test
+    @WithMockUser
+    void getComments_page_ok() throws Exception {
+        List<CommentDto> comments = List.of(createCommentDto(7, "Старый комментарий"));
+
+        when(commentService.getCommentsByAdId(1, 3, 10)).thenReturn(comments);
+
+        mockMvc.perform(get("/ads/{id}/comments", 1).param("page", "3").param("size", "10"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.count").value(1))
+                .andExpect(jsonPath("$.results[0].pk").value(7));
+    }
+
     @Test
     @WithMockUser
     void addComment_ok() throws Exception {
@@ -0,0 +1,224 @@
+package ru.skypro.homework.controller;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.security.test.context.support.WithMockUser;
+import org.springframework.test.web.servlet.MockMvc;
+import ru.skypro.homework.config.TestSecurityConfig;
+import ru.skypro.homework.dto.ImageStorageReportDto;
+import ru.skypro.homework.dto.ImageTypeStatsDto;
+import ru.skypro.homework.dto.UploadSessionDto;
+import ru.skypro.homework.entity.ImageMetadata;
+import ru.skypro.homework.service.image.ImageService;
+import ru.skypro.homework.service.image.ImageVariant;
+import ru.skypro.homework.service.image.ResumableUploadService;
+
+import java.io.IOException;
+import java.util.List;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.patch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+@WebMvcTest(ImageController.class)
+@Import(TestSecurityConfig.class)
+class ImageControllerTest {
+
+    private static final String IMAGE_PATH = "/images/ads/img_1.jpg";
+    private static final byte[] IMAGE_BYTES = {1, 2, 3, 4, 5, 6, 7, 8, 9, 10};
+    private static final String IMAGE_HASH = "9f64a747e1b97f131fabb6b447296c9b6f0201e79fb3c5356e6c77e89b6a806a";
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @MockBean
+    private ImageService imageService;
+
+    @MockBean
+    private ResumableUploadService uploadService;
+
+    @Test
+    @WithMockUser
+    void getImage_ok() throws Exception {
+        when(imageService.loadImage(IMAGE_PATH)).thenReturn(new ByteArrayResource(IMAGE_BYTES));
+        when(imageService.determineMediaType(IMAGE_PATH)).thenReturn(MediaType.IMAGE_JPEG);
+
+        mockMvc.perform(get(IMAGE_PATH))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.IMAGE_JPEG))
+                .andExpect(header().longValue(HttpHeaders.CONTENT_LENGTH, IMAGE_BYTES.length))
+                .andExpect(content().bytes(IMAGE_BYTES));
+    }
+
+    @Test
+    @WithMockUser
+    void getImage_range_partialContent() throws Exception {
+        when(imageService.loadImage(IMAGE_PATH)).thenReturn(new ByteArrayResource(IMAGE_BYTES));
+        when(imageService.determineMediaType(IMAGE_PATH)).thenReturn(MediaType.IMAGE_JPEG);
+
+        mockMvc.perform(get(IMAGE_PATH).header(HttpHeaders.RANGE, "bytes=2-5"))
+                .andExpect(status().isPartialContent())
+                .andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes 2-5/10"))
+                .andExpect(content().bytes(new byte[]{3, 4, 5, 6}));
+    }
+
+    @Test
+    @WithMockUser
+    void getImage_cacheHeaders() throws Exception {
+        when(imageService.loadImage(IMAGE_PATH)).thenReturn(new ByteArrayResource(IMAGE_BYTES));
+        when(imageService.determineMediaType(IMAGE_PATH)).thenReturn(MediaType.IMAGE_JPEG);
+        when(imageService.getImageMetadata(IMAGE_PATH))
+                .thenReturn(new ImageMetadata(IMAGE_PATH, IMAGE_HASH, 10L, 1700000000000L));
+
+        mockMvc.perform(get(IMAGE_PATH))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"" + IMAGE_HASH + "\""))
+                .andExpect(header().string(HttpHeaders.CACHE_CONTROL, "max-age=31536000, public, immutable"))
+                .andExpect(header().exists(HttpHeaders.LAST_MODIFIED));
+    }
+
+    @Test
+    @WithMockUser
+    void getImage_ifNoneMatch_notModified() throws Exception {
+        when(imageService.loadImage(IMAGE_PATH)).thenReturn(new ByteArrayResource(IMAGE_BYTES));
+        when(imageService.determineMediaType(IMAGE_PATH)).thenReturn(MediaType.IMAGE_JPEG);
+        when(imageService.getImageMetadata(IMAGE_PATH))
+                .thenReturn(new ImageMetadata(IMAGE_PATH, IMAGE_HASH, 10L, 1700000000000L));
+
+        mockMvc.perform(get(IMAGE_PATH).header(HttpHeaders.IF_NONE_MATCH, "\"" + IMAGE_HASH + "\""))
+                .andExpect(status().isNotModified())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"" + IMAGE_HASH + "\""))
+                .andExpect(content().bytes(new byte[0]));
+        // 304 решён по метаданным: файл не открывался
+        verify(imageService, never()).loadImage(any());
+    }
+
+    @Test
+    @WithMockUser
+    void getImage_ifModifiedSince_notModifiedWithoutLoading() throws Exception {
+        when(imageService.determineMediaType(IMAGE_PATH)).thenReturn(MediaType.IMAGE_JPEG);
+        when(imageService.getImageMetadata(IMAGE_PATH))
+                .thenReturn(new ImageMetadata(IMAGE_PATH, IMAGE_HASH, 10L, 1700000000000L));
+
+        mockMvc.perform(get(IMAGE_PATH).header(HttpHeaders.IF_MODIFIED_SINCE, "Wed, 15 Nov 2023 00:00:00 GMT"))
+                .andExpect(status().isNotModified());
+        verify(imageService, never()).loadImage(any());
+    }
+
+    @Test
+    @WithMockUser
+    void getImage_typeAndLengthFromMetadata() throws Exception {
+        ImageMetadata metadata = new ImageMetadata(IMAGE_PATH, IMAGE_HASH, 10L, 1700000000000L);
+        metadata.setContentType(MediaType.IMAGE_PNG_VALUE);
+        when(imageService.loadImage(IMAGE_PATH)).thenReturn(new ByteArrayResource(IMAGE_BYTES));
+        when(imageService.getImageMetadata(IMAGE_PATH)).thenReturn(metadata);
+
+        mockMvc.perform(get(IMAGE_PATH))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.IMAGE_PNG))
+                .andExpect(header().longValue(HttpHeaders.CONTENT_LENGTH, 10L))
+                .andExpect(content().bytes(IMAGE_BYTES));
+    }
+
+    @Test
+    @WithMockUser
+    void getImage_width_servesVariant() throws Exception {
+        String variantPath = "/images/ads/img_1_w160.jpg";
+        byte[] variantBytes = {1, 2, 3};
+        when(imageService.resolveVariant(IMAGE_PATH, 150)).thenReturn(new ImageVariant(variantPath, 160, true));
+        when(imageService.loadImage(variantPath)).thenReturn(new ByteArrayResource(variantBytes));
+        when(imageService.determineMediaType(IMAGE_PATH)).thenReturn(MediaType.IMAGE_JPEG);
+        when(imageService.getImageMetadata(IMAGE_PATH))
+                .thenReturn(new ImageMetadata(IMAGE_PATH, IMAGE_HASH, 10L, 1700000000000L));
+
+        mockMvc.perform(get(IMAGE_PATH).param("w", "150"))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"" + IMAGE_HASH + "-w160\""))
+                .andExpect(header().string(HttpHeaders.CACHE_CONTROL, "max-age=31536000, public, immutable"))
+                .andExpect(content().bytes(variantBytes));
+    }
+
+    @Test
+    @WithMockUser
+    void getImage_width_pendingFallsBackToOriginal() throws Exception {
+        when(imageService.resolveVariant(IMAGE_PATH, 160)).thenReturn(ImageVariant.original(IMAGE_PATH, false));
+        when(imageService.loadImage(IMAGE_PATH)).thenReturn(new ByteArrayResource(IMAGE_BYTES));
+        when(imageService.determineMediaType(IMAGE_PATH)).thenReturn(MediaType.IMAGE_JPEG);
+
+        mockMvc.perform(get(IMAGE_PATH).param("w", "160"))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.CACHE_CONTROL, "max-age=60, public"))
+                .andExpect(content().bytes(IMAGE_BYTES));
+    }
+
+    @Test
+    @WithMockUser
+    void negotiate_existingImage() throws Exception {
+        when(imageService.findImageByHash(IMAGE_HASH, "ads")).thenReturn(IMAGE_PATH);
+
+        mockMvc.perform(post("/images/negotiate")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"sha256\":\"" + IMAGE_HASH + "\",\"subfolder\":\"ads\"}"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.exists").value(true))
+                .andExpect(jsonPath("$.path").value(IMAGE_PATH));
+    }
+
+    @Test
+    @WithMockUser
+    void getImage_notFound() throws Exception {
+        when(imageService.loadImage(IMAGE_PATH)).thenThrow(new IOException("Изображение не найдено"));
+
+        mockMvc.perform(get(IMAGE_PATH))
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    @WithMockUser(roles = "ADMIN")
+    void getStorageReport_returnsSummary() throws Exception {
+        ImageTypeStatsDto jpeg = new ImageTypeStatsDto();
+        jpeg.setContentType(MediaType.IMAGE_JPEG_VALUE);
+        jpeg.setImages(2);
+        jpeg.setBytes(300);
+        jpeg.setReferences(3);
+        ImageStorageReportDto report = new ImageStorageReportDto();
+        report.setImages(2);
+        report.setBytes(300);
+        report.setReferences(3);
+        report.setByType(List.of(jpeg));
+        when(imageService.getStorageReport()).thenReturn(report);
+
+        mockMvc.perform(get("/images/report"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.bytes").value(300))
+                .andExpect(jsonPath("$.byType[0].contentType").value(MediaType.IMAGE_JPEG_VALUE))
+                .andExpect(jsonPath("$.byType[0].references").value(3));
+    }
+
+    @Test
+    @WithMockUser(username = "user@example.com")
+    void appendUpload_returnsNewOffset() throws Exception {
+        String uploadId = "3f2b8c1e-7a4d-4e55-9b0a-2c6d8e1f4a77";
+        when(uploadService.append(eq(uploadId), eq("user@example.com"), eq(4L), any()))
+                .thenReturn(14L);
+
+        mockMvc.perform(patch("/images/uploads/{id}", uploadId)
+                        .header("Upload-Offset", 4)
+                        .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                        .content(IMAGE_BYTES))
+                .andExpect(status().isNoContent())
+                .andExpect(header().string("Upload-Offset", "14"));
+    }
+}
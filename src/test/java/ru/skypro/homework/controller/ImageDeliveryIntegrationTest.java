@@ -0,0 +1,136 @@
+package ru.skypro.homework.controller;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.util.FileSystemUtils;
+import ru.skypro.homework.HomeworkApplication;
+import ru.skypro.homework.dto.Role;
+import ru.skypro.homework.entity.ImageMetadata;
+import ru.skypro.homework.entity.User;
+import ru.skypro.homework.repository.ImageMetadataRepository;
+import ru.skypro.homework.repository.UserRepository;
+import ru.skypro.homework.service.image.ContentHashUtils;
+import ru.skypro.homework.service.image.storage.ImageStorage;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Отдача изображения настоящим Tomcat: полный GET идёт неблокирующей записью,
+ * повторный запрос с условными заголовками получает 304 без тела
+ */
+@ActiveProfiles("test")
+@SpringBootTest(classes = HomeworkApplication.class, webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = {
+                "spring.jpa.show-sql=false",
+                "logging.level.org.springframework=WARN",
+                "logging.level.ru.skypro.homework=INFO"
+        })
+class ImageDeliveryIntegrationTest {
+    private static final String IMAGE_PATH = "/images/ads/delivery.jpg";
+    private static final String EMAIL = "delivery@test.ru";
+    private static final String PASSWORD = "password";
+    private static final Path UPLOAD_DIR;
+
+    static {
+        try {
+            UPLOAD_DIR = Files.createTempDirectory("image-delivery");
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Autowired
+    private TestRestTemplate restTemplate;
+    @Autowired
+    private ImageStorage imageStorage;
+    @Autowired
+    private ImageMetadataRepository imageMetadataRepository;
+    @Autowired
+    private UserRepository userRepository;
+    @Autowired
+    private PasswordEncoder passwordEncoder;
+
+    private byte[] content;
+
+    @DynamicPropertySource
+    static void uploadDir(DynamicPropertyRegistry registry) {
+        registry.add("app.image.upload-dir", () -> UPLOAD_DIR.toString());
+    }
+
+    @BeforeEach
+    void setUp() throws IOException {
+        userRepository.save(new User(EMAIL, "Иван", "Иванов", "+79990000000", Role.USER, null,
+                passwordEncoder.encode(PASSWORD), true));
+
+        // Больше буфера сокета: ответ пишется несколькими порциями
+        content = new byte[512 * 1024];
+        ThreadLocalRandom.current().nextBytes(content);
+        Path temp = imageStorage.createTempFile("ads");
+        Files.write(temp, content);
+        imageStorage.store(IMAGE_PATH, temp);
+        String contentHash = ContentHashUtils.hashStream(new ByteArrayInputStream(content));
+        ImageMetadata metadata = new ImageMetadata(IMAGE_PATH, contentHash, (long) content.length, 1_700_000_000_000L);
+        metadata.setContentType("image/jpeg");
+        imageMetadataRepository.save(metadata);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        imageMetadataRepository.deleteById(IMAGE_PATH);
+        userRepository.findByEmail(EMAIL).ifPresent(userRepository::delete);
+        FileSystemUtils.deleteRecursively(UPLOAD_DIR.resolve("ads"));
+    }
+
+    @AfterAll
+    static void deleteUploadDir() throws IOException {
+        FileSystemUtils.deleteRecursively(UPLOAD_DIR);
+    }
+
+    @Test
+    void getImage_downloadsThenAnswersConditionalGetWith304() {
+        ResponseEntity<byte[]> full = get(new HttpHeaders());
+
+        assertThat(full.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(full.getBody()).isEqualTo(content);
+        assertThat(full.getHeaders().getContentLength()).isEqualTo(content.length);
+        String eTag = full.getHeaders().getETag();
+        assertThat(eTag).isNotNull();
+
+        HttpHeaders ifNoneMatch = new HttpHeaders();
+        ifNoneMatch.setIfNoneMatch(eTag);
+        ResponseEntity<byte[]> notModified = get(ifNoneMatch);
+
+        assertThat(notModified.getStatusCode()).isEqualTo(HttpStatus.NOT_MODIFIED);
+        assertThat(notModified.getBody()).isNull();
+        assertThat(notModified.getHeaders().getETag()).isEqualTo(eTag);
+
+        HttpHeaders ifModifiedSince = new HttpHeaders();
+        ifModifiedSince.setIfModifiedSince(full.getHeaders().getLastModified());
+        assertThat(get(ifModifiedSince).getStatusCode()).isEqualTo(HttpStatus.NOT_MODIFIED);
+    }
+
+    private ResponseEntity<byte[]> get(HttpHeaders headers) {
+        return restTemplate.withBasicAuth(EMAIL, PASSWORD)
+                .exchange(IMAGE_PATH, HttpMethod.GET, new HttpEntity<>(headers), byte[].class);
+    }
+}
@@ -15,6 +15,8 @@ import ru.skypro.homework.config.TestSecurityConfig;
 import ru.skypro.homework.dto.NewPasswordDto;
 import ru.skypro.homework.dto.UpdateUserDto;
 import ru.skypro.homework.dto.UserDto;
+import ru.skypro.homework.service.image.StorageQuotaService;
+import ru.skypro.homework.service.image.StreamedImageFile;
 import ru.skypro.homework.service.user.UserService;
 
 
@@ -37,6 +39,9 @@ class UsersControllerTest {
     @MockBean
     private UserService userService;
 
+    @MockBean
+    private StorageQuotaService storageQuota;
+
     @Test
     @WithMockUser
     void setPassword_ok() throws Exception {
@@ -123,6 +128,42 @@ class UsersControllerTest {
         verify(userService).updateUserImage(anyString(), any(MultipartFile.class));
     }
 
+    @Test
+    @WithMockUser
+    void updateAvatar_rawBody_ok() throws Exception {
+        doNothing().when(userService).updateUserImage(anyString(), any(MultipartFile.class));
+
+        mockMvc.perform(patch("/users/me/image")
+                        .contentType(MediaType.IMAGE_JPEG)
+                        .content(new byte[]{(byte) 0xFF, (byte) 0xD8, (byte) 0xFF, 1}))
+                .andExpect(status().isOk());
+
+        verify(userService).updateUserImage(anyString(), any(StreamedImageFile.class));
+    }
+
+    @Test
+    @WithMockUser(username = "admin@mail.com", roles = "ADMIN")
+    void deleteUser_asAdmin_accepted() throws Exception {
+        doNothing().when(userService).deleteUser(5, "admin@mail.com");
+
+        mockMvc.perform(delete("/users/{id}", 5))
+                .andExpect(status().isAccepted());
+
+        verify(userService).deleteUser(5, "admin@mail.com");
+    }
+
+    @Test
+    @WithMockUser(username = "user@example.com")
+    void getStorage_returnsUsageAndQuota() throws Exception {
+        when(storageQuota.getUsedBytes("user@example.com")).thenReturn(5_242_880L);
+        when(storageQuota.getMaxBytesPerUser()).thenReturn(524_288_000L);
+
+        mockMvc.perform(get("/users/me/storage"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.usedBytes").value(5_242_880L))
+                .andExpect(jsonPath("$.quotaBytes").value(524_288_000L));
+    }
+
     @Test
     void setPassword_unauthorized() throws Exception {
         NewPasswordDto dto = new NewPasswordDto();
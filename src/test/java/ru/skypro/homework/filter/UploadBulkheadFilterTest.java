@@ -0,0 +1,148 @@
+package ru.skypro.homework.filter;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class UploadBulkheadFilterTest {
+
+    private final CountDownLatch finish = new CountDownLatch(1);
+    private final List<Thread> holders = new ArrayList<>();
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        finish.countDown();
+        for (Thread holder : holders) {
+            holder.join();
+        }
+    }
+
+    @Test
+    void perUserLimit_rejectsWith429AndRetryAfter() throws Exception {
+        UploadBulkheadFilter filter = filter(4, 4, Duration.ofSeconds(1), 1);
+        hold(filter, "alice");
+
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        MockFilterChain chain = new MockFilterChain();
+        filter.doFilter(upload("alice"), response, chain);
+
+        assertThat(response.getStatus()).isEqualTo(HttpStatus.TOO_MANY_REQUESTS.value());
+        assertThat(response.getHeader(HttpHeaders.RETRY_AFTER)).isEqualTo("5");
+        assertThat(chain.getRequest()).isNull();
+
+        // Другой пользователь проходит
+        MockHttpServletResponse other = new MockHttpServletResponse();
+        filter.doFilter(upload("bob"), other, new MockFilterChain());
+        assertThat(other.getStatus()).isEqualTo(HttpStatus.OK.value());
+    }
+
+    @Test
+    void fullQueue_rejectsWith503AndRetryAfter() throws Exception {
+        UploadBulkheadFilter filter = filter(1, 0, Duration.ofSeconds(1), 4);
+        hold(filter, "alice");
+
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        MockFilterChain chain = new MockFilterChain();
+        filter.doFilter(upload("bob"), response, chain);
+
+        assertThat(response.getStatus()).isEqualTo(HttpStatus.SERVICE_UNAVAILABLE.value());
+        assertThat(response.getHeader(HttpHeaders.RETRY_AFTER)).isEqualTo("5");
+        assertThat(chain.getRequest()).isNull();
+    }
+
+    @Test
+    void waitTimeout_rejectsWith503() throws Exception {
+        UploadBulkheadFilter filter = filter(1, 1, Duration.ofMillis(50), 4);
+        hold(filter, "alice");
+
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        filter.doFilter(upload("bob"), response, new MockFilterChain());
+
+        assertThat(response.getStatus()).isEqualTo(HttpStatus.SERVICE_UNAVAILABLE.value());
+        assertThat(response.getHeader(HttpHeaders.RETRY_AFTER)).isEqualTo("5");
+    }
+
+    @Test
+    void failingChain_releasesPermit() throws Exception {
+        UploadBulkheadFilter filter = filter(1, 0, Duration.ofSeconds(1), 1);
+        FilterChain failing = (request, response) -> {
+            throw new ServletException("ошибка обработки");
+        };
+
+        assertThatThrownBy(() -> filter.doFilter(upload("alice"), new MockHttpServletResponse(), failing))
+                .isInstanceOf(ServletException.class);
+
+        // И общее место, и место пользователя освобождены
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        MockFilterChain chain = new MockFilterChain();
+        filter.doFilter(upload("alice"), response, chain);
+        assertThat(response.getStatus()).isEqualTo(HttpStatus.OK.value());
+        assertThat(chain.getRequest()).isNotNull();
+    }
+
+    @Test
+    void nonUploadRequest_passesThrough() throws Exception {
+        UploadBulkheadFilter filter = filter(1, 0, Duration.ofSeconds(1), 1);
+        hold(filter, "alice");
+
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", "/ads/1/comments");
+        request.setRemoteUser("alice");
+        request.setContentType("application/json");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        MockFilterChain chain = new MockFilterChain();
+        filter.doFilter(request, response, chain);
+
+        assertThat(response.getStatus()).isEqualTo(HttpStatus.OK.value());
+        assertThat(chain.getRequest()).isSameAs(request);
+    }
+
+    private static UploadBulkheadFilter filter(int maxConcurrent, int maxQueue, Duration maxWait, int maxPerUser) {
+        return new UploadBulkheadFilter(maxConcurrent, maxQueue, maxWait, maxPerUser, Duration.ofSeconds(5),
+                new SimpleMeterRegistry());
+    }
+
+    private static MockHttpServletRequest upload(String user) {
+        MockHttpServletRequest request = new MockHttpServletRequest("PATCH", "/ads/1/image");
+        request.setRemoteUser(user);
+        request.setContentType("multipart/form-data; boundary=x");
+        return request;
+    }
+
+    // Загрузка, которая занимает место до конца теста
+    private void hold(UploadBulkheadFilter filter, String user) throws InterruptedException {
+        CountDownLatch entered = new CountDownLatch(1);
+        Thread holder = new Thread(() -> {
+            try {
+                filter.doFilter(upload(user), new MockHttpServletResponse(), (request, response) -> {
+                    entered.countDown();
+                    try {
+                        finish.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        holders.add(holder);
+        holder.start();
+        assertThat(entered.await(5, TimeUnit.SECONDS)).isTrue();
+    }
+}
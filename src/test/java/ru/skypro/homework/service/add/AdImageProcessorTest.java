@@ -0,0 +1,54 @@
+package ru.skypro.homework.service.add;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.core.task.SyncTaskExecutor;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import ru.skypro.homework.dto.AdStatus;
+import ru.skypro.homework.entity.Ad;
+import ru.skypro.homework.repository.AdRepository;
+import ru.skypro.homework.service.image.ImageService;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class AdImageProcessorTest {
+    private static final int AD_ID = 7;
+    private static final String IMAGE_PATH = "/images/ads/abc.jpg";
+
+    @TempDir
+    Path spool;
+
+    private final AdRepository adRepository = mock(AdRepository.class);
+    private final ImageService imageService = mock(ImageService.class);
+
+    @Test
+    void resumePending_chargesAdAuthor() throws IOException {
+        AdImageProcessor processor = new AdImageProcessor(adRepository, imageService, new SyncTaskExecutor(),
+                mock(PlatformTransactionManager.class), spool.toString());
+        ReflectionTestUtils.setField(processor, "retryPauseMs", 0L);
+        Path pending = Files.write(spool.resolve(AD_ID + ".upload"), new byte[]{1, 2, 3});
+        Ad ad = new Ad();
+        ad.setStatus(AdStatus.PROCESSING);
+        when(adRepository.findById(AD_ID)).thenReturn(Optional.of(ad));
+        when(adRepository.findAuthorEmailById(AD_ID)).thenReturn(Optional.of("author@mail.ru"));
+        when(imageService.saveImage(any(), eq("ads"), eq("author@mail.ru"))).thenReturn(IMAGE_PATH);
+        when(adRepository.completeProcessing(eq(AD_ID), eq(IMAGE_PATH), any())).thenReturn(1);
+
+        processor.resumePending();
+
+        // Место на диске записано на автора объявления, а не оставлено до сверки квот
+        verify(imageService).saveImage(any(), eq("ads"), eq("author@mail.ru"));
+        assertThat(pending).doesNotExist();
+    }
+}
@@ -0,0 +1,41 @@
+package ru.skypro.homework.service.add;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.test.util.ReflectionTestUtils;
+import ru.skypro.homework.repository.AdImageRepository;
+import ru.skypro.homework.repository.AdRepository;
+import ru.skypro.homework.repository.ArchivedCommentRepository;
+import ru.skypro.homework.repository.CommentRepository;
+import ru.skypro.homework.service.image.ImageService;
+
+import java.util.List;
+
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class AdPurgeJobTest {
+    private final AdRepository adRepository = mock(AdRepository.class);
+    private final AdImageRepository adImageRepository = mock(AdImageRepository.class);
+    private final CommentRepository commentRepository = mock(CommentRepository.class);
+    private final ArchivedCommentRepository archivedCommentRepository = mock(ArchivedCommentRepository.class);
+
+    @Test
+    void purgeDeletedAds_failedAdDoesNotStopTheRest() {
+        AdPurgeJob job = new AdPurgeJob(adRepository, adImageRepository, commentRepository,
+                archivedCommentRepository, mock(ImageService.class));
+        ReflectionTestUtils.setField(job, "adsPerRun", 10);
+        ReflectionTestUtils.setField(job, "chunkSize", 100);
+        when(adRepository.findDeletedIds(10)).thenReturn(List.of(1, 2));
+        doThrow(new DataIntegrityViolationException("fk")).when(adRepository).deleteById(1);
+
+        job.purgeDeletedAds();
+
+        verify(commentRepository).deleteChunkByAdId(eq(2), anyInt());
+        verify(adRepository).deleteById(2);
+    }
+}
@@ -0,0 +1,126 @@
+package ru.skypro.homework.service.comment;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import ru.skypro.homework.dto.CommentDto;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CommentPageCacheTest {
+
+    private final CommentPageCache cache = new CommentPageCache(3, 5, Duration.ofMinutes(1), new SimpleMeterRegistry());
+
+    @Test
+    void put_keepsLoadWhenOtherAdChanged() {
+        long version = cache.version(1);
+        // Пока страница объявления 1 читалась из БД, изменилось объявление 2
+        cache.append(2, comment(10, 7));
+
+        cache.put(1, List.of(comment(1, 7)), true, version);
+
+        assertThat(cache.getAll(1)).extracting(CommentDto::getPk).containsExactly(1);
+    }
+
+    @Test
+    void put_dropsLoadWhenSameAdChanged() {
+        long version = cache.version(1);
+        cache.append(1, comment(2, 7));
+
+        cache.put(1, List.of(comment(1, 7)), true, version);
+
+        assertThat(cache.getAll(1)).isNull();
+    }
+
+    @Test
+    void put_dropsLoadAfterEvict() {
+        long version = cache.version(1);
+        cache.evict(1);
+
+        cache.put(1, List.of(comment(1, 7)), true, version);
+
+        assertThat(cache.getAll(1)).isNull();
+    }
+
+    @Test
+    void put_dropsLoadAfterAuthorChange() {
+        long version = cache.version(1);
+        cache.evictAuthor(7);
+
+        cache.put(1, List.of(comment(1, 7)), true, version);
+
+        assertThat(cache.getAll(1)).isNull();
+    }
+
+    @Test
+    void put_dropsLoadWhenVersionOfAdWasForgotten() {
+        long version = cache.version(1);
+        cache.append(1, comment(2, 7));
+        // Версия объявления 1 вытесняется изменениями других объявлений
+        for (int adId = 2; adId <= 10; adId++) {
+            cache.append(adId, comment(adId * 10, 7));
+        }
+
+        cache.put(1, List.of(comment(1, 7)), true, version);
+
+        assertThat(cache.getAll(1)).isNull();
+    }
+
+    @Test
+    void append_updatesCachedPageInPlace() {
+        cache.put(1, List.of(comment(1, 7)), true, cache.version(1));
+
+        cache.append(1, comment(2, 8));
+        cache.remove(1, 1);
+
+        assertThat(cache.getAll(1)).extracting(CommentDto::getPk).containsExactly(2);
+    }
+
+    @Test
+    void put_keepsNewestPageOfLongThread() {
+        cache.put(1, List.of(comment(7, 1), comment(6, 1), comment(5, 1), comment(4, 1), comment(3, 1),
+                comment(2, 1), comment(1, 1)), true, cache.version(1));
+
+        // Ветка длиннее записи: целиком не отдаётся, первая страница - из кэша
+        assertThat(cache.getAll(1)).isNull();
+        assertThat(cache.getNewest(1, 3)).extracting(CommentDto::getPk).containsExactly(7, 6, 5);
+        assertThat(cache.getNewest(1, 5)).extracting(CommentDto::getPk).containsExactly(7, 6, 5, 4, 3);
+        assertThat(cache.getNewest(1, 6)).isNull();
+
+        cache.append(1, comment(8, 1));
+
+        assertThat(cache.getNewest(1, 5)).extracting(CommentDto::getPk).containsExactly(8, 7, 6, 5, 4);
+    }
+
+    @Test
+    void append_toFullThreadKeepsNewestPage() {
+        cache.put(1, List.of(comment(5, 1), comment(4, 1), comment(3, 1), comment(2, 1), comment(1, 1)),
+                true, cache.version(1));
+        assertThat(cache.getAll(1)).extracting(CommentDto::getPk).containsExactly(1, 2, 3, 4, 5);
+
+        cache.append(1, comment(6, 1));
+
+        assertThat(cache.getAll(1)).isNull();
+        assertThat(cache.getNewest(1, 5)).extracting(CommentDto::getPk).containsExactly(6, 5, 4, 3, 2);
+    }
+
+    @Test
+    void get_expiredEntryIsMiss() {
+        // Изменения с других узлов сюда не приходят: запись живёт не дольше ttl
+        CommentPageCache expiring = new CommentPageCache(3, 5, Duration.ZERO, new SimpleMeterRegistry());
+        expiring.put(1, List.of(comment(1, 7)), true, expiring.version(1));
+
+        assertThat(expiring.getNewest(1, 1)).isNull();
+        assertThat(expiring.size()).isZero();
+    }
+
+    private static CommentDto comment(int pk, int author) {
+        CommentDto comment = new CommentDto();
+        comment.setPk(pk);
+        comment.setAuthor(author);
+        comment.setText("Комментарий " + pk);
+        return comment;
+    }
+}
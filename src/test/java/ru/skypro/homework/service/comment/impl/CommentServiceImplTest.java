@@ -0,0 +1,212 @@
+package ru.skypro.homework.service.comment.impl;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+import ru.skypro.homework.dto.CommentDto;
+import ru.skypro.homework.dto.CreateOrUpdateCommentDto;
+import ru.skypro.homework.dto.Role;
+import ru.skypro.homework.entity.ArchivedComment;
+import ru.skypro.homework.entity.Comment;
+import ru.skypro.homework.entity.User;
+import ru.skypro.homework.exception.CommentAccessDeniedException;
+import ru.skypro.homework.mappers.CommentMapper;
+import ru.skypro.homework.repository.AdRepository;
+import ru.skypro.homework.repository.ArchivedCommentRepository;
+import ru.skypro.homework.repository.CommentRepository;
+import ru.skypro.homework.repository.UserRepository;
+import ru.skypro.homework.service.comment.CommentPageCache;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class CommentServiceImplTest {
+    private static final int AD_ID = 1;
+
+    private final CommentRepository commentRepository = mock(CommentRepository.class);
+    private final AdRepository adRepository = mock(AdRepository.class);
+    private final ArchivedCommentRepository archivedCommentRepository = mock(ArchivedCommentRepository.class);
+    private final UserRepository userRepository = mock(UserRepository.class);
+    private final CommentMapper commentMapper = mock(CommentMapper.class);
+    private final CommentPageCache commentPageCache = new CommentPageCache(10, 50, Duration.ofMinutes(1), new SimpleMeterRegistry());
+
+    private CommentServiceImpl service;
+
+    @BeforeEach
+    void setUp() {
+        service = new CommentServiceImpl(commentRepository, adRepository, userRepository, commentMapper,
+                commentPageCache, archivedCommentRepository);
+        Comment comment = new Comment();
+        comment.setId(5);
+        when(commentRepository.findByAdIdOrderByCreatedAtAscIdAsc(AD_ID)).thenReturn(List.of(comment));
+        when(commentMapper.commentToCommentDto(any(Comment.class))).thenAnswer(invocation -> {
+            CommentDto dto = new CommentDto();
+            dto.setPk(invocation.<Comment>getArgument(0).getId());
+            return dto;
+        });
+        when(commentMapper.archivedCommentToCommentDto(any(ArchivedComment.class))).thenAnswer(invocation -> {
+            CommentDto dto = new CommentDto();
+            dto.setPk(invocation.<ArchivedComment>getArgument(0).getId());
+            return dto;
+        });
+    }
+
+    @Test
+    void addComment_adDeletedUnderLock_notFoundWithoutInsert() {
+        // Удаление держало строку объявления; после его фиксации выборка под блокировкой пуста
+        when(adRepository.findForShare(AD_ID)).thenReturn(Optional.empty());
+        CreateOrUpdateCommentDto dto = new CreateOrUpdateCommentDto();
+        dto.setText("Комментарий");
+
+        assertThatThrownBy(() -> service.addComment(AD_ID, dto, "user@mail.ru"))
+                .isInstanceOf(ResponseStatusException.class)
+                .extracting(e -> ((ResponseStatusException) e).getStatus())
+                .isEqualTo(HttpStatus.NOT_FOUND);
+        verify(commentRepository, never()).save(any());
+    }
+
+    @Test
+    void getCommentsByAdId_secondCallServedFromCacheWithoutDb() {
+        when(adRepository.existsByIdAndDeletedFalse(AD_ID)).thenReturn(true);
+
+        service.getCommentsByAdId(AD_ID);
+        List<CommentDto> comments = service.getCommentsByAdId(AD_ID);
+        List<CommentDto> firstPage = service.getCommentsByAdId(AD_ID, 0, 20);
+
+        assertThat(comments).extracting(CommentDto::getPk).containsExactly(5);
+        assertThat(firstPage).extracting(CommentDto::getPk).containsExactly(5);
+        verify(commentRepository, times(1)).findByAdIdOrderByCreatedAtAscIdAsc(AD_ID);
+        verify(adRepository, times(1)).existsByIdAndDeletedFalse(AD_ID);
+    }
+
+    @Test
+    void getCommentsByAdId_unpagedIncludesArchiveLikePaged() {
+        when(adRepository.existsByIdAndDeletedFalse(AD_ID)).thenReturn(true);
+        Comment hot = new Comment();
+        hot.setId(5);
+        ArchivedComment first = archived(1);
+        ArchivedComment second = archived(2);
+        when(archivedCommentRepository.findByAdIdOrderByCreatedAtAscIdAsc(AD_ID)).thenReturn(List.of(first, second));
+        when(commentRepository.countByAdId(AD_ID)).thenReturn(1L);
+        when(commentRepository.findPageByAdId(AD_ID, 50, 0)).thenReturn(List.of(hot));
+        when(archivedCommentRepository.findPageByAdId(AD_ID, 49, 0)).thenReturn(List.of(second, first));
+
+        List<CommentDto> all = service.getCommentsByAdId(AD_ID);
+        commentPageCache.evict(AD_ID);
+        List<CommentDto> page = service.getCommentsByAdId(AD_ID, 0, 10);
+
+        // Без страниц - от старых к новым, постранично - от новых к старым; набор один и тот же
+        assertThat(all).extracting(CommentDto::getPk).containsExactly(1, 2, 5);
+        assertThat(page).extracting(CommentDto::getPk).containsExactly(5, 2, 1);
+    }
+
+    @Test
+    void getCommentsByAdId_firstPageOfLongThreadCached() {
+        when(adRepository.existsByIdAndDeletedFalse(AD_ID)).thenReturn(true);
+        List<Comment> newest = new ArrayList<>();
+        for (int id = 100; id > 50; id--) {
+            Comment comment = new Comment();
+            comment.setId(id);
+            newest.add(comment);
+        }
+        when(commentRepository.countByAdId(AD_ID)).thenReturn(100L);
+        when(commentRepository.findPageByAdId(AD_ID, 50, 0)).thenReturn(newest);
+
+        service.getCommentsByAdId(AD_ID, 0, 20);
+        List<CommentDto> page = service.getCommentsByAdId(AD_ID, 0, 20);
+
+        assertThat(page).hasSize(20).extracting(CommentDto::getPk).startsWith(100, 99);
+        verify(commentRepository, times(1)).findPageByAdId(AD_ID, 50, 0);
+    }
+
+    @Test
+    void updateComment_archivedCommentEditedInArchive() {
+        ArchivedComment comment = archivedBy(7, "author@mail.ru");
+        when(commentRepository.findById(7)).thenReturn(Optional.empty());
+        when(archivedCommentRepository.findById(7)).thenReturn(Optional.of(comment));
+        when(archivedCommentRepository.save(comment)).thenReturn(comment);
+        when(userRepository.findByEmail("author@mail.ru")).thenReturn(Optional.of(comment.getAuthor()));
+        CreateOrUpdateCommentDto update = new CreateOrUpdateCommentDto();
+        update.setText("исправленный текст");
+
+        CommentDto dto = service.updateComment(7, update, "author@mail.ru");
+
+        assertThat(dto.getPk()).isEqualTo(7);
+        assertThat(comment.getText()).isEqualTo("исправленный текст");
+        verify(archivedCommentRepository).save(comment);
+    }
+
+    @Test
+    void updateComment_archivedCommentOfAnotherUserForbidden() {
+        ArchivedComment comment = archivedBy(7, "author@mail.ru");
+        User other = user("other@mail.ru", Role.USER);
+        when(commentRepository.findById(7)).thenReturn(Optional.empty());
+        when(archivedCommentRepository.findById(7)).thenReturn(Optional.of(comment));
+        when(userRepository.findByEmail("other@mail.ru")).thenReturn(Optional.of(other));
+        CreateOrUpdateCommentDto update = new CreateOrUpdateCommentDto();
+        update.setText("чужой текст");
+
+        assertThatThrownBy(() -> service.updateComment(7, update, "other@mail.ru"))
+                .isInstanceOf(CommentAccessDeniedException.class);
+        verify(archivedCommentRepository, never()).save(any());
+    }
+
+    @Test
+    void deleteComment_archivedCommentRemovedFromArchiveAndCache() {
+        when(adRepository.existsByIdAndDeletedFalse(AD_ID)).thenReturn(true);
+        ArchivedComment comment = archivedBy(7, "author@mail.ru");
+        when(archivedCommentRepository.findByAdIdOrderByCreatedAtAscIdAsc(AD_ID)).thenReturn(List.of(comment));
+        when(commentRepository.findById(7)).thenReturn(Optional.empty());
+        when(archivedCommentRepository.findById(7)).thenReturn(Optional.of(comment));
+        when(userRepository.findByEmail("author@mail.ru")).thenReturn(Optional.of(comment.getAuthor()));
+        service.getCommentsByAdId(AD_ID);
+
+        service.deleteComment(7, "author@mail.ru");
+
+        verify(archivedCommentRepository).delete(comment);
+        assertThat(service.getCommentsByAdId(AD_ID)).extracting(CommentDto::getPk).containsExactly(5);
+    }
+
+    @Test
+    void deleteComment_missingEverywhereIsNotFound() {
+        when(commentRepository.findById(7)).thenReturn(Optional.empty());
+        when(archivedCommentRepository.findById(7)).thenReturn(Optional.empty());
+
+        assertThatThrownBy(() -> service.deleteComment(7, "author@mail.ru"))
+                .isInstanceOfSatisfying(ResponseStatusException.class,
+                        e -> assertThat(e.getStatus()).isEqualTo(HttpStatus.NOT_FOUND));
+    }
+
+    private static ArchivedComment archivedBy(int id, String email) {
+        ArchivedComment comment = archived(id);
+        comment.setAuthor(user(email, Role.USER));
+        return comment;
+    }
+
+    private static User user(String email, Role role) {
+        User user = new User();
+        user.setEmail(email);
+        user.setRole(role);
+        return user;
+    }
+
+    private static ArchivedComment archived(int id) {
+        ArchivedComment comment = new ArchivedComment();
+        comment.setId(id);
+        comment.setAdId(AD_ID);
+        return comment;
+    }
+}
@@ -0,0 +1,146 @@
+package ru.skypro.homework.service.image;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.Resource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class HotImageCacheTest {
+
+    @Test
+    void load_cachesSecondRequest() throws IOException {
+        HotImageCache cache = new HotImageCache(1024, 512, new SimpleMeterRegistry());
+        AtomicInteger opened = new AtomicInteger();
+
+        cache.load("/images/ads/a.jpg", counting(opened, 100));
+        Resource second = cache.load("/images/ads/a.jpg", counting(opened, 100));
+
+        assertThat(opened).hasValue(1);
+        assertThat(second).isInstanceOf(HotImageCache.ByteBufferResource.class);
+        assertThat(cache.residentBytes()).isEqualTo(100);
+    }
+
+    @Test
+    void load_invalidatedWhileReading_isNotCached() throws IOException {
+        HotImageCache cache = new HotImageCache(1024, 512, new SimpleMeterRegistry());
+        String key = "/images/ads/a.jpg";
+
+        // Файл заменили, пока он читался: прочитанное содержимое устарело
+        cache.load(key, () -> {
+            cache.invalidate(key);
+            return new ByteArrayResource(new byte[100]);
+        });
+
+        assertThat(cache.residentBytes()).isZero();
+        AtomicInteger opened = new AtomicInteger();
+        cache.load(key, counting(opened, 100));
+        assertThat(opened).hasValue(1);
+    }
+
+    @Test
+    void load_rarelyRequestedFileIsNotAdmittedWhenFull() throws IOException {
+        HotImageCache cache = new HotImageCache(300, 512, new SimpleMeterRegistry());
+        for (int i = 0; i < 3; i++) {
+            for (int hit = 0; hit < 5; hit++) {
+                cache.load("/images/ads/hot" + i + ".jpg", counting(new AtomicInteger(), 100));
+            }
+        }
+
+        ByteArrayResource cold = new ByteArrayResource(new byte[100]);
+        Resource served = cache.load("/images/ads/cold.jpg", () -> cold);
+
+        // Отдаётся ресурс хранилища как есть, в кэш файл не копируется
+        assertThat(served).isSameAs(cold);
+        assertThat(cache.residentBytes()).isEqualTo(300);
+    }
+
+    @Test
+    void load_staysWithinBudgetWhileEvicting() throws IOException {
+        HotImageCache cache = new HotImageCache(1000, 512, new SimpleMeterRegistry());
+        for (int i = 0; i < 200; i++) {
+            String key = "/images/ads/" + i + ".jpg";
+            cache.load(key, counting(new AtomicInteger(), 100));
+            cache.load(key, counting(new AtomicInteger(), 100));
+            assertThat(cache.residentBytes()).isLessThanOrEqualTo(1000);
+        }
+        for (int i = 0; i < 200; i++) {
+            cache.invalidate("/images/ads/" + i + ".jpg");
+        }
+        assertThat(cache.residentBytes()).isZero();
+    }
+
+    @Test
+    void cachedResource_readsSameBytes() throws IOException {
+        HotImageCache cache = new HotImageCache(1024, 512, new SimpleMeterRegistry());
+        byte[] content = new byte[200];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) i;
+        }
+
+        Resource resource = cache.load("/images/ads/a.jpg", () -> new ByteArrayResource(content));
+
+        try (InputStream in = resource.getInputStream()) {
+            assertThat(in.readAllBytes()).isEqualTo(content);
+        }
+    }
+
+    @Test
+    void load_concurrentMissesOfNonAdmittedFileOpenSourceOnce() throws Exception {
+        // Файл крупнее max-entry-bytes в кэш не попадает, но открывается один раз
+        HotImageCache cache = new HotImageCache(1024, 64, new SimpleMeterRegistry());
+        AtomicInteger opened = new AtomicInteger();
+        CountDownLatch firstOpening = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ByteArrayResource large = new ByteArrayResource(new byte[100]);
+        HotImageCache.Source slow = () -> {
+            opened.incrementAndGet();
+            firstOpening.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return large;
+        };
+
+        ExecutorService threads = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Resource>> loads = new ArrayList<>();
+            loads.add(threads.submit(() -> cache.load("/images/ads/big.jpg", slow)));
+            firstOpening.await();
+            for (int i = 0; i < 3; i++) {
+                loads.add(threads.submit(() -> cache.load("/images/ads/big.jpg", slow)));
+            }
+            // ожидающие успевают встать на уже идущее открытие
+            Thread.sleep(100);
+            release.countDown();
+
+            for (Future<Resource> load : loads) {
+                assertThat(load.get()).isSameAs(large);
+            }
+            assertThat(opened).hasValue(1);
+            assertThat(cache.residentBytes()).isZero();
+        } finally {
+            threads.shutdownNow();
+        }
+    }
+
+    private static HotImageCache.Source counting(AtomicInteger opened, int size) {
+        return () -> {
+            opened.incrementAndGet();
+            return new ByteArrayResource(new byte[size]);
+        };
+    }
+}
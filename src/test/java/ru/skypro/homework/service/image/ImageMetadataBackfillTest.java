@@ -0,0 +1,152 @@
+package ru.skypro.homework.service.image;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import ru.skypro.homework.dto.Role;
+import ru.skypro.homework.entity.ImageMetadata;
+import ru.skypro.homework.entity.User;
+import ru.skypro.homework.repository.AdImageRepository;
+import ru.skypro.homework.repository.AdRepository;
+import ru.skypro.homework.repository.ImageMetadataRepository;
+import ru.skypro.homework.repository.UserRepository;
+import ru.skypro.homework.service.image.storage.FileSystemImageStorage;
+import ru.skypro.homework.service.image.storage.ImageStorageLayout;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@ActiveProfiles("test")
+@DataJpaTest(properties = {
+        "spring.jpa.show-sql=false",
+        "logging.level.org.springframework=WARN",
+        "logging.level.ru.skypro.homework=INFO"
+})
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class ImageMetadataBackfillTest {
+    private static final String LEGACY_PATH = "/images/ads/img_1_2.png";
+
+    @Autowired
+    private ImageMetadataRepository imageMetadataRepository;
+    @Autowired
+    private AdRepository adRepository;
+    @Autowired
+    private AdImageRepository adImageRepository;
+    @Autowired
+    private UserRepository userRepository;
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @TempDir
+    Path dir;
+
+    private ImageStorageLayout layout;
+    private ImageMetadataBackfill backfill;
+
+    @BeforeEach
+    void setUp() {
+        layout = new ImageStorageLayout(dir.toString());
+        FileSystemImageStorage storage = new FileSystemImageStorage(layout);
+        storage.init();
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        ImageMetadataCache metadataCache = new ImageMetadataCache(100, registry);
+        ThumbnailGenerator thumbnails = new ThumbnailGenerator(task -> { }, storage, imageMetadataRepository,
+                metadataCache, transactionManager, new int[]{160, 480});
+        backfill = new ImageMetadataBackfill(imageMetadataRepository, adRepository, adImageRepository,
+                userRepository, storage, thumbnails, metadataCache, transactionManager);
+        ReflectionTestUtils.setField(backfill, "enabled", true);
+        ReflectionTestUtils.setField(backfill, "batchSize", 2);
+        ReflectionTestUtils.setField(backfill, "maxBatchesPerRun", 10);
+    }
+
+    @AfterEach
+    void tearDown() {
+        imageMetadataRepository.deleteAllInBatch();
+        userRepository.deleteAllInBatch();
+    }
+
+    @Test
+    void backfill_describesReferencedLegacyOriginalsOnly() throws IOException {
+        byte[] png = png();
+        write(LEGACY_PATH, png);
+        userWithImage(LEGACY_PATH);
+        // без ссылок: например, копия удалённого изображения на вернувшемся узле кластера
+        write("/images/ads/deleted.png", png);
+        write("/images/ads/img_1_2_w160.png", png);
+        write("/images/ads/known.png", png);
+        imageMetadataRepository.save(new ImageMetadata("/images/ads/known.png", "hash", 3L, 1L));
+
+        backfill.backfill();
+
+        ImageMetadata legacy = imageMetadataRepository.findById(LEGACY_PATH).orElseThrow();
+        assertThat(legacy.getContentHash()).isEqualTo(ContentHashUtils.toHex(ContentHashUtils.newDigest().digest(png)));
+        assertThat(legacy.getSize()).isEqualTo(png.length);
+        assertThat(legacy.getContentType()).isEqualTo("image/png");
+        assertThat(legacy.getRefCount()).isEqualTo(1);
+        assertThat(legacy.getVariants()).isEqualTo("160:" + png.length);
+        assertThat(imageMetadataRepository.existsById("/images/ads/img_1_2_w160.png")).isFalse();
+        assertThat(imageMetadataRepository.existsById("/images/ads/deleted.png")).isFalse();
+        assertThat(imageMetadataRepository.findById("/images/ads/known.png").orElseThrow().getContentHash())
+                .isEqualTo("hash");
+    }
+
+    @Test
+    void backfill_sniffsTypeOfRowsWrittenBeforeIt() throws IOException {
+        byte[] png = png();
+        // файл назван .jpg, но это PNG: тип по расширению был бы неверным
+        write("/images/ads/old.jpg", png);
+        imageMetadataRepository.save(new ImageMetadata("/images/ads/old.jpg", "hash", (long) png.length, 1L));
+        ImageMetadata described = new ImageMetadata("/images/ads/new.png", "hash2", 3L, 1L);
+        described.setContentType("image/png");
+        described.setVariants("160:3,480:3");
+        imageMetadataRepository.save(described);
+
+        backfill.backfill();
+
+        ImageMetadata old = imageMetadataRepository.findById("/images/ads/old.jpg").orElseThrow();
+        assertThat(old.getContentType()).isEqualTo("image/png");
+        // копий нет - строка остаётся генератору
+        assertThat(old.getVariants()).isNull();
+        assertThat(imageMetadataRepository.findById("/images/ads/new.png").orElseThrow().getVariants())
+                .isEqualTo("160:3,480:3");
+    }
+
+    private void userWithImage(String imagePath) {
+        User user = new User();
+        user.setEmail("legacy@mail.ru");
+        user.setFirstName("Иван");
+        user.setLastName("Иванов");
+        user.setPhone("+79990000000");
+        user.setRole(Role.USER);
+        user.setImage(imagePath);
+        userRepository.save(user);
+    }
+
+    private void write(String imagePath, byte[] content) throws IOException {
+        Path file = layout.resolve(imagePath);
+        Files.createDirectories(file.getParent());
+        Files.write(file, content);
+    }
+
+    private static byte[] png() throws IOException {
+        BufferedImage image = new BufferedImage(4, 4, BufferedImage.TYPE_INT_RGB);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", out);
+        return out.toByteArray();
+    }
+}
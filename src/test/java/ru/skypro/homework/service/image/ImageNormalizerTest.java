@@ -0,0 +1,165 @@
+package ru.skypro.homework.service.image;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.CRC32;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ImageNormalizerTest {
+
+    private static final int WIDTH = 40;
+    private static final int HEIGHT = 20;
+
+    @TempDir
+    Path dir;
+
+    private ImageNormalizer normalizer;
+
+    @BeforeEach
+    void setUp() {
+        normalizer = new ImageNormalizer(new SimpleAsyncTaskExecutor(), 2048, 50_000_000L, 0.85f, new SimpleMeterRegistry());
+    }
+
+    @Test
+    void normalize_rotatesByExifOrientation() throws IOException {
+        Path upload = write("upload.jpg", withApp1(encode("jpg"), exif(0x0000_0008L, 6)));
+
+        ImageNormalizer.Result result = normalizer.normalize(upload, ".jpg", dir.resolve("target"));
+
+        assertThat(result.isNormalized()).isTrue();
+        assertThat(result.getWidth()).isEqualTo(HEIGHT);
+        assertThat(result.getHeight()).isEqualTo(WIDTH);
+        BufferedImage stored = ImageIO.read(result.getFile().toFile());
+        assertThat(stored.getWidth()).isEqualTo(HEIGHT);
+        assertThat(stored.getHeight()).isEqualTo(WIDTH);
+    }
+
+    @Test
+    void normalize_malformedExif_keepsOrientation() throws IOException {
+        // Смещение IFD за пределами сегмента и "отрицательное" при чтении как int
+        for (long ifdOffset : new long[]{0x7FFF_FFF0L, 0xFFFF_FFF0L, 0x0000_0100L}) {
+            Path upload = write("bad-" + ifdOffset + ".jpg", withApp1(encode("jpg"), exif(ifdOffset, 6)));
+
+            ImageNormalizer.Result result = normalizer.normalize(upload, ".jpg", dir.resolve("target-" + ifdOffset));
+
+            assertThat(result.getWidth()).isEqualTo(WIDTH);
+            assertThat(result.getHeight()).isEqualTo(HEIGHT);
+        }
+    }
+
+    @Test
+    void normalize_truncatedExif_keepsOrientation() throws IOException {
+        // Заголовок TIFF есть, а записи IFD обрезаны
+        byte[] exif = exif(0x0000_0008L, 6);
+        byte[] truncated = new byte[exif.length - 10];
+        System.arraycopy(exif, 0, truncated, 0, truncated.length);
+        Path upload = write("truncated.jpg", withApp1(encode("jpg"), truncated));
+
+        ImageNormalizer.Result result = normalizer.normalize(upload, ".jpg", dir.resolve("target"));
+
+        assertThat(result.getWidth()).isEqualTo(WIDTH);
+        assertThat(result.getHeight()).isEqualTo(HEIGHT);
+    }
+
+    @Test
+    void normalize_gif_passesThrough() throws IOException {
+        Path upload = write("upload.gif", encode("gif"));
+
+        ImageNormalizer.Result result = normalizer.normalize(upload, ".gif", dir.resolve("target"));
+
+        assertThat(result.isNormalized()).isFalse();
+        assertThat(result.getFile()).isEqualTo(upload);
+        assertThat(result.getExtension()).isEqualTo(".gif");
+        assertThat(result.getWidth()).isEqualTo(WIDTH);
+        assertThat(result.getHeight()).isEqualTo(HEIGHT);
+    }
+
+    @Test
+    void normalize_stripsJpegExif() throws IOException {
+        Path upload = write("upload.jpg", withApp1(encode("jpg"), exif(0x0000_0008L, 1)));
+
+        ImageNormalizer.Result result = normalizer.normalize(upload, ".jpg", dir.resolve("target"));
+
+        assertThat(result.isNormalized()).isTrue();
+        assertThat(contains(Files.readAllBytes(result.getFile()), "Exif")).isFalse();
+    }
+
+    @Test
+    void normalize_stripsPngTextChunks() throws IOException {
+        Path upload = write("upload.png", withTextChunk(encode("png"), "GPS 55.75,37.61"));
+
+        ImageNormalizer.Result result = normalizer.normalize(upload, ".png", dir.resolve("target"));
+
+        assertThat(result.isNormalized()).isTrue();
+        assertThat(contains(Files.readAllBytes(result.getFile()), "tEXt")).isFalse();
+        assertThat(contains(Files.readAllBytes(result.getFile()), "GPS")).isFalse();
+    }
+
+    private Path write(String name, byte[] content) throws IOException {
+        return Files.write(dir.resolve(name), content);
+    }
+
+    private static byte[] encode(String format) throws IOException {
+        BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+        for (int x = 0; x < WIDTH; x++) {
+            for (int y = 0; y < HEIGHT; y++) {
+                image.setRGB(x, y, x < WIDTH / 2 ? 0xFF0000 : 0x0000FF);
+            }
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, format, out);
+        return out.toByteArray();
+    }
+
+    // Сегмент Exif с одной записью Orientation; ifdOffset - смещение IFD от начала TIFF
+    private static byte[] exif(long ifdOffset, int orientation) {
+        ByteBuffer buffer = ByteBuffer.allocate(6 + 8 + 2 + 12 + 4);
+        buffer.put("Exif".getBytes(StandardCharsets.US_ASCII)).put((byte) 0).put((byte) 0);
+        buffer.put((byte) 'M').put((byte) 'M').putShort((short) 42).putInt((int) ifdOffset);
+        buffer.putShort((short) 1);
+        buffer.putShort((short) 0x0112).putShort((short) 3).putInt(1).putShort((short) orientation).putShort((short) 0);
+        buffer.putInt(0);
+        return buffer.array();
+    }
+
+    // Вставляет APP1 сразу после SOI
+    private static byte[] withApp1(byte[] jpeg, byte[] payload) {
+        ByteBuffer buffer = ByteBuffer.allocate(jpeg.length + 4 + payload.length);
+        buffer.put(jpeg, 0, 2);
+        buffer.putShort((short) 0xFFE1).putShort((short) (payload.length + 2)).put(payload);
+        buffer.put(jpeg, 2, jpeg.length - 2);
+        return buffer.array();
+    }
+
+    // Вставляет блок tEXt сразу после IHDR (8 байт сигнатуры + 25 байт IHDR)
+    private static byte[] withTextChunk(byte[] png, String text) {
+        byte[] type = "tEXt".getBytes(StandardCharsets.US_ASCII);
+        byte[] data = ("Comment\0" + text).getBytes(StandardCharsets.ISO_8859_1);
+        CRC32 crc = new CRC32();
+        crc.update(type);
+        crc.update(data);
+        int split = 8 + 25;
+        ByteBuffer buffer = ByteBuffer.allocate(png.length + 12 + data.length);
+        buffer.put(png, 0, split);
+        buffer.putInt(data.length).put(type).put(data).putInt((int) crc.getValue());
+        buffer.put(png, split, png.length - split);
+        return buffer.array();
+    }
+
+    private static boolean contains(byte[] content, String marker) {
+        return new String(content, StandardCharsets.ISO_8859_1).contains(marker);
+    }
+}
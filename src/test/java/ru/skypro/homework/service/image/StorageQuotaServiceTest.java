@@ -0,0 +1,147 @@
+package ru.skypro.homework.service.image;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.util.unit.DataSize;
+import ru.skypro.homework.dto.Role;
+import ru.skypro.homework.entity.Ad;
+import ru.skypro.homework.entity.ImageMetadata;
+import ru.skypro.homework.entity.User;
+import ru.skypro.homework.entity.UserStorage;
+import ru.skypro.homework.repository.AdRepository;
+import ru.skypro.homework.repository.ImageMetadataRepository;
+import ru.skypro.homework.repository.UserRepository;
+import ru.skypro.homework.repository.UserStorageRepository;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Без общей транзакции теста: сервис сам фиксирует изменения, а два экземпляра изображают два узла
+@ActiveProfiles("test")
+@DataJpaTest(properties = {
+        "spring.jpa.show-sql=false",
+        "logging.level.org.springframework=WARN",
+        "logging.level.ru.skypro.homework=INFO"
+})
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class StorageQuotaServiceTest {
+    private static final String ALICE = "alice@test.ru";
+
+    @Autowired
+    private UserStorageRepository userStorageRepository;
+    @Autowired
+    private UserRepository userRepository;
+    @Autowired
+    private AdRepository adRepository;
+    @Autowired
+    private ImageMetadataRepository imageMetadataRepository;
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @AfterEach
+    void tearDown() {
+        adRepository.deleteAllInBatch();
+        userRepository.deleteAllInBatch();
+        imageMetadataRepository.deleteAllInBatch();
+        userStorageRepository.deleteAllInBatch();
+    }
+
+    @Test
+    void chargeAndRelease_updateCounterAndQuota() {
+        StorageQuotaService quota = node(DataSize.ofBytes(1000));
+
+        quota.charge(ALICE, 700);
+        assertThat(quota.hasRoom(ALICE, 300)).isTrue();
+        assertThat(quota.hasRoom(ALICE, 301)).isFalse();
+
+        quota.release(ALICE, 200);
+        assertThat(quota.getUsedBytes(ALICE)).isEqualTo(500);
+        assertThat(quota.hasRoom(ALICE, 0)).isTrue();
+
+        quota.flush();
+        assertThat(stored(ALICE)).isEqualTo(500);
+    }
+
+    @Test
+    void flush_addsChangesOfAllNodes() {
+        StorageQuotaService first = node(DataSize.ofMegabytes(1));
+        StorageQuotaService second = node(DataSize.ofMegabytes(1));
+
+        first.charge(ALICE, 100);
+        second.charge(ALICE, 30);
+        first.flush();
+        second.flush();
+        first.release(ALICE, 10);
+        first.flush();
+
+        assertThat(stored(ALICE)).isEqualTo(120);
+        // Каждый узел видит изменения другого после своего сброса
+        assertThat(first.getUsedBytes(ALICE)).isEqualTo(120);
+        second.flush();
+        assertThat(second.getUsedBytes(ALICE)).isEqualTo(120);
+    }
+
+    @Test
+    void reconcile_replacesCountersWithReferencedBytes() {
+        User alice = userRepository.save(new User(ALICE, "Алиса", "Иванова", "+79990000000", Role.USER,
+                "/images/avatars/alice.jpg", "password", true));
+        imageMetadataRepository.save(new ImageMetadata("/images/avatars/alice.jpg", "hash-a", 40L, 1L));
+        imageMetadataRepository.save(new ImageMetadata("/images/ads/cover.jpg", "hash-c", 500L, 1L));
+        Ad ad = new Ad();
+        ad.setAuthor(alice);
+        ad.setTitle("Велосипед");
+        ad.setPrice(1000);
+        ad.setDescription("Почти новый");
+        ad.setImageUrl("/images/ads/cover.jpg");
+        adRepository.save(ad);
+
+        StorageQuotaService first = node(DataSize.ofMegabytes(1));
+        StorageQuotaService second = node(DataSize.ofMegabytes(1));
+        // Расхождение: лишний учёт на одном узле и строка пользователя без ссылок
+        first.charge(ALICE, 9999);
+        second.charge("bob@test.ru", 77);
+        first.flush();
+        second.flush();
+
+        first.reconcile();
+
+        assertThat(stored(ALICE)).isEqualTo(540);
+        assertThat(stored("bob@test.ru")).isZero();
+        assertThat(first.getUsedBytes(ALICE)).isEqualTo(540);
+
+        // Изменение после сверки прибавляется к пересчитанному значению
+        second.charge(ALICE, 60);
+        second.flush();
+        assertThat(stored(ALICE)).isEqualTo(600);
+        assertThat(second.getUsedBytes(ALICE)).isEqualTo(600);
+    }
+
+    @Test
+    void reconcile_doesNotCountOwnChangesTwice() {
+        User alice = userRepository.save(new User(ALICE, "Алиса", "Иванова", "+79990000000", Role.USER,
+                "/images/avatars/alice.jpg", "password", true));
+        imageMetadataRepository.save(new ImageMetadata(alice.getImage(), "hash-a", 40L, 1L));
+        StorageQuotaService quota = node(DataSize.ofMegabytes(1));
+        // Ссылка уже в БД, а её учёт ещё не сброшен
+        quota.charge(ALICE, 40);
+
+        quota.reconcile();
+        quota.flush();
+
+        assertThat(stored(ALICE)).isEqualTo(40);
+        assertThat(quota.getUsedBytes(ALICE)).isEqualTo(40);
+    }
+
+    private StorageQuotaService node(DataSize maxBytesPerUser) {
+        return new StorageQuotaService(userStorageRepository, transactionManager, maxBytesPerUser);
+    }
+
+    private long stored(String username) {
+        return userStorageRepository.findById(username).map(UserStorage::getUsedBytes).orElse(0L);
+    }
+}
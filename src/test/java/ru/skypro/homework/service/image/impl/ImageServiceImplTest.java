@@ -0,0 +1,195 @@
+package ru.skypro.homework.service.image.impl;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.core.task.SyncTaskExecutor;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.util.unit.DataSize;
+import ru.skypro.homework.entity.ImageMetadata;
+import ru.skypro.homework.repository.ImageMetadataRepository;
+import ru.skypro.homework.repository.UserStorageRepository;
+import ru.skypro.homework.service.image.HotImageCache;
+import ru.skypro.homework.service.image.ImageMetadataCache;
+import ru.skypro.homework.service.image.ImageNormalizer;
+import ru.skypro.homework.service.image.ImagePathLocks;
+import ru.skypro.homework.service.image.ImageVariant;
+import ru.skypro.homework.service.image.StorageQuotaService;
+import ru.skypro.homework.service.image.ThumbnailGenerator;
+import ru.skypro.homework.service.image.storage.FileSystemImageStorage;
+import ru.skypro.homework.service.image.storage.ImageStorageLayout;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Два экземпляра сервиса с общей БД и общим хранилищем изображают два узла:
+// блокировки по пути у каждого свои, ссылки согласуются только через БД
+@ActiveProfiles("test")
+@DataJpaTest(properties = {
+        "spring.jpa.show-sql=false",
+        "logging.level.org.springframework=WARN",
+        "logging.level.ru.skypro.homework=INFO"
+})
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class ImageServiceImplTest {
+    private static final int UPLOADS_PER_NODE = 4;
+
+    @Autowired
+    private ImageMetadataRepository imageMetadataRepository;
+    @Autowired
+    private UserStorageRepository userStorageRepository;
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @TempDir
+    Path dir;
+
+    private FileSystemImageStorage storage;
+
+    @BeforeEach
+    void setUp() {
+        storage = new FileSystemImageStorage(new ImageStorageLayout(dir.toString()));
+        storage.init();
+    }
+
+    @AfterEach
+    void tearDown() {
+        imageMetadataRepository.deleteAllInBatch();
+        userStorageRepository.deleteAllInBatch();
+    }
+
+    @Test
+    void saveImage_firstUploadsOnTwoNodesCountEveryReference() throws Exception {
+        List<ImageServiceImpl> nodes = List.of(node(), node());
+        byte[] png = png();
+        CyclicBarrier start = new CyclicBarrier(nodes.size() * UPLOADS_PER_NODE);
+        ExecutorService threads = Executors.newFixedThreadPool(nodes.size() * UPLOADS_PER_NODE);
+        List<Future<String>> saves = new ArrayList<>();
+        try {
+            for (ImageServiceImpl node : nodes) {
+                for (int i = 0; i < UPLOADS_PER_NODE; i++) {
+                    saves.add(threads.submit(() -> {
+                        start.await();
+                        return node.saveImage(new MockMultipartFile("image", "a.png", "image/png", png), "ads", null);
+                    }));
+                }
+            }
+            List<String> paths = new ArrayList<>();
+            for (Future<String> save : saves) {
+                paths.add(save.get());
+            }
+
+            assertThat(paths).containsOnly(paths.get(0));
+            assertThat(refCount(paths.get(0))).isEqualTo(saves.size());
+            assertThat(storage.exists(paths.get(0))).isTrue();
+        } finally {
+            threads.shutdownNow();
+        }
+    }
+
+    @Test
+    void deleteImage_removesFileOnlyWithLastReference() throws IOException {
+        ImageServiceImpl first = node();
+        ImageServiceImpl second = node();
+        byte[] png = png();
+        String imagePath = first.saveImage(new MockMultipartFile("image", "a.png", "image/png", png), "ads", null);
+        second.saveImage(new MockMultipartFile("image", "b.png", "image/png", png), "ads", null);
+
+        first.deleteImage(imagePath, null);
+
+        assertThat(refCount(imagePath)).isEqualTo(1);
+        assertThat(storage.exists(imagePath)).isTrue();
+
+        second.deleteImage(imagePath, null);
+
+        assertThat(imageMetadataRepository.existsById(imagePath)).isFalse();
+        assertThat(storage.exists(imagePath)).isFalse();
+    }
+
+    @Test
+    void getPlaceholder_keepsReferenceCount() throws IOException {
+        ImageServiceImpl node = node();
+        byte[] png = png();
+        String imagePath = node.saveImage(new MockMultipartFile("image", "a.png", "image/png", png), "ads", null);
+        node.saveImage(new MockMultipartFile("image", "a.png", "image/png", png), "ads", null);
+        ImageMetadata stale = imageMetadataRepository.findById(imagePath).orElseThrow();
+        stale.setPlaceholder(null);
+        imageMetadataRepository.save(stale);
+        node.saveImage(new MockMultipartFile("image", "a.png", "image/png", png), "ads", null);
+
+        assertThat(node.getPlaceholder(imagePath)).startsWith("data:");
+
+        assertThat(refCount(imagePath)).isEqualTo(3);
+    }
+
+    @Test
+    void resolveVariant_readyVariantsComeFromMetadata() throws IOException {
+        ImageServiceImpl node = node();
+        String imagePath = node.saveImage(new MockMultipartFile("image", "a.png", "image/png", png()), "ads", null);
+
+        // До генерации копий - оригинал; запрос метаданных кэширует строку без копий
+        assertThat(node.resolveVariant(imagePath, 2).getWidth()).isNull();
+
+        ThumbnailGenerator generator = (ThumbnailGenerator) ReflectionTestUtils.getField(node, "thumbnailGenerator");
+        ReflectionTestUtils.invokeMethod(generator, "generate", imagePath);
+        ImageVariant variant = node.resolveVariant(imagePath, 2);
+
+        assertThat(variant.getWidth()).isEqualTo(2);
+        assertThat(variant.isExact()).isTrue();
+        assertThat(variant.getSize()).isEqualTo(storage.load(variant.getPath()).contentLength());
+        // копия шире оригинала - ссылка на него, того же размера
+        assertThat(node.resolveVariant(imagePath, 100).getSize())
+                .isEqualTo(imageMetadataRepository.findById(imagePath).orElseThrow().getSize());
+    }
+
+    private ImageServiceImpl node() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        ImageNormalizer normalizer = new ImageNormalizer(new SimpleAsyncTaskExecutor(), 2048, 50_000_000L, 0.85f,
+                registry);
+        ImageMetadataCache metadataCache = new ImageMetadataCache(100, registry);
+        // Уменьшенные копии создаются только там, где тест вызывает generate сам
+        ThumbnailGenerator thumbnails = new ThumbnailGenerator(task -> { }, storage, imageMetadataRepository,
+                metadataCache, transactionManager, new int[]{2, 160});
+        ImageServiceImpl service = new ImageServiceImpl(imageMetadataRepository,
+                new HotImageCache(1 << 20, 1 << 16, registry), thumbnails, normalizer, storage,
+                new SyncTaskExecutor(),
+                new StorageQuotaService(userStorageRepository, transactionManager, DataSize.ofMegabytes(1)),
+                metadataCache, new ImagePathLocks(), transactionManager);
+        ReflectionTestUtils.setField(service, "baseUrl", "http://localhost:8080");
+        ReflectionTestUtils.setField(service, "maxUploadSize", DataSize.ofMegabytes(1));
+        return service;
+    }
+
+    private int refCount(String imagePath) {
+        return imageMetadataRepository.findById(imagePath).map(ImageMetadata::getRefCount).orElse(0);
+    }
+
+    private static byte[] png() throws IOException {
+        BufferedImage image = new BufferedImage(8, 8, BufferedImage.TYPE_INT_RGB);
+        image.setRGB(3, 3, 0xFF0000);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", out);
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,122 @@
+package ru.skypro.homework.service.image.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.skypro.homework.repository.ImageMetadataRepository;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+
+class ClusterImageStorageTest {
+
+    private static final String SELF = "http://node1:8080";
+    private static final String NODES = "http://node1:8080,http://node2:8080,http://node3:8080";
+    private static final String SECRET = "0123456789abcdef0123";
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void constructor_rejectsBlankOrShortSecret() {
+        for (String secret : new String[]{"", "   ", "short-secret"}) {
+            assertThatThrownBy(() -> create(secret))
+                    .isInstanceOf(IllegalStateException.class)
+                    .hasMessageContaining("app.image.cluster.secret");
+        }
+    }
+
+    @Test
+    void isAuthorized_acceptsOnlyTheSecret() {
+        ClusterImageStorage storage = create(SECRET);
+
+        assertThat(storage.isAuthorized(SECRET)).isTrue();
+        assertThat(storage.isAuthorized("")).isFalse();
+        assertThat(storage.isAuthorized(null)).isFalse();
+        assertThat(storage.isAuthorized(SECRET + "x")).isFalse();
+    }
+
+    @Test
+    void releasable_keepsOwnedUnconfirmedAndDefaultImages() {
+        HashRing ring = new HashRing(List.of(NODES.split(",")), 128);
+        String owned = pathOwnedBy(ring, true);
+        String foreign = pathOwnedBy(ring, false);
+        String unconfirmed = pathOwnedBy(ring, false, foreign);
+        String defaultImage = "/images/ads/default_ad.jpg";
+
+        List<String> released = ClusterImageStorage.releasable(List.of(owned, foreign, unconfirmed, defaultImage),
+                ring, 2, SELF, Set.of(unconfirmed));
+
+        assertThat(released).containsExactly(foreign);
+    }
+
+    @Test
+    void releasable_variantFollowsItsOriginal() {
+        HashRing ring = new HashRing(List.of(NODES.split(",")), 128);
+        String owned = pathOwnedBy(ring, true);
+        String foreign = pathOwnedBy(ring, false);
+        String ownedVariant = owned.replace(".jpg", "_w320.jpg");
+        String foreignVariant = foreign.replace(".jpg", "_w320.jpg");
+
+        List<String> released = ClusterImageStorage.releasable(List.of(ownedVariant, foreignVariant),
+                ring, 2, SELF, Set.of());
+
+        assertThat(released).containsExactly(foreignVariant);
+    }
+
+    @Test
+    void releasable_keepsEverythingWithoutOwners() {
+        HashRing empty = new HashRing(List.of(), 128);
+
+        assertThat(ClusterImageStorage.releasable(List.of("/images/ads/a.jpg"), empty, 2, SELF, Set.of())).isEmpty();
+    }
+
+    @Test
+    void nodeHealth_changesMembershipOnlyAfterConsecutiveAnswers() {
+        List<String> nodes = List.of(NODES.split(","));
+        NodeHealth health = new NodeHealth(nodes, 3);
+        String node2 = nodes.get(1);
+
+        // Единичные таймауты вперемешку с ответами узел из кольца не выводят
+        assertThat(health.update(Map.of(nodes.get(0), true, node2, false, nodes.get(2), true))).contains(node2);
+        assertThat(health.update(Map.of(nodes.get(0), true, node2, false, nodes.get(2), true))).contains(node2);
+        assertThat(health.update(Map.of(nodes.get(0), true, node2, true, nodes.get(2), true))).contains(node2);
+        for (int i = 0; i < 2; i++) {
+            assertThat(health.update(Map.of(nodes.get(0), true, node2, false, nodes.get(2), true))).contains(node2);
+        }
+        assertThat(health.update(Map.of(nodes.get(0), true, node2, false, nodes.get(2), true)))
+                .containsExactly(nodes.get(0), nodes.get(2));
+
+        // Возвращается тоже после трёх ответов подряд
+        for (int i = 0; i < 2; i++) {
+            assertThat(health.update(Map.of(nodes.get(0), true, node2, true, nodes.get(2), true))).doesNotContain(node2);
+        }
+        assertThat(health.update(Map.of(nodes.get(0), true, node2, true, nodes.get(2), true)))
+                .containsExactlyElementsOf(nodes);
+    }
+
+    private ClusterImageStorage create(String secret) {
+        return new ClusterImageStorage(new ImageStorageLayout(dir.resolve("images").toString()),
+                mock(ImageMetadataRepository.class), SELF, NODES, secret, 2, 128, true,
+                dir.resolve("cache").toString(), Duration.ofDays(7), Duration.ofSeconds(1), 500, 3);
+    }
+
+    // Первый путь вида /images/ads/<n>.jpg, которым этот узел владеет (или не владеет)
+    private static String pathOwnedBy(HashRing ring, boolean self, String... exclude) {
+        for (int i = 0; ; i++) {
+            String imagePath = "/images/ads/" + i + ".jpg";
+            if (List.of(exclude).contains(imagePath)) {
+                continue;
+            }
+            if (ring.nodesFor(imagePath, 2).contains(SELF) == self) {
+                return imagePath;
+            }
+        }
+    }
+}
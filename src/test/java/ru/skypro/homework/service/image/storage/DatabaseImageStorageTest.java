@@ -0,0 +1,189 @@
+package ru.skypro.homework.service.image.storage;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.util.unit.DataSize;
+import ru.skypro.homework.repository.ImageBlobRepository;
+import ru.skypro.homework.repository.ImageChunkRepository;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+// Без общей транзакции теста: у хранилища свои транзакции, и они должны фиксироваться
+@ActiveProfiles("test")
+@DataJpaTest(properties = {
+        "spring.jpa.show-sql=false",
+        "logging.level.org.springframework=WARN",
+        "logging.level.ru.skypro.homework=INFO"
+})
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class DatabaseImageStorageTest {
+    private static final int CHUNK_SIZE = 100;
+
+    @Autowired
+    private ImageBlobRepository blobRepository;
+    @Autowired
+    private ImageChunkRepository chunkRepository;
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @TempDir
+    Path dir;
+
+    private DatabaseImageStorage storage;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        storage = new DatabaseImageStorage(blobRepository, chunkRepository, transactionManager,
+                dir.toString(), DataSize.ofBytes(CHUNK_SIZE));
+        storage.init();
+    }
+
+    @AfterEach
+    void tearDown() {
+        blobRepository.deleteAllInBatch();
+        chunkRepository.deleteAllInBatch();
+    }
+
+    @Test
+    void store_splitsContentIntoChunks() throws IOException {
+        byte[] data = content("a", CHUNK_SIZE * 3 + 17);
+
+        store("/images/ads/a.jpg", data);
+
+        assertThat(storage.exists("/images/ads/a.jpg")).isTrue();
+        assertThat(chunkRepository.count()).isEqualTo(4);
+        assertThat(storage.load("/images/ads/a.jpg").contentLength()).isEqualTo(data.length);
+        assertThat(read("/images/ads/a.jpg")).isEqualTo(data);
+        assertThat(dir).isEmptyDirectory();
+    }
+
+    @Test
+    void store_replacesPreviousContent() throws IOException {
+        store("/images/ads/a.jpg", content("a", CHUNK_SIZE * 2));
+        byte[] replacement = content("b", CHUNK_SIZE / 2);
+
+        store("/images/ads/a.jpg", replacement);
+
+        assertThat(read("/images/ads/a.jpg")).isEqualTo(replacement);
+        assertThat(chunkRepository.count()).isEqualTo(1);
+    }
+
+    @Test
+    void load_readsAcrossChunkBoundariesAndSkips() throws IOException {
+        byte[] data = content("a", CHUNK_SIZE * 3 + 17);
+        store("/images/ads/a.jpg", data);
+
+        try (InputStream in = storage.load("/images/ads/a.jpg").getInputStream()) {
+            byte[] head = in.readNBytes(CHUNK_SIZE + 10);
+            assertThat(in.skip(CHUNK_SIZE + 5)).isEqualTo(CHUNK_SIZE + 5);
+            byte[] tail = in.readAllBytes();
+
+            assertThat(head).isEqualTo(slice(data, 0, CHUNK_SIZE + 10));
+            assertThat(tail).isEqualTo(slice(data, CHUNK_SIZE * 2 + 15, data.length));
+            assertThat(in.read()).isEqualTo(-1);
+        }
+    }
+
+    @Test
+    void link_sharesContentUntilLastReferenceDeleted() throws IOException {
+        byte[] data = content("a", CHUNK_SIZE * 2 + 1);
+        store("/images/ads/a.jpg", data);
+
+        storage.link("/images/ads/a.jpg", "/images/ads/b.jpg");
+
+        assertThat(chunkRepository.count()).isEqualTo(3);
+        storage.delete("/images/ads/a.jpg");
+        assertThat(storage.exists("/images/ads/a.jpg")).isFalse();
+        assertThat(read("/images/ads/b.jpg")).isEqualTo(data);
+
+        storage.delete("/images/ads/b.jpg");
+        assertThat(storage.exists("/images/ads/b.jpg")).isFalse();
+        assertThat(chunkRepository.count()).isZero();
+    }
+
+    @Test
+    void link_missingSource_throws() {
+        assertThatThrownBy(() -> storage.link("/images/ads/none.jpg", "/images/ads/b.jpg"))
+                .isInstanceOf(NoSuchFileException.class);
+        assertThat(storage.exists("/images/ads/b.jpg")).isFalse();
+    }
+
+    @Test
+    void linkAndDelete_concurrently_neverLeaveLinkWithoutChunks() throws Exception {
+        for (int round = 0; round < 30; round++) {
+            String source = "/images/ads/s" + round + ".jpg";
+            String link = "/images/ads/l" + round + ".jpg";
+            byte[] data = content("s" + round, CHUNK_SIZE * 2);
+            store(source, data);
+
+            CountDownLatch start = new CountDownLatch(1);
+            AtomicReference<Throwable> failure = new AtomicReference<>();
+            Thread linker = new Thread(() -> {
+                try {
+                    start.await();
+                    storage.link(source, link);
+                } catch (NoSuchFileException e) {
+                    // delete успел раньше
+                } catch (Throwable e) {
+                    failure.set(e);
+                }
+            });
+            linker.start();
+            start.countDown();
+            storage.delete(source);
+            linker.join();
+
+            assertThat(failure.get()).isNull();
+            if (storage.exists(link)) {
+                assertThat(read(link)).isEqualTo(data);
+                storage.delete(link);
+            }
+            assertThat(chunkRepository.count()).isZero();
+        }
+    }
+
+    private void store(String imagePath, byte[] data) throws IOException {
+        Path temp = storage.createTempFile("ads");
+        Files.write(temp, data);
+        storage.store(imagePath, temp);
+    }
+
+    private byte[] read(String imagePath) throws IOException {
+        try (InputStream in = storage.load(imagePath).getInputStream()) {
+            return in.readAllBytes();
+        }
+    }
+
+    private static byte[] slice(byte[] data, int from, int to) {
+        byte[] result = new byte[to - from];
+        System.arraycopy(data, from, result, 0, result.length);
+        return result;
+    }
+
+    private static byte[] content(String seed, int length) {
+        byte[] data = new byte[length];
+        byte[] pattern = seed.getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (pattern[i % pattern.length] + i);
+        }
+        return data;
+    }
+}
@@ -0,0 +1,94 @@
+package ru.skypro.homework.service.image.storage;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class HashRingTest {
+
+    private static final List<String> NODES = List.of("http://node1:8080", "http://node2:8080", "http://node3:8080");
+    private static final int KEYS = 10_000;
+
+    @Test
+    void nodesFor_returnsDistinctOwnersCappedByNodeCount() {
+        HashRing ring = new HashRing(NODES, 128);
+
+        for (String key : keys()) {
+            assertThat(ring.nodesFor(key, 2)).hasSize(2).doesNotHaveDuplicates().isSubsetOf(NODES);
+            assertThat(ring.nodesFor(key, 5)).containsExactlyInAnyOrderElementsOf(NODES);
+        }
+        assertThat(new HashRing(List.of(), 128).nodesFor("/images/ads/a.jpg", 2)).isEmpty();
+    }
+
+    @Test
+    void nodesFor_sameOnEveryNodeRegardlessOfListOrder() {
+        HashRing ring = new HashRing(NODES, 128);
+        List<String> reversed = new ArrayList<>(NODES);
+        Collections.reverse(reversed);
+        HashRing other = new HashRing(reversed, 128);
+
+        for (String key : keys()) {
+            assertThat(other.nodesFor(key, 2)).isEqualTo(ring.nodesFor(key, 2));
+        }
+    }
+
+    @Test
+    void nodesFor_spreadsKeysEvenly() {
+        HashRing ring = new HashRing(NODES, 128);
+        int[] primary = new int[NODES.size()];
+        for (String key : keys()) {
+            primary[NODES.indexOf(ring.nodesFor(key, 1).get(0))]++;
+        }
+        for (int count : primary) {
+            assertThat(count).isBetween(KEYS / NODES.size() * 7 / 10, KEYS / NODES.size() * 13 / 10);
+        }
+    }
+
+    @Test
+    void addingNode_movesOnlyKeysToTheNewNode() {
+        HashRing before = new HashRing(NODES, 128);
+        List<String> grown = new ArrayList<>(NODES);
+        grown.add("http://node4:8080");
+        HashRing after = new HashRing(grown, 128);
+
+        int moved = 0;
+        for (String key : keys()) {
+            String was = before.nodesFor(key, 1).get(0);
+            String now = after.nodesFor(key, 1).get(0);
+            if (!was.equals(now)) {
+                assertThat(now).isEqualTo("http://node4:8080");
+                moved++;
+            }
+        }
+        // примерно 1/4 ключей
+        assertThat(moved).isBetween(KEYS / 4 * 7 / 10, KEYS / 4 * 13 / 10);
+    }
+
+    @Test
+    void removingNode_keepsOwnersOfOtherKeys() {
+        HashRing before = new HashRing(NODES, 128);
+        HashRing after = new HashRing(NODES.subList(0, 2), 128);
+
+        for (String key : keys()) {
+            List<String> was = before.nodesFor(key, 2);
+            List<String> now = after.nodesFor(key, 2);
+            // оставшиеся владельцы сохраняются, ушедший заменяется
+            List<String> kept = new ArrayList<>(was);
+            kept.remove("http://node3:8080");
+            assertThat(now).containsAll(kept);
+            assertThat(now).doesNotContain("http://node3:8080");
+        }
+    }
+
+    private static List<String> keys() {
+        List<String> keys = new ArrayList<>(KEYS);
+        for (int i = 0; i < KEYS; i++) {
+            keys.add("/images/ads/" + i + ".jpg");
+        }
+        return keys;
+    }
+}
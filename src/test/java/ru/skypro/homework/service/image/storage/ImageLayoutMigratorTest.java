@@ -0,0 +1,93 @@
+package ru.skypro.homework.service.image.storage;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+import ru.skypro.homework.service.image.ImagePathLocks;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ImageLayoutMigratorTest {
+
+    @TempDir
+    Path root;
+
+    private ImageStorageLayout layout;
+    private ImageLayoutMigrator migrator;
+
+    @BeforeEach
+    void setUp() {
+        layout = new ImageStorageLayout(root.toString());
+        migrator = new ImageLayoutMigrator(layout, new ImagePathLocks());
+        ReflectionTestUtils.setField(migrator, "enabled", true);
+        ReflectionTestUtils.setField(migrator, "batchSize", 2);
+        ReflectionTestUtils.setField(migrator, "pauseMs", 0L);
+        ReflectionTestUtils.setField(migrator, "maxBatchesPerRun", 10);
+    }
+
+    @Test
+    void migrate_movesFlatFilesIntoShards() throws IOException {
+        Path a = write("/images/ads/a.jpg", "a");
+        Path b = write("/images/ads/b_w160.jpg", "b");
+        Path c = write("/images/avatars/c.png", "c");
+
+        migrator.migrate();
+
+        assertThat(a).doesNotExist();
+        assertThat(b).doesNotExist();
+        assertThat(c).doesNotExist();
+        assertThat(layout.resolve("/images/ads/a.jpg")).hasContent("a");
+        assertThat(layout.resolve("/images/ads/b_w160.jpg")).hasContent("b");
+        assertThat(layout.resolve("/images/avatars/c.png")).hasContent("c");
+    }
+
+    @Test
+    void relocate_sameFileAlreadyAtTarget_removesFlatCopy() throws IOException {
+        // Прерванный запуск: файл уже по новому пути, старая копия осталась
+        Path flat = write("/images/ads/a.jpg", "a");
+        Path target = layout.resolve("/images/ads/a.jpg");
+        Files.createDirectories(target.getParent());
+        Files.copy(flat, target);
+
+        assertThat(migrator.relocate(flat)).isTrue();
+
+        assertThat(flat).doesNotExist();
+        assertThat(target).hasContent("a");
+    }
+
+    @Test
+    void relocate_differentFileAtTarget_keepsBoth() throws IOException {
+        Path flat = write("/images/ads/a.jpg", "old");
+        Path target = layout.resolve("/images/ads/a.jpg");
+        Files.createDirectories(target.getParent());
+        Files.writeString(target, "new");
+
+        assertThat(migrator.relocate(flat)).isFalse();
+        // Повторный запуск не зацикливается на файле, который перенести нельзя
+        migrator.migrate();
+
+        assertThat(flat).hasContent("old");
+        assertThat(target).hasContent("new");
+    }
+
+    @Test
+    void relocate_deletedFile_skipped() throws IOException {
+        Path flat = write("/images/ads/a.jpg", "a");
+        Files.delete(flat);
+
+        assertThat(migrator.relocate(flat)).isFalse();
+        assertThat(layout.resolve("/images/ads/a.jpg")).doesNotExist();
+    }
+
+    private Path write(String imagePath, String content) throws IOException {
+        Path file = layout.legacyPath(imagePath);
+        Files.createDirectories(file.getParent());
+        return Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+    }
+}
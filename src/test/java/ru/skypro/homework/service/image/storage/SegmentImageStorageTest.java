@@ -0,0 +1,218 @@
+package ru.skypro.homework.service.image.storage;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class SegmentImageStorageTest {
+
+    @TempDir
+    Path dir;
+
+    private final List<SegmentImageStorage> opened = new ArrayList<>();
+
+    @AfterEach
+    void tearDown() {
+        opened.forEach(SegmentImageStorage::close);
+    }
+
+    @Test
+    void init_truncatesTornTailAfterSnapshot() throws IOException {
+        SegmentImageStorage storage = open(DataSize.ofMegabytes(1));
+        store(storage, "/images/ads/a.jpg", content("a", 100));
+        close(storage);
+        Path segment = dir.resolve("segment-000001.dat");
+        long intact = Files.size(segment);
+        // Запись PUT, оборванная на середине данных
+        appendTornRecord(segment, "/images/ads/b.jpg", 1000, 10);
+
+        SegmentImageStorage reopened = open(DataSize.ofMegabytes(1));
+
+        assertThat(Files.size(segment)).isEqualTo(intact);
+        assertThat(read(reopened, "/images/ads/a.jpg")).isEqualTo(content("a", 100));
+        assertThat(reopened.exists("/images/ads/b.jpg")).isFalse();
+        store(reopened, "/images/ads/c.jpg", content("c", 50));
+        close(reopened);
+        assertThat(read(open(DataSize.ofMegabytes(1)), "/images/ads/c.jpg")).isEqualTo(content("c", 50));
+    }
+
+    @Test
+    void init_dropsRecordWithBadCrcWithoutSnapshot() throws IOException {
+        SegmentImageStorage storage = open(DataSize.ofMegabytes(1));
+        store(storage, "/images/ads/a.jpg", content("a", 100));
+        store(storage, "/images/ads/b.jpg", content("b", 100));
+        close(storage);
+        Files.delete(dir.resolve("index.snapshot"));
+        // Последние байты записи b (данные и CRC) не дошли до диска
+        Path segment = dir.resolve("segment-000001.dat");
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 7);
+        }
+
+        SegmentImageStorage reopened = open(DataSize.ofMegabytes(1));
+
+        assertThat(read(reopened, "/images/ads/a.jpg")).isEqualTo(content("a", 100));
+        assertThat(reopened.exists("/images/ads/b.jpg")).isFalse();
+    }
+
+    @Test
+    void init_loadsSnapshotAndReplaysLaterRecords() throws IOException {
+        SegmentImageStorage storage = open(DataSize.ofMegabytes(1));
+        store(storage, "/images/ads/a.jpg", content("a", 100));
+        store(storage, "/images/ads/b.jpg", content("b", 100));
+        storage.compact();
+        assertThat(dir.resolve("index.snapshot")).exists();
+
+        // После снимка - без close(), как при аварийной остановке
+        store(storage, "/images/ads/c.jpg", content("c", 100));
+        storage.link("/images/ads/a.jpg", "/images/ads/d.jpg");
+        storage.delete("/images/ads/b.jpg");
+
+        SegmentImageStorage reopened = open(DataSize.ofMegabytes(1));
+
+        assertThat(keys(reopened)).containsExactly("/images/ads/a.jpg", "/images/ads/c.jpg", "/images/ads/d.jpg");
+        assertThat(read(reopened, "/images/ads/a.jpg")).isEqualTo(content("a", 100));
+        assertThat(read(reopened, "/images/ads/c.jpg")).isEqualTo(content("c", 100));
+        assertThat(read(reopened, "/images/ads/d.jpg")).isEqualTo(content("a", 100));
+        assertThatThrownBy(() -> reopened.load("/images/ads/b.jpg")).isInstanceOf(NoSuchFileException.class);
+    }
+
+    @Test
+    void compact_keepsKeysLinkedAndDeletedConcurrently() throws Exception {
+        for (int round = 0; round < 20; round++) {
+            Path roundDir = Files.createDirectories(dir.resolve("round-" + round));
+            SegmentImageStorage storage = open(roundDir, DataSize.ofKilobytes(4));
+            Map<String, byte[]> expected = new ConcurrentHashMap<>();
+            List<String> originals = new ArrayList<>();
+            for (int i = 0; i < 60; i++) {
+                String key = "/images/ads/o" + i + ".jpg";
+                byte[] data = content("o" + i, 300);
+                store(storage, key, data);
+                if (i % 2 == 0) {
+                    storage.delete(key);
+                } else {
+                    originals.add(key);
+                    expected.put(key, data);
+                }
+            }
+
+            AtomicBoolean done = new AtomicBoolean();
+            AtomicReference<Throwable> failure = new AtomicReference<>();
+            Thread writer = new Thread(() -> {
+                try {
+                    for (int n = 0; !done.get() || n < 200; n++) {
+                        String source = originals.get(n % originals.size());
+                        String link = "/images/ads/l" + n + ".jpg";
+                        try {
+                            storage.link(source, link);
+                            expected.put(link, expected.get(source));
+                        } catch (NoSuchFileException e) {
+                            // источник удалён этим же потоком
+                        }
+                        if (n % 3 == 0) {
+                            String deleted = n % 9 == 0 ? source : "/images/ads/l" + (n / 2) + ".jpg";
+                            storage.delete(deleted);
+                            expected.remove(deleted);
+                        }
+                    }
+                } catch (Throwable e) {
+                    failure.set(e);
+                }
+            });
+            writer.start();
+            storage.compact();
+            done.set(true);
+            writer.join();
+            assertThat(failure.get()).isNull();
+
+            assertContents(storage, expected);
+            close(storage);
+            assertContents(open(roundDir, DataSize.ofKilobytes(4)), expected);
+        }
+    }
+
+    private void assertContents(SegmentImageStorage storage, Map<String, byte[]> expected) throws IOException {
+        assertThat(keys(storage)).containsExactlyInAnyOrderElementsOf(expected.keySet());
+        for (Map.Entry<String, byte[]> entry : expected.entrySet()) {
+            assertThat(storage.exists(entry.getKey())).isTrue();
+            assertThat(read(storage, entry.getKey())).as(entry.getKey()).isEqualTo(entry.getValue());
+        }
+    }
+
+    private SegmentImageStorage open(DataSize maxSegmentBytes) throws IOException {
+        return open(dir, maxSegmentBytes);
+    }
+
+    private SegmentImageStorage open(Path directory, DataSize maxSegmentBytes) throws IOException {
+        SegmentImageStorage storage = new SegmentImageStorage(directory.toString(), maxSegmentBytes, false, 0.5);
+        storage.init();
+        opened.add(storage);
+        return storage;
+    }
+
+    private void close(SegmentImageStorage storage) {
+        opened.remove(storage);
+        storage.close();
+    }
+
+    private static void store(SegmentImageStorage storage, String key, byte[] data) throws IOException {
+        Path temp = storage.createTempFile("ads");
+        Files.write(temp, data);
+        storage.store(key, temp);
+    }
+
+    private static byte[] read(SegmentImageStorage storage, String key) throws IOException {
+        try (InputStream in = storage.load(key).getInputStream()) {
+            return in.readAllBytes();
+        }
+    }
+
+    private static List<String> keys(SegmentImageStorage storage) {
+        return storage.list(null, 10_000).stream().map(StoredImage::getPath).collect(Collectors.toList());
+    }
+
+    private static byte[] content(String seed, int length) {
+        byte[] data = new byte[length];
+        byte[] pattern = seed.getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (pattern[i % pattern.length] + i);
+        }
+        return data;
+    }
+
+    // Заголовок PUT с заявленной длиной данных и только written байт из них
+    private static void appendTornRecord(Path segment, String key, long declaredLength, int written) throws IOException {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer record = ByteBuffer.allocate(1 + 2 + keyBytes.length + 8 + 8 + written)
+                .put((byte) 1).putShort((short) keyBytes.length).put(keyBytes)
+                .putLong(System.currentTimeMillis()).putLong(declaredLength);
+        record.position(record.capacity());
+        record.flip();
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            while (record.hasRemaining()) {
+                channel.write(record);
+            }
+        }
+    }
+}